@@ -60,6 +60,9 @@ import java.net.URLConnection;
 import java.net.URLDecoder;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
 
 public class UrlUtils {
 
@@ -318,6 +321,33 @@ public class UrlUtils {
         return false;
     }
 
+    /**
+     * Returns a key for hashing URLs compatible with {@link #urlEquals}: two
+     * URLs whose keys are equal are {@code urlEquals}. The key is taken from
+     * the normalized form, so it is not guaranteed the other way round for
+     * URLs equal only in their raw form but normalized differently.
+     *
+     * @param url the URL, may be null
+     * @return list of protocol, host, path, query and reference
+     */
+    public static List<String> getUrlEqualsKey(URL url) {
+        if (url == null) {
+            return null;
+        }
+        URL nu = url;
+        try {
+            nu = normalizeUrl(url);
+        } catch (Exception ex) {
+            // compared as is
+        }
+        return Arrays.asList(
+                nu.getProtocol() == null ? null : nu.getProtocol().toLowerCase(Locale.ENGLISH),
+                nu.getHost() == null ? null : nu.getHost().toLowerCase(Locale.ENGLISH),
+                nu.getPath(),
+                nu.getQuery(),
+                nu.getRef());
+    }
+
     static boolean notNullUrlEquals(URL u1, URL u2) {
         return compareNullableStrings(u1.getProtocol(), u2.getProtocol(), true)
                 && compareNullableStrings(u1.getHost(), u2.getHost(), true)
@@ -121,14 +121,20 @@ public class LockedFile {
      * @throws java.io.IOException
      */
     public void lock() throws IOException {
-        // Create if does not already exist, cannot lock non-existing file
-        if (!isReadOnly()) {
-            this.file.createNewFile();
-        }
-
         this.threadLock.lock();
 
-        lockProcess();
+        try {
+            // Create if does not already exist, cannot lock non-existing file.
+            // Only once holding the lock, not to recreate a file the holder deleted.
+            if (!isReadOnly()) {
+                this.file.createNewFile();
+            }
+
+            lockProcess();
+        } catch (IOException | RuntimeException ex) {
+            this.threadLock.unlock();
+            throw ex;
+        }
     }
 
     public boolean tryLock() throws IOException {
@@ -200,10 +206,15 @@ public class LockedFile {
         /*Comment why itis different*/
         @Override
         public void lock() throws IOException {
-            if (!isReadOnly()) {
-                super.file.createNewFile();
-            }
             super.threadLock.lock();
+            try {
+                if (!isReadOnly()) {
+                    super.file.createNewFile();
+                }
+            } catch (IOException | RuntimeException ex) {
+                super.threadLock.unlock();
+                throw ex;
+            }
         }
 
         /*Comment why itis different*/
@@ -25,6 +25,7 @@ package net.sourceforge.jnlp;
 import net.sourceforge.jnlp.cache.ResourceTracker;
 import net.sourceforge.jnlp.cache.UpdatePolicy;
 import net.sourceforge.jnlp.parser.Parser;
+import net.sourceforge.jnlp.parser.ParserCache;
 import net.sourceforge.jnlp.parser.ParserSettings;
 import net.sourceforge.jnlp.runtime.JNLPRuntime;
 import org.slf4j.Logger;
@@ -32,6 +33,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -59,9 +61,9 @@ public class JNLPCreator {
     }
 
     public JNLPFile create(URL location, Version version, ParserSettings parserSettings, UpdatePolicy policy, URL forceCodebase) throws IOException, ParseException {
-        InputStream input = JNLPCreator.openURL(location, version, policy);
+        File file = JNLPCreator.getCacheFile(location, version, policy);
 
-        final JNLPFile jnlpFile = doCreate(input, location, forceCodebase, parserSettings);
+        final JNLPFile jnlpFile = doCreate(getRootNode(file, parserSettings), location, forceCodebase, parserSettings);
 
         //Downloads the original jnlp file into the cache if possible
         //(i.e. If the jnlp file being launched exist locally, but it
@@ -99,12 +101,29 @@ public class JNLPCreator {
         return doCreate(input, null, codebase, settings);
     }
 
+    /**
+     * Parses the cached JNLP file, or takes the tree recorded when it was
+     * parsed before, see {@link ParserCache}.
+     */
+    private static Node getRootNode(File file, ParserSettings parserSettings) throws IOException, ParseException {
+        if (ParserCache.isEnabled()) {
+            return ParserCache.getInstance().getRootNode(file, parserSettings);
+        }
+        try (InputStream input = new FileInputStream(file)) {
+            return Parser.getRootNode(input, parserSettings);
+        }
+    }
+
     private JNLPFile doCreate(InputStream input, URL location, URL forceCodebase, ParserSettings parserSettings)
             throws ParseException {
+        return doCreate(Parser.getRootNode(input, parserSettings), location, forceCodebase, parserSettings);
+    }
+
+    private JNLPFile doCreate(Node root, URL location, URL forceCodebase, ParserSettings parserSettings)
+            throws ParseException {
         try {
             JNLPFile jnlpFile = new JNLPFile();
 
-            Node root = Parser.getRootNode(input, parserSettings);
             Parser parser = new Parser(jnlpFile, location, root, parserSettings, forceCodebase); // true == allow extensions
 
             jnlpFile.setSpecVersion(parser.getSpecVersion());
@@ -144,6 +163,24 @@ public class JNLPCreator {
      * @throws IOException  if something goes wrong
      */
     public static InputStream openURL(URL location, Version version, UpdatePolicy policy) throws IOException {
+        File f = getCacheFile(location, version, policy);
+        try {
+            return new FileInputStream(f);
+        } catch (Exception ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Finds the jnlp file URL in the cache, downloading it to the cache
+     * first unless it is there, see {@link #openURL(URL, Version, UpdatePolicy)}.
+     * @param location of resource
+     * @param version of resource
+     * @param policy update policy of resource
+     * @return the cached file
+     * @throws IOException  if something goes wrong
+     */
+    public static File getCacheFile(URL location, Version version, UpdatePolicy policy) throws IOException {
         if (location == null || policy == null)
             throw new IllegalArgumentException(R("NullParameter"));
 
@@ -151,7 +188,10 @@ public class JNLPCreator {
             ResourceTracker tracker = new ResourceTracker(false); // no prefetch
             tracker.addResource(location, version, null, policy);
             File f = tracker.getCacheFile(location);
-            return new FileInputStream(f);
+            if (f == null) {
+                throw new FileNotFoundException(location.toString());
+            }
+            return f;
         } catch (Exception ex) {
             throw new IOException(ex);
         }
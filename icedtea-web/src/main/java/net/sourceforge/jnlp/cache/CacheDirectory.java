@@ -62,7 +62,7 @@ public final class CacheDirectory {
     public static void getDirStructure(DirectoryNode root) {
         for (File f : root.getFile().listFiles()) {
             DirectoryNode node = new DirectoryNode(f.getName(), f, root);
-            if (f.isDirectory() || (!f.isDirectory() && !f.getName().endsWith(INFO_SUFFIX)))
+            if (f.isDirectory() || (!f.isDirectory() && !f.getName().endsWith(INFO_SUFFIX) && !f.getName().endsWith(ClassIndex.SUFFIX)))
                 root.addChild(node);
             if (f.isDirectory())
                 getDirStructure(node);
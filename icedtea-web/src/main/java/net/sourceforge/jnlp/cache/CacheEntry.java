@@ -22,6 +22,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.net.MalformedURLException;
 import java.net.URL;
 
 import static net.sourceforge.jnlp.runtime.Translator.R;
@@ -44,6 +45,10 @@ public class CacheEntry {
     private static final String KEY_LAST_MODIFIED = "last-modified";
     private static final String KEY_LAST_UPDATED = "last-updated";
     public static final String KEY_JNLP_PATH = "jnlp-path";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_DOWNLOAD_LOCATION = "download-location";
+    private static final String KEY_PART_VALIDATOR = "part-validator";
+    private static final String KEY_PART_SOURCE = "part-source";
 
     /** the remote resource location */
     private final URL location;
@@ -112,6 +117,80 @@ public class CacheEntry {
         setLongKey(KEY_CONTENT_LENGTH, length);
     }
 
+    /**
+     * @return the entity tag the server sent with the cached content, or
+     * {@code null} if none
+     */
+    public String getETag() {
+        return properties.getProperty(KEY_ETAG);
+    }
+
+    public void setETag(String etag) {
+        if (etag == null) {
+            removeKey(KEY_ETAG);
+        } else {
+            properties.setProperty(KEY_ETAG, etag);
+        }
+    }
+
+    /**
+     * @return the URL the cached content was downloaded from, which may
+     * differ from the location for versioned or packed jars, or {@code null}
+     * if not known
+     */
+    public URL getDownloadLocation() {
+        String location = properties.getProperty(KEY_DOWNLOAD_LOCATION);
+        if (location == null) {
+            return null;
+        }
+        try {
+            return new URL(location);
+        } catch (MalformedURLException ex) {
+            LOG.debug("Invalid download location " + location + " of " + this.location);
+            return null;
+        }
+    }
+
+    public void setDownloadLocation(URL downloadLocation) {
+        if (downloadLocation == null) {
+            removeKey(KEY_DOWNLOAD_LOCATION);
+        } else {
+            properties.setProperty(KEY_DOWNLOAD_LOCATION, downloadLocation.toExternalForm());
+        }
+    }
+
+    /**
+     * @return the entity tag, or else the modification date, the server sent
+     * with the partial download in the {@link PartialDownload#PART_SUFFIX}
+     * file next to the cache file, or {@code null} if there is none to resume
+     */
+    public String getPartValidator() {
+        return properties.getProperty(KEY_PART_VALIDATOR);
+    }
+
+    /**
+     * @return the location the partial download was read from, or
+     * {@code null} if there is none to resume
+     */
+    public String getPartSource() {
+        return properties.getProperty(KEY_PART_SOURCE);
+    }
+
+    /**
+     * @param validator the entity tag, or else the modification date, of the
+     * partial download, {@code null} if there is none to resume
+     * @param source the location the partial download is read from
+     */
+    public void setPartValidator(String validator, URL source) {
+        if (validator == null) {
+            removeKey(KEY_PART_VALIDATOR);
+            removeKey(KEY_PART_SOURCE);
+        } else {
+            properties.setProperty(KEY_PART_VALIDATOR, validator);
+            properties.setProperty(KEY_PART_SOURCE, source.toExternalForm());
+        }
+    }
+
     public void setJnlpPath(String jnlpPath) {
     	properties.setProperty(KEY_JNLP_PATH, jnlpPath);
     }
@@ -160,6 +239,13 @@ public class CacheEntry {
         properties.setProperty(key, Long.toString(value));
     }
 
+    private void removeKey(String key) {
+        // reading loads the file first, which would bring the key back later
+        if (properties.getProperty(key) != null) {
+            properties.remove(key);
+        }
+    }
+
     /**
      * Returns whether there is a version of the URL contents in
      * the cache and it is up to date.
@@ -0,0 +1,419 @@
+package net.sourceforge.jnlp.cache;
+
+import net.sourceforge.jnlp.config.DeploymentConfiguration;
+import net.sourceforge.jnlp.runtime.JNLPRuntime;
+import net.sourceforge.jnlp.util.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the cache below {@link DeploymentConfiguration#KEY_CACHE_MAX_SIZE}.
+ *
+ * The sizes of the cached files are tracked by the {@link CacheLRUWrapper},
+ * files of unknown size are measured here, in batches and without holding the
+ * lock. Once the total crosses the limit, the least recently used items and
+ * outdated copies of resources are evicted until the cache is a tenth below
+ * the limit, so that not every download causes another eviction. Entries
+ * whose file is gone are removed before.
+ *
+ * Each batch holds the lock about {@link #TIME_SLICE_MILLIS}, half of it to
+ * select items and half of it to delete their folders, so that nobody
+ * clearing or reading the cache meanwhile sees items half deleted. Folders
+ * not deleted within the slice are deleted by the next batch, before it
+ * selects more items. Eviction stops once the recently_used file is moved,
+ * e.g. to another cache directory. The work is done on a
+ * low priority daemon thread. As deleting jars used by a running
+ * application can be disastrous, items are deleted only if no instance of
+ * javaws is running (see {@link CacheUtil#okToEvict()}), and items used since
+ * this JVM was started are kept. Otherwise the eviction is left to
+ * {@link CacheUtil#trimCache()} when the runtime exits, which then only has to
+ * delete, as the sizes are known already.
+ */
+public class CacheEvictor {
+
+    private final static Logger LOG = LoggerFactory.getLogger(CacheEvictor.class);
+
+    static final int BATCH_SIZE = 64;
+    static final long TIME_SLICE_MILLIS = 50;
+
+    private static class CacheEvictorHolder {
+
+        private static final CacheEvictor INSTANCE = new CacheEvictor(CacheLRUWrapper.getInstance(), Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "itw-cache-evictor");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        }));
+    }
+
+    private final CacheLRUWrapper lruHandler;
+    private final Executor executor;
+    /* items used since then may belong to an application of this JVM */
+    private final long startTime;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong measuredItems = new AtomicLong();
+    private final AtomicLong evictedItems = new AtomicLong();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+
+    CacheEvictor(CacheLRUWrapper lruHandler, Executor executor) {
+        this(lruHandler, executor, ManagementFactory.getRuntimeMXBean().getStartTime());
+    }
+
+    CacheEvictor(CacheLRUWrapper lruHandler, Executor executor, long startTime) {
+        this.lruHandler = lruHandler;
+        this.executor = executor;
+        this.startTime = startTime;
+    }
+
+    public static CacheEvictor getInstance() {
+        return CacheEvictorHolder.INSTANCE;
+    }
+
+    /**
+     * To be called once a cached file was written. Records its size and
+     * starts the eviction if the cache grew over its limit.
+     *
+     * @param file the cached file
+     */
+    public void sizeChanged(File file) {
+        if (file == null) {
+            return;
+        }
+        lruHandler.setSize(file.getPath(), file.length());
+        if (isOverLimit() || lruHandler.getUnsizedCount() > 0) {
+            requestEviction();
+        }
+    }
+
+    /**
+     * Starts measuring and eviction in background, unless already pending.
+     */
+    public void requestEviction() {
+        if (!scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        final File recentlyUsed = lruHandler.getRecentlyUsedFile().getFile();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                scheduled.set(false);
+                if (isMoved(recentlyUsed)) {
+                    LOG.debug("Eviction skipped, the cache was moved from " + recentlyUsed);
+                    return;
+                }
+                try {
+                    evict(recentlyUsed, startTime, CacheUtil.okToEvict());
+                } catch (Exception ex) {
+                    LOG.error("ERROR", ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * Measures and evicts in the calling thread, including items used by this
+     * JVM. Must only be called if no application uses the cache anymore.
+     */
+    public void evictNow() {
+        evict(lruHandler.getRecentlyUsedFile().getFile(), Long.MAX_VALUE, true);
+    }
+
+    /**
+     * @return true if the known size of the cache exceeds the limit
+     */
+    public boolean isOverLimit() {
+        long max = getMaxSize();
+        return max >= 0 && lruHandler.getCacheSize() > max;
+    }
+
+    /**
+     * @return true while measuring or evicting
+     */
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * @return number of bytes to be evicted to get the cache to the desired
+     * size, 0 if it is below
+     */
+    public long getRemainingBytes() {
+        long max = getMaxSize();
+        return max < 0 ? 0 : Math.max(0, lruHandler.getCacheSize() - lowWaterMark(max));
+    }
+
+    /**
+     * @return number of items whose size was measured by this evictor
+     */
+    public long getMeasuredItems() {
+        return measuredItems.get();
+    }
+
+    /**
+     * @return number of items evicted by this evictor
+     */
+    public long getEvictedItems() {
+        return evictedItems.get();
+    }
+
+    /**
+     * @return number of bytes freed by this evictor
+     */
+    public long getReclaimedBytes() {
+        return reclaimedBytes.get();
+    }
+
+    /**
+     * @return maximal size of the cache in bytes, negative for unlimited
+     */
+    long getMaxSize() {
+        long maxSize = -1; // Default
+        try {
+            maxSize = Long.parseLong(JNLPRuntime.getConfiguration().getProperty(DeploymentConfiguration.KEY_CACHE_MAX_SIZE));
+        } catch (NumberFormatException nfe) {
+        }
+        return maxSize < 0 ? -1 : maxSize << 20; // Convert from megabyte to byte
+    }
+
+    private static long lowWaterMark(long max) {
+        return max - max / 10;
+    }
+
+    /**
+     * @return true if the recently_used file is not the given one anymore
+     */
+    private boolean isMoved(File recentlyUsed) {
+        return !recentlyUsed.equals(lruHandler.getRecentlyUsedFile().getFile());
+    }
+
+    private void evict(File recentlyUsed, long protectedSince, boolean delete) {
+        running.set(true);
+        try {
+            measure();
+            if (delete) {
+                boolean removed = removeMissing(recentlyUsed, protectedSince) > 0;
+                removed |= evictItems(recentlyUsed, protectedSince);
+                if (removed && ContentStore.isEnabled()) {
+                    ContentStore.getInstance().collect();
+                }
+            } else if (isOverLimit() || !lruHandler.getOutdatedCopies(1).isEmpty()) {
+                LOG.debug("Eviction postponed, the cache may be used by running applications");
+            }
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private void measure() {
+        while (true) {
+            List<String> paths = lruHandler.getUnsizedPaths(BATCH_SIZE);
+            if (paths.isEmpty()) {
+                return;
+            }
+            for (String path : paths) {
+                // missing files, e.g. downloads in progress, count as empty until written
+                lruHandler.setSize(path, new File(path).length());
+                measuredItems.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Removes the entries of items whose file is gone, e.g. deleted by hand.
+     * The files are checked without holding the lock, only the entries still
+     * pointing to a missing file are removed under the lock.
+     *
+     * @param recentlyUsed the recently_used file the entries were read from
+     * @param protectedSince entries used since then are kept, as their file
+     * may still be downloaded
+     * @return number of removed entries
+     */
+    private int removeMissing(File recentlyUsed, long protectedSince) {
+        List<Entry<String, String>> entries;
+        lruHandler.lock();
+        try {
+            if (isMoved(recentlyUsed)) {
+                return 0;
+            }
+            lruHandler.load();
+            entries = lruHandler.getLRUSortedEntries();
+        } finally {
+            lruHandler.unlock();
+        }
+        List<Entry<String, String>> missing = new ArrayList<>();
+        for (Entry<String, String> e : entries) {
+            if (CacheIndex.parseTimestamp(e.getKey()) < protectedSince && !new File(e.getValue()).isFile()) {
+                missing.add(e);
+            }
+        }
+        if (missing.isEmpty()) {
+            return 0;
+        }
+        List<String> folders = new ArrayList<>();
+        int removed = 0;
+        lruHandler.lock();
+        try {
+            if (isMoved(recentlyUsed)) {
+                return 0;
+            }
+            lruHandler.load();
+            for (Entry<String, String> e : missing) {
+                // the entry may have been used or replaced meanwhile
+                if (e.getValue().equals(lruHandler.getValue(e.getKey())) && !new File(e.getValue()).isFile()
+                        && lruHandler.removeEntry(e.getKey())) {
+                    String folder = getFolder(e.getValue());
+                    if (folder != null) {
+                        folders.add(folder);
+                    }
+                    removed++;
+                }
+            }
+            lruHandler.store();
+            while (!folders.isEmpty()) {
+                delete(folders);
+            }
+        } finally {
+            lruHandler.unlock();
+        }
+        LOG.debug("Removed " + removed + " cache entries of missing files");
+        return removed;
+    }
+
+    /**
+     * @return true if any item was evicted
+     */
+    private boolean evictItems(File recentlyUsed, long protectedSince) {
+        boolean evicted = false;
+        /* folders of evicted items, not deleted yet */
+        List<String> folders = new ArrayList<>();
+        while (true) {
+            boolean done = false;
+            lruHandler.lock();
+            try {
+                if (isMoved(recentlyUsed)) {
+                    LOG.debug("Eviction stopped, the cache was moved from " + recentlyUsed);
+                    return evicted;
+                }
+                if (folders.isEmpty()) {
+                    lruHandler.load();
+                    done = select(protectedSince, folders) == 0;
+                    lruHandler.store();
+                }
+                delete(folders);
+            } finally {
+                lruHandler.unlock();
+            }
+            if (done) {
+                return evicted;
+            }
+            evicted = true;
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Removes the entries of the items to be evicted next, for about half of
+     * the time slice.
+     *
+     * @param protectedSince items used since then are kept
+     * @param folders where to add the folders of the removed items
+     * @return number of removed entries
+     */
+    private int select(long protectedSince, List<String> folders) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIME_SLICE_MILLIS / 2);
+        int removed = 0;
+        for (Entry<String, String> e : lruHandler.getOutdatedCopies(BATCH_SIZE)) {
+            if (System.nanoTime() > deadline) {
+                break;
+            }
+            if (remove(e, folders)) {
+                removed++;
+            }
+        }
+        long max = getMaxSize();
+        if (max >= 0 && removed < BATCH_SIZE) {
+            for (Entry<String, String> e : lruHandler.getLeastRecentEntries(BATCH_SIZE - removed)) {
+                if (lruHandler.getCacheSize() <= lowWaterMark(max) || System.nanoTime() > deadline
+                        || CacheIndex.parseTimestamp(e.getKey()) >= protectedSince) {
+                    break;
+                }
+                if (remove(e, folders)) {
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Deletes folders of evicted items for about half of the time slice, at
+     * least one. Deleted folders, and folders which could not be deleted,
+     * are taken from the list, the others are left to the next batch.
+     *
+     * @param folders folders of evicted items
+     */
+    private void delete(List<String> folders) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIME_SLICE_MILLIS / 2);
+        List<String> deleted = new ArrayList<>();
+        Iterator<String> it = folders.iterator();
+        while (it.hasNext()) {
+            File f = new File(it.next());
+            try {
+                FileUtils.recursiveDelete(f, f);
+                deleted.add(f.getPath());
+            } catch (IOException ex) {
+                LOG.error("ERROR", ex);
+            }
+            it.remove();
+            if (System.nanoTime() > deadline) {
+                break;
+            }
+        }
+        lruHandler.releaseCacheFolders(deleted);
+    }
+
+    private boolean remove(Entry<String, String> e, List<String> folders) {
+        long size = lruHandler.getSize(e.getValue());
+        if (!lruHandler.removeEntry(e.getKey())) {
+            return false;
+        }
+        String folder = getFolder(e.getValue());
+        if (folder != null) {
+            folders.add(folder);
+        }
+        evictedItems.incrementAndGet();
+        reclaimedBytes.addAndGet(Math.max(0, size));
+        return true;
+    }
+
+    /**
+     * @return the numbered folder of the cache directory holding the item, or
+     * {@code null} if the item is not inside one
+     */
+    private String getFolder(String path) {
+        String cacheDir = lruHandler.getCacheDir().getFullPath();
+        if (!path.startsWith(cacheDir + File.separator)) {
+            return null;
+        }
+        int end = path.indexOf(File.separatorChar, cacheDir.length() + 1);
+        return end < 0 ? null : path.substring(0, end);
+    }
+}
@@ -0,0 +1,144 @@
+package net.sourceforge.jnlp.cache;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Writes files of the cache through {@link FileChannel}s.
+ *
+ * Streams are read into direct buffers taken from a small pool, which the
+ * channel writes as they are; a heap array would be copied into a temporary
+ * direct buffer by each write first. A file is preallocated to its length,
+ * if known, before it is written. Copies from file to file are left to
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * which the operating system may do without passing the bytes through the
+ * process at all.
+ */
+public final class CacheIO {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /** most buffers kept for reuse */
+    private static final int POOL_SIZE = 16;
+
+    private static final Queue<ByteBuffer> POOL = new ConcurrentLinkedQueue<>();
+
+    private CacheIO() {
+    }
+
+    static ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = POOL.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    static void releaseBuffer(ByteBuffer buffer) {
+        // the size check is only a bound, a few buffers more or less do not matter
+        if (POOL.size() < POOL_SIZE) {
+            POOL.offer(buffer);
+        }
+    }
+
+    /**
+     * Writes the stream to the file, replacing its content. The stream is
+     * not closed.
+     *
+     * @param in the stream to write
+     * @param file the file to write to
+     * @param length the expected length, or -1 if not known
+     * @param resource resource whose transferred bytes to count, or {@code null}
+     * @return number of bytes written
+     * @throws IOException if the stream or the file fail
+     */
+    public static long write(InputStream in, File file, long length, Resource resource) throws IOException {
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            if (length > 0) {
+                out.setLength(length);
+            }
+            long written = copy(in, out.getChannel(), 0, Long.MAX_VALUE, resource);
+            // less than announced, or an older content was longer
+            out.setLength(written);
+            return written;
+        }
+    }
+
+    /**
+     * Copies the stream, or the given number of bytes of it, to the channel
+     * at the given position. The stream is not closed.
+     *
+     * @param in the stream to copy
+     * @param out the channel to write to
+     * @param position where to write the first byte
+     * @param count number of bytes to copy, {@link Long#MAX_VALUE} for all
+     * @param resource resource whose transferred bytes to count, or {@code null}
+     * @return number of bytes copied
+     * @throws EOFException if the stream ended before the given number of bytes
+     * @throws IOException if the stream or the channel fail
+     */
+    public static long copy(InputStream in, FileChannel out, long position, long count, Resource resource) throws IOException {
+        ReadableByteChannel source = Channels.newChannel(in);
+        ByteBuffer buffer = acquireBuffer();
+        try {
+            long copied = 0;
+            while (copied < count) {
+                buffer.clear();
+                if (count - copied < buffer.capacity()) {
+                    buffer.limit((int) (count - copied));
+                }
+                int rlen = source.read(buffer);
+                if (rlen == -1) {
+                    if (count == Long.MAX_VALUE) {
+                        break;
+                    }
+                    throw new EOFException("Stream ended after " + copied + " of " + count + " bytes");
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer, position + copied + buffer.position());
+                }
+                copied += rlen;
+                if (resource != null) {
+                    synchronized (resource) {
+                        resource.incrementTransferred(rlen);
+                    }
+                }
+            }
+            return copied;
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    /**
+     * Copies a file, replacing the target.
+     *
+     * @param from the file to copy
+     * @param to the copy
+     * @throws IOException if copying fails
+     */
+    public static void copyFile(File from, File to) throws IOException {
+        Files.deleteIfExists(to.toPath());
+        try (FileChannel in = FileChannel.open(from.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(to.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package net.sourceforge.jnlp.cache;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * In-memory catalog of the entries of the recently_used file.
+ *
+ * Entries are hashed by their key, by their path and by the url part of their
+ * path (the path without the cache directory and the numbered folder), and are
+ * kept in a separate recency set ordered by access time. Looking up a cache
+ * file therefore does not need to sort or scan the whole file, and touching an
+ * entry only repositions it in the recency set.
+ *
+ * The size of the cached files is tracked as well, as far as known, so the
+ * total size of the cache is available without visiting the files.
+ *
+ * This class is not thread safe, {@link CacheLRUWrapper} guards all access.
+ */
+class CacheIndex {
+
+    static class IndexEntry {
+
+        private String key;
+        private long lastAccessed;
+        private final String path;
+        private final String urlPath;
+        /* size of the cached file in bytes, -1 if not known yet */
+        private long size = -1;
+
+        private IndexEntry(String key, String path, String urlPath) {
+            this.key = key;
+            this.lastAccessed = parseTimestamp(key);
+            this.path = path;
+            this.urlPath = urlPath;
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        String getPath() {
+            return path;
+        }
+
+        String getUrlPath() {
+            return urlPath;
+        }
+
+        long getLastAccessed() {
+            return lastAccessed;
+        }
+
+        long getSize() {
+            return size;
+        }
+    }
+
+    private static final Comparator<IndexEntry> BY_ACCESS = new Comparator<IndexEntry>() {
+        @Override
+        public int compare(IndexEntry e1, IndexEntry e2) {
+            int c = Long.compare(e1.lastAccessed, e2.lastAccessed);
+            return c != 0 ? c : e1.key.compareTo(e2.key);
+        }
+    };
+
+    private final Map<String, IndexEntry> byKey = new HashMap<>();
+    private final Map<String, IndexEntry> byPath = new HashMap<>();
+    /* usually exactly one entry per url path, more only until the old copies are evicted */
+    private final Map<String, List<IndexEntry>> byUrlPath = new HashMap<>();
+    /* least recently used first */
+    private final TreeSet<IndexEntry> recency = new TreeSet<>(BY_ACCESS);
+    private final Set<IndexEntry> unsized = new LinkedHashSet<>();
+    /* sum of the sizes of all entries with known size */
+    private long totalSize;
+
+    /**
+     * Replaces the content of the catalog. Entries are expected as key
+     * ("millis,folder") to path. If one path is present under several keys,
+     * only the newest one is kept. Sizes known for paths already present are
+     * kept as well.
+     *
+     * @param entries all entries of the recently_used file
+     * @param cacheDir full path of the cache directory
+     */
+    void rebuild(Map<String, String> entries, String cacheDir) {
+        Map<String, IndexEntry> previous = new HashMap<>(byPath);
+        clear();
+        Map<String, IndexEntry> newestByPath = new HashMap<>();
+        for (Map.Entry<String, String> e : entries.entrySet()) {
+            IndexEntry candidate = new IndexEntry(e.getKey(), e.getValue(), toUrlPath(e.getValue(), cacheDir));
+            IndexEntry current = newestByPath.get(candidate.path);
+            if (current == null || current.lastAccessed < candidate.lastAccessed) {
+                newestByPath.put(candidate.path, candidate);
+            }
+        }
+        for (IndexEntry e : newestByPath.values()) {
+            IndexEntry old = previous.get(e.path);
+            if (old != null) {
+                e.size = old.size;
+            }
+            insert(e);
+        }
+    }
+
+    void clear() {
+        byKey.clear();
+        byPath.clear();
+        byUrlPath.clear();
+        recency.clear();
+        unsized.clear();
+        totalSize = 0;
+    }
+
+    /**
+     * @param key key of the new entry
+     * @param path path of the cached file
+     * @param cacheDir full path of the cache directory
+     * @return false if the key or the path is already present
+     */
+    boolean add(String key, String path, String cacheDir) {
+        if (byKey.containsKey(key) || byPath.containsKey(path)) {
+            return false;
+        }
+        insert(new IndexEntry(key, path, toUrlPath(path, cacheDir)));
+        return true;
+    }
+
+    /**
+     * @param key key of the entry to remove
+     * @return the removed entry, or {@code null} if there was none
+     */
+    IndexEntry remove(String key) {
+        IndexEntry e = byKey.remove(key);
+        if (e == null) {
+            return null;
+        }
+        recency.remove(e);
+        byPath.remove(e.path);
+        if (e.size < 0) {
+            unsized.remove(e);
+        } else {
+            totalSize -= e.size;
+        }
+        if (e.urlPath != null) {
+            List<IndexEntry> copies = byUrlPath.get(e.urlPath);
+            copies.remove(e);
+            if (copies.isEmpty()) {
+                byUrlPath.remove(e.urlPath);
+            }
+        }
+        return e;
+    }
+
+    /**
+     * Re-keys an entry and moves it to its new position in the recency set.
+     *
+     * @param oldKey the current key of the entry
+     * @param newKey the key reflecting the new access time
+     * @return false if there is no entry with the old key
+     */
+    boolean touch(String oldKey, String newKey) {
+        IndexEntry e = byKey.get(oldKey);
+        if (e == null) {
+            return false;
+        }
+        recency.remove(e);
+        byKey.remove(oldKey);
+        e.key = newKey;
+        e.lastAccessed = parseTimestamp(newKey);
+        byKey.put(newKey, e);
+        recency.add(e);
+        return true;
+    }
+
+    /**
+     * @param e entry of this index
+     * @param size size of its file in bytes
+     */
+    void setSize(IndexEntry e, long size) {
+        if (e.size < 0) {
+            unsized.remove(e);
+        } else {
+            totalSize -= e.size;
+        }
+        e.size = size;
+        totalSize += size;
+    }
+
+    /**
+     * @return sum of the sizes of all entries whose size is known
+     */
+    long getTotalSize() {
+        return totalSize;
+    }
+
+    /**
+     * @param max maximal number of entries to return
+     * @return entries whose size is not known yet
+     */
+    List<IndexEntry> getUnsized(int max) {
+        List<IndexEntry> result = new ArrayList<>(Math.min(max, unsized.size()));
+        for (Iterator<IndexEntry> it = unsized.iterator(); it.hasNext() && result.size() < max;) {
+            result.add(it.next());
+        }
+        return result;
+    }
+
+    int getUnsizedCount() {
+        return unsized.size();
+    }
+
+    /**
+     * @param max maximal number of entries to return
+     * @return entries for which a more recently used copy of the same
+     * resource exists
+     */
+    List<IndexEntry> getOutdatedCopies(int max) {
+        List<IndexEntry> result = new ArrayList<>();
+        for (List<IndexEntry> copies : byUrlPath.values()) {
+            if (copies.size() < 2) {
+                continue;
+            }
+            IndexEntry newest = getNewest(copies.get(0).urlPath);
+            for (IndexEntry e : copies) {
+                if (e != newest) {
+                    if (result.size() >= max) {
+                        return result;
+                    }
+                    result.add(e);
+                }
+            }
+        }
+        return result;
+    }
+
+    IndexEntry get(String key) {
+        return byKey.get(key);
+    }
+
+    IndexEntry getByPath(String path) {
+        return byPath.get(path);
+    }
+
+    /**
+     * @param urlPath path of the resource relative to its numbered folder, as
+     * produced by {@link CacheUtil#urlToPath(java.net.URL, String)} with an
+     * empty subdirectory
+     * @return the most recently used entry for the url path, or {@code null}
+     */
+    IndexEntry getNewest(String urlPath) {
+        List<IndexEntry> copies = byUrlPath.get(urlPath);
+        if (copies == null) {
+            return null;
+        }
+        IndexEntry newest = null;
+        for (IndexEntry e : copies) {
+            if (newest == null || newest.lastAccessed < e.lastAccessed) {
+                newest = e;
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * @return all entries, most recently used first
+     */
+    List<IndexEntry> getMostRecentFirst() {
+        return new ArrayList<>(recency.descendingSet());
+    }
+
+    /**
+     * @return iterator over all entries, least recently used first
+     */
+    Iterator<IndexEntry> leastRecentFirst() {
+        return Collections.unmodifiableSet(recency).iterator();
+    }
+
+    /**
+     * @return all entries in no particular order
+     */
+    Iterable<IndexEntry> entries() {
+        return Collections.unmodifiableCollection(byKey.values());
+    }
+
+    int size() {
+        return byKey.size();
+    }
+
+    private void insert(IndexEntry e) {
+        byKey.put(e.key, e);
+        byPath.put(e.path, e);
+        recency.add(e);
+        if (e.size < 0) {
+            unsized.add(e);
+        } else {
+            totalSize += e.size;
+        }
+        if (e.urlPath != null) {
+            List<IndexEntry> copies = byUrlPath.get(e.urlPath);
+            if (copies == null) {
+                copies = new ArrayList<>(1);
+                byUrlPath.put(e.urlPath, copies);
+            }
+            copies.add(e);
+        }
+    }
+
+    /**
+     * @return timestamp part of "millis,folder" key, or current time for
+     * malformed keys, which are removed on next load anyway
+     */
+    static long parseTimestamp(String key) {
+        int i = key.indexOf(',');
+        try {
+            return Long.parseLong(i < 0 ? key : key.substring(0, i));
+        } catch (NumberFormatException ex) {
+            return System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Get the path to file minus the cache directory and indexed folder.
+     *
+     * @return the url path or {@code null} if the path does not point into
+     * a numbered folder of the cache directory
+     */
+    static String toUrlPath(String path, String cacheDir) {
+        if (path == null || !path.startsWith(cacheDir) || path.length() <= cacheDir.length() + 1) {
+            return null;
+        }
+        int index = path.indexOf(File.separatorChar, cacheDir.length() + 1);
+        if (index < 0) {
+            return null;
+        }
+        return path.substring(index);
+    }
+}
@@ -0,0 +1,445 @@
+package net.sourceforge.jnlp.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of changes to the recently_used file.
+ *
+ * The recently_used file serves as snapshot; every change done after the
+ * snapshot was written is appended here as one line, so recording an access
+ * costs one small write instead of rewriting the whole file. Once the journal
+ * outgrows the snapshot, {@link CacheLRUWrapper} compacts both.
+ *
+ * The first line holds the format version and a generation, which changes
+ * with every compaction. Each record ends with the CRC32 of its content and
+ * replay stops at the first incomplete or damaged record, as may be left by
+ * a crash. Records identify entries by their path and a touch never moves an
+ * entry back in time, so replaying records already contained in the snapshot
+ * is harmless.
+ *
+ * The journal does not lock anything itself, it may only be written while
+ * holding the lock of the recently_used file.
+ */
+class CacheJournal {
+
+    private final static Logger LOG = LoggerFactory.getLogger(CacheJournal.class);
+
+    static final String SUFFIX = ".journal";
+    static final int VERSION = 1;
+    private static final String MAGIC = "#itw-lru-journal";
+
+    enum Type {
+
+        ADD('A'), TOUCH('T'), REMOVE('R'), SIZE('S');
+
+        private final char code;
+
+        private Type(char code) {
+            this.code = code;
+        }
+
+        static Type forCode(String code) {
+            for (Type t : values()) {
+                if (code.length() == 1 && code.charAt(0) == t.code) {
+                    return t;
+                }
+            }
+            return null;
+        }
+    }
+
+    static final class Record {
+
+        private final Type type;
+        private final String path;
+        private final String key;
+
+        private Record(Type type, String path, String key) {
+            this.type = type;
+            this.path = path;
+            this.key = key;
+        }
+
+        static Record add(String key, String path) {
+            return new Record(Type.ADD, path, key);
+        }
+
+        static Record touch(String path, String newKey) {
+            return new Record(Type.TOUCH, path, newKey);
+        }
+
+        static Record remove(String path) {
+            return new Record(Type.REMOVE, path, null);
+        }
+
+        static Record size(String path, long size) {
+            return new Record(Type.SIZE, path, Long.toString(size));
+        }
+
+        Type getType() {
+            return type;
+        }
+
+        String getPath() {
+            return path;
+        }
+
+        /**
+         * @return key of the added entry, new key of the touched one, size of
+         * the measured one, or {@code null} for removal
+         */
+        String getKey() {
+            return key;
+        }
+
+        /**
+         * @return size in bytes recorded by a {@link Type#SIZE} record
+         */
+        long getSize() {
+            return Long.parseLong(key);
+        }
+    }
+
+    private final File file;
+    /* generation of the journal read or written last time, null if there is no usable journal */
+    private String generation;
+    /* number of bytes which were read and verified, or written */
+    private long validLength;
+    private int recordCount;
+    private FileStamp stamp;
+
+    CacheJournal(File file) {
+        this.file = file;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * @return number of records in the journal, as far as known from the last
+     * read or write
+     */
+    int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return true if the file was not changed since it was last read or
+     * written by this instance
+     */
+    boolean isCurrent() {
+        return stamp != null && stamp.equals(FileStamp.of(file));
+    }
+
+    /**
+     * Reads all valid records of the journal.
+     *
+     * @return the records in the order they were written
+     */
+    List<Record> readAll() {
+        generation = null;
+        validLength = 0;
+        recordCount = 0;
+        stamp = FileStamp.of(file);
+        if (!file.exists()) {
+            return Collections.emptyList();
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] data = readFrom(raf, 0);
+            int headerEnd = indexOf(data, 0, (byte) '\n');
+            if (headerEnd < 0) {
+                return Collections.emptyList();
+            }
+            String header = new String(data, 0, headerEnd, StandardCharsets.UTF_8);
+            String readGeneration = parseHeader(header);
+            if (readGeneration == null) {
+                LOG.debug("Ignoring journal " + file + " with unknown header " + header);
+                return Collections.emptyList();
+            }
+            generation = readGeneration;
+            validLength = headerEnd + 1;
+            return parseRecords(data, headerEnd + 1);
+        } catch (IOException ex) {
+            LOG.error("ERROR", ex);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Reads records appended since the journal was last read or written.
+     *
+     * @return the new records, or {@code null} if the journal was compacted or
+     * replaced meanwhile and has to be read whole together with the snapshot
+     */
+    List<Record> readNew() {
+        if (generation == null) {
+            return null;
+        }
+        FileStamp current = FileStamp.of(file);
+        if (current.getSize() < validLength) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] head = new byte[(int) Math.min(raf.length(), headerLength(generation))];
+            raf.readFully(head);
+            if (!header(generation).equals(new String(head, StandardCharsets.UTF_8))) {
+                return null;
+            }
+            stamp = current;
+            return parseRecords(readFrom(raf, validLength), 0);
+        } catch (IOException ex) {
+            LOG.error("ERROR", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Appends records to the journal and forces them to disk. A damaged tail
+     * left by a crash is cut off first. If there is no usable journal yet, a
+     * new one is started.
+     *
+     * @param records records to write
+     * @throws IOException if writing fails
+     */
+    void append(List<Record> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Record r : records) {
+            sb.append(format(r));
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = raf.getChannel();
+            if (generation == null || channel.size() < validLength) {
+                startNewGeneration(channel);
+            } else if (channel.size() > validLength) {
+                channel.truncate(validLength);
+            }
+            validLength += write(channel, validLength, sb.toString());
+            channel.force(false);
+        }
+        recordCount += records.size();
+        stamp = FileStamp.of(file);
+    }
+
+    /**
+     * Empties the journal, to be called once its content was written to the
+     * snapshot.
+     *
+     * @throws IOException if writing fails
+     */
+    void reset() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = raf.getChannel();
+            startNewGeneration(channel);
+            channel.force(false);
+        }
+        stamp = FileStamp.of(file);
+    }
+
+    private void startNewGeneration(FileChannel channel) throws IOException {
+        channel.truncate(0);
+        generation = UUID.randomUUID().toString();
+        validLength = write(channel, 0, header(generation) + "\n");
+        recordCount = 0;
+    }
+
+    private List<Record> parseRecords(byte[] data, int from) {
+        List<Record> records = new ArrayList<>();
+        int start = from;
+        while (start < data.length) {
+            int end = indexOf(data, start, (byte) '\n');
+            if (end < 0) {
+                // unfinished record, most likely interrupted write
+                break;
+            }
+            Record r = parse(new String(data, start, end - start, StandardCharsets.UTF_8));
+            if (r == null) {
+                LOG.debug("Damaged record in " + file + " at " + (validLength + start - from) + ", ignoring rest of journal");
+                break;
+            }
+            records.add(r);
+            start = end + 1;
+        }
+        validLength += start - from;
+        recordCount += records.size();
+        return records;
+    }
+
+    static String format(Record r) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(r.type.code).append('\t').append(escape(r.path));
+        if (r.key != null) {
+            sb.append('\t').append(escape(r.key));
+        }
+        String content = sb.toString();
+        return content + '\t' + crc(content) + '\n';
+    }
+
+    /**
+     * @param line one line of the journal without the line end
+     * @return the record, or {@code null} if the line is damaged
+     */
+    static Record parse(String line) {
+        int crcStart = line.lastIndexOf('\t');
+        if (crcStart < 0) {
+            return null;
+        }
+        String content = line.substring(0, crcStart);
+        if (!crc(content).equals(line.substring(crcStart + 1))) {
+            return null;
+        }
+        String[] fields = content.split("\t", -1);
+        Type type = Type.forCode(fields[0]);
+        if (type == null) {
+            return null;
+        }
+        switch (type) {
+            case ADD:
+            case TOUCH:
+                if (fields.length != 3) {
+                    return null;
+                }
+                return new Record(type, unescape(fields[1]), unescape(fields[2]));
+            case REMOVE:
+                if (fields.length != 2) {
+                    return null;
+                }
+                return new Record(type, unescape(fields[1]), null);
+            case SIZE:
+                if (fields.length != 3) {
+                    return null;
+                }
+                try {
+                    return Record.size(unescape(fields[1]), Long.parseLong(fields[2]));
+                } catch (NumberFormatException ex) {
+                    return null;
+                }
+            default:
+                return null;
+        }
+    }
+
+    private static String header(String generation) {
+        return MAGIC + " " + VERSION + " " + generation;
+    }
+
+    private static int headerLength(String generation) {
+        return header(generation).getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * @return generation, or {@code null} if the header is not of this version
+     */
+    private static String parseHeader(String header) {
+        String[] parts = header.split(" ");
+        if (parts.length != 3 || !MAGIC.equals(parts[0]) || !Integer.toString(VERSION).equals(parts[1])) {
+            return null;
+        }
+        return parts[2];
+    }
+
+    static String crc(String content) {
+        CRC32 crc = new CRC32();
+        crc.update(content.getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String unescape(String s) {
+        if (s.indexOf('\\') < 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char n = s.charAt(++i);
+                switch (n) {
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    default:
+                        sb.append(n);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static byte[] readFrom(RandomAccessFile raf, long position) throws IOException {
+        long length = raf.length() - position;
+        if (length <= 0) {
+            return new byte[0];
+        }
+        byte[] data = new byte[(int) length];
+        raf.seek(position);
+        raf.readFully(data);
+        return data;
+    }
+
+    private static int write(FileChannel channel, long position, String s) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+        int written = buffer.remaining();
+        long p = position;
+        while (buffer.hasRemaining()) {
+            p += channel.write(buffer, p);
+        }
+        return written;
+    }
+
+    private static int indexOf(byte[] data, int from, byte b) {
+        for (int i = from; i < data.length; i++) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -43,15 +43,22 @@ import net.sourceforge.jnlp.util.PropertiesFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Properties;
 import java.util.Set;
 
 import static net.sourceforge.jnlp.runtime.Translator.R;
@@ -60,11 +67,31 @@ import static net.sourceforge.jnlp.runtime.Translator.R;
  * This class helps maintain the ordering of most recently use items across
  * multiple jvm instances.
  * 
+ * The recently_used file holds a snapshot of all items, changes done since
+ * the snapshot was written are appended to a {@link CacheJournal} next to it.
+ * Both are mirrored in a {@link CacheIndex}, so lookups and recency updates do
+ * not need to sort or rewrite the file. The files are only reread when
+ * another process changed them.
+ *
+ * The known sizes of the items are kept as well, in the journal and under
+ * {@link #SIZE_PREFIX} keys of the snapshot, so the size of the cache is
+ * known without visiting its files.
  */
 public class CacheLRUWrapper {
 
     private final static Logger LOG = LoggerFactory.getLogger(CacheLRUWrapper.class);
 
+    /**
+     * The journal is compacted into the recently_used file once it contains
+     * more records than this, and more records than there are entries.
+     */
+    static final int MIN_COMPACTION_RECORDS = 256;
+
+    /**
+     * Prefix of the snapshot keys holding the size of the item at the path
+     * which follows. Older versions drop these keys as malformed.
+     */
+    static final String SIZE_PREFIX = "size:";
 
     /*
      * back-end of how LRU is implemented This file is to keep track of the most
@@ -75,6 +102,26 @@ public class CacheLRUWrapper {
     private final InfrastructureFileDescriptor recentlyUsedPropertiesFile;
     private final InfrastructureFileDescriptor cacheDir;
     private final File windowsShortcutList;
+
+    private final CacheIndex index = new CacheIndex();
+    private CacheJournal journal;
+    private CacheSlotAllocator slots;
+    /* changes not yet written to the journal */
+    private final List<CacheJournal.Record> pending = new ArrayList<>();
+    /* files locked by each thread, the last on top, so each unlock releases
+       the file that was locked even if the descriptor was moved meanwhile */
+    private final ThreadLocal<Deque<PropertiesFile>> lockedFiles = new ThreadLocal<Deque<PropertiesFile>>() {
+        @Override
+        protected Deque<PropertiesFile> initialValue() {
+            return new ArrayDeque<>();
+        }
+    };
+    /* state of the recently_used file when it was last read or written */
+    private FileStamp snapshotStamp;
+    /* false until the index reflects the recently_used file and the journal */
+    private boolean indexed = false;
+    /* true if all entries were dropped, so the files must be rewritten rather than replayed */
+    private boolean cleared = false;
     
     public CacheLRUWrapper() {
         this(PathsAndFiles.getRecentlyUsedFile(), PathsAndFiles.CACHE_DIR);
@@ -117,7 +164,7 @@ public class CacheLRUWrapper {
     synchronized PropertiesFile getRecentlyUsedPropertiesFile() {
         if (cachedRecentlyUsedPropertiesFile == null) {
             //no properties file yet, create it
-            cachedRecentlyUsedPropertiesFile = new PropertiesFile(recentlyUsedPropertiesFile.getFile());
+            switchTo(new PropertiesFile(recentlyUsedPropertiesFile.getFile()));
             return cachedRecentlyUsedPropertiesFile;
         } 
         if (recentlyUsedPropertiesFile.getFile().equals(cachedRecentlyUsedPropertiesFile.getStoreFile())){
@@ -125,16 +172,45 @@ public class CacheLRUWrapper {
             return cachedRecentlyUsedPropertiesFile;
         } else {
             //the InfrastructureFileDescriptor was set to different location, move to it
-            if (cachedRecentlyUsedPropertiesFile.tryLock()) {
-                cachedRecentlyUsedPropertiesFile.store();
-                cachedRecentlyUsedPropertiesFile.unlock();
-            }
-            cachedRecentlyUsedPropertiesFile = new PropertiesFile(recentlyUsedPropertiesFile.getFile());
+            //changes not stored yet are dropped: they belong to the old cache, and its
+            //journal cannot be appended to without reading it first
+            switchTo(new PropertiesFile(recentlyUsedPropertiesFile.getFile()));
             return cachedRecentlyUsedPropertiesFile;
         }
         
     }
 
+    private void switchTo(PropertiesFile props) {
+        cachedRecentlyUsedPropertiesFile = props;
+        journal = new CacheJournal(new File(props.getStoreFile().getPath() + CacheJournal.SUFFIX));
+        slots = new CacheSlotAllocator(new File(props.getStoreFile().getPath() + CacheSlotAllocator.SUFFIX), cacheDir.getFile());
+        index.clear();
+        pending.clear();
+        snapshotStamp = null;
+        indexed = false;
+        cleared = false;
+    }
+
+    private CacheJournal getJournal() {
+        getRecentlyUsedPropertiesFile();
+        return journal;
+    }
+
+    CacheSlotAllocator getSlots() {
+        getRecentlyUsedPropertiesFile();
+        return slots;
+    }
+
+    /**
+     * @return the index, synchronized with the files if it was not yet
+     */
+    private CacheIndex getIndex() {
+        if (!indexed) {
+            loadFully();
+        }
+        return index;
+    }
+
     /**
      * @return the cacheDir
      */
@@ -158,29 +234,152 @@ public class CacheLRUWrapper {
    }
 
     /**
-     * Update map for keeping track of recently used items.
+     * Update map for keeping track of recently used items. If only the
+     * journal has grown since it was last read, just the new records are
+     * replayed.
      */
     public synchronized void load() {
-        boolean loaded = getRecentlyUsedPropertiesFile().load();
-        /* 
-         * clean up possibly corrupted entries
-         */
-        if (loaded && checkData()) {
+        File snapshot = getRecentlyUsedPropertiesFile().getStoreFile();
+        if (indexed && FileStamp.of(snapshot).equals(snapshotStamp)) {
+            if (journal.isCurrent()) {
+                // nobody changed the files since we have read or written them
+                return;
+            }
+            List<CacheJournal.Record> appended = journal.readNew();
+            if (appended != null) {
+                for (CacheJournal.Record r : appended) {
+                    apply(r);
+                }
+                return;
+            }
+        }
+        loadFully();
+    }
+
+    /**
+     * Reads the recently_used file and replays the whole journal on it.
+     * Changes of this instance which were not stored yet are applied again
+     * on top.
+     */
+    private void loadFully() {
+        File snapshot = getRecentlyUsedPropertiesFile().getStoreFile();
+        boolean corrupted = false;
+        if (cleared) {
+            index.clear();
+        } else {
+            snapshotStamp = FileStamp.of(snapshot);
+            Properties props = readSnapshot(snapshot);
+            Map<String, String> sizes = takeSizes(props);
+            /* 
+             * clean up possibly corrupted entries
+             */
+            corrupted = checkData(props);
+            Map<String, String> entries = new HashMap<>();
+            for (String key : props.stringPropertyNames()) {
+                entries.put(key, props.getProperty(key));
+            }
+            index.rebuild(entries, getCacheDir().getFullPath());
+            for (Map.Entry<String, String> size : sizes.entrySet()) {
+                CacheIndex.IndexEntry e = index.getByPath(size.getKey());
+                if (e != null) {
+                    try {
+                        index.setSize(e, Long.parseLong(size.getValue()));
+                    } catch (NumberFormatException ex) {
+                        // measured again
+                    }
+                }
+            }
+            for (CacheJournal.Record r : journal.readAll()) {
+                apply(r);
+            }
+        }
+        for (CacheJournal.Record r : pending) {
+            apply(r);
+        }
+        indexed = true;
+        if (corrupted && getRecentlyUsedPropertiesFile().isHeldByCurrentThread()) {
             LOG.debug("", new LruCacheException());
             LOG.debug(R("CFakeCache"));
-            store();
+            compact();
             LOG.debug(R("CFakedCache"));
         }
     }
 
+    /**
+     * Removes the {@link #SIZE_PREFIX} keys from the snapshot.
+     *
+     * @return the sizes by path
+     */
+    private static Map<String, String> takeSizes(Properties props) {
+        Map<String, String> sizes = new HashMap<>();
+        for (String key : props.stringPropertyNames()) {
+            if (key.startsWith(SIZE_PREFIX)) {
+                sizes.put(key.substring(SIZE_PREFIX.length()), props.getProperty(key));
+                props.remove(key);
+            }
+        }
+        return sizes;
+    }
+
+    private static Properties readSnapshot(File snapshot) {
+        Properties props = new Properties();
+        if (!snapshot.exists()) {
+            return props;
+        }
+        try (InputStream s = new FileInputStream(snapshot)) {
+            props.load(s);
+        } catch (IOException ex) {
+            LOG.error("ERROR", ex);
+        }
+        return props;
+    }
+
+    private void apply(CacheJournal.Record r) {
+        CacheIndex.IndexEntry e;
+        switch (r.getType()) {
+            case ADD:
+                index.add(r.getKey(), r.getPath(), getCacheDir().getFullPath());
+                break;
+            case TOUCH:
+                e = index.getByPath(r.getPath());
+                if (e != null && CacheIndex.parseTimestamp(r.getKey()) >= e.getLastAccessed()) {
+                    index.touch(e.getKey(), r.getKey());
+                }
+                break;
+            case REMOVE:
+                e = index.getByPath(r.getPath());
+                if (e != null) {
+                    index.remove(e.getKey());
+                }
+                break;
+            case SIZE:
+                e = index.getByPath(r.getPath());
+                if (e != null) {
+                    index.setSize(e, r.getSize());
+                }
+                break;
+        }
+    }
+
+    /**
+     * @return true if the files were not changed by anyone else since this
+     * instance has loaded or stored them, so its index can be used without
+     * locking and reloading them
+     */
+    public synchronized boolean isUpToDate() {
+        return indexed
+                && FileStamp.of(getRecentlyUsedPropertiesFile().getStoreFile()).equals(snapshotStamp)
+                && journal.isCurrent();
+    }
+
     /**
      * check content of recentlyUsedPropertiesFile and remove invalid/corrupt entries
      *
      * @return true, if cache was corrupted and affected entry removed
      */
-    private boolean checkData () {
+    private boolean checkData(Properties props) {
         boolean modified = false;
-        Set<Entry<Object, Object>> q = getRecentlyUsedPropertiesFile().entrySet();
+        Set<Entry<Object, Object>> q = props.entrySet();
         for (Iterator<Entry<Object, Object>> it = q.iterator(); it.hasNext();) {
             Entry<Object, Object> currentEntry = it.next();
 
@@ -214,17 +413,82 @@ public class CacheLRUWrapper {
     }
 
     /**
-     * Write file to disk.
+     * Write changes to disk. Usually they are appended to the journal, only
+     * once the journal grows too big the whole file is rewritten. Changes
+     * done meanwhile by other processes are merged in first.
+     *
      * @return true if properties were successfully stored, false otherwise
      */
     public synchronized boolean store() {
         if (getRecentlyUsedPropertiesFile().isHeldByCurrentThread()) {
-            getRecentlyUsedPropertiesFile().store();
+            load();
+            if (cleared || getJournal().getRecordCount() + pending.size() > Math.max(MIN_COMPACTION_RECORDS, index.size())) {
+                compact();
+            } else {
+                appendPending();
+            }
             return true;
         }
         return false;
     }
 
+    /**
+     * Writes changes, typically accesses recorded by {@link #updateEntry(String)},
+     * which were not stored yet.
+     */
+    public void storeChanges() {
+        synchronized (this) {
+            if (pending.isEmpty() && !cleared) {
+                return;
+            }
+        }
+        // not while holding the monitor, which is taken after the lock
+        lock();
+        try {
+            store();
+        } finally {
+            unlock();
+        }
+    }
+
+    private void appendPending() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        try {
+            journal.append(pending);
+            pending.clear();
+        } catch (IOException ex) {
+            LOG.error("ERROR", ex);
+        }
+    }
+
+    /**
+     * Writes all entries to the recently_used file and empties the journal.
+     * A crash in between is harmless, as replaying the old journal on the new
+     * snapshot does not change it.
+     */
+    private void compact() {
+        PropertiesFile props = getRecentlyUsedPropertiesFile();
+        props.clear();
+        for (CacheIndex.IndexEntry e : index.entries()) {
+            props.put(e.getKey(), e.getPath());
+            if (e.getSize() >= 0) {
+                props.put(SIZE_PREFIX + e.getPath(), Long.toString(e.getSize()));
+            }
+        }
+        props.store();
+        props.clear();
+        snapshotStamp = FileStamp.of(props.getStoreFile());
+        try {
+            journal.reset();
+        } catch (IOException ex) {
+            LOG.error("ERROR", ex);
+        }
+        pending.clear();
+        cleared = false;
+    }
+
     /**
      * This adds a new entry to file.
      * 
@@ -233,11 +497,10 @@ public class CacheLRUWrapper {
      * @return true if we successfully added to map, false otherwise.
      */
     public synchronized boolean addEntry(String key, String path) {
-        PropertiesFile props = getRecentlyUsedPropertiesFile();
-        if (props.containsKey(key)) {
+        if (!getIndex().add(key, path, getCacheDir().getFullPath())) {
             return false;
         }
-        props.setProperty(key, path);
+        pending.add(CacheJournal.Record.add(key, path));
         return true;
     }
 
@@ -248,14 +511,43 @@ public class CacheLRUWrapper {
      * @return true if we successfully removed key from map, false otherwise.
      */
     public synchronized boolean removeEntry(String key) {
-        PropertiesFile props = getRecentlyUsedPropertiesFile();
-        if (!props.containsKey(key)) {
+        CacheIndex.IndexEntry removed = getIndex().remove(key);
+        if (removed == null) {
             return false;
         }
-        props.remove(key);
+        pending.add(CacheJournal.Record.remove(removed.getPath()));
         return true;
     }
 
+    /**
+     * Reserves a numbered folder of the cache directory which does not exist
+     * yet. Has to be called while holding the lock.
+     *
+     * @return full path of the folder, the caller is expected to create it
+     */
+    public synchronized String allocateCacheFolder() {
+        return getCacheDir().getFullPath() + File.separator + getSlots().allocate();
+    }
+
+    /**
+     * Makes numbered folders of the cache directory available again. Has to be
+     * called while holding the lock, after the folders were deleted.
+     *
+     * @param folders the deleted folders, others than numbered folders are
+     * ignored
+     */
+    public synchronized void releaseCacheFolders(Collection<String> folders) {
+        List<Long> released = new ArrayList<>(folders.size());
+        for (String folder : folders) {
+            File f = new File(folder);
+            Long slot = CacheSlotAllocator.toSlot(f);
+            if (slot != null && getCacheDir().getFile().equals(f.getParentFile())) {
+                released.add(slot);
+            }
+        }
+        getSlots().release(released);
+    }
+
     private String getIdForCacheFolder(String folder) {
         int len = getCacheDir().getFullPath().length();
         int index = folder.indexOf(File.separatorChar, len + 1);
@@ -269,59 +561,155 @@ public class CacheLRUWrapper {
      * @return true if we successfully updated value, false otherwise.
      */
     public synchronized boolean updateEntry(String oldKey) {
-        PropertiesFile props = getRecentlyUsedPropertiesFile();
-        if (!props.containsKey(oldKey)) {
+        CacheIndex.IndexEntry entry = getIndex().get(oldKey);
+        if (entry == null) {
             return false;
         }
-        String value = props.getProperty(oldKey);
+        String value = entry.getPath();
         String folder = getIdForCacheFolder(value);
+        String newKey = Long.toString(System.currentTimeMillis()) + "," + folder;
 
-        props.remove(oldKey);
-        props.setProperty(Long.toString(System.currentTimeMillis()) + "," + folder, value);
+        index.touch(oldKey, newKey);
+        pending.add(CacheJournal.Record.touch(value, newKey));
         return true;
     }
 
+    /**
+     * Finds the most recently used entry pointing to the given resource. Does
+     * not reload the file, call {@link #load()} first if it may have changed.
+     *
+     * @param urlPath path of the resource within its numbered cache folder
+     * @return the entry (key and path to cache item), or {@code null} if the
+     * resource is not cached
+     */
+    public synchronized Entry<String, String> getNewestEntry(String urlPath) {
+        CacheIndex.IndexEntry e = getIndex().getNewest(urlPath);
+        if (e == null) {
+            return null;
+        }
+        return new AbstractMap.SimpleImmutableEntry<>(e.getKey(), e.getPath());
+    }
+
     /**
      * Return a copy of the keys available.
      * 
-     * @return List of Strings sorted by ascending order.
+     * @return List of entries, most recently used first.
      */
-    @SuppressWarnings({"unchecked", "rawtypes"})
-    //although Properties are pretending to be <object,Object> they are always <String,String>
-    //bug in jdk?
     public synchronized List<Entry<String, String>> getLRUSortedEntries() {
+        List<Entry<String, String>> entries = new ArrayList<>(getIndex().size());
+        for (CacheIndex.IndexEntry e : index.getMostRecentFirst()) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(e.getKey(), e.getPath()));
+        }
+        return entries;
+    }
+
+    /**
+     * Entries to be evicted first. Like {@link #getLRUSortedEntries()} but
+     * from the other end and without copying the whole list.
+     *
+     * @param max maximal number of entries to return
+     * @return entries (key and path to cache item), least recently used first
+     */
+    synchronized List<Entry<String, String>> getLeastRecentEntries(int max) {
         List<Entry<String, String>> entries = new ArrayList<>();
+        for (Iterator<CacheIndex.IndexEntry> it = getIndex().leastRecentFirst(); it.hasNext() && entries.size() < max;) {
+            CacheIndex.IndexEntry e = it.next();
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(e.getKey(), e.getPath()));
+        }
+        return entries;
+    }
 
-        for (Entry e : getRecentlyUsedPropertiesFile().entrySet()) {
-            entries.add(new AbstractMap.SimpleImmutableEntry(e));
+    /**
+     * @param max maximal number of entries to return
+     * @return entries (key and path to cache item) for which a more recently
+     * used copy of the same resource exists
+     */
+    synchronized List<Entry<String, String>> getOutdatedCopies(int max) {
+        List<Entry<String, String>> entries = new ArrayList<>();
+        for (CacheIndex.IndexEntry e : getIndex().getOutdatedCopies(max)) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(e.getKey(), e.getPath()));
         }
+        return entries;
+    }
 
-        // sort by keys in descending order.
-        Collections.sort(entries, new Comparator<Entry<String, String>>() {
-            @Override
-            public int compare(Entry<String, String> e1, Entry<String, String> e2) {
-                Long t1 = Long.parseLong(e1.getKey().split(",")[0]);
-                Long t2 = Long.parseLong(e2.getKey().split(",")[0]);
+    /**
+     * @param max maximal number of paths to return
+     * @return paths of cache items whose size is not known yet
+     */
+    synchronized List<String> getUnsizedPaths(int max) {
+        List<String> paths = new ArrayList<>();
+        for (CacheIndex.IndexEntry e : getIndex().getUnsized(max)) {
+            paths.add(e.getPath());
+        }
+        return paths;
+    }
 
-                int c = t1.compareTo(t2);
-                return c < 0 ? 1 : (c > 0 ? -1 : 0);
-            }
-        });
-        return entries;
+    /**
+     * @return number of cache items whose size is not known yet
+     */
+    public synchronized int getUnsizedCount() {
+        return getIndex().getUnsizedCount();
     }
 
     /**
-     * Lock the file to have exclusive access.
+     * Records the size of a cache item. It is written with the next
+     * {@link #store()}, items of unknown size are measured by the
+     * {@link CacheEvictor}.
+     *
+     * @param path path to cache item
+     * @param size size of the item in bytes
+     * @return false if there is no such item
      */
-    public synchronized void lock() {
-        getRecentlyUsedPropertiesFile().lock();
+    public synchronized boolean setSize(String path, long size) {
+        CacheIndex.IndexEntry e = getIndex().getByPath(path);
+        if (e == null) {
+            return false;
+        }
+        if (e.getSize() != size) {
+            index.setSize(e, size);
+            pending.add(CacheJournal.Record.size(path, size));
+        }
+        return true;
     }
 
     /**
-     * Unlock the file.
+     * @param path path to cache item
+     * @return size of the item in bytes, -1 if unknown
      */
-    public synchronized void unlock() {
-        getRecentlyUsedPropertiesFile().unlock();
+    public synchronized long getSize(String path) {
+        CacheIndex.IndexEntry e = getIndex().getByPath(path);
+        return e == null ? -1 : e.getSize();
+    }
+
+    /**
+     * @return sum of the sizes of all cache items whose size is known
+     */
+    public synchronized long getCacheSize() {
+        return getIndex().getTotalSize();
+    }
+
+    /**
+     * Lock the file to have exclusive access. Waits for the lock without
+     * holding the monitor of this wrapper, which the holder of the lock may
+     * need.
+     */
+    public void lock() {
+        PropertiesFile props = getRecentlyUsedPropertiesFile();
+        props.lock();
+        lockedFiles.get().push(props);
+    }
+
+    /**
+     * Unlock the file locked by the matching {@link #lock()} of this thread,
+     * which is not the current one if the recently_used file was moved in
+     * between.
+     */
+    public void unlock() {
+        PropertiesFile props = lockedFiles.get().poll();
+        if (props == null) {
+            props = getRecentlyUsedPropertiesFile();
+        }
+        props.unlock();
     }
 
     /**
@@ -331,15 +719,16 @@ public class CacheLRUWrapper {
      * @return value of given key, null otherwise.
      */
     public synchronized String getValue(String key) {
-        return getRecentlyUsedPropertiesFile().getProperty(key);
+        CacheIndex.IndexEntry e = getIndex().get(key);
+        return e == null ? null : e.getPath();
     }
 
     public synchronized boolean containsKey(String key) {
-        return getRecentlyUsedPropertiesFile().containsKey(key);
+        return getIndex().get(key) != null;
     }
 
     public synchronized boolean containsValue(String value) {
-        return getRecentlyUsedPropertiesFile().containsValue(value);
+        return getIndex().getByPath(value) != null;
     }
 
     /**
@@ -353,7 +742,11 @@ public class CacheLRUWrapper {
         return System.currentTimeMillis() + "," + getIdForCacheFolder(path);
     }
 
-    void clearLRUSortedEntries() {
-        getRecentlyUsedPropertiesFile().clear();
+    synchronized void clearLRUSortedEntries() {
+        getRecentlyUsedPropertiesFile();
+        index.clear();
+        pending.clear();
+        indexed = true;
+        cleared = true;
     }
 }
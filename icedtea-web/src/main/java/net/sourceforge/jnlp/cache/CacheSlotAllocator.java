@@ -0,0 +1,262 @@
+package net.sourceforge.jnlp.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Hands out the numbered folders of the cache directory.
+ *
+ * Instead of probing the folders one by one until a free one is found, the
+ * allocator remembers the lowest number never handed out (the high-water mark)
+ * and the numbers of folders removed since. Both are kept in a small file next
+ * to the recently_used file, so every instance continues where the last one
+ * stopped. If that file is missing or damaged, it is rebuilt by a single scan
+ * of the cache directory.
+ *
+ * The folder handed out is still checked for existence, so folders created by
+ * an instance not aware of this file are skipped rather than reused.
+ *
+ * The allocator does not lock anything itself, it may only be used while
+ * holding the lock of the recently_used file.
+ */
+class CacheSlotAllocator {
+
+    private final static Logger LOG = LoggerFactory.getLogger(CacheSlotAllocator.class);
+
+    static final String SUFFIX = ".slots";
+    static final int VERSION = 1;
+    private static final String MAGIC = "#itw-cache-slots";
+    /* upper bound of remembered free slots, any others are found by the next rebuild */
+    static final int MAX_FREE = 4096;
+
+    private final File file;
+    private final File cacheDir;
+    private long next;
+    private final Set<Long> free = new LinkedHashSet<>();
+    /* state of the file when it was last read or written, null if not loaded yet */
+    private FileStamp stamp;
+
+    CacheSlotAllocator(File file, File cacheDir) {
+        this.file = file;
+        this.cacheDir = cacheDir;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the next slot number never handed out
+     */
+    long getHighWaterMark() {
+        ensureLoaded();
+        return next;
+    }
+
+    /**
+     * @return number of released slots waiting to be reused
+     */
+    int getFreeCount() {
+        ensureLoaded();
+        return free.size();
+    }
+
+    /**
+     * Reserves a slot whose folder does not exist yet. The caller is expected
+     * to create the folder.
+     *
+     * @return number of the slot
+     */
+    long allocate() {
+        ensureLoaded();
+        long slot;
+        do {
+            Iterator<Long> it = free.iterator();
+            if (it.hasNext()) {
+                slot = it.next();
+                it.remove();
+            } else {
+                slot = next++;
+            }
+        } while (new File(cacheDir, Long.toString(slot)).exists());
+        save();
+        return slot;
+    }
+
+    /**
+     * Makes slots available again. Slots whose folder still exists are
+     * ignored.
+     *
+     * @param slots numbers of the slots whose folders were removed
+     */
+    void release(Collection<Long> slots) {
+        if (slots.isEmpty()) {
+            return;
+        }
+        ensureLoaded();
+        boolean changed = false;
+        for (Long slot : slots) {
+            if (slot < next && free.size() < MAX_FREE && !new File(cacheDir, Long.toString(slot)).exists()) {
+                changed |= free.add(slot);
+            }
+        }
+        if (changed) {
+            save();
+        }
+    }
+
+    /**
+     * @param folder a folder of the cache directory
+     * @return the slot number of the folder, or {@code null} if it is not a
+     * numbered folder
+     */
+    static Long toSlot(File folder) {
+        String name = folder.getName();
+        if (name.isEmpty() || name.length() > 18) {
+            return null;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) < '0' || name.charAt(i) > '9') {
+                return null;
+            }
+        }
+        return Long.parseLong(name);
+    }
+
+    private void ensureLoaded() {
+        FileStamp current = FileStamp.of(file);
+        if (current.equals(stamp)) {
+            return;
+        }
+        if (!read()) {
+            rebuild();
+            save();
+        }
+    }
+
+    /**
+     * @return false if the file is missing or damaged
+     */
+    private boolean read() {
+        if (!file.exists()) {
+            return false;
+        }
+        try {
+            FileStamp readStamp = FileStamp.of(file);
+            List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            if (lines.size() != 2 || !header().equals(lines.get(0))) {
+                LOG.debug("Ignoring damaged or unknown " + file);
+                return false;
+            }
+            String line = lines.get(1);
+            int crcStart = line.lastIndexOf('\t');
+            if (crcStart < 0 || !CacheJournal.crc(line.substring(0, crcStart)).equals(line.substring(crcStart + 1))) {
+                LOG.debug("Ignoring damaged " + file);
+                return false;
+            }
+            String[] fields = line.substring(0, crcStart).split("\t", -1);
+            if (fields.length != 2) {
+                return false;
+            }
+            long readNext = Long.parseLong(fields[0]);
+            Set<Long> readFree = new LinkedHashSet<>();
+            if (!fields[1].isEmpty()) {
+                for (String s : fields[1].split(",")) {
+                    long slot = Long.parseLong(s);
+                    if (slot < 0 || slot >= readNext) {
+                        return false;
+                    }
+                    readFree.add(slot);
+                }
+            }
+            if (readNext < 0) {
+                return false;
+            }
+            next = readNext;
+            free.clear();
+            free.addAll(readFree);
+            stamp = readStamp;
+            return true;
+        } catch (IOException | NumberFormatException ex) {
+            LOG.debug("Can not read " + file + ": " + ex);
+            return false;
+        }
+    }
+
+    /**
+     * Sets the high-water mark after the highest numbered folder of the cache
+     * directory and collects the gaps below it as free slots.
+     */
+    private void rebuild() {
+        LOG.debug("Rebuilding " + file + " from content of " + cacheDir);
+        Set<Long> used = new HashSet<>();
+        long max = -1;
+        File[] folders = cacheDir.listFiles();
+        if (folders != null) {
+            for (File f : folders) {
+                Long slot = toSlot(f);
+                if (slot != null) {
+                    used.add(slot);
+                    max = Math.max(max, slot);
+                }
+            }
+        }
+        next = max + 1;
+        free.clear();
+        for (long slot = 0; slot < next && free.size() < MAX_FREE; slot++) {
+            if (!used.contains(slot)) {
+                free.add(slot);
+            }
+        }
+    }
+
+    /**
+     * Writes the state to a temporary file first, so a crash never leaves a
+     * half written file behind.
+     */
+    private void save() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(next).append('\t');
+        boolean first = true;
+        for (Long slot : free) {
+            if (!first) {
+                sb.append(',');
+            }
+            sb.append(slot);
+            first = false;
+        }
+        String content = sb.toString();
+        String data = header() + "\n" + content + "\t" + CacheJournal.crc(content) + "\n";
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            Files.write(tmp.toPath(), data.getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            stamp = FileStamp.of(file);
+        } catch (IOException ex) {
+            LOG.error("ERROR", ex);
+            // the in-memory state stays valid, the file is rebuilt by the next instance
+            stamp = FileStamp.of(file);
+        }
+    }
+
+    private static String header() {
+        return MAGIC + " " + VERSION;
+    }
+}
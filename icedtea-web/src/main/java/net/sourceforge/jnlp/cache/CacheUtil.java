@@ -16,14 +16,17 @@
 
 package net.sourceforge.jnlp.cache;
 
+import net.sourceforge.jnlp.JnlpRuntimeState;
 import net.sourceforge.jnlp.Version;
 import net.sourceforge.jnlp.config.DeploymentConfiguration;
 import net.sourceforge.jnlp.config.PathsAndFiles;
 import net.sourceforge.jnlp.controlpanel.CachePane;
+import net.sourceforge.jnlp.parser.ParserCache;
 import net.sourceforge.jnlp.runtime.ApplicationInstance;
 import net.sourceforge.jnlp.runtime.JNLPRuntime;
 import net.sourceforge.jnlp.runtime.Translator;
 import net.sourceforge.jnlp.security.ConnectionFactory;
+import net.sourceforge.jnlp.tools.VerificationCache;
 import net.sourceforge.jnlp.util.FileUtils;
 import net.sourceforge.jnlp.util.OsUtil;
 import net.sourceforge.jnlp.util.PropertiesFile;
@@ -368,6 +371,16 @@ public class CacheUtil {
         return r;
     }
 
+    /**
+     * Eviction in background is only safe if this JVM does not run an
+     * application itself, as it can not tell whether others run as well.
+     *
+     * @return true if no instance of javaws is running
+     */
+    static boolean okToEvict() {
+        return JnlpRuntimeState.fileLock == null && okToClearCache();
+    }
+
     /**
      * Returns a boolean indicating if it ok to clear the netx application cache at this point
      * @return true if the cache can be cleared at this time without problems
@@ -495,27 +508,33 @@ public class CacheUtil {
 
         File cacheFile = null;
         CacheLRUWrapper lruHandler = CacheLRUWrapper.getInstance();
-        synchronized (lruHandler) {
-            try {
-                lruHandler.lock();
-
-                // We need to reload the cacheOrder file each time
-                // since another plugin/javaws instance may have updated it.
-                lruHandler.load();
-                cacheFile = getCacheFileIfExist(urlToPath(source, ""));
-                if (cacheFile == null) { // We did not find a copy of it.
-                    cacheFile = makeNewCacheFile(source, version);
-                } else
-                    lruHandler.store();
-            } finally {
-                lruHandler.unlock();
+        // The cacheOrder file needs to be reloaded only if
+        // another plugin/javaws instance has updated it.
+        if (lruHandler.isUpToDate()) {
+            cacheFile = getCacheFileIfExist(urlToPath(source, ""));
+            if (cacheFile != null) {
+                return cacheFile;
             }
         }
+        // the lock excludes other threads as well, it is taken before the
+        // monitor of lruHandler, never while holding it
+        try {
+            lruHandler.lock();
+            lruHandler.load();
+            cacheFile = getCacheFileIfExist(urlToPath(source, ""));
+            if (cacheFile == null) { // We did not find a copy of it.
+                cacheFile = makeNewCacheFile(source, version);
+            }
+        } finally {
+            lruHandler.unlock();
+        }
         return cacheFile;
     }
 
     /**
-     * This will return a File pointing to the location of cache item.
+     * This will return a File pointing to the location of cache item. The
+     * access is recorded in memory only, it is written to the cacheOrder
+     * file together with the next change of the cache.
      * 
      * @param urlPath Path of cache item within cache directory.
      * @return File if we have searched before, {@code null} otherwise.
@@ -523,32 +542,15 @@ public class CacheUtil {
     private static File getCacheFileIfExist(File urlPath) {
         CacheLRUWrapper lruHandler = CacheLRUWrapper.getInstance();
         synchronized (lruHandler) {
-            File cacheFile = null;
-            List<Entry<String, String>> entries = lruHandler.getLRUSortedEntries();
-            // Start searching from the most recent to least recent.
-            for (Entry<String, String> e : entries) {
-                final String key = e.getKey();
-                final String path = e.getValue();
-
-                if (pathToURLPath(path).equals(urlPath.getPath())) { // Match found.
-                    cacheFile = new File(path);
-                    lruHandler.updateEntry(key);
-                    break; // Stop searching since we got newest one already.
-                }
+            Entry<String, String> e = lruHandler.getNewestEntry(urlPath.getPath());
+            if (e == null) {
+                return null;
             }
-            return cacheFile;
+            lruHandler.updateEntry(e.getKey());
+            return new File(e.getValue());
         }
     }
 
-    /**
-     * Get the path to file minus the cache directory and indexed folder.
-     */
-    private static String pathToURLPath(String path) {
-        int len = CacheLRUWrapper.getInstance().getCacheDir().getFullPath().length();
-        int index = path.indexOf(File.separatorChar, len + 1);
-        return path.substring(index);
-    }
-
     /**
      * Returns the parent directory of the cached resource.
      * @param filePath The path of the cached resource directory.
@@ -581,36 +583,26 @@ public class CacheUtil {
      */
     public static File makeNewCacheFile(URL source, Version version) {
         CacheLRUWrapper lruHandler = CacheLRUWrapper.getInstance();
-        synchronized (lruHandler) {
-            File cacheFile = null;
+        File cacheFile = null;
+        try {
+            lruHandler.lock();
+            lruHandler.load();
+            String path = lruHandler.allocateCacheFolder();
             try {
-                lruHandler.lock();
-                lruHandler.load();
-                for (long i = 0; i < Long.MAX_VALUE; i++) {
-                    String path = lruHandler.getCacheDir().getFullPath()+ File.separator + i;
-                    File cDir = new File(path);
-                    if (!cDir.exists()) {
-                        // We can use this directory.
-                        try {
-                            cacheFile = urlToPath(source, path);
-                            FileUtils.createParentDir(cacheFile);
-                            File pf = new File(cacheFile.getPath() + CacheDirectory.INFO_SUFFIX);
-                            FileUtils.createRestrictedFile(pf, true); // Create the info file for marking later.
-                            lruHandler.addEntry(lruHandler.generateKey(cacheFile.getPath()), cacheFile.getPath());
-                        } catch (IOException ioe) {
-                            LOG.error("ERROR", ioe);
-                        }
-
-                        break;
-                    }
-                }
-
-                lruHandler.store();
-            } finally {
-                lruHandler.unlock();
+                cacheFile = urlToPath(source, path);
+                FileUtils.createParentDir(cacheFile);
+                File pf = new File(cacheFile.getPath() + CacheDirectory.INFO_SUFFIX);
+                FileUtils.createRestrictedFile(pf, true); // Create the info file for marking later.
+                lruHandler.addEntry(lruHandler.generateKey(cacheFile.getPath()), cacheFile.getPath());
+            } catch (IOException ioe) {
+                LOG.error("ERROR", ioe);
             }
-            return cacheFile;
+
+            lruHandler.store();
+        } finally {
+            lruHandler.unlock();
         }
+        return cacheFile;
     }
 
     /**
@@ -624,6 +616,8 @@ public class CacheUtil {
      */
     public static OutputStream getOutputStream(URL source, Version version) throws IOException {
         File localFile = getCacheFile(source, version);
+        // never write through an existing file, it may share its content with others
+        Files.deleteIfExists(localFile.toPath());
         OutputStream out = new FileOutputStream(localFile);
 
         return new BufferedOutputStream(out);
@@ -645,7 +639,7 @@ public class CacheUtil {
             os = new BufferedOutputStream(os);
 
         try {
-            byte b[] = new byte[4096];
+            byte b[] = new byte[CacheIO.BUFFER_SIZE];
             while (true) {
                 int c = is.read(b, 0, b.length);
                 if (c == -1)
@@ -867,7 +861,7 @@ public class CacheUtil {
                     keep.add(file.getPath().substring(rStr.length()));
 
                     for (File f : file.getParentFile().listFiles()) {
-                        if (!(f.equals(file) || f.equals(pf.getStoreFile()))) {
+                        if (!(f.equals(file) || f.equals(pf.getStoreFile()) || f.equals(ClassIndex.getIndexFile(file)))) {
                             try {
                                 FileUtils.recursiveDelete(f, f);
                             } catch (IOException e1) {
@@ -882,6 +876,39 @@ public class CacheUtil {
                 lruHandler.unlock();
             }
             removeSetOfDirectories(remove);
+            if (ContentStore.isEnabled()) {
+                ContentStore.getInstance().collect();
+            }
+            VerificationCache.getInstance().collect();
+            ParserCache.getInstance().collect();
+            try {
+                lruHandler.lock();
+                lruHandler.releaseCacheFolders(remove);
+            } finally {
+                lruHandler.unlock();
+            }
+        } else {
+            // at least do not lose the accesses recorded by this instance
+            lruHandler.storeChanges();
+        }
+    }
+
+    /**
+     * Evicts items over the size limit, outdated copies of resources and
+     * items whose file is gone, and collects unused verification and parser
+     * records. Unlike {@link #cleanCache()} it does not read the info file
+     * of every item, so it is cheap enough to be run whenever the runtime
+     * exits.
+     */
+    public static void trimCache() {
+        CacheLRUWrapper lruHandler = CacheLRUWrapper.getInstance();
+        if (okToClearCache()) {
+            CacheEvictor.getInstance().evictNow();
+            VerificationCache.getInstance().collect();
+            ParserCache.getInstance().collect();
+        } else {
+            // at least do not lose the accesses recorded by this instance
+            lruHandler.storeChanges();
         }
     }
 
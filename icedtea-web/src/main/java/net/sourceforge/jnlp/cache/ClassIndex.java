@@ -0,0 +1,253 @@
+package net.sourceforge.jnlp.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+/**
+ * Names of the classes in a cached jar, kept in a {@link #SUFFIX} file next
+ * to the jar.
+ *
+ * The index is read from the central directory of the jar when the jar is
+ * downloaded to the cache, so a class loader can tell which of its lazy jars
+ * holds a class before it adds, or even waits for, any of them. The first
+ * line of the file records the length and modification time of the jar
+ * indexed; an index not matching its jar anymore is built again.
+ *
+ * A jar may lead to classes the index does not name: nested jars, a
+ * {@code Class-Path} in its manifest or a {@code META-INF/INDEX.LIST}. The
+ * index of such a jar is not {@link #isComplete() complete}, so its jar must
+ * still be searched for classes not named.
+ */
+public class ClassIndex {
+
+    private final static Logger LOG = LoggerFactory.getLogger(ClassIndex.class);
+
+    public static final String SUFFIX = ".classes";
+
+    private static final String CLASS_SUFFIX = ".class";
+
+    private final Set<String> classes;
+    private final boolean complete;
+
+    /** names of the classes with dots for slashes, made when first needed */
+    private volatile Set<String> dottedClasses;
+
+    ClassIndex(Set<String> classes, boolean complete) {
+        this.classes = classes;
+        this.complete = complete;
+    }
+
+    /**
+     * @param name binary name of a class, e.g. {@code a.b.C$D}
+     * @return true if the jar holds the class
+     */
+    public boolean contains(String name) {
+        return classes.contains(name.replace('.', '/'));
+    }
+
+    /**
+     * Tells whether the jar holds a class entry which, with its slashes
+     * replaced by dots, is the name given, the way the main class of an
+     * application is looked for. Unlike {@link #contains(String)}, this also
+     * finds classes in directories with dots in their names.
+     *
+     * @param name name of a class with dots as separators, e.g. {@code a.b.C}
+     * @return true if the jar holds such an entry
+     */
+    public boolean containsDotted(String name) {
+        Set<String> dotted = dottedClasses;
+        if (dotted == null) {
+            dotted = new HashSet<>();
+            for (String c : classes) {
+                dotted.add(c.replace('/', '.'));
+            }
+            dottedClasses = dotted;
+        }
+        return dotted.contains(name);
+    }
+
+    /**
+     * @return true if all classes the jar leads to are named by the index
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return number of classes in the jar
+     */
+    public int size() {
+        return classes.size();
+    }
+
+    /**
+     * @param jar a cached jar
+     * @return the file the index of the jar is kept in
+     */
+    public static File getIndexFile(File jar) {
+        return new File(jar.getPath() + SUFFIX);
+    }
+
+    /**
+     * Returns the index of the jar, reading it from its file, or building it
+     * again if the file is missing or does not match the jar.
+     *
+     * @param jar a cached file
+     * @return the index, or {@code null} if the file is no jar or cannot be read
+     */
+    public static ClassIndex get(File jar) {
+        try {
+            ClassIndex index = read(jar);
+            if (index == null) {
+                index = create(jar);
+            }
+            return index;
+        } catch (IOException ex) {
+            LOG.error("ERROR", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Builds the index of the jar and stores it next to the jar, unless a
+     * matching index is there already.
+     *
+     * @param jar a cached file
+     * @throws IOException if the jar cannot be read or the index not written
+     */
+    public static void update(File jar) throws IOException {
+        if (read(jar) == null) {
+            create(jar);
+        }
+    }
+
+    /**
+     * Deletes the index of the jar, if any.
+     *
+     * @param jar a cached jar
+     */
+    public static void delete(File jar) {
+        try {
+            Files.deleteIfExists(getIndexFile(jar).toPath());
+        } catch (IOException ex) {
+            LOG.error("ERROR", ex);
+        }
+    }
+
+    /**
+     * @return the index stored for the jar, or {@code null} if there is none
+     * or it does not match the jar
+     */
+    static ClassIndex read(File jar) throws IOException {
+        File indexFile = getIndexFile(jar);
+        if (!jar.isFile() || !indexFile.isFile()) {
+            return null;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            String[] fields = header == null ? new String[0] : header.split(" ");
+            if (fields.length != 3 || !fields[0].equals(Long.toString(jar.length()))
+                    || !fields[1].equals(Long.toString(jar.lastModified()))) {
+                return null;
+            }
+            Set<String> classes = new HashSet<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                classes.add(line);
+            }
+            return new ClassIndex(classes, Boolean.parseBoolean(fields[2]));
+        } catch (NoSuchFileException ex) {
+            // deleted meanwhile
+            return null;
+        }
+    }
+
+    /**
+     * Builds the index of the jar from its central directory and stores it.
+     *
+     * @return the index, or {@code null} if the file is no jar
+     */
+    static ClassIndex create(File jar) throws IOException {
+        if (!isZip(jar)) {
+            return null;
+        }
+        // taken first, so an index of a jar replaced meanwhile does not match
+        long length = jar.length();
+        long modified = jar.lastModified();
+        Set<String> classes = new HashSet<>();
+        boolean complete;
+        try (JarFile jarFile = new JarFile(jar, false)) {
+            complete = jarFile.getEntry("META-INF/INDEX.LIST") == null;
+            Manifest manifest = jarFile.getManifest();
+            if (manifest != null && manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH) != null) {
+                complete = false;
+            }
+            for (Enumeration<? extends ZipEntry> entries = jarFile.entries(); entries.hasMoreElements();) {
+                String name = entries.nextElement().getName();
+                if (name.endsWith(CLASS_SUFFIX)) {
+                    classes.add(name.substring(0, name.length() - CLASS_SUFFIX.length()));
+                } else if (name.endsWith(".jar")) {
+                    complete = false;
+                }
+            }
+        }
+        write(getIndexFile(jar), length, modified, classes, complete);
+        return new ClassIndex(classes, complete);
+    }
+
+    private static void write(File indexFile, long length, long modified, Set<String> classes, boolean complete) throws IOException {
+        Path temp = Files.createTempFile(indexFile.getParentFile().toPath(), indexFile.getName(), ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writer.write(length + " " + modified + " " + complete);
+                writer.newLine();
+                for (String name : classes) {
+                    writer.write(name);
+                    writer.newLine();
+                }
+            }
+            try {
+                Files.move(temp, indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @return true if the file starts like a zip archive, also an empty one
+     */
+    private static boolean isZip(File file) throws IOException {
+        byte[] magic = new byte[4];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read = 0;
+            int rlen;
+            while (read < magic.length && (rlen = in.read(magic, read, magic.length - read)) != -1) {
+                read += rlen;
+            }
+            return read == magic.length && magic[0] == 'P' && magic[1] == 'K'
+                    && ((magic[2] == 3 && magic[3] == 4) || (magic[2] == 5 && magic[3] == 6));
+        }
+    }
+}
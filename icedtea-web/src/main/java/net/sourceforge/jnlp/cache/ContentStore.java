@@ -0,0 +1,229 @@
+package net.sourceforge.jnlp.cache;
+
+import net.sourceforge.jnlp.config.DeploymentConfiguration;
+import net.sourceforge.jnlp.runtime.JNLPRuntime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content addressed store below the cache directory, which lets identical
+ * files downloaded from different locations share their bytes.
+ *
+ * Every file stored is hashed by SHA-256 and hard linked to
+ * {@code blobs/<first two digits>/<hash>}. If a blob with the same hash is
+ * present already, the cached file is replaced by another link to it, so the
+ * content is kept on disk (and in the page cache) only once.
+ *
+ * The link count of a blob serves as its reference count, so removing a cached
+ * file the usual way, e.g. by eviction, needs no bookkeeping here. Blobs not
+ * referenced by any cached file anymore are deleted by {@link #collect()}. As
+ * a cached file holds its content by itself, a blob collected or replaced
+ * concurrently never corrupts it, only the chance to share is lost.
+ *
+ * The store is used only if enabled by
+ * {@link DeploymentConfiguration#KEY_CACHE_DEDUPLICATION} and if the file
+ * system supports hard links and exposes their count.
+ */
+public class ContentStore {
+
+    private final static Logger LOG = LoggerFactory.getLogger(ContentStore.class);
+
+    static final String DIRECTORY = "blobs";
+    private static final String ALGORITHM = "SHA-256";
+    private static final String LINK_COUNT = "unix:nlink";
+
+    private static class ContentStoreHolder {
+
+        private static final ContentStore INSTANCE = new ContentStore(new File(CacheLRUWrapper.getInstance().getCacheDir().getFile(), DIRECTORY));
+    }
+
+    private final File root;
+    private Boolean supported;
+
+    ContentStore(File root) {
+        this.root = root;
+    }
+
+    public static ContentStore getInstance() {
+        return ContentStoreHolder.INSTANCE;
+    }
+
+    /**
+     * @return true if deduplication is enabled in the configuration
+     */
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(JNLPRuntime.getConfiguration().getProperty(DeploymentConfiguration.KEY_CACHE_DEDUPLICATION));
+    }
+
+    File getRoot() {
+        return root;
+    }
+
+    /**
+     * @return true if the file system of the store supports counting hard
+     * links
+     */
+    synchronized boolean isSupported() {
+        if (supported == null) {
+            supported = root.getParentFile() != null
+                    && root.getParentFile().toPath().getFileSystem().supportedFileAttributeViews().contains("unix");
+            if (!supported) {
+                LOG.debug("Hard link counts are not available for " + root + ", content will not be shared");
+            }
+        }
+        return supported;
+    }
+
+    /**
+     * @param hash SHA-256 of some content, in hex
+     * @return location of the blob for the content, it may not exist
+     */
+    File getBlob(String hash) {
+        return new File(new File(root, hash.substring(0, 2)), hash);
+    }
+
+    /**
+     * Shares the content of a freshly written cached file with all other
+     * cached files of same content.
+     *
+     * @param file the cached file
+     * @return the SHA-256 of the content in hex, or {@code null} if the content
+     * could not be stored
+     */
+    public String store(File file) {
+        if (!isSupported() || !file.isFile()) {
+            return null;
+        }
+        try {
+            String hash = hash(file);
+            Path blob = getBlob(hash).toPath();
+            Files.createDirectories(blob.getParent());
+            for (int attempt = 0; attempt < 2; attempt++) {
+                if (!Files.exists(blob)) {
+                    try {
+                        Files.createLink(blob, file.toPath());
+                        return hash;
+                    } catch (FileAlreadyExistsException ex) {
+                        // stored by another instance meanwhile, link to it instead
+                    }
+                }
+                if (Files.isSameFile(blob, file.toPath())) {
+                    return hash;
+                }
+                if (Files.size(blob) != file.length()) {
+                    LOG.debug("Replacing damaged blob " + blob);
+                    Files.deleteIfExists(blob);
+                    continue;
+                }
+                try {
+                    replaceByLink(file.toPath(), blob);
+                    return hash;
+                } catch (NoSuchFileException ex) {
+                    // collected meanwhile, store the content again
+                }
+            }
+            return null;
+        } catch (IOException | UnsupportedOperationException ex) {
+            LOG.debug("Content of " + file + " could not be shared: " + ex);
+            return null;
+        }
+    }
+
+    /**
+     * Deletes all blobs which are not linked from any cached file anymore.
+     *
+     * @return number of deleted blobs
+     */
+    public int collect() {
+        if (!isSupported()) {
+            return 0;
+        }
+        File[] buckets = root.listFiles();
+        if (buckets == null) {
+            return 0;
+        }
+        int collected = 0;
+        for (File bucket : buckets) {
+            File[] blobs = bucket.listFiles();
+            if (blobs == null) {
+                continue;
+            }
+            for (File blob : blobs) {
+                try {
+                    if (getLinkCount(blob.toPath()) <= 1 && Files.deleteIfExists(blob.toPath())) {
+                        collected++;
+                    }
+                } catch (IOException | UnsupportedOperationException | IllegalArgumentException ex) {
+                    LOG.debug("Can not collect " + blob + ": " + ex);
+                }
+            }
+        }
+        if (collected > 0) {
+            LOG.debug("Collected " + collected + " unreferenced blobs from " + root);
+        }
+        return collected;
+    }
+
+    /**
+     * @return number of cached files sharing the blob, including the blob
+     * itself
+     */
+    static int getLinkCount(Path path) throws IOException {
+        return ((Number) Files.getAttribute(path, LINK_COUNT)).intValue();
+    }
+
+    /**
+     * @param file file to hash
+     * @return SHA-256 of the content of the file, in hex
+     * @throws IOException if the file can not be read
+     */
+    public static String hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int rlen;
+            while (-1 != (rlen = in.read(buf))) {
+                digest.update(buf, 0, rlen);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Creates the link next to the file first, so the file is never missing.
+     */
+    private static void replaceByLink(Path file, Path blob) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".link");
+        Files.deleteIfExists(tmp);
+        Files.createLink(tmp, blob);
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package net.sourceforge.jnlp.cache;
+
+import net.sourceforge.jnlp.config.DeploymentConfiguration;
+import net.sourceforge.jnlp.runtime.JNLPRuntime;
+import net.sourceforge.jnlp.util.UrlUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URL;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the downloads of resources with limited concurrency.
+ *
+ * At most {@link DeploymentConfiguration#KEY_DOWNLOAD_THREADS} downloads run
+ * at once, and at most {@link DeploymentConfiguration#KEY_DOWNLOAD_THREADS_PER_HOST}
+ * of them from the same host and port. Waiting downloads are started by
+ * {@link Priority}, in the order they were submitted within the same
+ * priority. A download some thread is blocked on is promoted to
+ * {@link Priority#BLOCKING} by {@link #promote(Resource)}.
+ *
+ * The downloads are run by the given executor, which is expected to provide
+ * a thread for each, as the limits are enforced here.
+ */
+public class DownloadScheduler {
+
+    private final static Logger LOG = LoggerFactory.getLogger(DownloadScheduler.class);
+
+    /**
+     * Order in which waiting downloads are started, the first one first.
+     */
+    public enum Priority {
+        /** a thread waits for the resource */
+        BLOCKING,
+        /** the jar holding the main class */
+        MAIN,
+        /** eager jars and any other resource needed to launch */
+        EAGER,
+        /** lazy jars, needed only once a class of them is loaded */
+        LAZY;
+
+        /**
+         * @return the more urgent of this and the given priority
+         */
+        public Priority max(Priority other) {
+            return other == null || compareTo(other) <= 0 ? this : other;
+        }
+    }
+
+    private static class DownloadSchedulerHolder {
+
+        private static final DownloadScheduler INSTANCE = new DownloadScheduler(CachedDaemonThreadPoolProvider.DAEMON_THREAD_POOL,
+                getLimit(DeploymentConfiguration.KEY_DOWNLOAD_THREADS, 6),
+                getLimit(DeploymentConfiguration.KEY_DOWNLOAD_THREADS_PER_HOST, 4));
+    }
+
+    private class Task implements Runnable {
+
+        private final Runnable download;
+        private final Resource resource;
+        private final String host;
+        private final long sequence;
+        private final long submitted;
+        private Priority priority;
+
+        private Task(Runnable download, Resource resource, Priority priority, long sequence) {
+            this.download = download;
+            this.resource = resource;
+            this.host = getHost(resource.getLocation());
+            this.priority = priority;
+            this.sequence = sequence;
+            this.submitted = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            try {
+                download.run();
+            } finally {
+                finished(this);
+            }
+        }
+    }
+
+    private static final Comparator<Task> ORDER = new Comparator<Task>() {
+        @Override
+        public int compare(Task t1, Task t2) {
+            int result = t1.priority.compareTo(t2.priority);
+            return result != 0 ? result : Long.compare(t1.sequence, t2.sequence);
+        }
+    };
+
+    private final Executor executor;
+    private final int maxThreads;
+    private final int maxThreadsPerHost;
+
+    // all guarded by this
+    private final TreeSet<Task> queue = new TreeSet<>(ORDER);
+    private final Map<Resource, Task> queued = new HashMap<>();
+    private final Map<String, Integer> runningPerHost = new HashMap<>();
+    private int running;
+    private long sequence;
+    private long started;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+    private int maxQueueDepth;
+
+    DownloadScheduler(Executor executor, int maxThreads, int maxThreadsPerHost) {
+        this.executor = executor;
+        this.maxThreads = Math.max(1, maxThreads);
+        this.maxThreadsPerHost = Math.max(1, maxThreadsPerHost);
+    }
+
+    public static DownloadScheduler getInstance() {
+        return DownloadSchedulerHolder.INSTANCE;
+    }
+
+    private static int getLimit(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(JNLPRuntime.getConfiguration().getProperty(key));
+        } catch (NumberFormatException ex) {
+            return defaultValue;
+        }
+    }
+
+    private static String getHost(URL location) {
+        return location.getProtocol() + "://" + UrlUtils.getHostAndPort(location);
+    }
+
+    /**
+     * Queues the download of a resource, and starts it as soon as the limits
+     * allow. If the resource is queued already, only its priority is raised.
+     *
+     * @param download the download to run
+     * @param resource the resource downloaded
+     * @param priority the priority of the download
+     */
+    public void submit(Runnable download, Resource resource, Priority priority) {
+        synchronized (this) {
+            Task task = queued.get(resource);
+            if (task != null) {
+                raise(task, priority);
+                return;
+            }
+            task = new Task(download, resource, priority, sequence++);
+            queue.add(task);
+            queued.put(resource, task);
+            maxQueueDepth = Math.max(maxQueueDepth, queue.size());
+        }
+        dispatch();
+    }
+
+    /**
+     * Moves the download of a resource some thread waits for in front of
+     * all downloads nobody waits for yet. Does nothing if the download is
+     * running already or was not submitted.
+     *
+     * @param resource the resource waited for
+     */
+    public synchronized void promote(Resource resource) {
+        Task task = queued.get(resource);
+        if (task != null) {
+            raise(task, Priority.BLOCKING);
+        }
+    }
+
+    /**
+     * Must be called holding the lock.
+     */
+    private void raise(Task task, Priority priority) {
+        Priority raised = task.priority.max(priority);
+        if (raised != task.priority) {
+            queue.remove(task);
+            task.priority = raised;
+            queue.add(task);
+        }
+    }
+
+    /**
+     * Starts as many queued downloads as the limits allow.
+     */
+    private void dispatch() {
+        while (true) {
+            Task next = null;
+            synchronized (this) {
+                if (running >= maxThreads) {
+                    return;
+                }
+                for (Iterator<Task> it = queue.iterator(); it.hasNext();) {
+                    Task task = it.next();
+                    Integer perHost = runningPerHost.get(task.host);
+                    if (perHost == null || perHost < maxThreadsPerHost) {
+                        it.remove();
+                        queued.remove(task.resource);
+                        runningPerHost.put(task.host, perHost == null ? 1 : perHost + 1);
+                        running++;
+                        started++;
+                        long wait = System.nanoTime() - task.submitted;
+                        totalWaitNanos += wait;
+                        maxWaitNanos = Math.max(maxWaitNanos, wait);
+                        next = task;
+                        break;
+                    }
+                }
+                if (next == null) {
+                    return;
+                }
+            }
+            try {
+                executor.execute(next);
+            } catch (RuntimeException ex) {
+                LOG.error("ERROR", ex);
+                finished(next);
+            }
+        }
+    }
+
+    private void finished(Task task) {
+        synchronized (this) {
+            running--;
+            Integer perHost = runningPerHost.get(task.host);
+            if (perHost == null || perHost <= 1) {
+                runningPerHost.remove(task.host);
+            } else {
+                runningPerHost.put(task.host, perHost - 1);
+            }
+        }
+        dispatch();
+    }
+
+    /**
+     * @return number of downloads waiting for a thread
+     */
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return highest number of downloads waiting at once
+     */
+    public synchronized int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     * @return number of downloads running
+     */
+    public synchronized int getRunningCount() {
+        return running;
+    }
+
+    /**
+     * @return number of downloads started so far
+     */
+    public synchronized long getStartedCount() {
+        return started;
+    }
+
+    /**
+     * @return average time the started downloads waited in the queue, in
+     * milliseconds
+     */
+    public synchronized long getAverageWaitMillis() {
+        return started == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos / started);
+    }
+
+    /**
+     * @return longest time a started download waited in the queue, in
+     * milliseconds
+     */
+    public synchronized long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+    }
+}
@@ -0,0 +1,71 @@
+package net.sourceforge.jnlp.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Objects;
+
+/**
+ * Modification time, size and file key (inode) of a file at some moment. Used
+ * to find out whether a file shared with other processes was changed since
+ * it was last read or written, without reading it.
+ */
+final class FileStamp {
+
+    private static final FileStamp MISSING = new FileStamp(null, -1, null);
+
+    private final FileTime modified;
+    private final long size;
+    private final Object fileKey;
+
+    private FileStamp(FileTime modified, long size, Object fileKey) {
+        this.modified = modified;
+        this.size = size;
+        this.fileKey = fileKey;
+    }
+
+    /**
+     * @param file file to inspect
+     * @return current stamp of the file, all missing files share the same stamp
+     */
+    static FileStamp of(File file) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return new FileStamp(attrs.lastModifiedTime(), attrs.size(), attrs.fileKey());
+        } catch (IOException ex) {
+            return MISSING;
+        }
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof FileStamp)) {
+            return false;
+        }
+        FileStamp other = (FileStamp) obj;
+        if (size != other.size || !Objects.equals(modified, other.modified) || !Objects.equals(fileKey, other.fileKey)) {
+            return false;
+        }
+        if (modified == null) {
+            return true;
+        }
+        /*
+         * Some filesystems provide timestamps with accuracy of seconds only.
+         * A change done within the same second can not be told apart then,
+         * so such a stamp is considered current only once that second is over.
+         */
+        long millis = modified.toMillis();
+        return millis % 1000 != 0 || millis / 1000 != System.currentTimeMillis() / 1000;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(modified, size, fileKey);
+    }
+}
@@ -0,0 +1,212 @@
+package net.sourceforge.jnlp.cache;
+
+import net.sourceforge.jnlp.JnlpRuntimeState;
+import net.sourceforge.jnlp.util.JarFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.Manifest;
+
+/**
+ * What is known about a cached jar without reading the content of its
+ * entries: its manifest, the names of its entries and whether it holds
+ * nested jars, native libraries or a {@code META-INF/INDEX.LIST}. The hash
+ * of its content, by which its verified signatures are recorded, is taken
+ * once when first asked for.
+ *
+ * The jar is opened once to read all of it, and the result is kept for the
+ * {@link #MAX_JARS} jars used last, so asking for the main class, any other
+ * manifest attribute or the entries again does not open the jar again. It is
+ * read again once its length or modification time changed.
+ */
+public final class JarMetadata {
+
+    /** number of jars kept */
+    static final int MAX_JARS = 256;
+
+    private static final String INDEX_NAME = "META-INF/INDEX.LIST";
+
+    private static final Map<File, JarMetadata> CACHE = new LinkedHashMap<File, JarMetadata>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, JarMetadata> eldest) {
+            return size() > MAX_JARS;
+        }
+    };
+
+    private final File jar;
+    private final long length;
+    private final long modified;
+    private final boolean headersIgnored;
+    private final Manifest manifest;
+    private final List<String> entryNames;
+    private final boolean nestedJars;
+    private final boolean libraries;
+    private final boolean index;
+    private volatile String hash;
+
+    private JarMetadata(File jar, long length, long modified, boolean headersIgnored, Manifest manifest, List<String> entryNames) {
+        this.jar = jar;
+        this.length = length;
+        this.modified = modified;
+        this.headersIgnored = headersIgnored;
+        this.manifest = manifest;
+        this.entryNames = Collections.unmodifiableList(entryNames);
+        boolean nestedJars = false;
+        boolean libraries = false;
+        boolean index = false;
+        for (String name : entryNames) {
+            if (name.endsWith(".jar")) {
+                nestedJars = true;
+            } else if (NativeLibraryStorage.isLibrary(new JarEntry(name))) {
+                libraries = true;
+            } else if (name.equals(INDEX_NAME)) {
+                index = true;
+            }
+        }
+        this.nestedJars = nestedJars;
+        this.libraries = libraries;
+        this.index = index;
+    }
+
+    /**
+     * Returns what is known about the jar, reading it only if it was not read
+     * before or changed since.
+     *
+     * @param jar a cached jar
+     * @return the metadata of the jar
+     * @throws IOException if the file is no jar or can not be read
+     */
+    public static JarMetadata get(File jar) throws IOException {
+        File key = jar.getAbsoluteFile();
+        JarMetadata metadata;
+        synchronized (CACHE) {
+            metadata = CACHE.get(key);
+        }
+        if (metadata != null && metadata.matches(key)) {
+            return metadata;
+        }
+        metadata = read(key);
+        synchronized (CACHE) {
+            CACHE.put(key, metadata);
+        }
+        return metadata;
+    }
+
+    /**
+     * @return true if the jar is still the one read, and its headers would
+     * be accepted now
+     */
+    private boolean matches(File jar) {
+        return jar.length() == length && jar.lastModified() == modified
+                && (!headersIgnored || JnlpRuntimeState.isIgnoreHeaders());
+    }
+
+    private static JarMetadata read(File jar) throws IOException {
+        // taken first, so a jar replaced meanwhile does not match
+        long length = jar.length();
+        long modified = jar.lastModified();
+        boolean headersIgnored = JnlpRuntimeState.isIgnoreHeaders();
+        try (JarFile jarFile = new JarFile(jar, false)) {
+            List<String> names = new ArrayList<>(jarFile.size());
+            for (JarEntry je : Collections.list(jarFile.entries())) {
+                names.add(je.getName());
+            }
+            return new JarMetadata(jar, length, modified, headersIgnored, jarFile.getManifest(), names);
+        }
+    }
+
+    /**
+     * @return a copy of the manifest of the jar, {@code null} if it has none
+     */
+    public Manifest getManifest() {
+        return manifest == null ? null : new Manifest(manifest);
+    }
+
+    /**
+     * @param name name of a main attribute of the manifest
+     * @return value of the attribute, {@code null} if the jar has no manifest
+     * or the manifest does not have the attribute
+     */
+    public String getMainAttribute(Attributes.Name name) {
+        if (manifest == null || manifest.getMainAttributes() == null) {
+            //yes, jars without manifest exists
+            return null;
+        }
+        return manifest.getMainAttributes().getValue(name);
+    }
+
+    /**
+     * @return names of the entries of the jar, in the order of its central
+     * directory
+     */
+    public List<String> getEntryNames() {
+        return entryNames;
+    }
+
+    /**
+     * @return true if the jar holds other jars
+     */
+    public boolean hasNestedJars() {
+        return nestedJars;
+    }
+
+    /**
+     * @return true if the jar holds native libraries, see
+     * {@link NativeLibraryStorage#isLibrary(JarEntry)}
+     */
+    public boolean hasLibraries() {
+        return libraries;
+    }
+
+    /**
+     * @return true if the jar has a {@code META-INF/INDEX.LIST}
+     */
+    public boolean hasIndex() {
+        return index;
+    }
+
+    /**
+     * @return SHA-256 of the content of the jar, see
+     * {@link ContentStore#hash(File)}
+     * @throws IOException if the jar can not be read
+     */
+    public String getHash() throws IOException {
+        String result = hash;
+        if (result == null) {
+            result = ContentStore.hash(jar);
+            // not kept if the jar changed, the next call reads it again
+            if (matches(jar)) {
+                hash = result;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the jar did not change since it was read
+     */
+    public boolean isCurrent() {
+        return matches(jar);
+    }
+
+    /**
+     * @return length of the jar when it was read
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return modification time of the jar when it was read
+     */
+    public long getModified() {
+        return modified;
+    }
+}
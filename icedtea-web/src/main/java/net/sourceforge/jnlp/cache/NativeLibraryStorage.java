@@ -5,12 +5,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -25,7 +25,7 @@ public class NativeLibraryStorage {
 
 
     private final ResourceTracker tracker;
-    private final List<File> nativeSearchDirectories = new ArrayList<>();
+    private final List<File> nativeSearchDirectories = new CopyOnWriteArrayList<>();
 
     /* Temporary directory to store native jar entries, added to our search path */
     private File jarEntryDirectory = null;
@@ -96,37 +96,18 @@ public class NativeLibraryStorage {
             return;
 
         try {
+            if (!JarMetadata.get(localFile).hasLibraries()) {
+                return;
+            }
             try (JarFile jarFile = new JarFile(localFile, false)) {
                 Enumeration<JarEntry> entries = jarFile.entries();
                 
                 while (entries.hasMoreElements()) {
                     JarEntry e = entries.nextElement();
                     
-                    if (e.isDirectory()) {
-                        continue;
-                    }
-                    
-                    String name = new File(e.getName()).getName();
-                    boolean isLibrary = false;
-                    
-                    for (String suffix : NATIVE_LIBRARY_EXTENSIONS) {
-                        if (name.endsWith(suffix)) {
-                            isLibrary = true;
-                            break;
-                        }
-                    }
-                    if (!isLibrary) {
-                        continue;
-                    }
-                    
-                    ensureNativeStoreDirectory();
-                    
-                    File outFile = new File(jarEntryDirectory, name);
-                    if (!outFile.isFile()) {
-                        FileUtils.createRestrictedFile(outFile, true);
+                    if (isLibrary(e)) {
+                        addLibrary(jarFile, e);
                     }
-                    CacheUtil.streamCopy(jarFile.getInputStream(e),
-                            new FileOutputStream(outFile));
                 }
             }
         } catch (IOException ex) {
@@ -134,7 +115,47 @@ public class NativeLibraryStorage {
         }
     }
 
-    void ensureNativeStoreDirectory() {
+    /**
+     * @param e an entry of a jar
+     * @return true if the entry is a native library
+     */
+    public static boolean isLibrary(JarEntry e) {
+        if (e.isDirectory()) {
+            return false;
+        }
+
+        String name = new File(e.getName()).getName();
+        for (String suffix : NATIVE_LIBRARY_EXTENSIONS) {
+            if (name.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies a native library out of a jar into the filesystem, where
+     * {@link #findLibrary(String)} finds it. Libraries are copied one at a
+     * time, as those of the same name in two jars go to the same file.
+     * @param jarFile the jar holding the library
+     * @param e the entry of the library, see {@link #isLibrary(JarEntry)}
+     * @throws IOException if the library cannot be copied
+     */
+    private synchronized void addLibrary(JarFile jarFile, JarEntry e) throws IOException {
+        String name = new File(e.getName()).getName();
+
+        ensureNativeStoreDirectory();
+
+        File outFile = new File(jarEntryDirectory, name);
+        if (!outFile.isFile()) {
+            FileUtils.createRestrictedFile(outFile, true);
+        }
+        try (InputStream in = jarFile.getInputStream(e)) {
+            CacheIO.write(in, outFile, e.getSize(), null);
+        }
+    }
+
+    synchronized void ensureNativeStoreDirectory() {
         if (jarEntryDirectory == null) {
             jarEntryDirectory = createNativeStoreDirectory();
             addSearchDirectory(jarEntryDirectory);
@@ -0,0 +1,324 @@
+package net.sourceforge.jnlp.cache;
+
+import net.sourceforge.jnlp.config.DeploymentConfiguration;
+import net.sourceforge.jnlp.runtime.JNLPRuntime;
+import net.sourceforge.jnlp.security.ConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads a resource over http into a {@link #PART_SUFFIX} file next to
+ * its cache file, which replaces the cache file once complete.
+ *
+ * The entity tag, or else the modification date, of the response is kept
+ * in the {@link CacheEntry} while the download runs, together with the
+ * location downloaded from. If the connection
+ * breaks, the download is resumed from the end of the part file by a
+ * {@code Range} request, made conditional on that validator by
+ * {@code If-Range}: a changed resource is sent in full, and the part file
+ * started over. Resumes are tried a few times right away, and the part file
+ * is left for the next download of the resource otherwise. It is only
+ * resumed from the location it was read from, and is discarded if the
+ * server cannot serve the range asked for.
+ *
+ * Large resources are split into {@link DeploymentConfiguration#KEY_DOWNLOAD_SEGMENTS}
+ * ranges downloaded in parallel, if configured and supported by the server.
+ */
+public class PartialDownload {
+
+    private final static Logger LOG = LoggerFactory.getLogger(PartialDownload.class);
+
+    public static final String PART_SUFFIX = ".part";
+
+    /** number of times a broken download is resumed at once */
+    static final int MAX_ATTEMPTS = 3;
+
+    /** smallest resource split into segments */
+    static final long SEGMENT_MIN_SIZE = 4 << 20;
+
+    private final Resource resource;
+    private final URL downloadFrom;
+    private final File cacheFile;
+    private final File partFile;
+    private String validator;
+    /* location the part file was read from */
+    private String source;
+
+    PartialDownload(Resource resource, URL downloadFrom) {
+        this.resource = resource;
+        this.downloadFrom = downloadFrom;
+        this.cacheFile = CacheUtil.getCacheFile(resource.getLocation(), resource.getDownloadVersion());
+        this.partFile = new File(cacheFile.getPath() + PART_SUFFIX);
+        CacheEntry entry = new CacheEntry(resource.getLocation(), resource.getDownloadVersion());
+        this.validator = entry.getPartValidator();
+        this.source = entry.getPartSource();
+    }
+
+    /**
+     * @return a connection resuming the part file left by an earlier
+     * download, or {@code null} if there is none, in which case the
+     * resource is to be downloaded in full
+     */
+    HttpURLConnection openResumed() throws IOException {
+        long offset = partFile.length();
+        if (validator == null || offset == 0) {
+            return null;
+        }
+        if (!downloadFrom.toExternalForm().equals(source)) {
+            // read from another location, which may serve other bytes, like a compressed variant
+            LOG.debug("Discarding download of " + source + ", now downloading from " + downloadFrom);
+            discard();
+            return null;
+        }
+        LOG.debug("Resuming download of " + downloadFrom + " at " + offset);
+        HttpURLConnection connection = openConnection(offset, -1);
+        if (connection.getResponseCode() == 416) {
+            // range not satisfiable, the part file does not fit the resource
+            LOG.debug("Discarding download of " + downloadFrom + ", " + offset + " bytes cannot be resumed");
+            ConnectionFactory.getConnectionFactory().disconnect(connection);
+            discard();
+            return null;
+        }
+        return connection;
+    }
+
+    private void discard() throws IOException {
+        Files.deleteIfExists(partFile.toPath());
+        setValidator(null);
+    }
+
+    /**
+     * Reads the response of the given connection into the part file,
+     * resuming it if the connection breaks, and moves the part file to the
+     * cache file. The caller disconnects the given connection.
+     *
+     * @param connection a full response, or the response to
+     * {@link #openResumed()}
+     * @throws IOException if the download failed, the part file is kept
+     * if it can be resumed
+     */
+    void download(HttpURLConnection connection) throws IOException {
+        HttpURLConnection current = connection;
+        int attempt = 1;
+        try {
+            while (true) {
+                try {
+                    receive(current);
+                    break;
+                } catch (InterruptedIOException ex) {
+                    throw ex;
+                } catch (IOException ex) {
+                    if (attempt >= MAX_ATTEMPTS || validator == null) {
+                        throw ex;
+                    }
+                    LOG.debug("Download of " + downloadFrom + " broke at " + partFile.length() + " (" + ex + "), resuming");
+                    disconnect(current, connection);
+                    attempt++;
+                    current = openConnection(partFile.length(), -1);
+                }
+            }
+        } finally {
+            disconnect(current, connection);
+        }
+        Files.move(partFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        setValidator(null);
+    }
+
+    private void receive(HttpURLConnection connection) throws IOException {
+        int responseCode = connection.getResponseCode();
+        long offset = 0;
+        if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+            offset = getRangeStart(connection);
+            if (offset < 0 || offset > partFile.length()) {
+                throw new IOException("Unexpected range " + connection.getHeaderField("Content-Range") + " of " + downloadFrom);
+            }
+        } else if (responseCode == HttpURLConnection.HTTP_OK) {
+            // the first response, or the resource changed since the part file was written
+            setValidator(getValidator(connection));
+            long length = connection.getContentLengthLong();
+            int segments = getSegments();
+            if (segments > 1 && length >= SEGMENT_MIN_SIZE && validator != null
+                    && "bytes".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges"))) {
+                receiveSegments(connection, length, segments);
+                return;
+            }
+        } else {
+            if (responseCode == 416) {
+                // range not satisfiable, the next attempt starts over
+                Files.deleteIfExists(partFile.toPath());
+            }
+            throw new IOException("Unexpected response " + responseCode + " for " + downloadFrom);
+        }
+        resource.setTransferred(offset);
+        try (FileChannel channel = FileChannel.open(partFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // not preallocated, the length of the part file is where to resume
+            channel.truncate(offset);
+            // a broken connection may just look like the end of the body
+            long length = connection.getContentLengthLong();
+            CacheIO.copy(connection.getInputStream(), channel, offset, length < 0 ? Long.MAX_VALUE : length, resource);
+        }
+    }
+
+    /**
+     * Reads the first segment from the given full response, and all others
+     * by range requests in parallel. If any fails, the part file is cut
+     * after the segments complete from its start, so it can be resumed.
+     */
+    private void receiveSegments(HttpURLConnection connection, long length, int segments) throws IOException {
+        final long segmentSize = (length + segments - 1) / segments;
+        final long[] done = new long[segments];
+        LOG.debug("Downloading " + downloadFrom + " in " + segments + " segments");
+        resource.setTransferred(0);
+        try (RandomAccessFile file = new RandomAccessFile(partFile, "rw")) {
+            file.setLength(length);
+            final FileChannel channel = file.getChannel();
+            List<Future<?>> running = new ArrayList<>(segments - 1);
+            for (int i = 1; i < segments; i++) {
+                final int segment = i;
+                final long start = segment * segmentSize;
+                final long end = Math.min(length, start + segmentSize);
+                running.add(CachedDaemonThreadPoolProvider.DAEMON_THREAD_POOL.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        HttpURLConnection rangeConnection = openConnection(start, end - 1);
+                        try {
+                            if (rangeConnection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL
+                                    || getRangeStart(rangeConnection) != start) {
+                                throw new IOException("Segment " + start + "-" + end + " of " + downloadFrom + " not served");
+                            }
+                            done[segment] = CacheIO.copy(rangeConnection.getInputStream(), channel, start, end - start, resource);
+                        } finally {
+                            ConnectionFactory.getConnectionFactory().disconnect(rangeConnection);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            IOException failure = null;
+            try {
+                done[0] = CacheIO.copy(connection.getInputStream(), channel, 0, Math.min(length, segmentSize), resource);
+            } catch (IOException ex) {
+                failure = ex;
+            }
+            for (Future<?> future : running) {
+                try {
+                    future.get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    failure = new InterruptedIOException();
+                } catch (ExecutionException ex) {
+                    if (failure == null) {
+                        failure = ex.getCause() instanceof IOException ? (IOException) ex.getCause() : new IOException(ex.getCause());
+                    }
+                }
+            }
+            if (failure != null) {
+                long complete = 0;
+                for (int i = 0; i < segments && done[i] == Math.min(segmentSize, length - i * segmentSize); i++) {
+                    complete += done[i];
+                }
+                file.setLength(complete);
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * @param end last byte requested, or -1 for all from start
+     */
+    private HttpURLConnection openConnection(long start, long end) throws IOException {
+        URLConnection connection = ConnectionFactory.getConnectionFactory().openConnection(downloadFrom);
+        if (!(connection instanceof HttpURLConnection)) {
+            ConnectionFactory.getConnectionFactory().disconnect(connection);
+            throw new IOException("Not an http connection: " + downloadFrom);
+        }
+        if (start > 0 || end >= 0) {
+            connection.setRequestProperty("Range", "bytes=" + start + "-" + (end >= 0 ? Long.toString(end) : ""));
+            connection.setRequestProperty("If-Range", validator);
+        }
+        connection.connect();
+        return (HttpURLConnection) connection;
+    }
+
+    private static void disconnect(HttpURLConnection connection, HttpURLConnection callers) {
+        if (connection != callers) {
+            ConnectionFactory.getConnectionFactory().disconnect(connection);
+        }
+    }
+
+    /**
+     * @return the value for {@code If-Range}: a strong entity tag, or else the
+     * modification date, or {@code null} if the response cannot be resumed
+     */
+    static String getValidator(URLConnection connection) {
+        if ("none".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges"))) {
+            return null;
+        }
+        String etag = connection.getHeaderField("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return connection.getHeaderField("Last-Modified");
+    }
+
+    /**
+     * @return the first byte of a {@code Content-Range: bytes first-last/length}
+     * header, or -1
+     */
+    static long getRangeStart(URLConnection connection) {
+        String range = connection.getHeaderField("Content-Range");
+        if (range == null || !range.startsWith("bytes ")) {
+            return -1;
+        }
+        int dash = range.indexOf('-');
+        try {
+            return Long.parseLong(range.substring("bytes ".length(), dash < 0 ? range.length() : dash).trim());
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    private static int getSegments() {
+        try {
+            return Integer.parseInt(JNLPRuntime.getConfiguration().getProperty(DeploymentConfiguration.KEY_DOWNLOAD_SEGMENTS));
+        } catch (NumberFormatException ex) {
+            return 1;
+        }
+    }
+
+    private void setValidator(String validator) {
+        String source = validator == null ? null : downloadFrom.toExternalForm();
+        if ((validator == null ? this.validator == null : validator.equals(this.validator))
+                && (source == null ? this.source == null : source.equals(this.source))) {
+            return;
+        }
+        this.validator = validator;
+        this.source = source;
+        CacheEntry entry = new CacheEntry(resource.getLocation(), resource.getDownloadVersion());
+        entry.lock();
+        try {
+            entry.setPartValidator(validator, downloadFrom);
+            entry.store();
+        } finally {
+            entry.unlock();
+        }
+    }
+}
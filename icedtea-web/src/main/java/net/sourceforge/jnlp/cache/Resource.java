@@ -19,15 +19,18 @@ package net.sourceforge.jnlp.cache;
 import net.sourceforge.jnlp.DownloadOptions;
 import net.sourceforge.jnlp.JnlpRuntimeState;
 import net.sourceforge.jnlp.Version;
+import net.sourceforge.jnlp.security.ConnectionFactory;
 import net.sourceforge.jnlp.util.UrlUtils;
 import net.sourceforge.jnlp.util.WeakList;
 
 import java.io.File;
 import java.net.URL;
+import java.net.URLConnection;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <p>
@@ -94,6 +97,12 @@ public class Resource {
 
     /** the status of the resource */
     private final EnumSet<Status> status = EnumSet.noneOf(Status.class);
+
+    /** copy of the status published on every change, never modified; read without locking */
+    private volatile EnumSet<Status> statusSnapshot = EnumSet.noneOf(Status.class);
+
+    /** completed once downloaded or failed, replaced when the status is reset; guarded by status */
+    private CompletableFuture<Resource> completion = new CompletableFuture<>();
     
     /** Update policy for this resource */
     private final UpdatePolicy updatePolicy;
@@ -101,6 +110,12 @@ public class Resource {
     /** Download options for this resource */
     private DownloadOptions downloadOptions;
 
+    /** the most urgent priority any tracker requested, or null */
+    private volatile DownloadScheduler.Priority downloadPriority;
+
+    /** unread response of a conditional request which found the cached copy modified; guarded by this */
+    private URLConnection modifiedResponse;
+
     /**
      * Create a resource.
      */
@@ -262,8 +277,7 @@ public class Resource {
      * @return the status of the resource
      */
     public Set<Status> getCopyOfStatus() {
-        return EnumSet.copyOf(status);
-
+        return statusSnapshot.clone();
     }
 
     /**
@@ -272,9 +286,7 @@ public class Resource {
      * @return true iff the flag is set
      */
     public boolean isSet(Status flag) {
-        synchronized (status) {
-            return status.contains(flag);
-        }
+        return statusSnapshot.contains(flag);
     }
 
     /**
@@ -283,9 +295,7 @@ public class Resource {
      * @return true iff all the flags are set
      */
     public boolean hasFlags(Collection<Status> flags) {
-        synchronized (status) {
-            return status.containsAll(flags);
-        }
+        return statusSnapshot.containsAll(flags);
     }
 
     /**
@@ -321,6 +331,7 @@ public class Resource {
      * @param add a collection of status flags to set
      */
     public void changeStatus(Collection<Status> clear, Collection<Status> add) {
+        CompletableFuture<Resource> finished;
         synchronized (status) {
             if (clear != null) {
                 status.removeAll(clear);
@@ -328,7 +339,9 @@ public class Resource {
             if (add != null) {
                 status.addAll(add);
             }
+            finished = statusChanged();
         }
+        complete(finished);
     }
 
     /**
@@ -336,9 +349,12 @@ public class Resource {
      * @param flag a flag to set
      */
     public void setStatusFlag(Status flag) {
+        CompletableFuture<Resource> finished;
         synchronized (status) {
             status.add(flag);
+            finished = statusChanged();
         }
+        complete(finished);
     }
 
     /**
@@ -346,9 +362,12 @@ public class Resource {
      * @param flags a collection of flags to set
      */
     public void setStatusFlags(Collection<Status> flags) {
+        CompletableFuture<Resource> finished;
         synchronized (status) {
             status.addAll(flags);
+            finished = statusChanged();
         }
+        complete(finished);
     }
 
     /**
@@ -358,6 +377,7 @@ public class Resource {
     public void unsetStatusFlag(Collection<Status> flags) {
         synchronized (status) {
             status.removeAll(flags);
+            statusChanged();
         }
     }
 
@@ -367,6 +387,57 @@ public class Resource {
     public void resetStatus() {
         synchronized (status) {
             status.clear();
+            statusChanged();
+        }
+    }
+
+    /**
+     * Returns a future completed once the resource is {@link Status#DOWNLOADED}
+     * or in {@link Status#ERROR}. It is never completed exceptionally, the
+     * status has to be checked to tell the two apart. If the status is reset
+     * afterwards, a new future is handed out by later calls.
+     * <p>
+     * The future is completed by the resource, callers must not complete it.
+     * </p>
+     *
+     * @return the future completed with this resource
+     */
+    public CompletableFuture<Resource> getCompletion() {
+        CompletableFuture<Resource> result;
+        CompletableFuture<Resource> finished;
+        synchronized (status) {
+            finished = statusChanged();
+            result = completion;
+        }
+        complete(finished);
+        return result;
+    }
+
+    /**
+     * Publishes the status to readers and keeps the completion in line with
+     * it. Must be called while holding the lock on status.
+     *
+     * @return the future to complete once the lock is released, or
+     * {@code null}
+     */
+    private CompletableFuture<Resource> statusChanged() {
+        statusSnapshot = status.clone();
+        if (status.contains(Status.DOWNLOADED) || status.contains(Status.ERROR)) {
+            return completion.isDone() ? null : completion;
+        }
+        if (completion.isDone()) {
+            completion = new CompletableFuture<>();
+        }
+        return null;
+    }
+
+    /**
+     * Completes outside of the lock, as waiting code may continue in the
+     * calling thread.
+     */
+    private void complete(CompletableFuture<Resource> finished) {
+        if (finished != null) {
+            finished.complete(this);
         }
     }
 
@@ -375,9 +446,7 @@ public class Resource {
      * @return true iff any flags have been set
      */
     public boolean isInitialized() {
-        synchronized (status) {
-            return !status.isEmpty();
-        }
+        return !statusSnapshot.isEmpty();
     }
 
     /**
@@ -433,6 +502,57 @@ public class Resource {
         return this.downloadOptions;
     }
 
+    /**
+     * Raises the priority to download this resource with. A priority once
+     * requested by some tracker is never lowered.
+     *
+     * @param priority the priority requested
+     */
+    public synchronized void raiseDownloadPriority(DownloadScheduler.Priority priority) {
+        if (priority != null) {
+            downloadPriority = priority.max(downloadPriority);
+        }
+    }
+
+    /**
+     * Keeps the response of a conditional request, made before the resource
+     * was tracked, which found the cached copy modified, so that the
+     * {@link ResourceDownloader} reads its body instead of asking again.
+     *
+     * @param connection the connection, its body not read yet
+     * @return false if the resource was started meanwhile, the connection
+     * has to be closed by the caller then
+     */
+    synchronized boolean setModifiedResponse(URLConnection connection) {
+        if (isInitialized()) {
+            return false;
+        }
+        if (modifiedResponse != null) {
+            ConnectionFactory.getConnectionFactory().disconnect(modifiedResponse);
+        }
+        modifiedResponse = connection;
+        return true;
+    }
+
+    /**
+     * @return the response kept by {@link #setModifiedResponse(URLConnection)},
+     * or {@code null}; it is not kept anymore
+     */
+    synchronized URLConnection takeModifiedResponse() {
+        URLConnection connection = modifiedResponse;
+        modifiedResponse = null;
+        return connection;
+    }
+
+    /**
+     * @return the priority to download this resource with, {@link DownloadScheduler.Priority#EAGER}
+     * if none was requested
+     */
+    public DownloadScheduler.Priority getDownloadPriority() {
+        DownloadScheduler.Priority priority = downloadPriority;
+        return priority == null ? DownloadScheduler.Priority.EAGER : priority;
+    }
+
     public boolean isConnectable() {
         return JnlpRuntimeState.isConnectable(this.location);
     }
@@ -4,7 +4,9 @@ import net.sourceforge.jnlp.DownloadOptions;
 import net.sourceforge.jnlp.JnlpRuntimeState;
 import net.sourceforge.jnlp.OptionsDefinitions;
 import net.sourceforge.jnlp.Version;
+import net.sourceforge.jnlp.config.DeploymentConfiguration;
 import net.sourceforge.jnlp.runtime.Boot;
+import net.sourceforge.jnlp.runtime.JNLPRuntime;
 import net.sourceforge.jnlp.security.ConnectionFactory;
 import net.sourceforge.jnlp.security.SecurityUserInteraction;
 import net.sourceforge.jnlp.security.dialogs.InetSecurity511Panel;
@@ -13,21 +15,20 @@ import net.sourceforge.jnlp.util.UrlUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.file.Files;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Pack200;
@@ -45,13 +46,18 @@ public class ResourceDownloader implements Runnable {
 
     private final static Logger LOG = LoggerFactory.getLogger(ResourceDownloader.class);
 
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final String INVALID_HTTP_RESPONSE = "Invalid Http response";
+
 
     private final Resource resource;
-    private final Object lock;
 
-    public ResourceDownloader(Resource resource, Object lock) {
+    /** response of a conditional GET returning new content, read by {@link #downloadResource()} */
+    private URLConnection revalidatedConnection;
+
+    public ResourceDownloader(Resource resource) {
         this.resource = resource;
-        this.lock = lock;
     }
 
     static int getUrlResponseCode(URL url, Map<String, String> requestProperties, ResourceTracker.RequestMethods requestMethod) throws IOException {
@@ -121,6 +127,15 @@ public class ResourceDownloader implements Runnable {
             resource.fireDownloadEvent(); // fire CONNECTING
             downloadResource();
         }
+        if (revalidatedConnection != null) {
+            ConnectionFactory.getConnectionFactory().disconnect(revalidatedConnection);
+            revalidatedConnection = null;
+        }
+        // not taken, e.g. as offline meanwhile
+        URLConnection modifiedResponse = resource.takeModifiedResponse();
+        if (modifiedResponse != null) {
+            ConnectionFactory.getConnectionFactory().disconnect(modifiedResponse);
+        }
     }
 
     private void initializeResource() {
@@ -133,6 +148,9 @@ public class ResourceDownloader implements Runnable {
 
     private void initializeOnlineResource() {
         try {
+            if (revalidateResource()) {
+                return;
+            }
             UrlRequestResult finalLocation = findBestUrl(resource);
             if (finalLocation != null) {
                 initializeFromURL(finalLocation);
@@ -142,9 +160,6 @@ public class ResourceDownloader implements Runnable {
         } catch (Exception e) {
             LOG.error("ERROR", e);
             resource.changeStatus(EnumSet.noneOf(Resource.Status.class), EnumSet.of(ERROR));
-            synchronized (lock) {
-                lock.notifyAll(); // wake up wait's to check for completion
-            }
             resource.fireDownloadEvent(); // fire ERROR
         }
     }
@@ -191,6 +206,9 @@ public class ResourceDownloader implements Runnable {
                     resource.changeStatus(EnumSet.of(PREDOWNLOAD, DOWNLOADING), EnumSet.of(DOWNLOADED));
                 }
             }
+            if (current) {
+                CacheEvictor.getInstance().sizeChanged(localFile);
+            }
 
             // update cache entry
             if (!current) {
@@ -198,43 +216,174 @@ public class ResourceDownloader implements Runnable {
                 entry.setLastModified(lm);
             }
             entry.setLastUpdated(System.currentTimeMillis());
-            try { 
-                //do not die here no metter of cost. Just metadata
-                //is the path from user best to store? He can run some jnlp from temp which then be stored
-                //on contrary, this downloads the jnlp, we actually do not have jnlp parsed during first interaction
-                //in addition, downloaded name can be really nasty (some generated has from dynamic servlet.jnlp)
-                //anjother issue is forking. If this (eg local) jnlp starts its second isntance, the url *can* be different
-                //in contrary, usally si no. as fork is reusing all args, and only adding xmx/xms and xnofork.
-                String jnlpPath = Boot.getOptionParser().getMainArg(); //get jnlp from args passed 
+            setJnlpPath(entry);
+            entry.store();
+
+            resource.fireDownloadEvent(); // fire CONNECTED
+
+            // explicitly close the URLConnection.
+            ConnectionFactory.getConnectionFactory().disconnect(connection);
+        } finally {
+            entry.unlock();
+        }
+    }
+
+    /**
+     * Revalidates a cached resource by a single conditional GET to the URL it
+     * was downloaded from, with the entity tag and modification time recorded
+     * at the download. Unchanged content (304) is complete at once, changed
+     * content (200) is connected and read by {@link #downloadResource()}
+     * from the same response. If an {@link UpdateCheck} got that response
+     * already, it is taken from the resource instead of asking again.
+     *
+     * @return true if the resource was handled, false to probe for the best
+     * URL instead, e.g. if nothing was recorded or the server answered
+     * anything else
+     */
+    private boolean revalidateResource() {
+        if (!isRevalidationEnabled() || resource.getUpdatePolicy() == UpdatePolicy.FORCE) {
+            return false;
+        }
+        CacheEntry entry = new CacheEntry(resource.getLocation(), resource.getDownloadVersion());
+        entry.lock();
+        URLConnection connection = null;
+        try {
+            URL from = entry.getDownloadLocation();
+            if (from == null || !entry.isCached()) {
+                return false;
+            }
+            String etag = entry.getETag();
+            long lastModified = entry.getLastModified();
+            if (etag == null && lastModified <= 0) {
+                return false;
+            }
+            connection = takeModifiedResponse(from);
+            if (connection == null) {
+                connection = ConnectionFactory.getConnectionFactory().openConnection(from);
+                if (!(connection instanceof HttpURLConnection)) {
+                    return false;
+                }
+                setConditional((HttpURLConnection) connection, etag, lastModified);
+            }
+            HttpURLConnection httpConnection = (HttpURLConnection) connection;
+            int responseCode = httpConnection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                File localFile = CacheUtil.getCacheFile(resource.getLocation(), resource.getDownloadVersion());
+                HttpUtils.consumeAndCloseConnectionSilently(httpConnection);
+                LOG.debug("Resource " + resource.getLocation() + " not modified since the download from " + from);
+                resource.setDownloadLocation(from);
+                synchronized (resource) {
+                    resource.setLocalFile(localFile);
+                    resource.setSize(localFile.length());
+                    resource.changeStatus(EnumSet.of(PRECONNECT, CONNECTING), EnumSet.of(CONNECTED));
+                    resource.changeStatus(EnumSet.of(PREDOWNLOAD, DOWNLOADING), EnumSet.of(DOWNLOADED));
+                }
+                entry.setLastUpdated(System.currentTimeMillis());
+                entry.store();
+                CacheEvictor.getInstance().sizeChanged(localFile);
+                resource.fireDownloadEvent(); // fire CONNECTED
+                return true;
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                LOG.debug("Revalidation of " + resource.getLocation() + " at " + from + " returned " + responseCode + ", probing for the best URL");
+                return false;
+            }
+
+            // modified, keep the old file for running applications as initializeFromURL does
+            LOG.debug("Resource " + resource.getLocation() + " was modified at " + from);
+            entry.markForDelete();
+            entry.store();
+            File localFile = CacheUtil.makeNewCacheFile(resource.getLocation(), resource.getDownloadVersion());
+            CacheEntry newEntry = new CacheEntry(resource.getLocation(), resource.getDownloadVersion());
+            newEntry.lock();
+            entry.unlock();
+            entry = newEntry;
+
+            resource.setDownloadLocation(from);
+            synchronized (resource) {
+                resource.setLocalFile(localFile);
+                resource.setSize(connection.getContentLengthLong());
+                resource.changeStatus(EnumSet.of(PRECONNECT, CONNECTING), EnumSet.of(CONNECTED, PREDOWNLOAD));
+            }
+            entry.setLastUpdated(System.currentTimeMillis());
+            setJnlpPath(entry);
+            entry.store();
+            revalidatedConnection = connection;
+            connection = null;
+            resource.fireDownloadEvent(); // fire CONNECTED
+            return true;
+        } catch (IOException ex) {
+            LOG.debug("Revalidation of " + resource.getLocation() + " failed, probing for the best URL: " + ex);
+            return false;
+        } finally {
+            if (connection != null) {
+                ConnectionFactory.getConnectionFactory().disconnect(connection);
+            }
+            entry.unlock();
+        }
+    }
+
+    /**
+     * @param from where the cached copy was downloaded from
+     * @return the response of the {@link UpdateCheck} of the resource, if it
+     * asked the same URL, otherwise {@code null}
+     */
+    private URLConnection takeModifiedResponse(URL from) {
+        URLConnection connection = resource.takeModifiedResponse();
+        if (connection != null && !connection.getURL().toExternalForm().equals(from.toExternalForm())) {
+            ConnectionFactory.getConnectionFactory().disconnect(connection);
+            return null;
+        }
+        return connection;
+    }
+
+    /**
+     * Makes a request conditional, so that the server answers 304 if the
+     * content still matches the entity tag or was not modified since.
+     * Redirects are not followed, they are left to {@link #findBestUrl},
+     * which knows whether they are allowed.
+     */
+    static void setConditional(HttpURLConnection connection, String etag, long lastModified) {
+        connection.setInstanceFollowRedirects(false);
+        connection.addRequestProperty("Accept-Encoding", "pack200-gzip, gzip");
+        if (etag != null) {
+            connection.addRequestProperty("If-None-Match", etag);
+        }
+        if (lastModified > 0) {
+            connection.setIfModifiedSince(lastModified);
+        }
+    }
+
+    static boolean isRevalidationEnabled() {
+        return Boolean.parseBoolean(JNLPRuntime.getConfiguration().getProperty(DeploymentConfiguration.KEY_CACHE_CONDITIONAL_REQUESTS));
+    }
+
+    private void setJnlpPath(CacheEntry entry) {
+        try { 
+            //do not die here no metter of cost. Just metadata
+            //is the path from user best to store? He can run some jnlp from temp which then be stored
+            //on contrary, this downloads the jnlp, we actually do not have jnlp parsed during first interaction
+            //in addition, downloaded name can be really nasty (some generated has from dynamic servlet.jnlp)
+            //anjother issue is forking. If this (eg local) jnlp starts its second isntance, the url *can* be different
+            //in contrary, usally si no. as fork is reusing all args, and only adding xmx/xms and xnofork.
+            String jnlpPath = Boot.getOptionParser().getMainArg(); //get jnlp from args passed 
+            if (jnlpPath == null || jnlpPath.equals("")) {
+                jnlpPath = Boot.getOptionParser().getParam(OptionsDefinitions.OPTIONS.JNLP);
                 if (jnlpPath == null || jnlpPath.equals("")) {
-                    jnlpPath = Boot.getOptionParser().getParam(OptionsDefinitions.OPTIONS.JNLP);
+                    jnlpPath = Boot.getOptionParser().getParam(OptionsDefinitions.OPTIONS.HTML);
                     if (jnlpPath == null || jnlpPath.equals("")) {
-                        jnlpPath = Boot.getOptionParser().getParam(OptionsDefinitions.OPTIONS.HTML);
-                        if (jnlpPath == null || jnlpPath.equals("")) {
-                            LOG.debug("Not-setting jnlp-path for missing main/jnlp/html argument");
-                        } else {
-                            entry.setJnlpPath(jnlpPath);
-                        }
+                        LOG.debug("Not-setting jnlp-path for missing main/jnlp/html argument");
                     } else {
                         entry.setJnlpPath(jnlpPath);
                     }
                 } else {
                     entry.setJnlpPath(jnlpPath);
                 }
-            } catch (Exception ex){
-                LOG.error("ERROR", ex);
-            }
-            entry.store();
-
-            synchronized (lock) {
-                lock.notifyAll(); // wake up wait's to check for completion
+            } else {
+                entry.setJnlpPath(jnlpPath);
             }
-            resource.fireDownloadEvent(); // fire CONNECTED
-
-            // explicitly close the URLConnection.
-            ConnectionFactory.getConnectionFactory().disconnect(connection);
-        } finally {
-            entry.unlock();
+        } catch (Exception ex){
+            LOG.error("ERROR", ex);
         }
     }
 
@@ -258,9 +407,6 @@ public class ResourceDownloader implements Runnable {
                 resource.changeStatus(EnumSet.noneOf(Resource.Status.class), EnumSet.of(ERROR));
             }
 
-            synchronized (lock) {
-                lock.notifyAll(); // wake up wait's to check for completion
-            }
             resource.fireDownloadEvent(); // fire CONNECTED or ERROR
 
         } finally {
@@ -345,7 +491,15 @@ public class ResourceDownloader implements Runnable {
         URL downloadTo = resource.getLocation(); //Where to download to
 
         try {
-            connection = getDownloadConnection(downloadFrom);
+            if (revalidatedConnection != null) {
+                connection = revalidatedConnection;
+                revalidatedConnection = null;
+            } else {
+                connection = new PartialDownload(resource, downloadFrom).openResumed();
+                if (connection == null) {
+                    connection = getDownloadConnection(downloadFrom);
+                }
+            }
 
             String contentEncoding = connection.getContentEncoding();
 
@@ -361,24 +515,26 @@ public class ResourceDownloader implements Runnable {
             // return ".gz", so if we check gzip first, we would end up
             // treating a pack200 file as a jar file.
             if (packgz) {
-                downloadPackGzFile(resource, connection, new URL(downloadFrom + ".pack.gz"), downloadTo);
+                downloadCompressedFile(resource, connection, new URL(downloadFrom + ".pack.gz"), downloadTo, true);
             } else if (gzip) {
-                downloadGZipFile(resource, connection, new URL(downloadFrom + ".gz"), downloadTo);
+                downloadCompressedFile(resource, connection, new URL(downloadFrom + ".gz"), downloadTo, false);
             } else {
-                downloadFile(resource, connection, downloadTo);
+                downloadFile(resource, connection, downloadFrom, downloadTo);
+            }
+            storeValidators(new CacheEntry(downloadTo, resource.getDownloadVersion()), connection, downloadFrom);
+            if (ContentStore.isEnabled()) {
+                storeContent(downloadTo, resource.getDownloadVersion());
+            }
+            if (CacheUtil.isCacheable(downloadTo, resource.getDownloadVersion()) && isJar(downloadTo)) {
+                storeClassIndex(downloadTo, resource.getDownloadVersion());
             }
+            CacheEvictor.getInstance().sizeChanged(resource.getLocalFile());
 
             resource.changeStatus(EnumSet.of(DOWNLOADING), EnumSet.of(DOWNLOADED));
-            synchronized (lock) {
-                lock.notifyAll(); // wake up wait's to check for completion
-            }
             resource.fireDownloadEvent(); // fire DOWNLOADED
         } catch (Exception ex) {
             LOG.error("ERROR", ex);
             resource.changeStatus(EnumSet.noneOf(Resource.Status.class), EnumSet.of(ERROR));
-            synchronized (lock) {
-                lock.notifyAll();
-            }
             resource.fireDownloadEvent(); // fire ERROR
         } finally {
             if (connection != null) {
@@ -394,47 +550,135 @@ public class ResourceDownloader implements Runnable {
         return con;
     }
 
-    private void downloadPackGzFile(Resource resource, URLConnection connection, URL downloadFrom, URL downloadTo) throws IOException {
-        downloadFile(resource, connection, downloadFrom);
-
-        uncompressPackGz(downloadFrom, downloadTo, resource.getDownloadVersion());
-        storeEntryFields(new CacheEntry(downloadTo, resource.getDownloadVersion()), connection.getContentLength(), connection.getLastModified());
+    /**
+     * Inflates, and for pack200 unpacks, the downloaded stream straight into
+     * the cache file of the jar. The compressed bytes are written to their
+     * own cache entry on the way only if
+     * {@link DeploymentConfiguration#KEY_CACHE_KEEP_COMPRESSED} is set.
+     */
+    private void downloadCompressedFile(Resource resource, URLConnection connection, URL compressedLocation, URL downloadTo, boolean packgz) throws IOException {
+        Version version = resource.getDownloadVersion();
+        LOG.debug("Extracting " + (packgz ? "packgz: " : "gzip: ") + compressedLocation + " to " + downloadTo);
+        boolean keepCompressed = isKeepCompressed();
+        try (ProgressInputStream compressed = new ProgressInputStream(resource, openDownloadStream(connection, compressedLocation),
+                keepCompressed ? CacheUtil.getOutputStream(compressedLocation, version) : null);
+             InputStream in = new GZIPInputStream(compressed, BUFFER_SIZE)) {
+            if (packgz) {
+                try (JarOutputStream jar = new JarOutputStream(CacheUtil.getOutputStream(downloadTo, version))) {
+                    Pack200.newUnpacker().unpack(new FilterInputStream(in) {
+                        @Override
+                        public void close() {
+                            // the unpacker closes its input, which is drained first
+                        }
+                    }, jar);
+                }
+            } else {
+                writeCacheFile(in, downloadTo, version, -1, null);
+            }
+            // anything after the compressed data, so the copy is complete and the connection reusable
+            compressed.drain();
+        }
+        if (keepCompressed) {
+            storeEntryFields(new CacheEntry(compressedLocation, version), connection.getContentLengthLong(), connection.getLastModified());
+        }
+        storeEntryFields(new CacheEntry(downloadTo, version), connection.getContentLength(), connection.getLastModified());
     }
 
-    private void downloadGZipFile(Resource resource, URLConnection connection, URL downloadFrom, URL downloadTo) throws IOException {
-        downloadFile(resource, connection, downloadFrom);
-
-        uncompressGzip(downloadFrom, downloadTo, resource.getDownloadVersion());
-        storeEntryFields(new CacheEntry(downloadTo, resource.getDownloadVersion()), connection.getContentLength(), connection.getLastModified());
+    static boolean isKeepCompressed() {
+        return Boolean.parseBoolean(JNLPRuntime.getConfiguration().getProperty(DeploymentConfiguration.KEY_CACHE_KEEP_COMPRESSED));
     }
 
-    private void downloadFile(Resource resource, URLConnection connection, URL downloadLocation) throws IOException {
+    private void downloadFile(Resource resource, URLConnection connection, URL downloadFrom, URL downloadLocation) throws IOException {
         CacheEntry downloadEntry = new CacheEntry(downloadLocation, resource.getDownloadVersion());
         LOG.debug("Downloading file: " + downloadLocation + " into: " + downloadEntry.getCacheFile().getCanonicalPath());
+        long contentLength = connection.getContentLengthLong();
         if (!downloadEntry.isCurrent(connection.getLastModified())) {
-            try {
-                writeDownloadToFile(resource, downloadLocation, new BufferedInputStream(connection.getInputStream()));
-            } catch (IOException ex) {
-                String IH = "Invalid Http response";
-                if (ex.getMessage().equals(IH)) {
-                    LOG.error("ERROR", ex);
-                    LOG.debug("'" + IH + "' message detected. Attempting direct socket");
-                    Object[] result = UrlUtils.loadUrlWithInvalidHeaderBytes(connection.getURL());
-                    LOG.debug("Header of: " + connection.getURL() + " (" + downloadLocation + ")");
-                    String head = (String) result[0];
-                    byte[] body = (byte[]) result[1];
-                    LOG.debug(head);
-                    LOG.debug("Body is: " + body.length + " bytes long");
-                    writeDownloadToFile(resource, downloadLocation, new ByteArrayInputStream(body));
-                } else {
-                    throw ex;
+            if (connection instanceof HttpURLConnection) {
+                try {
+                    new PartialDownload(resource, downloadFrom).download((HttpURLConnection) connection);
+                    // a resumed response is not as long as the content
+                    contentLength = downloadEntry.getCacheFile().length();
+                } catch (IOException ex) {
+                    if (!INVALID_HTTP_RESPONSE.equals(ex.getMessage())) {
+                        throw ex;
+                    }
+                    writeDownloadToFile(resource, downloadLocation, openDownloadStream(connection, downloadLocation), connection.getContentLengthLong());
                 }
+            } else {
+                writeDownloadToFile(resource, downloadLocation, openDownloadStream(connection, downloadLocation), connection.getContentLengthLong());
             }
         } else {
             resource.setTransferred(CacheUtil.getCacheFile(downloadLocation, resource.getDownloadVersion()).length());
         }
 
-        storeEntryFields(downloadEntry, connection.getContentLengthLong(), connection.getLastModified());
+        storeEntryFields(downloadEntry, contentLength, connection.getLastModified());
+    }
+
+    /**
+     * @return the body of the response, read by a direct socket if the
+     * server sent an invalid http header
+     */
+    private InputStream openDownloadStream(URLConnection connection, URL downloadLocation) throws IOException {
+        try {
+            return connection.getInputStream();
+        } catch (IOException ex) {
+            String IH = INVALID_HTTP_RESPONSE;
+            if (IH.equals(ex.getMessage())) {
+                LOG.error("ERROR", ex);
+                LOG.debug("'" + IH + "' message detected. Attempting direct socket");
+                Object[] result = UrlUtils.loadUrlWithInvalidHeaderBytes(connection.getURL());
+                LOG.debug("Header of: " + connection.getURL() + " (" + downloadLocation + ")");
+                String head = (String) result[0];
+                byte[] body = (byte[]) result[1];
+                LOG.debug(head);
+                LOG.debug("Body is: " + body.length + " bytes long");
+                return new ByteArrayInputStream(body);
+            } else {
+                throw ex;
+            }
+        }
+    }
+
+    private void storeContent(URL location, Version version) {
+        ContentStore.getInstance().store(CacheUtil.getCacheFile(location, version));
+    }
+
+    /**
+     * @return true if the location names a jar. Jars of other names are
+     * indexed by {@link ClassIndex#get(File)} once classes are looked up.
+     */
+    static boolean isJar(URL location) {
+        return location.getPath().toLowerCase(Locale.ENGLISH).endsWith(".jar");
+    }
+
+    /**
+     * Indexes the classes of a downloaded jar, once its file is final. A
+     * failure is not fatal, the index is built again when needed.
+     */
+    private void storeClassIndex(URL location, Version version) {
+        try {
+            ClassIndex.update(CacheUtil.getCacheFile(location, version));
+        } catch (IOException ex) {
+            LOG.error("ERROR", ex);
+        }
+    }
+
+    /**
+     * Records what {@link #revalidateResource()} needs to ask the server
+     * whether the content changed.
+     */
+    private void storeValidators(CacheEntry entry, URLConnection connection, URL downloadFrom) {
+        if (!(connection instanceof HttpURLConnection)) {
+            return;
+        }
+        entry.lock();
+        try {
+            entry.setETag(connection.getHeaderField("ETag"));
+            entry.setDownloadLocation(downloadFrom);
+            entry.store();
+        } finally {
+            entry.unlock();
+        }
     }
 
     private void storeEntryFields(CacheEntry entry, long contentLength, long lastModified) {
@@ -448,55 +692,92 @@ public class ResourceDownloader implements Runnable {
         }
     }
 
-    private void writeDownloadToFile(Resource resource, URL downloadLocation, InputStream in) throws IOException {
-        byte buf[] = new byte[1024];
-        int rlen;
-        try (OutputStream out = CacheUtil.getOutputStream(downloadLocation, resource.getDownloadVersion())) {
-            while (-1 != (rlen = in.read(buf))) {
-                resource.incrementTransferred(rlen);
-                out.write(buf, 0, rlen);
-            }
-
+    private void writeDownloadToFile(Resource resource, URL downloadLocation, InputStream in, long length) throws IOException {
+        try {
+            writeCacheFile(in, downloadLocation, resource.getDownloadVersion(), length, resource);
+        } finally {
             in.close();
         }
     }
 
-    private void uncompressGzip(URL compressedLocation, URL uncompressedLocation, Version version) throws IOException {
-        LOG.debug("Extracting gzip: " + compressedLocation + " to " + uncompressedLocation);
-        byte buf[] = new byte[1024];
-        int rlen;
+    private static long writeCacheFile(InputStream in, URL location, Version version, long length, Resource resource) throws IOException {
+        File file = CacheUtil.getCacheFile(location, version);
+        // never write through an existing file, it may share its content with others
+        Files.deleteIfExists(file.toPath());
+        return CacheIO.write(in, file, length, resource);
+    }
+
+    /**
+     * Counts the bytes read from the network as transferred, and copies them
+     * to the given stream if any.
+     */
+    private static class ProgressInputStream extends FilterInputStream {
 
-        try (GZIPInputStream gzInputStream = new GZIPInputStream(new FileInputStream(CacheUtil
-                .getCacheFile(compressedLocation, version)))) {
-            InputStream inputStream = new BufferedInputStream(gzInputStream);
+        private final Resource resource;
+        private final OutputStream copy;
 
-            BufferedOutputStream outputStream = new BufferedOutputStream(new FileOutputStream(CacheUtil
-                    .getCacheFile(uncompressedLocation, version)));
+        private ProgressInputStream(Resource resource, InputStream in, OutputStream copy) {
+            super(in);
+            this.resource = resource;
+            this.copy = copy;
+        }
 
-            while (-1 != (rlen = inputStream.read(buf))) {
-                outputStream.write(buf, 0, rlen);
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                resource.incrementTransferred(1);
+                if (copy != null) {
+                    copy.write(b);
+                }
             }
+            return b;
+        }
 
-            outputStream.close();
-            inputStream.close();
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int rlen = super.read(b, off, len);
+            if (rlen > 0) {
+                transferred(b, off, rlen);
+            }
+            return rlen;
         }
-    }
 
-    private void uncompressPackGz(URL compressedLocation, URL uncompressedLocation, Version version) throws IOException {
-        LOG.debug("Extracting packgz: " + compressedLocation + " to " + uncompressedLocation);
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped bytes must still reach the copy
+            byte buf[] = new byte[(int) Math.min(n, BUFFER_SIZE)];
+            int rlen = read(buf, 0, buf.length);
+            return rlen < 0 ? 0 : rlen;
+        }
 
-        try (GZIPInputStream gzInputStream = new GZIPInputStream(new FileInputStream(CacheUtil
-                .getCacheFile(compressedLocation, version)))) {
-            InputStream inputStream = new BufferedInputStream(gzInputStream);
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
 
-            JarOutputStream outputStream = new JarOutputStream(new FileOutputStream(CacheUtil
-                    .getCacheFile(uncompressedLocation, version)));
+        private void transferred(byte[] b, int off, int len) throws IOException {
+            resource.incrementTransferred(len);
+            if (copy != null) {
+                copy.write(b, off, len);
+            }
+        }
 
-            Pack200.Unpacker unpacker = Pack200.newUnpacker();
-            unpacker.unpack(inputStream, outputStream);
+        private void drain() throws IOException {
+            byte buf[] = new byte[BUFFER_SIZE];
+            while (read(buf, 0, buf.length) != -1) {
+            }
+        }
 
-            outputStream.close();
-            inputStream.close();
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (copy != null) {
+                    copy.close();
+                }
+            }
         }
     }
 
@@ -29,6 +29,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static net.sourceforge.jnlp.cache.Resource.Status.CONNECTED;
 import static net.sourceforge.jnlp.cache.Resource.Status.CONNECTING;
@@ -61,6 +67,11 @@ import static net.sourceforge.jnlp.cache.Resource.Status.PROCESSING;
  * using many system resources, but still quickly download items
  * as needed.
  * </p>
+ * <p>
+ * The downloads of all trackers share the limits of the
+ * {@link DownloadScheduler}, resources waited for are downloaded
+ * first.
+ * </p>
  *
  * @author <a href="mailto:jmaxwell@users.sourceforge.net">Jon A. Maxwell (JAM)</a> - initial author
  * @version $Revision: 1.22 $
@@ -90,8 +101,9 @@ public class ResourceTracker {
     // defines
     //    ResourceTracker.Downloader (download threads)
 
-    // separately locks on (in order of aquire order, ie, sync on prefetch never syncs on lock):
-    //   lock, prefetch, this.resources, each resource, listeners
+    // separately locks on (in order of aquire order):
+    //   this.resources (only to change it, lookups do not lock), each resource, listeners
+    // waiting for resources uses the completion of each resource, see Resource#getCompletion
     public static enum RequestMethods{
         HEAD, GET, TESTING_UNDEF;
 
@@ -102,11 +114,12 @@ public class ResourceTracker {
         }
     }
     
-      /** notified on initialization or download of a resource */
-    private static final Object lock = new Object(); // used to lock static structures
-
-    /** the resources known about by this resource tracker */
-    private final List<Resource> resources = new ArrayList<>();
+    /**
+     * the resources known about by this resource tracker, by
+     * {@link UrlUtils#getUrlEqualsKey}; read without locking, changes are
+     * synchronized on the map
+     */
+    private final Map<List<String>, Resource> resources = new ConcurrentHashMap<>();
 
     /** download listeners for this tracker */
     private final List<DownloadListener> listeners = new ArrayList<>();
@@ -142,6 +155,21 @@ public class ResourceTracker {
      * @param updatePolicy whether to check for updates if already in cache
      */
     public void addResource(URL location, Version version, DownloadOptions options, UpdatePolicy updatePolicy) {
+        addResource(location, version, options, updatePolicy, null);
+    }
+
+    /**
+     * Add a resource identified by the specified location and
+     * version, to be downloaded with the given priority.
+     *
+     * @param location the location of the resource
+     * @param version the resource version
+     * @param options options to control download
+     * @param updatePolicy whether to check for updates if already in cache
+     * @param priority the priority of the download, or null for the default
+     * @see DownloadScheduler
+     */
+    public void addResource(URL location, Version version, DownloadOptions options, UpdatePolicy updatePolicy, DownloadScheduler.Priority priority) {
         if (location == null)
             throw new IllegalResourceDescriptorException("location==null");
         try {
@@ -150,12 +178,14 @@ public class ResourceTracker {
             LOG.error("ERROR",ex);
         }
         Resource resource = Resource.getResource(location, version, updatePolicy);
+        resource.raiseDownloadPriority(priority);
 
+        List<String> key = UrlUtils.getUrlEqualsKey(location);
         synchronized (resources) {
-            if (resources.contains(resource))
+            if (resources.containsKey(key))
                 return;
             resource.addTracker(this);
-            resources.add(resource);
+            resources.put(key, resource);
         }
 
         if (options == null) {
@@ -190,7 +220,7 @@ public class ResourceTracker {
             Resource resource = getResource(location);
 
             if (resource != null) {
-                resources.remove(resource);
+                resources.values().remove(resource);
                 resource.removeTracker(this);
             }
 
@@ -388,11 +418,8 @@ public class ResourceTracker {
     public boolean waitForResources(URL urls[], long timeout) throws InterruptedException {
         Resource lresources[] = new Resource[urls.length];
 
-        synchronized (lresources) {
-            // keep the lock so getResource doesn't have to aquire it each time
-            for (int i = 0; i < urls.length; i++) {
-                lresources[i] = getResource(urls[i]);
-            }
+        for (int i = 0; i < urls.length; i++) {
+            lresources[i] = getResource(urls[i]);
         }
 
         if (lresources.length > 0)
@@ -502,14 +529,13 @@ public class ResourceTracker {
     }
 
     /**
-     * Start a new download thread.
-     * <p>
-     * Calls to this method should be synchronized on lock.
-     * </p>
+     * Start a new download thread, once the {@link DownloadScheduler}
+     * allows.
+     *
      * @param resource  resource to be download
      */
     protected void startDownloadThread(Resource resource) {
-        CachedDaemonThreadPoolProvider.DAEMON_THREAD_POOL.execute(new ResourceDownloader(resource, lock));
+        DownloadScheduler.getInstance().submit(new ResourceDownloader(resource), resource, resource.getDownloadPriority());
     }
 
     static Resource selectByFilter(Collection<Resource> source, Filter<Resource> filter) {
@@ -538,8 +564,7 @@ public class ResourceTracker {
      * Selects a resource from the source list that has the
      * specified flag set.
      * <p>
-     * Calls to this method should be synchronized on lock and
-     * source list.
+     * Calls to this method should be synchronized on the source list.
      * </p>
      */
     static Resource selectByStatus(Collection<Resource> source, final Collection<Resource.Status> included, final Collection<Resource.Status> excluded) {
@@ -569,16 +594,32 @@ public class ResourceTracker {
      * @throws IllegalResourceDescriptorException if the resource is not being tracked
      */
     private Resource getResource(URL location) {
-        synchronized (resources) {
-            for (Resource resource : resources) {
-                if (UrlUtils.urlEquals(resource.getLocation(), location))
-                    return resource;
-            }
-        }
+        Resource resource = findResource(location);
+        if (resource != null)
+            return resource;
 
         throw new IllegalResourceDescriptorException("Location does not specify a resource being tracked.");
     }
 
+    /**
+     * Looks the resource up by its key first. URLs equal only in their raw
+     * form may have different keys, so all resources are compared before
+     * giving up.
+     *
+     * @return the resource matching the specified URL, or {@code null}
+     */
+    private Resource findResource(URL location) {
+        Resource resource = resources.get(UrlUtils.getUrlEqualsKey(location));
+        if (resource != null)
+            return resource;
+
+        for (Resource candidate : resources.values()) {
+            if (UrlUtils.urlEquals(candidate.getLocation(), location))
+                return candidate;
+        }
+        return null;
+    }
+
     /**
      * Wait for some resources.
      *
@@ -591,40 +632,38 @@ public class ResourceTracker {
     private boolean wait(Resource[] resources, long timeout) throws InterruptedException {
         long startTime = System.currentTimeMillis();
 
-        // start them downloading / connecting in background
+        // start them downloading / connecting in background, before anything nobody waits for
         for (Resource resource : resources) {
             startResource(resource);
+            DownloadScheduler.getInstance().promote(resource);
         }
 
-        // wait for completion
+        // wait for completion, again if some resource was reset meanwhile
         while (true) {
-            boolean finished = true;
-
-            synchronized (lock) {
-                // check for completion
-                for (Resource resource : resources) {
-                    //NetX Deadlocking may be solved by removing this
-                    //synch block.
-                    synchronized (resource) {
-                        if (!(resource.isSet(DOWNLOADED) || resource.isSet(ERROR))) {
-                            finished = false;
-                            break;
-                        }
-                    }
+            List<CompletableFuture<Resource>> pending = new ArrayList<>(resources.length);
+            for (Resource resource : resources) {
+                if (!(resource.isSet(DOWNLOADED) || resource.isSet(ERROR))) {
+                    pending.add(resource.getCompletion());
                 }
-                if (finished)
-                    return true;
-
-                // wait
-                long waitTime = 0;
+            }
+            if (pending.isEmpty())
+                return true;
 
+            CompletableFuture<Void> all = CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[pending.size()]));
+            try {
                 if (timeout > 0) {
-                    waitTime = timeout - (System.currentTimeMillis() - startTime);
+                    long waitTime = timeout - (System.currentTimeMillis() - startTime);
                     if (waitTime <= 0)
                         return false;
+                    all.get(waitTime, TimeUnit.MILLISECONDS);
+                } else {
+                    all.get();
                 }
-
-                lock.wait(waitTime);
+            } catch (TimeoutException ex) {
+                return false;
+            } catch (ExecutionException ex) {
+                // completions are never completed exceptionally
+                throw new IllegalStateException(ex);
             }
         }
     }
@@ -0,0 +1,266 @@
+package net.sourceforge.jnlp.cache;
+
+import net.sourceforge.jnlp.JARDesc;
+import net.sourceforge.jnlp.JnlpRuntimeState;
+import net.sourceforge.jnlp.security.ConnectionFactory;
+import net.sourceforge.jnlp.util.HttpUtils;
+import net.sourceforge.jnlp.util.UrlUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static net.sourceforge.jnlp.cache.Resource.Status.CONNECTED;
+import static net.sourceforge.jnlp.cache.Resource.Status.DOWNLOADED;
+import static net.sourceforge.jnlp.cache.Resource.Status.PROCESSING;
+
+/**
+ * Checks whether the cached copies of all jars of an application are still
+ * current, before the jars are handed to a {@link ResourceTracker}.
+ *
+ * The cache entries of all jars are read in one pass first. The jars
+ * downloaded with an entity tag or a modification time are then revalidated
+ * concurrently, each by one conditional request, over the keep-alive
+ * connections of a few threads. Jars found unchanged are marked downloaded at
+ * once, so the tracker neither probes nor downloads them. For eager jars found
+ * changed, the unread response is kept by the resource, and the
+ * {@link ResourceDownloader} reads the new content from it instead of asking
+ * again. All other jars are left to the tracker, which handles them as before.
+ *
+ * Only done for {@link UpdatePolicy#ALWAYS}, the other policies decide by
+ * the cache entries alone anyway.
+ */
+public class UpdateCheck {
+
+    private final static Logger LOG = LoggerFactory.getLogger(UpdateCheck.class);
+
+    /** number of requests in flight at once */
+    static final int PARALLELISM = 8;
+
+    enum Result {
+        /** the cached copy is current and the resource marked downloaded */
+        NOT_MODIFIED,
+        /** the jar changed on the server and has to be downloaded */
+        MODIFIED,
+        /** not checked, e.g. as not cached or nothing was recorded to validate with */
+        UNKNOWN
+    }
+
+    private static class Candidate {
+
+        private final Resource resource;
+        private final boolean eager;
+        private final URL from;
+        private final String etag;
+        private final long lastModified;
+
+        private Candidate(Resource resource, boolean eager, URL from, String etag, long lastModified) {
+            this.resource = resource;
+            this.eager = eager;
+            this.from = from;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private final UpdatePolicy updatePolicy;
+    private final ExecutorService executor;
+    private final Map<URL, Result> results = new LinkedHashMap<>();
+
+    public UpdateCheck(UpdatePolicy updatePolicy) {
+        this(updatePolicy, CachedDaemonThreadPoolProvider.DAEMON_THREAD_POOL);
+    }
+
+    UpdateCheck(UpdatePolicy updatePolicy, ExecutorService executor) {
+        this.updatePolicy = updatePolicy;
+        this.executor = executor;
+    }
+
+    /**
+     * @return true if the jars would be checked
+     */
+    public boolean isEnabled() {
+        return updatePolicy == UpdatePolicy.ALWAYS
+                && !JnlpRuntimeState.isOfflineForced()
+                && ResourceDownloader.isRevalidationEnabled();
+    }
+
+    /**
+     * Checks the given jars and waits for the answers. Jars whose check
+     * failed are left to the tracker.
+     *
+     * @param jars the jars of the application
+     */
+    public void check(JARDesc[] jars) {
+        if (!isEnabled() || jars.length == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        final Queue<Candidate> candidates = new ConcurrentLinkedQueue<>(readEntries(jars));
+        int workers = Math.min(PARALLELISM, candidates.size());
+        List<Future<?>> running = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            running.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    Candidate candidate;
+                    while ((candidate = candidates.poll()) != null) {
+                        setResult(candidate.resource.getLocation(), validate(candidate));
+                    }
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : running) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            LOG.error("ERROR", ex);
+        }
+        LOG.debug("Update check of " + jars.length + " jars took " + (System.nanoTime() - start) / 1000000 + "ms, "
+                + count(Result.NOT_MODIFIED) + " not modified, " + count(Result.MODIFIED) + " modified");
+    }
+
+    /**
+     * Reads the cache entries of all jars, in the calling thread.
+     *
+     * @return the jars which can be revalidated
+     */
+    private List<Candidate> readEntries(JARDesc[] jars) {
+        List<Candidate> candidates = new ArrayList<>(jars.length);
+        for (JARDesc jar : jars) {
+            if (!jar.isCacheable()) {
+                continue;
+            }
+            // the same resource the tracker will use
+            URL location = UrlUtils.normalizeUrlQuietly(jar.getLocation());
+            if (!CacheUtil.isCacheable(location, jar.getVersion())) {
+                continue;
+            }
+            Resource resource = Resource.getResource(location, jar.getVersion(), updatePolicy);
+            setResult(location, Result.UNKNOWN);
+            if (resource.isInitialized() || !resource.isConnectable()) {
+                continue;
+            }
+            CacheEntry entry = new CacheEntry(location, resource.getDownloadVersion());
+            URL from = entry.getDownloadLocation();
+            if (from == null || !entry.isCached()) {
+                continue;
+            }
+            String etag = entry.getETag();
+            long lastModified = entry.getLastModified();
+            if (etag != null || lastModified > 0) {
+                candidates.add(new Candidate(resource, jar.isEager(), from, etag, lastModified));
+            }
+        }
+        return candidates;
+    }
+
+    private Result validate(Candidate candidate) {
+        URLConnection connection = null;
+        try {
+            connection = ConnectionFactory.getConnectionFactory().openConnection(candidate.from);
+            if (!(connection instanceof HttpURLConnection)) {
+                return Result.UNKNOWN;
+            }
+            HttpURLConnection httpConnection = (HttpURLConnection) connection;
+            ResourceDownloader.setConditional(httpConnection, candidate.etag, candidate.lastModified);
+            int responseCode = httpConnection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // reading the empty body hands the connection back for reuse
+                HttpUtils.consumeAndCloseConnectionSilently(httpConnection);
+                connection = null;
+                return markCurrent(candidate) ? Result.NOT_MODIFIED : Result.UNKNOWN;
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                return Result.UNKNOWN;
+            }
+            // lazy jars may never be downloaded, so their response is not kept open
+            if (candidate.eager && candidate.resource.setModifiedResponse(connection)) {
+                connection = null;
+            }
+            return Result.MODIFIED;
+        } catch (IOException ex) {
+            LOG.debug("Update check of " + candidate.from + " failed: " + ex);
+            return Result.UNKNOWN;
+        } finally {
+            if (connection != null) {
+                ConnectionFactory.getConnectionFactory().disconnect(connection);
+            }
+        }
+    }
+
+    /**
+     * Initializes the resource as downloaded, as
+     * {@link ResourceTracker} does for cached resources not to be updated.
+     *
+     * @return false if the resource was started meanwhile
+     */
+    private boolean markCurrent(Candidate candidate) {
+        Resource resource = candidate.resource;
+        CacheEntry entry = new CacheEntry(resource.getLocation(), resource.getDownloadVersion());
+        entry.lock();
+        try {
+            File localFile = CacheUtil.getCacheFile(resource.getLocation(), resource.getDownloadVersion());
+            synchronized (resource) {
+                if (resource.isInitialized()) {
+                    return false;
+                }
+                resource.setDownloadLocation(candidate.from);
+                resource.setLocalFile(localFile);
+                resource.setSize(localFile.length());
+                resource.setTransferred(localFile.length());
+                resource.changeStatus(EnumSet.noneOf(Resource.Status.class), EnumSet.of(DOWNLOADED, CONNECTED, PROCESSING));
+            }
+            entry.setLastUpdated(System.currentTimeMillis());
+            entry.store();
+            CacheEvictor.getInstance().sizeChanged(localFile);
+            return true;
+        } finally {
+            entry.unlock();
+        }
+    }
+
+    private synchronized void setResult(URL location, Result result) {
+        results.put(location, result);
+    }
+
+    /**
+     * @param location location of a checked jar
+     * @return the result for the jar, {@link Result#UNKNOWN} if not checked
+     */
+    synchronized Result getResult(URL location) {
+        Result result = results.get(UrlUtils.normalizeUrlQuietly(location));
+        return result == null ? Result.UNKNOWN : result;
+    }
+
+    /**
+     * @param result a result
+     * @return number of jars checked with that result
+     */
+    synchronized int count(Result result) {
+        int count = 0;
+        for (Result r : results.values()) {
+            if (r == result) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -248,6 +248,16 @@ public class Defaults {
                         BasicValueValidators.getBooleanValidator(),
                         String.valueOf(false)
                 },
+                {
+                        DeploymentConfiguration.KEY_SECURITY_VERIFICATION_CACHE,
+                        BasicValueValidators.getBooleanValidator(),
+                        String.valueOf(false)
+                },
+                {
+                        DeploymentConfiguration.KEY_PARSER_CACHE,
+                        BasicValueValidators.getBooleanValidator(),
+                        String.valueOf(true)
+                },
                 {
                         DeploymentConfiguration.KEY_SECURITY_PROMPT_USER_FOR_JNLP,
                         BasicValueValidators.getBooleanValidator(),
@@ -330,6 +340,36 @@ public class Defaults {
                         BasicValueValidators.getRangedIntegerValidator(-1, Integer.MAX_VALUE),
                         String.valueOf("-1")
                 },
+                {
+                        DeploymentConfiguration.KEY_CACHE_DEDUPLICATION,
+                        BasicValueValidators.getBooleanValidator(),
+                        String.valueOf(false)
+                },
+                {
+                        DeploymentConfiguration.KEY_CACHE_CONDITIONAL_REQUESTS,
+                        BasicValueValidators.getBooleanValidator(),
+                        String.valueOf(true)
+                },
+                {
+                        DeploymentConfiguration.KEY_CACHE_KEEP_COMPRESSED,
+                        BasicValueValidators.getBooleanValidator(),
+                        String.valueOf(false)
+                },
+                {
+                        DeploymentConfiguration.KEY_DOWNLOAD_THREADS,
+                        BasicValueValidators.getRangedIntegerValidator(1, 64),
+                        String.valueOf(6)
+                },
+                {
+                        DeploymentConfiguration.KEY_DOWNLOAD_THREADS_PER_HOST,
+                        BasicValueValidators.getRangedIntegerValidator(1, 64),
+                        String.valueOf(4)
+                },
+                {
+                        DeploymentConfiguration.KEY_DOWNLOAD_SEGMENTS,
+                        BasicValueValidators.getRangedIntegerValidator(1, 16),
+                        String.valueOf(1)
+                },
                 {
                         "deployment.cache.jarcompression",
                         BasicValueValidators.getRangedIntegerValidator(0, 10),
@@ -102,6 +102,18 @@ public final class DeploymentConfiguration {
     public static final String KEY_SYSTEM_CACHE_DIR = "deployment.system.cachedir";
 
     public static final String  KEY_CACHE_MAX_SIZE = "deployment.cache.max.size";
+    /** whether identical cached files share their content, see {@link net.sourceforge.jnlp.cache.ContentStore} */
+    public static final String KEY_CACHE_DEDUPLICATION = "deployment.cache.deduplication";
+    /** whether cached resources are revalidated by a single conditional request, see {@link net.sourceforge.jnlp.cache.CacheEntry#getETag()} */
+    public static final String KEY_CACHE_CONDITIONAL_REQUESTS = "deployment.cache.conditional.requests";
+    /** whether the compressed form of gzip and pack200 downloads is cached besides the jar */
+    public static final String KEY_CACHE_KEEP_COMPRESSED = "deployment.cache.keep.compressed";
+    /** maximal number of downloads running at once, see {@link net.sourceforge.jnlp.cache.DownloadScheduler} */
+    public static final String KEY_DOWNLOAD_THREADS = "deployment.download.threads";
+    /** maximal number of downloads running at once from the same host */
+    public static final String KEY_DOWNLOAD_THREADS_PER_HOST = "deployment.download.threads.per.host";
+    /** number of parallel range requests a large download is split into, 1 to download it in one, see {@link net.sourceforge.jnlp.cache.PartialDownload} */
+    public static final String KEY_DOWNLOAD_SEGMENTS = "deployment.download.segments";
 
     public static final String KEY_CACHE_ENABLED = "deployment.javapi.cache.enabled";
     public static final String KEY_CACHE_COMPRESSION_ENABLED = "deployment.cache.jarcompression";
@@ -156,6 +168,12 @@ public final class DeploymentConfiguration {
 
     /** Boolean. Only install the custom authenticator if true */
     public static final String KEY_SECURITY_ITW_IGNORECERTISSUES = "deployment.security.itw.ignorecertissues";
+
+    /** Boolean. Whether signatures of verified jars are cached, see {@link net.sourceforge.jnlp.tools.VerificationCache} */
+    public static final String KEY_SECURITY_VERIFICATION_CACHE = "deployment.security.verification.cache";
+
+    /** Boolean. Whether parsed JNLP files are cached, see {@link net.sourceforge.jnlp.parser.ParserCache} */
+    public static final String KEY_PARSER_CACHE = "deployment.parser.cache";
     
     public static final String KEY_STRICT_JNLP_CLASSLOADER = "deployment.jnlpclassloader.strict";
     
@@ -20,6 +20,7 @@ package net.sourceforge.jnlp.controlpanel;
 import net.sourceforge.jnlp.cache.CacheDirectory;
 import net.sourceforge.jnlp.cache.CacheEntry;
 import net.sourceforge.jnlp.cache.CacheUtil;
+import net.sourceforge.jnlp.cache.ClassIndex;
 import net.sourceforge.jnlp.cache.DirectoryNode;
 import net.sourceforge.jnlp.config.DeploymentConfiguration;
 import net.sourceforge.jnlp.config.PathsAndFiles;
@@ -318,6 +319,7 @@ public class CachePane extends JPanel {
                             updateRecentlyUsed(fileNode.getFile());
                             fileNode.getParent().removeChild(fileNode);
                             FileUtils.deleteWithErrMesg(fileNode.getInfoFile());
+                            ClassIndex.delete(fileNode.getFile());
                             ((NonEditableTableModel) cacheTable.getModel()).removeRow(modelRow);
                             cacheTable.getSelectionModel().clearSelection();
                             CacheDirectory.cleanParent(fileNode);
@@ -0,0 +1,250 @@
+package net.sourceforge.jnlp.parser;
+
+import net.sourceforge.jnlp.Node;
+import net.sourceforge.jnlp.ParseException;
+import net.sourceforge.jnlp.cache.CacheLRUWrapper;
+import net.sourceforge.jnlp.cache.ContentStore;
+import net.sourceforge.jnlp.config.DeploymentConfiguration;
+import net.sourceforge.jnlp.runtime.JNLPRuntime;
+import net.sourceforge.jnlp.tools.RecordKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Trees of JNLP files parsed before, kept below the cache directory in
+ * {@code parsed/<first two digits>/<hash>.<parser>}, so a JNLP file seen
+ * before does not have to be parsed again, which is slow above all when
+ * malformed XML is allowed and it has to be cleaned up first.
+ *
+ * A record is found by the SHA-256 of the content of the JNLP file and the
+ * parser it was parsed with, as the trees of both parsers may differ. The
+ * record starts with the {@link #FORMAT} it was written in, records of
+ * other formats are parsed again.
+ *
+ * The tree is used in place of the file, also when the signed JNLP file of
+ * the main jar is matched against it, so anybody able to write the cache
+ * directory could otherwise change what is launched. Every record carries
+ * a HMAC of the tree, the hash and the parser, with the {@link RecordKey}.
+ * Records without a valid HMAC are parsed again.
+ *
+ * Only the tree is recorded. Which locale, os and arch the descriptors are
+ * for is chosen when the {@link Parser} reads the tree, and the location of
+ * the file is given to it, so one record serves all of them.
+ *
+ * The cache is used only if enabled by
+ * {@link DeploymentConfiguration#KEY_PARSER_CACHE}.
+ */
+public class ParserCache {
+
+    private final static Logger LOG = LoggerFactory.getLogger(ParserCache.class);
+
+    static final String DIRECTORY = "parsed";
+    private static final String SUFFIX_NORMAL = ".xml";
+    private static final String SUFFIX_MALFORMED = ".malformed";
+
+    /** version of the records, to be raised whenever what is written changes */
+    static final int FORMAT = 2;
+
+    /** records not used for so long are deleted by {@link #collect()} */
+    static final long MAX_UNUSED = TimeUnit.DAYS.toMillis(30);
+
+    private static class ParserCacheHolder {
+
+        private static final ParserCache INSTANCE = new ParserCache(
+                new File(CacheLRUWrapper.getInstance().getCacheDir().getFile(), DIRECTORY),
+                RecordKey.getDefaultFile());
+    }
+
+    private final File root;
+    private final RecordKey key;
+
+    /**
+     * @param root directory of the records
+     * @param keyFile file holding the key the records are authenticated with
+     */
+    ParserCache(File root, File keyFile) {
+        this.root = root;
+        this.key = new RecordKey(keyFile);
+    }
+
+    public static ParserCache getInstance() {
+        return ParserCacheHolder.INSTANCE;
+    }
+
+    /**
+     * @return true if parsed JNLP files are cached by the configuration
+     */
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(JNLPRuntime.getConfiguration().getProperty(DeploymentConfiguration.KEY_PARSER_CACHE));
+    }
+
+    File getRoot() {
+        return root;
+    }
+
+    /**
+     * @param hash SHA-256 of a JNLP file, in hex
+     * @param settings the settings the file is parsed with
+     * @return location of the record for the file, it may not exist
+     */
+    File getRecord(String hash, ParserSettings settings) {
+        String suffix = settings.isMalformedXmlAllowed() ? SUFFIX_MALFORMED : SUFFIX_NORMAL;
+        return new File(new File(root, hash.substring(0, 2)), hash + suffix);
+    }
+
+    /**
+     * Returns the root node of the JNLP file, reading it from its record if
+     * it was parsed before, and recording it otherwise.
+     *
+     * @param file the JNLP file
+     * @param settings the settings the file is parsed with
+     * @return the root node of the file
+     * @throws IOException if the file can not be read
+     * @throws ParseException if the file can not be parsed
+     */
+    public Node getRootNode(File file, ParserSettings settings) throws IOException, ParseException {
+        String hash = ContentStore.hash(file);
+        Node root = get(hash, settings);
+        if (root == null) {
+            try (InputStream input = new FileInputStream(file)) {
+                root = Parser.getRootNode(input, settings);
+            }
+            put(hash, settings, root);
+        }
+        return root;
+    }
+
+    /**
+     * @param hash SHA-256 of the JNLP file, in hex
+     * @param settings the settings the file is parsed with
+     * @return the tree recorded for the file, or {@code null} if there is no
+     * record, or only one of another format or without a valid HMAC
+     */
+    Node get(String hash, ParserSettings settings) {
+        File record = getRecord(hash, settings);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(record.toPath())))) {
+            if (in.readInt() != FORMAT) {
+                return null;
+            }
+            Mac mac = newMac(record);
+            byte[] recorded = new byte[mac.getMacLength()];
+            in.readFully(recorded);
+            byte[] tree = new byte[in.available()];
+            in.readFully(tree);
+            if (!MessageDigest.isEqual(recorded, mac.doFinal(tree))) {
+                LOG.debug("Ignoring unauthenticated record " + record);
+                return null;
+            }
+            Node root = Node.read(new DataInputStream(new ByteArrayInputStream(tree)));
+            // keeps the record from being collected
+            record.setLastModified(System.currentTimeMillis());
+            return root;
+        } catch (NoSuchFileException ex) {
+            return null;
+        } catch (IOException | RuntimeException | OutOfMemoryError ex) {
+            LOG.debug("Ignoring damaged record " + record + ": " + ex);
+            return null;
+        } catch (GeneralSecurityException ex) {
+            LOG.debug("Can not authenticate " + record + ": " + ex);
+            return null;
+        }
+    }
+
+    /**
+     * Records the tree of a JNLP file, replacing any record made before.
+     *
+     * @param hash SHA-256 of the JNLP file, in hex
+     * @param settings the settings the file was parsed with
+     * @param root root node of the file
+     */
+    void put(String hash, ParserSettings settings, Node root) {
+        File record = getRecord(hash, settings);
+        try {
+            ByteArrayOutputStream tree = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(tree)) {
+                root.write(out);
+            }
+            byte[] mac = newMac(record).doFinal(tree.toByteArray());
+            Files.createDirectories(record.getParentFile().toPath());
+            Path temp = Files.createTempFile(record.getParentFile().toPath(), record.getName(), ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+                    out.writeInt(FORMAT);
+                    out.write(mac);
+                    tree.writeTo(out);
+                }
+                try {
+                    Files.move(temp, record.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(temp, record.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException | GeneralSecurityException ex) {
+            LOG.debug("Tree of " + hash + " could not be recorded: " + ex);
+        }
+    }
+
+    /**
+     * @param record the record of a tree, its name tells the hash of the
+     * JNLP file and the parser
+     * @return HMAC of the name, to be completed with the tree
+     */
+    private Mac newMac(File record) throws IOException, GeneralSecurityException {
+        Mac mac = key.newMac();
+        mac.update(record.getName().getBytes(UTF_8));
+        mac.update((byte) 0);
+        return mac;
+    }
+
+    /**
+     * Deletes all records not used for {@link #MAX_UNUSED}.
+     *
+     * @return number of deleted records
+     */
+    public int collect() {
+        File[] buckets = root.listFiles();
+        if (buckets == null) {
+            return 0;
+        }
+        long oldest = System.currentTimeMillis() - MAX_UNUSED;
+        int collected = 0;
+        for (File bucket : buckets) {
+            File[] records = bucket.listFiles();
+            if (records == null) {
+                continue;
+            }
+            for (File record : records) {
+                if (record.lastModified() < oldest && record.delete()) {
+                    collected++;
+                }
+            }
+        }
+        if (collected > 0) {
+            LOG.debug("Collected " + collected + " unused parser records from " + root);
+        }
+        return collected;
+    }
+}
@@ -38,6 +38,7 @@ exception statement from your version.
 
 package net.sourceforge.jnlp.runtime;
 
+import net.sourceforge.jnlp.cache.CacheIO;
 import net.sourceforge.jnlp.security.ConnectionFactory;
 import net.sourceforge.jnlp.util.JarFile;
 import net.sourceforge.jnlp.util.UrlUtils;
@@ -47,10 +48,8 @@ import sun.net.www.protocol.jar.URLJarFile;
 import sun.net.www.protocol.jar.URLJarFileCallBack;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.URL;
 import java.net.URLConnection;
 import java.security.AccessController;
@@ -136,7 +135,6 @@ final class CachedJarFileCallback implements URLJarFileCallBack {
     private  java.util.jar.JarFile cacheJarFile(URL url) throws IOException {
         java.util.jar.JarFile result = null;
 
-        final int BUF_SIZE = 2048;
         URLConnection conn = ConnectionFactory.getConnectionFactory().openConnection(url);
         /* get the stream before asserting privileges */
         final InputStream in = conn.getInputStream();
@@ -146,19 +144,15 @@ final class CachedJarFileCallback implements URLJarFileCallBack {
                     AccessController.doPrivileged(new PrivilegedExceptionAction<java.util.jar.JarFile>() {
                         @Override
                         public java.util.jar.JarFile run() throws IOException {
-                            OutputStream out = null;
                             File tmpFile = null;
                             try {
                                 tmpFile = File.createTempFile("jar_cache", null);
                                 tmpFile.deleteOnExit();
-                                out = new FileOutputStream(tmpFile);
-                                int read = 0;
-                                byte[] buf = new byte[BUF_SIZE];
-                                while ((read = in.read(buf)) != -1) {
-                                    out.write(buf, 0, read);
+                                if (UrlUtils.isLocalFile(url)) {
+                                    CacheIO.copyFile(new File(url.getPath()), tmpFile);
+                                } else {
+                                    CacheIO.write(in, tmpFile, conn.getContentLengthLong(), null);
                                 }
-                                out.close();
-                                out = null;
                                 return new URLJarFile(tmpFile, null);
                             } catch (IOException e) {
                                 if (tmpFile != null) {
@@ -169,9 +163,6 @@ final class CachedJarFileCallback implements URLJarFileCallBack {
                                 if (in != null) {
                                     in.close();
                                 }
-                                if (out != null) {
-                                    out.close();
-                                }
                             }
                         }
                     });
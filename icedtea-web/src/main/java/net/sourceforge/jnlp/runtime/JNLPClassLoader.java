@@ -15,10 +15,16 @@
 package net.sourceforge.jnlp.runtime;
 
 import net.sourceforge.jnlp.*;
+import net.sourceforge.jnlp.cache.CacheIO;
+import net.sourceforge.jnlp.cache.CachedDaemonThreadPoolProvider;
 import net.sourceforge.jnlp.cache.CacheUtil;
+import net.sourceforge.jnlp.cache.ClassIndex;
+import net.sourceforge.jnlp.cache.JarMetadata;
+import net.sourceforge.jnlp.cache.DownloadScheduler;
 import net.sourceforge.jnlp.cache.IllegalResourceDescriptorException;
 import net.sourceforge.jnlp.cache.NativeLibraryStorage;
 import net.sourceforge.jnlp.cache.ResourceTracker;
+import net.sourceforge.jnlp.cache.UpdateCheck;
 import net.sourceforge.jnlp.cache.UpdatePolicy;
 import net.sourceforge.jnlp.config.DeploymentConfiguration;
 import net.sourceforge.jnlp.jdk89acesses.JarIndexAccess;
@@ -30,14 +36,12 @@ import net.sourceforge.jnlp.security.appletextendedsecurity.UnsignedAppletTrustC
 import net.sourceforge.jnlp.tools.JarCertVerifier;
 import net.sourceforge.jnlp.util.JNLPFileUtilities;
 import net.sourceforge.jnlp.util.JarFile;
-import net.sourceforge.jnlp.util.StreamUtils;
 import net.sourceforge.jnlp.util.UrlUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
@@ -64,6 +68,7 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -71,6 +76,9 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
@@ -189,6 +197,13 @@ public class JNLPClassLoader extends URLClassLoader {
      */
     private final ArrayList<Permission> runtimePermissions = new ArrayList<>();
 
+    /**
+     * Permissions of the code sources, as computed from the fields above.
+     * Replaced by an empty map whenever one of them changes, see
+     * {@link #invalidatePermissions()}.
+     */
+    private volatile Map<CodeSource, PermissionCollection> permissionCache = new ConcurrentHashMap<>();
+
     /**
      * all jars not yet part of classloader or active Synchronized since this
      * field may become shared data between multiple classloading threads. See
@@ -236,6 +251,37 @@ public class JNLPClassLoader extends URLClassLoader {
     private final Map<URL, SecurityDesc> jarLocationSecurityMap
             = Collections.synchronizedMap(new HashMap<URL, SecurityDesc>());
 
+    /**
+     * number of threads reading jars in activateJars
+     */
+    private static final int ACTIVATION_PARALLELISM = 4;
+
+    /**
+     * Class indexes of the lazy jars already downloaded, by location.
+     * Synchronized since this field may become shared data between multiple
+     * classloading threads. See loadClass(String).
+     */
+    private final Map<URL, ClassIndex> classIndexes
+            = Collections.synchronizedMap(new HashMap<URL, ClassIndex>());
+
+    /**
+     * Classes not found, with the number of jars added to this and the
+     * extension loaders at the time, so that loadClass can fail at once
+     * until another jar is added. Emptied when a jar is added to this
+     * loader, or when it holds {@link #MAX_NOT_FOUND_CLASSES} classes.
+     */
+    private final ConcurrentHashMap<String, Integer> notFoundClasses = new ConcurrentHashMap<>();
+
+    /**
+     * most classes kept in notFoundClasses
+     */
+    private static final int MAX_NOT_FOUND_CLASSES = 1024;
+
+    /**
+     * number of urls added to this loader
+     */
+    private final AtomicInteger addedURLs = new AtomicInteger();
+
     /*Set to prevent once tried-to-get resources to be tried again*/
     private final Set<URL> alreadyTried = Collections.synchronizedSet(new HashSet<URL>());
 
@@ -384,6 +430,7 @@ public class JNLPClassLoader extends URLClassLoader {
     private void setSecurity() throws LaunchException {
         URL codebase = JNLPFileUtilities.guessCodeBase(file);
         this.security = securityDelegate.getClassLoaderSecurity(codebase);
+        invalidatePermissions();
     }
 
     /**
@@ -571,6 +618,7 @@ public class JNLPClassLoader extends URLClassLoader {
                 LOG.debug("Permission added: " + p.toString());
             }
         }
+        invalidatePermissions();
     }
 
     /**
@@ -586,8 +634,7 @@ public class JNLPClassLoader extends URLClassLoader {
         }
         boolean isInvalid = false;
         try {
-            JarFile jarFile = new JarFile(cacheFile.getAbsolutePath());
-            jarFile.close();
+            JarMetadata.get(cacheFile);
         } catch (IOException ioe) {
             //Catch a ZipException or any other read failure
             isInvalid = true;
@@ -656,6 +703,9 @@ public class JNLPClassLoader extends URLClassLoader {
 
         List<JARDesc> initialJars = new ArrayList<>();
 
+        // revalidate the cached jars together, instead of one by one as they are tracked
+        new UpdateCheck(JNLPRuntime.getDefaultUpdatePolicy()).check(jars);
+
         for (JARDesc jar : jars) {
 
             available.add(jar);
@@ -665,7 +715,9 @@ public class JNLPClassLoader extends URLClassLoader {
             }
             tracker.addResource(jar.getLocation(),
                     jar.getVersion(), file.getDownloadOptions(),
-                    jar.isCacheable() ? JNLPRuntime.getDefaultUpdatePolicy() : UpdatePolicy.FORCE);
+                    jar.isCacheable() ? JNLPRuntime.getDefaultUpdatePolicy() : UpdatePolicy.FORCE,
+                    jar.isMain() ? DownloadScheduler.Priority.MAIN
+                            : jar.isEager() ? DownloadScheduler.Priority.EAGER : DownloadScheduler.Priority.LAZY);
         }
 
         //If there are no eager jars, initialize the first jar
@@ -821,6 +873,7 @@ public class JNLPClassLoader extends URLClassLoader {
             final SecurityDesc jarSecurity = securityDelegate.getCodebaseSecurityDesc(jarDesc, codebase);
             jarLocationSecurityMap.put(jarDesc.getLocation(), jarSecurity);
         }
+        invalidatePermissions();
 
         activateJars(initialJars);
     }
@@ -913,8 +966,12 @@ public class JNLPClassLoader extends URLClassLoader {
             mainClass = checkForAttributeInJars(jars, Attributes.Name.MAIN_CLASS);
         }
 
-        String desiredJarEntryName = mainClass + ".class";
+        if (mainClass == null) {
+            return;
+        }
 
+        // every jar holding the main class is verified, the index only
+        // saves searching through the entries of each
         for (JARDesc jar : jars) {
 
             try {
@@ -926,18 +983,12 @@ public class JNLPClassLoader extends URLClassLoader {
                     continue; // JAR not found. Keep going.
                 }
 
-                JarFile jarFile = new JarFile(localFile);
-
-                for (JarEntry entry : Collections.list(jarFile.entries())) {
-                    String jeName = entry.getName().replaceAll("/", ".");
-                    if (jeName.equals(desiredJarEntryName)) {
-                        foundMainJar = true;
+                if (hasMainClass(localFile)) {
+                    foundMainJar = true;
+                    try (JarFile jarFile = new JarFile(localFile)) {
                         verifySignedJNLP(jar, jarFile);
-                        break;
                     }
                 }
-
-                jarFile.close();
             } catch (IOException e) {
                 /*
                  * After this exception is caught, it is escaped. This will skip
@@ -948,6 +999,25 @@ public class JNLPClassLoader extends URLClassLoader {
         }
     }
 
+    /**
+     * Tells whether the jar holds the main class, looking it up in the class
+     * index of the jar, which is kept next to it, instead of going through
+     * all entries.
+     *
+     * @param localFile cached jar
+     * @return true if the jar holds the main class
+     * @throws IOException if the jar can not be read
+     */
+    private boolean hasMainClass(File localFile) throws IOException {
+        ClassIndex index = ClassIndex.get(localFile);
+        if (index != null) {
+            return index.containsDotted(mainClass);
+        }
+        try (JarFile jarFile = new JarFile(localFile)) {
+            return jarFile.getJarEntry(mainClass.replace('.', '/') + ".class") != null;
+        }
+    }
+
     /**
      * Gets the name of the main method if specified in the manifest
      *
@@ -973,19 +1043,10 @@ public class JNLPClassLoader extends URLClassLoader {
         File f = tracker.getCacheFile(location);
 
         if (f != null) {
-            JarFile mainJar = null;
             try {
-                mainJar = new JarFile(f);
-                Manifest manifest = mainJar.getManifest();
-                if (manifest == null || manifest.getMainAttributes() == null) {
-                    //yes, jars without manifest exists
-                    return null;
-                }
-                attributeValue = manifest.getMainAttributes().getValue(attribute);
+                attributeValue = JarMetadata.get(f).getMainAttribute(attribute);
             } catch (IOException ioe) {
                 attributeValue = null;
-            } finally {
-                StreamUtils.closeSilently(mainJar);
             }
         }
 
@@ -1150,6 +1211,9 @@ public class JNLPClassLoader extends URLClassLoader {
         }
 
         this.app = app;
+        if (JNLPRuntime.security != null) {
+            JNLPRuntime.security.addApplication(app);
+        }
     }
 
     /**
@@ -1171,6 +1235,43 @@ public class JNLPClassLoader extends URLClassLoader {
      */
     @Override
     protected PermissionCollection getPermissions(CodeSource cs) {
+        // callers may add to the collection returned
+        Permissions result = new Permissions();
+        for (Permission perm : Collections.list(getCachedPermissions(cs).elements())) {
+            result.add(perm);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the permissions for the CodeSource, computed only once as
+     * long as none of the permissions of this classloader change.
+     *
+     * @param cs the code source
+     * @return read only permissions of the code source
+     */
+    PermissionCollection getCachedPermissions(CodeSource cs) {
+        Map<CodeSource, PermissionCollection> cache = permissionCache;
+        PermissionCollection result = cs == null ? null : cache.get(cs);
+        if (result == null) {
+            result = computePermissions(cs);
+            result.setReadOnly();
+            // if invalidated meanwhile, this only goes to the dropped map
+            cache.put(cs, result);
+        }
+        return result;
+    }
+
+    /**
+     * Drops the cached permissions of all code sources. To be called
+     * whenever anything {@link #computePermissions(CodeSource)} depends on
+     * changes.
+     */
+    private void invalidatePermissions() {
+        permissionCache = new ConcurrentHashMap<>();
+    }
+
+    private PermissionCollection computePermissions(CodeSource cs) {
         try {
             Permissions result = new Permissions();
 
@@ -1239,6 +1340,7 @@ public class JNLPClassLoader extends URLClassLoader {
 
     protected void addPermission(Permission p) {
         runtimePermissions.add(p);
+        invalidatePermissions();
     }
 
     /**
@@ -1270,140 +1372,271 @@ public class JNLPClassLoader extends URLClassLoader {
      * Ensures that the list of jars have all been transferred, and makes them
      * available to the classloader. If a jar contains native code, the
      * libraries will be extracted and placed in the path.
+     * <p>
+     * The jars are read in parallel, each in one pass over its entries, see
+     * {@link #readJar(JARDesc)}. They are then added one after another, in
+     * the order given, and so are their native libraries: of two libraries
+     * of the same name, the one of the later jar is used.
+     * </p>
      *
      * @param jars the list of jars to load
      */
     protected void activateJars(final List<JARDesc> jars) {
         PrivilegedAction<Void> activate = new PrivilegedAction<Void>() {
 
-            @SuppressWarnings("deprecation")
             @Override
             public Void run() {
                 // transfer the Jars
                 waitForJars(jars);
 
-                for (JARDesc jar : jars) {
-                    available.remove(jar);
+                JarContent[] contents = readJars(jars);
+                for (int i = 0; i < jars.size(); i++) {
+                    addJar(jars.get(i), contents[i]);
 
-                    // add jar
-                    File localFile = tracker.getCacheFile(jar.getLocation());
-                    try {
-                        URL location = jar.getLocation(); // non-cacheable, use source location
-                        if (localFile != null) {
-                            // TODO: Should be toURI().toURL()
-                            location = localFile.toURL(); // cached file
-                            // This is really not the best way.. but we need some way for
-                            // PluginAppletViewer::getCachedImageRef() to check if the image
-                            // is available locally, and it cannot use getResources() because
-                            // that prefetches the resource, which confuses MediaTracker.waitForAll()
-                            // which does a wait(), waiting for notification (presumably
-                            // thrown after a resource is fetched). This bug manifests itself
-                            // particularly when using The FileManager applet from Webmin.
-                            try (JarFile jarFile = new JarFile(localFile)) {
-                                for (JarEntry je : Collections.list(jarFile.entries())) {
-
-                                    // another jar in my jar? it is more likely than you think
-                                    if (je.getName().endsWith(".jar")) {
-                                        // We need to extract that jar so that it can be loaded
-                                        // (inline loading with "jar:..!/..." path will not work
-                                        // with standard classloader methods)
-
-                                        String extractedJarLocation = localFile + ".nested/" + je.getName();
-                                        File parentDir = new File(extractedJarLocation).getParentFile();
-                                        if (!parentDir.isDirectory() && !parentDir.mkdirs()) {
-                                            throw new RuntimeException(R("RNestedJarExtration"));
-                                        }
-                                        FileOutputStream extractedJar = new FileOutputStream(extractedJarLocation);
-                                        InputStream is = jarFile.getInputStream(je);
-
-                                        byte[] bytes = new byte[1024];
-                                        int read = is.read(bytes);
-                                        int fileSize = read;
-                                        while (read > 0) {
-                                            extractedJar.write(bytes, 0, read);
-                                            read = is.read(bytes);
-                                            fileSize += read;
-                                        }
-
-                                        is.close();
-                                        extractedJar.close();
-
-                                        // 0 byte file? skip
-                                        if (fileSize <= 0) {
-                                            continue;
-                                        }
-
-                                        tracker.addResource(new File(extractedJarLocation).toURL(), null, null, null);
-
-                                        URL codebase = file.getCodeBase();
-                                        if (codebase == null) {
-                                            //FIXME: codebase should be the codebase of the Main Jar not
-                                            //the location. Although, it still works in the current state.
-                                            codebase = file.getResources().getMainJAR().getLocation();
-                                        }
-
-                                        final SecurityDesc jarSecurity = securityDelegate.getJarPermissions(codebase);
-
-                                        try {
-                                            URL fileURL = new URL("file://" + extractedJarLocation);
-                                            // there is no remote URL for this, so lets fake one
-                                            URL fakeRemote = new URL(jar.getLocation().toString() + "!" + je.getName());
-                                            CachedJarFileCallback.getInstance().addMapping(fakeRemote, fileURL);
-                                            addURL(fakeRemote);
-
-                                            jarLocationSecurityMap.put(fakeRemote, jarSecurity);
-
-                                        } catch (MalformedURLException mfue) {
-                                            LOG.error("ERROR",mfue);
-                                        }
-                                    }
-
-                                    jarEntries.add(je.getName());
-                                }
-                            }
-                        }
+                    // some programs place a native library in any jar
+                    nativeLibraryStorage.addSearchJar(jars.get(i).getLocation());
+                }
 
-                        addURL(jar.getLocation());
+                return null;
+            }
+        };
 
-                        // there is currently no mechanism to cache files per
-                        // instance.. so only index cached files
-                        if (localFile != null) {
-                            CachedJarFileCallback.getInstance().addMapping(jar.getLocation(), localFile.toURI().toURL());
+        AccessController.doPrivileged(activate, acc);
+    }
 
-                            try (JarFile jarFile = new JarFile(localFile.getAbsolutePath())) {
-                                Manifest mf = jarFile.getManifest();
+    /**
+     * What {@link #readJar(JARDesc)} found in a jar.
+     */
+    private static class JarContent {
 
-                                // Only check classpath if this is the plugin and there is no jnlp_href usage.
-                                // Note that this is different from proprietary plugin behaviour.
-                                // If jnlp_href is used, the app should be treated similarly to when
-                                // it is run from javaws as a webstart.
-                                if (file instanceof PluginBridge && !((PluginBridge) file).useJNLPHref()) {
-                                    classpaths.addAll(getClassPathsFromManifest(mf, jar.getLocation().getPath()));
-                                }
+        private File localFile;
+        private final List<String> entries = new ArrayList<>();
+        /** locations nested jars were extracted to, by entry name */
+        private final Map<String, String> nestedJars = new LinkedHashMap<>();
+        private final Set<String> classpaths = new HashSet<>();
+        private JarIndexAccess index;
+        private Exception failure;
+    }
 
-                                JarIndexAccess index = JarIndexAccess.getJarIndex(jarFile);
-                                if (index != null) {
-                                    jarIndexes.add(index);
-                                }
-                            }
-                        } else {
-                            CachedJarFileCallback.getInstance().addMapping(jar.getLocation(), jar.getLocation());
+    /**
+     * Reads the jars with up to {@link #ACTIVATION_PARALLELISM} threads, the
+     * calling one included.
+     *
+     * @return what was found in each jar, in the order of the jars
+     */
+    private JarContent[] readJars(final List<JARDesc> jars) {
+        final JarContent[] contents = new JarContent[jars.size()];
+        final AtomicInteger next = new AtomicInteger();
+        Runnable reader = new Runnable() {
+            @Override
+            public void run() {
+                AccessController.doPrivileged(new PrivilegedAction<Void>() {
+                    @Override
+                    public Void run() {
+                        int i;
+                        while ((i = next.getAndIncrement()) < contents.length) {
+                            contents[i] = readJar(jars.get(i));
                         }
+                        return null;
+                    }
+                }, acc);
+            }
+        };
+
+        int workers = Math.min(ACTIVATION_PARALLELISM, jars.size());
+        List<Future<?>> running = new ArrayList<>(workers);
+        for (int i = 1; i < workers; i++) {
+            running.add(CachedDaemonThreadPoolProvider.DAEMON_THREAD_POOL.submit(reader));
+        }
+        reader.run();
+
+        // the jars read so far must not be used by another activation
+        boolean interrupted = false;
+        for (Future<?> future : running) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    LOG.error("ERROR", ex);
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return contents;
+    }
+
+    /**
+     * Reads what is needed to add the jar from its cached file, in one pass
+     * over the entries of its central directory: the names of the entries,
+     * nested jars, which are extracted, and the class path and index of the
+     * manifest. Native libraries are left to
+     * {@link NativeLibraryStorage#addSearchJar(URL)}. Runs in parallel for several jars, so nothing is added to
+     * the classloader here.
+     *
+     * @param jar the jar to read
+     * @return what was found in the jar
+     */
+    private JarContent readJar(JARDesc jar) {
+        JarContent content = new JarContent();
+        content.localFile = tracker.getCacheFile(jar.getLocation());
+        if (content.localFile == null) {
+            // non-cacheable, use source location
+            return content;
+        }
 
-                        LOG.debug("Activate jar: " + location);
-                    } catch (Exception ex) {
-                        LOG.error("ERROR",ex);
+        try {
+            JarMetadata metadata = JarMetadata.get(content.localFile);
+            if (!metadata.hasNestedJars() && !metadata.hasIndex()) {
+                // nothing to take out of the jar, all else is known already
+                content.entries.addAll(metadata.getEntryNames());
+                addClassPaths(jar, metadata.getManifest(), content);
+                return content;
+            }
+        } catch (Exception ex) {
+            content.failure = ex;
+            return content;
+        }
+
+        try (JarFile jarFile = new JarFile(content.localFile)) {
+            for (JarEntry je : Collections.list(jarFile.entries())) {
+
+                // another jar in my jar? it is more likely than you think
+                if (je.getName().endsWith(".jar")) {
+                    // We need to extract that jar so that it can be loaded
+                    // (inline loading with "jar:..!/..." path will not work
+                    // with standard classloader methods)
+
+                    String extractedJarLocation = content.localFile + ".nested/" + je.getName();
+                    File parentDir = new File(extractedJarLocation).getParentFile();
+                    if (!parentDir.isDirectory() && !parentDir.mkdirs()) {
+                        throw new RuntimeException(R("RNestedJarExtration"));
+                    }
+                    long fileSize;
+                    try (InputStream is = jarFile.getInputStream(je)) {
+                        fileSize = CacheIO.write(is, new File(extractedJarLocation), je.getSize(), null);
                     }
 
-                    // some programs place a native library in any jar
-                    nativeLibraryStorage.addSearchJar(jar.getLocation());
+                    // 0 byte file? skip
+                    if (fileSize <= 0) {
+                        continue;
+                    }
+
+                    content.nestedJars.put(je.getName(), extractedJarLocation);
                 }
 
-                return null;
+                content.entries.add(je.getName());
             }
-        };
 
-        AccessController.doPrivileged(activate, acc);
+            addClassPaths(jar, jarFile.getManifest(), content);
+
+            content.index = JarIndexAccess.getJarIndex(jarFile);
+        } catch (Exception ex) {
+            content.failure = ex;
+        }
+        return content;
+    }
+
+    private void addClassPaths(JARDesc jar, Manifest mf, JarContent content) {
+        // Only check classpath if this is the plugin and there is no jnlp_href usage.
+        // Note that this is different from proprietary plugin behaviour.
+        // If jnlp_href is used, the app should be treated similarly to when
+        // it is run from javaws as a webstart.
+        if (file instanceof PluginBridge && !((PluginBridge) file).useJNLPHref()) {
+            content.classpaths.addAll(getClassPathsFromManifest(mf, jar.getLocation().getPath()));
+        }
+    }
+
+    /**
+     * Adds a jar read by {@link #readJar(JARDesc)}, and the jars nested in
+     * it, to the classloader.
+     *
+     * @param jar the jar to add
+     * @param content what was found in the jar, null if reading it failed
+     */
+    @SuppressWarnings("deprecation")
+    private void addJar(JARDesc jar, JarContent content) {
+        available.remove(jar);
+        classIndexes.remove(jar.getLocation());
+
+        if (content == null) {
+            return;
+        }
+        if (content.failure != null) {
+            LOG.error("ERROR", content.failure);
+            return;
+        }
+
+        File localFile = content.localFile;
+        try {
+            URL location = jar.getLocation(); // non-cacheable, use source location
+            if (localFile != null) {
+                // TODO: Should be toURI().toURL()
+                location = localFile.toURL(); // cached file
+
+                for (Map.Entry<String, String> nestedJar : content.nestedJars.entrySet()) {
+                    String extractedJarLocation = nestedJar.getValue();
+                    tracker.addResource(new File(extractedJarLocation).toURL(), null, null, null);
+
+                    URL codebase = file.getCodeBase();
+                    if (codebase == null) {
+                        //FIXME: codebase should be the codebase of the Main Jar not
+                        //the location. Although, it still works in the current state.
+                        codebase = file.getResources().getMainJAR().getLocation();
+                    }
+
+                    final SecurityDesc jarSecurity = securityDelegate.getJarPermissions(codebase);
+
+                    try {
+                        URL fileURL = new URL("file://" + extractedJarLocation);
+                        // there is no remote URL for this, so lets fake one
+                        URL fakeRemote = new URL(jar.getLocation().toString() + "!" + nestedJar.getKey());
+                        CachedJarFileCallback.getInstance().addMapping(fakeRemote, fileURL);
+                        addURL(fakeRemote);
+
+                        jarLocationSecurityMap.put(fakeRemote, jarSecurity);
+                        invalidatePermissions();
+
+                    } catch (MalformedURLException mfue) {
+                        LOG.error("ERROR",mfue);
+                    }
+                }
+
+                // This is really not the best way.. but we need some way for
+                // PluginAppletViewer::getCachedImageRef() to check if the image
+                // is available locally, and it cannot use getResources() because
+                // that prefetches the resource, which confuses MediaTracker.waitForAll()
+                // which does a wait(), waiting for notification (presumably
+                // thrown after a resource is fetched). This bug manifests itself
+                // particularly when using The FileManager applet from Webmin.
+                jarEntries.addAll(content.entries);
+            }
+
+            addURL(jar.getLocation());
+
+            // there is currently no mechanism to cache files per
+            // instance.. so only index cached files
+            if (localFile != null) {
+                CachedJarFileCallback.getInstance().addMapping(jar.getLocation(), localFile.toURI().toURL());
+
+                classpaths.addAll(content.classpaths);
+
+                if (content.index != null) {
+                    jarIndexes.add(content.index);
+                }
+            } else {
+                CachedJarFileCallback.getInstance().addMapping(jar.getLocation(), jar.getLocation());
+            }
+
+            LOG.debug("Activate jar: " + location);
+        } catch (Exception ex) {
+            LOG.error("ERROR",ex);
+        }
     }
 
     /**
@@ -1536,6 +1769,13 @@ public class JNLPClassLoader extends URLClassLoader {
             }
         }
 
+        // classes not found before are not looked for again, unless jars were added since
+        int added = getAddedURLs();
+        Integer notFoundAt = notFoundClasses.get(name);
+        if (result == null && notFoundAt != null && notFoundAt == added) {
+            throw new ClassNotFoundException(name);
+        }
+
         // filter out 'bad' package names like java, javax
         // validPackage(name);
         // search this and the extension loaders
@@ -1604,12 +1844,35 @@ public class JNLPClassLoader extends URLClassLoader {
         }
 
         if (result == null) {
+            if (notFoundClasses.size() >= MAX_NOT_FOUND_CLASSES) {
+                notFoundClasses.clear();
+            }
+            notFoundClasses.put(name, added);
             throw new ClassNotFoundException(name);
         }
 
         return result;
     }
 
+    @Override
+    protected void addURL(URL url) {
+        super.addURL(url);
+        addedURLs.incrementAndGet();
+        // none of them can be trusted any more
+        notFoundClasses.clear();
+    }
+
+    /**
+     * @return number of urls added to this and the extension loaders
+     */
+    private int getAddedURLs() {
+        int added = 0;
+        for (JNLPClassLoader loader : loaders) {
+            added += loader.addedURLs.get();
+        }
+        return added;
+    }
+
     /**
      * Adds a new JARDesc into this classloader.
      * <p>
@@ -1636,7 +1899,8 @@ public class JNLPClassLoader extends URLClassLoader {
         tracker.addResource(desc.getLocation(),
                 desc.getVersion(),
                 null,
-                updatePolicy
+                updatePolicy,
+                DownloadScheduler.Priority.LAZY
         );
 
         // Give read permissions to the cached jar file
@@ -1647,6 +1911,7 @@ public class JNLPClassLoader extends URLClassLoader {
                         desc.getVersion());
 
                 resourcePermissions.add(p);
+                invalidatePermissions();
 
                 return null;
             }
@@ -1678,6 +1943,7 @@ public class JNLPClassLoader extends URLClassLoader {
                     final SecurityDesc security = securityDelegate.getJarPermissions(file.getCodeBase());
 
                     jarLocationSecurityMap.put(remoteURL, security);
+                    invalidatePermissions();
 
                     return null;
                 }
@@ -1745,6 +2011,21 @@ public class JNLPClassLoader extends URLClassLoader {
         } catch (ClassNotFoundException ex) {
         }
 
+        // go straight to the jar holding it, if known from the cache
+        JNLPClassLoader indexedIn;
+        try {
+            indexedIn = addIndexedResource(name);
+        } catch (LaunchException e) {
+            // as below
+            throw new IllegalStateException(e);
+        }
+        if (indexedIn != null) {
+            try {
+                return indexedIn.findClass(name);
+            } catch (ClassNotFoundException ex) {
+            }
+        }
+
         // add resources until found
         while (true) {
             JNLPClassLoader addedTo = null;
@@ -1772,6 +2053,89 @@ public class JNLPClassLoader extends URLClassLoader {
         }
     }
 
+    /**
+     * Adds the lazy jar holding the class, and those in the same part, if the
+     * class index of a jar downloaded already names the class.
+     *
+     * @param name the name of the class
+     * @return the classloader the jar was added to, or null if the class
+     * could be in a jar not indexed
+     * @throws ClassNotFoundException if all lazy jars are indexed, and none
+     * holds the class
+     * @throws LaunchException see {@link #addNextResource()}
+     */
+    private JNLPClassLoader addIndexedResource(String name) throws ClassNotFoundException, LaunchException {
+        Map<JARDesc, JNLPClassLoader> lazyJars = new LinkedHashMap<>();
+        collectAvailable(lazyJars);
+
+        boolean indexed = true;
+        for (Map.Entry<JARDesc, JNLPClassLoader> lazyJar : lazyJars.entrySet()) {
+            JNLPClassLoader loader = lazyJar.getValue();
+            ClassIndex index = loader.getClassIndex(lazyJar.getKey());
+            if (index != null && index.contains(name)) {
+                loader.addPart(lazyJar.getKey());
+                return loader;
+            }
+            if (index == null || !index.isComplete()) {
+                indexed = false;
+            }
+        }
+
+        if (indexed) {
+            throw new ClassNotFoundException(name);
+        }
+        return null;
+    }
+
+    /**
+     * Collects the jars not yet added to this and the extension loaders, in
+     * the order addNextResource() would add them.
+     */
+    private void collectAvailable(Map<JARDesc, JNLPClassLoader> lazyJars) {
+        synchronized (available) {
+            for (JARDesc jar : available) {
+                if (!lazyJars.containsKey(jar)) {
+                    lazyJars.put(jar, this);
+                }
+            }
+        }
+        for (int i = 1; i < loaders.length; i++) {
+            loaders[i].collectAvailable(lazyJars);
+        }
+    }
+
+    /**
+     * Returns the class index of a jar of this loader, without waiting for
+     * the jar to be downloaded.
+     *
+     * @return the index, or null if the jar is not downloaded yet or has none
+     */
+    private ClassIndex getClassIndex(final JARDesc jar) {
+        ClassIndex index = classIndexes.get(jar.getLocation());
+        try {
+            // only cached jars are indexed, not those of the user
+            if (index != null || !CacheUtil.isCacheable(jar.getLocation(), jar.getVersion())
+                    || !tracker.checkResource(jar.getLocation())) {
+                return index;
+            }
+        } catch (IllegalResourceDescriptorException ex) {
+            // not tracked yet, see addNewJar
+            return null;
+        }
+        index = AccessController.doPrivileged(new PrivilegedAction<ClassIndex>() {
+            @Override
+            public ClassIndex run() {
+                // downloaded, so this does not block
+                File localFile = tracker.getCacheFile(jar.getLocation());
+                return localFile == null ? null : ClassIndex.get(localFile);
+            }
+        }, acc);
+        if (index != null) {
+            classIndexes.put(jar.getLocation(), index);
+        }
+        return index;
+    }
+
     /**
      * Finds the resource in this, the parent, or the extension class loaders.
      *
@@ -1920,15 +2284,24 @@ public class JNLPClassLoader extends URLClassLoader {
             return null;
         }
 
-        // add jar
+        addPart(available.get(0));
+
+        return this;
+    }
+
+    /**
+     * Adds the jar, and all those in the same part, to the classloader.
+     *
+     * @param jar the jar to add
+     * @throws LaunchException see {@link #addNextResource()}
+     */
+    private void addPart(JARDesc jar) throws LaunchException {
         List<JARDesc> jars = new ArrayList<>();
-        jars.add(available.get(0));
+        jars.add(jar);
 
         fillInPartJars(jars);
         checkForMain(jars);
         activateJars(jars);
-
-        return this;
     }
 
     // this part compatibility with previous classloader
@@ -2058,6 +2431,7 @@ public class JNLPClassLoader extends URLClassLoader {
                 jarLocationSecurityMap.put(key, extLoader.jarLocationSecurityMap.get(key));
             }
         }
+        invalidatePermissions();
     }
 
     /**
@@ -2443,6 +2817,7 @@ public class JNLPClassLoader extends URLClassLoader {
                 throw new LaunchException(classLoader.file, null, R("LSFatal"), R("LCInit"), R("LRunInSandboxError"), R("LRunInSandboxErrorInfo"));
             }
 
+            classLoader.invalidatePermissions();
             JNLPRuntime.reloadPolicy();
             // ensure that we have the most up-to-date custom policy loaded since the user may have just launched PolicyEditor
             // to create a custom policy for the applet they are about to run
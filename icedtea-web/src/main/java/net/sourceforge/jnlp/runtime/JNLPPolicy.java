@@ -33,7 +33,10 @@ import java.security.Permissions;
 import java.security.Policy;
 import java.security.ProtectionDomain;
 import java.security.URIParameter;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Policy for JNLP environment.  This class delegates to the
@@ -49,6 +52,44 @@ public class JNLPPolicy extends Policy {
 
     private final static Logger LOG = LoggerFactory.getLogger(JNLPPolicy.class);
 
+    /** read only collection of all permissions */
+    private static final PermissionCollection ALL_PERMISSIONS;
+
+    static {
+        Permissions all = new Permissions();
+        all.add(new AllPermission());
+        all.setReadOnly();
+        ALL_PERMISSIONS = all;
+    }
+
+    /**
+     * Permissions of a code source, merged from the permissions of the
+     * classloader and of the policies.
+     */
+    private static final class CachedPermissions {
+
+        private final ApplicationInstance app;
+
+        /** the permissions of the classloader merged */
+        private final PermissionCollection base;
+
+        private final PermissionCollection permissions;
+
+        private CachedPermissions(ApplicationInstance app, PermissionCollection base, PermissionCollection permissions) {
+            this.app = app;
+            this.base = base;
+            this.permissions = permissions;
+        }
+
+        /**
+         * @return true if the application is still the same and the
+         * permissions of its classloader did not change since
+         */
+        private boolean isCurrent(ApplicationInstance current, CodeSource source) {
+            return app == current && base == getClassLoader(app).getCachedPermissions(source);
+        }
+    }
+
 
     /** classes from this source have all permissions */
     private static CodeSource shellSource;
@@ -67,6 +108,9 @@ public class JNLPPolicy extends Policy {
     /** the user-level policy for jnlps */
     private Policy userJnlpPolicy = null;
 
+    /** permissions checked by {@link #implies}, by code source; emptied on {@link #refresh()} */
+    private volatile Map<CodeSource, CachedPermissions> permissionCache = new ConcurrentHashMap<>();
+
     protected JNLPPolicy() {
         shellSource = JNLPPolicy.class.getProtectionDomain().getCodeSource();
         systemSource = Policy.class.getProtectionDomain().getCodeSource();
@@ -84,58 +128,104 @@ public class JNLPPolicy extends Policy {
      * for the source.
      */
     public PermissionCollection getPermissions(CodeSource source) {
-        if (source.equals(systemSource) || source.equals(shellSource))
+        if (isAllPermissions(source)) {
             return getAllPermissions();
+        }
 
-        if (isSystemJar(source)) {
-            return getAllPermissions();
+        ApplicationInstance app = getJNLPApplication();
+        if (app != null) {
+            // callers may add to the collection returned
+            Permissions result = new Permissions();
+            for (Permission perm : Collections.list(getCachedPermissions(app, source).elements())) {
+                result.add(perm);
+            }
+            return result;
         }
 
+        // delegate to original Policy object; required to run under WebStart
+        return systemPolicy.getPermissions(source);
+    }
+
+    /**
+     * @return the current application, {@code null} if there is none or it
+     * was not loaded by a JNLPClassLoader
+     */
+    private static ApplicationInstance getJNLPApplication() {
+        ApplicationInstance app = JNLPRuntime.getApplication();
+        if (app != null && app.getClassLoader() instanceof JNLPClassLoader) {
+            return app;
+        }
+        return null;
+    }
+
+    private static JNLPClassLoader getClassLoader(ApplicationInstance app) {
+        return (JNLPClassLoader) app.getClassLoader();
+    }
+
+    private boolean isAllPermissions(CodeSource source) {
+        return source.equals(systemSource) || source.equals(shellSource) || isSystemJar(source);
+    }
+
+    /**
+     * Returns the read only permissions of the source, merged again only if
+     * the application or the permissions of its classloader changed.
+     */
+    private PermissionCollection getCachedPermissions(ApplicationInstance app, CodeSource source) {
+        Map<CodeSource, CachedPermissions> cache = permissionCache;
+        CachedPermissions cached = cache.get(source);
+        if (cached == null || !cached.isCurrent(app, source)) {
+            PermissionCollection base = getClassLoader(app).getCachedPermissions(source);
+            cached = new CachedPermissions(app, base, mergePermissions(app, base));
+            cache.put(source, cached);
+        }
+        return cached.permissions;
+    }
+
+    /**
+     * Adds the permissions the policies grant to the application to the ones
+     * of the classloader.
+     */
+    private PermissionCollection mergePermissions(ApplicationInstance app, PermissionCollection clPermissions) {
         // if we check the SecurityDesc here then keep in mind that
         // code can add properties at runtime to the ResourcesDesc!
-        if (JNLPRuntime.getApplication() != null) {
-            if (JNLPRuntime.getApplication().getClassLoader() instanceof JNLPClassLoader) {
-                JNLPClassLoader cl = (JNLPClassLoader) JNLPRuntime.getApplication().getClassLoader();
-
-                PermissionCollection clPermissions = cl.getPermissions(source);
-
-                Enumeration<Permission> e;
-                CodeSource appletCS = new CodeSource(JNLPRuntime.getApplication().getJNLPFile().getSourceLocation(), (java.security.cert.Certificate[]) null);
-
-                // systempolicy permissions need to be accounted for as well
-                e = systemPolicy.getPermissions(appletCS).elements();
-                while (e.hasMoreElements()) {
-                    clPermissions.add(e.nextElement());
-                }
-
-                // and so do permissions from the jnlp-specific system policy
-                if (systemJnlpPolicy != null) {
-                    e = systemJnlpPolicy.getPermissions(appletCS).elements();
-                    while (e.hasMoreElements()) {
-                        clPermissions.add(e.nextElement());
-                    }
-                }
-
-                // and permissiosn from jnlp-specific user policy too
-                if (userJnlpPolicy != null) {
-                    e = userJnlpPolicy.getPermissions(appletCS).elements();
-                    while (e.hasMoreElements()) {
-                        clPermissions.add(e.nextElement());
-                    }
-
-                    CodeSource appletCodebaseSource = new CodeSource(JNLPRuntime.getApplication().getJNLPFile().getCodeBase(), (java.security.cert.Certificate[]) null);
-                    e = userJnlpPolicy.getPermissions(appletCodebaseSource).elements();
-                    while (e.hasMoreElements()) {
-                        clPermissions.add(e.nextElement());
-                    }
-                }
-
-                return clPermissions;
+        PermissionCollection result = new Permissions();
+        Enumeration<Permission> e = clPermissions.elements();
+        while (e.hasMoreElements()) {
+            result.add(e.nextElement());
+        }
+
+        CodeSource appletCS = new CodeSource(app.getJNLPFile().getSourceLocation(), (java.security.cert.Certificate[]) null);
+
+        // systempolicy permissions need to be accounted for as well
+        e = systemPolicy.getPermissions(appletCS).elements();
+        while (e.hasMoreElements()) {
+            result.add(e.nextElement());
+        }
+
+        // and so do permissions from the jnlp-specific system policy
+        if (systemJnlpPolicy != null) {
+            e = systemJnlpPolicy.getPermissions(appletCS).elements();
+            while (e.hasMoreElements()) {
+                result.add(e.nextElement());
             }
         }
 
-        // delegate to original Policy object; required to run under WebStart
-        return systemPolicy.getPermissions(source);
+        // and permissiosn from jnlp-specific user policy too
+        if (userJnlpPolicy != null) {
+            e = userJnlpPolicy.getPermissions(appletCS).elements();
+            while (e.hasMoreElements()) {
+                result.add(e.nextElement());
+            }
+
+            CodeSource appletCodebaseSource = new CodeSource(app.getJNLPFile().getCodeBase(), (java.security.cert.Certificate[]) null);
+            e = userJnlpPolicy.getPermissions(appletCodebaseSource).elements();
+            while (e.hasMoreElements()) {
+                result.add(e.nextElement());
+            }
+        }
+
+        result.setReadOnly();
+        return result;
     }
 
     /**
@@ -145,6 +235,7 @@ public class JNLPPolicy extends Policy {
         if (userJnlpPolicy != null) {
             userJnlpPolicy.refresh();
         }
+        permissionCache = new ConcurrentHashMap<>();
     }
 
     /**
@@ -208,7 +299,22 @@ public class JNLPPolicy extends Policy {
 
     public boolean implies(ProtectionDomain domain, Permission permission) {
         //Include the permissions that may be added during runtime.
-        PermissionCollection pc = getPermissions(domain.getCodeSource());
+        PermissionCollection pc = getImpliedPermissions(domain.getCodeSource());
         return super.implies(domain, permission) || pc.implies(permission);
     }
+
+    /**
+     * Same as {@link #getPermissions(CodeSource)}, but without copying the
+     * permissions, as they are only checked.
+     */
+    private PermissionCollection getImpliedPermissions(CodeSource source) {
+        if (isAllPermissions(source)) {
+            return ALL_PERMISSIONS;
+        }
+        ApplicationInstance app = getJNLPApplication();
+        if (app != null) {
+            return getCachedPermissions(app, source);
+        }
+        return systemPolicy.getPermissions(source);
+    }
 }
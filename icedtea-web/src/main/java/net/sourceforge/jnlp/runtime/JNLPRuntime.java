@@ -539,7 +539,7 @@ public class JNLPRuntime {
             @Override
             public void run() {
                 JnlpRuntimeState.markNetxStopped();
-                CacheUtil.cleanCache();
+                CacheUtil.trimCache();
             }
         });
     }
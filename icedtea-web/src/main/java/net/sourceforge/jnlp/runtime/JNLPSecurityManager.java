@@ -19,7 +19,6 @@ package net.sourceforge.jnlp.runtime;
 import net.sourceforge.jnlp.JnlpRuntimeState;
 import net.sourceforge.jnlp.security.AccessType;
 import net.sourceforge.jnlp.services.ServiceUtil;
-import net.sourceforge.jnlp.util.WeakList;
 import net.sourceforge.swing.SwingUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,9 +26,13 @@ import sun.awt.AWTSecurityManager;
 import sun.awt.AppContext;
 
 import java.awt.*;
+import java.lang.ref.WeakReference;
 import java.net.SocketPermission;
 import java.security.AccessControlException;
 import java.security.Permission;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import static net.sourceforge.jnlp.runtime.Translator.R;
 
@@ -91,12 +94,26 @@ class JNLPSecurityManager extends AWTSecurityManager {
     private SecurityException closeAppEx = // making here prevents huge stack traces
     new SecurityException(R("RShutdown"));
 
-    /** weak list of windows created */
-    private WeakList<Window> weakWindows = new WeakList<Window>();
+    /** marks classloaders whose parents include no JNLPClassLoader */
+    private static final WeakReference<ApplicationInstance> NO_APPLICATION = new WeakReference<>(null);
 
-    /** weak list of applications corresponding to window list */
-    private WeakList<ApplicationInstance> weakApplications =
-            new WeakList<ApplicationInstance>();
+    /*
+     * The maps below hold their keys weakly, and as applications refer to
+     * their classloader, thread group and windows, the applications too.
+     * None of the keys overrides equals, so they are looked up by identity.
+     */
+
+    /** applications of the windows created */
+    private final Map<Window, WeakReference<ApplicationInstance>> windowApplications =
+            Collections.synchronizedMap(new WeakHashMap<Window, WeakReference<ApplicationInstance>>());
+
+    /** applications of the thread groups, see {@link #addApplication} */
+    private final Map<ThreadGroup, WeakReference<ApplicationInstance>> groupApplications =
+            Collections.synchronizedMap(new WeakHashMap<ThreadGroup, WeakReference<ApplicationInstance>>());
+
+    /** applications found for classloaders by {@link #getApplication(ClassLoader)} */
+    private final Map<ClassLoader, WeakReference<ApplicationInstance>> loaderApplications =
+            Collections.synchronizedMap(new WeakHashMap<ClassLoader, WeakReference<ApplicationInstance>>());
 
     /** Sets whether or not exit is allowed (in the context of the plugin, this is always false) */
     private boolean exitAllowed = true;
@@ -171,7 +188,13 @@ class JNLPSecurityManager extends AWTSecurityManager {
      * determined.
      */
     protected ApplicationInstance getApplication() {
-        return getApplication(Thread.currentThread(), getClassContext(), 0);
+        Thread thread = Thread.currentThread();
+        ApplicationInstance app = getApplication(thread);
+        if (app != null) {
+            return app;
+        }
+        // only walk the stack if the thread does not tell
+        return getApplication(getClassContext(), 0);
     }
 
     /**
@@ -179,55 +202,113 @@ class JNLPSecurityManager extends AWTSecurityManager {
      * call from event dispatch thread).
      */
     protected ApplicationInstance getApplication(Window window) {
-        for (int i = weakWindows.size(); i-- > 0;) {
-            Window w = weakWindows.get(i);
-            if (w == null) {
-                weakWindows.remove(i);
-                weakApplications.remove(i);
-            }
-
-            if (w == window) {
-                return weakApplications.get(i);
-            }
-        }
-
-        return null;
+        WeakReference<ApplicationInstance> app = windowApplications.get(window);
+        return app == null ? null : app.get();
     }
 
     /**
      * Return the current Application, or null.
      */
     protected ApplicationInstance getApplication(Thread thread, Class<?> stack[], int maxDepth) {
-        ClassLoader cl;
-        JNLPClassLoader jnlpCl;
-
-        cl = thread.getContextClassLoader();
-        while (cl != null) {
-            jnlpCl = getJnlpClassLoader(cl);
-            if (jnlpCl != null && jnlpCl.getApplication() != null) {
-                return jnlpCl.getApplication();
+        ApplicationInstance app = getApplication(thread);
+        if (app != null) {
+            return app;
+        }
+        return getApplication(stack, maxDepth);
+    }
+
+    /**
+     * Returns the application of the context classloader of the thread or
+     * of its thread group, or null.
+     */
+    private ApplicationInstance getApplication(Thread thread) {
+        ApplicationInstance app = getApplication(thread.getContextClassLoader());
+        if (app != null) {
+            return app;
+        }
+
+        for (ThreadGroup group = thread.getThreadGroup(); group != null; group = group.getParent()) {
+            WeakReference<ApplicationInstance> ref = groupApplications.get(group);
+            if (ref != null && ref.get() != null) {
+                return ref.get();
             }
-            cl = cl.getParent();
         }
+        return null;
+    }
 
+    /**
+     * Returns the application of the first classloader on the stack which
+     * has one, or null.
+     */
+    private ApplicationInstance getApplication(Class<?> stack[], int maxDepth) {
         if (maxDepth <= 0) {
             maxDepth = stack.length;
         }
 
         // this needs to be tightened up
+        ClassLoader last = null;
         for (int i = 0; i < stack.length && i < maxDepth; i++) {
-            cl = stack[i].getClassLoader();
-            while (cl != null) {
-                jnlpCl = getJnlpClassLoader(cl);
-                if (jnlpCl != null && jnlpCl.getApplication() != null) {
+            ClassLoader cl = stack[i].getClassLoader();
+            if (cl == last) {
+                // most frames come from the same classloader as the one before
+                continue;
+            }
+            ApplicationInstance app = getApplication(cl);
+            if (app != null) {
+                return app;
+            }
+            last = cl;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the application of the first JNLPClassLoader among the
+     * classloader and its parents which has one, or null. Known once found,
+     * as the application of a classloader never changes.
+     */
+    private ApplicationInstance getApplication(ClassLoader loader) {
+        if (loader == null) {
+            return null;
+        }
+        WeakReference<ApplicationInstance> known = loaderApplications.get(loader);
+        if (known == NO_APPLICATION) {
+            return null;
+        }
+        if (known != null && known.get() != null) {
+            return known.get();
+        }
+
+        boolean jnlpLoaders = false;
+        for (ClassLoader cl = loader; cl != null; cl = cl.getParent()) {
+            JNLPClassLoader jnlpCl = getJnlpClassLoader(cl);
+            if (jnlpCl != null) {
+                jnlpLoaders = true;
+                if (jnlpCl.getApplication() != null) {
+                    loaderApplications.put(loader, new WeakReference<>(jnlpCl.getApplication()));
                     return jnlpCl.getApplication();
                 }
-                cl = cl.getParent();
             }
         }
+        if (!jnlpLoaders) {
+            // none of them can get an application later
+            loaderApplications.put(loader, NO_APPLICATION);
+        }
         return null;
     }
 
+    /**
+     * Remembers the thread group of the application, so threads of the group
+     * are known to be of the application whatever their context classloader.
+     *
+     * @param app an application just set to its classloader
+     */
+    void addApplication(ApplicationInstance app) {
+        if (app.isRunning() && app.getThreadGroup() != null) {
+            groupApplications.put(app.getThreadGroup(), new WeakReference<>(app));
+        }
+    }
+
     /**
      * Returns the JNLPClassLoader associated with the given ClassLoader, or
      * null.
@@ -358,8 +439,7 @@ class JNLPSecurityManager extends AWTSecurityManager {
 
             LOG.debug("SM: app: " + app.getTitle() + " is adding a window: " + window + " with appContext " + AppContext.getAppContext());
 
-            weakWindows.add(w); // for mapping window -> app
-            weakApplications.add(app);
+            windowApplications.put(w, new WeakReference<>(app)); // for mapping window -> app
 
             app.addWindow(w);
         }
@@ -44,7 +44,6 @@ import sun.security.util.HostnameChecker;
 import sun.security.x509.X500Name;
 
 import java.io.IOException;
-import java.security.KeyStore;
 import java.security.cert.CertPath;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
@@ -222,8 +221,7 @@ public class HttpsCertVerifier implements CertVerifier {
 
     public boolean getRootInCacerts() {
         try {
-            KeyStore[] caCertsKeyStores = KeyStores.getCAKeyStores();
-            return CertificateUtils.inKeyStores((X509Certificate) getRoot(null), caCertsKeyStores);
+            return TrustIndex.getInstance().contains((X509Certificate) getRoot(null), TrustIndex.CA_CERTS);
         } catch (Exception e) {
         }
         return false;
@@ -46,6 +46,7 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.security.AllPermission;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
@@ -56,6 +57,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The {@code KeyStores} class allows easily accessing the various KeyStores
@@ -103,6 +106,8 @@ public final class KeyStores {
 
     private static final String KEYSTORE_TYPE = "JKS";
 
+    private static final AtomicLong saves = new AtomicLong();
+
     /**
      * Returns a KeyStore corresponding to the appropriate level level (user or
      * system) and type.
@@ -288,6 +293,47 @@ public final class KeyStores {
 
     }
 
+    /**
+     * Counts the KeyStore files written by this process, as two writes within
+     * the resolution of the file system's modification time may leave the
+     * same length and time behind.
+     */
+    static void saved() {
+        saves.incrementAndGet();
+    }
+
+    /**
+     * Returns the generation of the KeyStores, which changes whenever any of
+     * their files is created, modified or removed. Anything derived from the
+     * KeyStores can be kept as long as their generation is the same.
+     *
+     * @return number of KeyStores saved by this process, and location,
+     * length and modification time of all KeyStore files
+     */
+    public static String getGeneration() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(saves.get()).append(';');
+        for (Level level : Level.values()) {
+            for (Type type : Type.values()) {
+                File file = new File(getKeyStoreLocation(level, type).getFullPath());
+                sb.append(file.getPath()).append(':').append(file.length()).append(':').append(getModificationTime(file)).append(';');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return modification time of the file in the finest resolution the
+     * file system offers, 0 if it does not exist
+     */
+    private static long getModificationTime(File file) {
+        try {
+            return Files.getLastModifiedTime(file.toPath()).to(TimeUnit.NANOSECONDS);
+        } catch (IOException ex) {
+            return 0;
+        }
+    }
+
     /**
      * Returns a String that can be used as a translation key to create a
      * user-visible representation of this KeyStore. Creates a string by
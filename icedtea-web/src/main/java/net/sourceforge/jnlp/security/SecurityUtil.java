@@ -395,6 +395,8 @@ public class SecurityUtil {
                             } else {
                                 try (FileOutputStream fos = new FileOutputStream(f)) {
                                     ks.store(fos, pass);
+                                } finally {
+                                    KeyStores.saved();
                                 }
                             }
                             return null;
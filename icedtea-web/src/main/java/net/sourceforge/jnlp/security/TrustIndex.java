@@ -0,0 +1,261 @@
+package net.sourceforge.jnlp.security;
+
+import net.sourceforge.jnlp.runtime.Translator;
+import net.sourceforge.jnlp.security.KeyStores.Level;
+import net.sourceforge.jnlp.security.KeyStores.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.security.auth.x500.X500Principal;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The certificates of all {@link KeyStores}, indexed by their fingerprint
+ * and by their subject, so finding a certificate does not take a walk over
+ * every alias of every KeyStore.
+ *
+ * An index never changes. {@link #getInstance()} builds a new one whenever
+ * the {@link KeyStores#getGeneration() generation} of the KeyStores changed,
+ * i.e. whenever any of their files was created, modified or removed.
+ */
+public final class TrustIndex {
+
+    private final static Logger LOG = LoggerFactory.getLogger(TrustIndex.class);
+
+    /** KeyStores of trusted publishers, see {@link KeyStores#getCertKeyStores()} */
+    public static final Type[] CERTS = {Type.JSSE_CERTS, Type.CERTS};
+
+    /** KeyStores of trusted CAs, see {@link KeyStores#getCAKeyStores()} */
+    public static final Type[] CA_CERTS = {Type.JSSE_CA_CERTS, Type.CA_CERTS};
+
+    /** KeyStores of trusted clients, see {@link KeyStores#getClientKeyStores()} */
+    public static final Type[] CLIENT_CERTS = {Type.CLIENT_CERTS};
+
+    private static final String ALGORITHM = "SHA-256";
+
+    /**
+     * The certificates of one KeyStore.
+     */
+    static final class Store {
+
+        private final Level level;
+        private final Type type;
+        private final KeyStore keyStore;
+        private final String path;
+        private final Map<String, X509Certificate> byFingerprint = new HashMap<>();
+        private final Map<X500Principal, List<X509Certificate>> bySubject = new HashMap<>();
+
+        Store(Level level, Type type, KeyStore keyStore, String path) throws KeyStoreException {
+            this.level = level;
+            this.type = type;
+            this.keyStore = keyStore;
+            this.path = path;
+            Enumeration<String> aliases = keyStore.aliases();
+            while (aliases.hasMoreElements()) {
+                Certificate c = keyStore.getCertificate(aliases.nextElement());
+                if (!(c instanceof X509Certificate)) {
+                    continue;
+                }
+                X509Certificate cert = (X509Certificate) c;
+                String fingerprint = getFingerprint(cert);
+                if (fingerprint == null || byFingerprint.put(fingerprint, cert) != null) {
+                    continue;
+                }
+                List<X509Certificate> certs = bySubject.get(cert.getSubjectX500Principal());
+                if (certs == null) {
+                    certs = new ArrayList<>(1);
+                    bySubject.put(cert.getSubjectX500Principal(), certs);
+                }
+                certs.add(cert);
+            }
+        }
+    }
+
+    private static TrustIndex current;
+
+    private final String generation;
+    private final List<Store> stores;
+
+    /**
+     * @param generation generation of the KeyStores indexed
+     * @param stores the indexed KeyStores, system ones first
+     */
+    TrustIndex(String generation, List<Store> stores) {
+        this.generation = generation;
+        this.stores = Collections.unmodifiableList(new ArrayList<>(stores));
+    }
+
+    /**
+     * Returns the index of the KeyStores as they are now, building it again
+     * if any KeyStore changed since it was built last.
+     *
+     * @return the current index
+     */
+    public static synchronized TrustIndex getInstance() {
+        if (current == null || !current.generation.equals(KeyStores.getGeneration())) {
+            current = build();
+        }
+        return current;
+    }
+
+    private static TrustIndex build() {
+        List<Store> stores = new ArrayList<>();
+        for (Level level : new Level[]{Level.SYSTEM, Level.USER}) {
+            for (Type type : Type.values()) {
+                KeyStores.KeyStoreWithPath ks = KeyStores.getKeyStore(level, type);
+                if (ks.getKs() == null) {
+                    continue;
+                }
+                try {
+                    stores.add(new Store(level, type, ks.getKs(), ks.getPath()));
+                } catch (KeyStoreException e) {
+                    LOG.error("ERROR", e);
+                }
+            }
+        }
+        // taken last, as user KeyStores are created when first loaded
+        TrustIndex index = new TrustIndex(KeyStores.getGeneration(), stores);
+        LOG.debug("Indexed " + stores.size() + " KeyStores");
+        return index;
+    }
+
+    /**
+     * @param types types of the KeyStores wanted
+     * @return the KeyStores of the given types, system ones first, in the
+     * order of the types
+     */
+    public KeyStore[] getKeyStores(Type... types) {
+        List<KeyStore> result = new ArrayList<>();
+        for (Level level : new Level[]{Level.SYSTEM, Level.USER}) {
+            for (Type type : types) {
+                for (Store store : stores) {
+                    if (store.level == level && store.type == type) {
+                        result.add(store.keyStore);
+                    }
+                }
+            }
+        }
+        return result.toArray(new KeyStore[result.size()]);
+    }
+
+    /**
+     * @param c a certificate
+     * @param types types of the KeyStores to look in
+     * @return true if the certificate is in one of the KeyStores
+     */
+    public boolean contains(X509Certificate c, Type... types) {
+        String fingerprint = getFingerprint(c);
+        if (fingerprint == null) {
+            return false;
+        }
+        for (Store store : stores) {
+            if (isOf(store, types) && c.equals(store.byFingerprint.get(fingerprint))) {
+                LOG.debug(Translator.R("LCertFoundIn", c.getSubjectX500Principal().getName(), store.path));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param subject subject of the certificates wanted, e.g. the issuer of
+     * another certificate
+     * @param types types of the KeyStores to look in
+     * @return all certificates of the subject in the KeyStores
+     */
+    public List<X509Certificate> getBySubject(X500Principal subject, Type... types) {
+        List<X509Certificate> result = new ArrayList<>();
+        for (Store store : stores) {
+            if (isOf(store, types)) {
+                List<X509Certificate> certs = store.bySubject.get(subject);
+                if (certs != null) {
+                    result.addAll(certs);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param types types of the KeyStores
+     * @return all certificates in the KeyStores
+     */
+    public List<X509Certificate> getCertificates(Type... types) {
+        List<X509Certificate> result = new ArrayList<>();
+        for (Store store : stores) {
+            if (isOf(store, types)) {
+                result.addAll(store.byFingerprint.values());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Tells whether a trust manager initialized with the KeyStores could
+     * find a trust anchor for the chain at all, which takes a certificate
+     * of the chain, or of the issuer or subject of one, in the KeyStores.
+     * If it is false, checking the chain against the KeyStores would fail
+     * anyway.
+     *
+     * @param chain a certificate chain
+     * @param types types of the KeyStores
+     * @return false if none of the KeyStores can anchor the chain
+     */
+    public boolean mayAnchor(X509Certificate[] chain, Type... types) {
+        for (Store store : stores) {
+            if (!isOf(store, types)) {
+                continue;
+            }
+            for (X509Certificate c : chain) {
+                if (store.bySubject.containsKey(c.getIssuerX500Principal())
+                        || store.bySubject.containsKey(c.getSubjectX500Principal())) {
+                    return true;
+                }
+                String fingerprint = getFingerprint(c);
+                if (fingerprint != null && store.byFingerprint.containsKey(fingerprint)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isOf(Store store, Type[] types) {
+        for (Type type : types) {
+            if (store.type == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return SHA-256 of the encoded certificate, in hex, or {@code null} if
+     * it can not be encoded
+     */
+    static String getFingerprint(X509Certificate c) {
+        try {
+            byte[] digest = MessageDigest.getInstance(ALGORITHM).digest(c.getEncoded());
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (CertificateEncodingException | NoSuchAlgorithmException e) {
+            LOG.error("ERROR", e);
+            return null;
+        }
+    }
+}
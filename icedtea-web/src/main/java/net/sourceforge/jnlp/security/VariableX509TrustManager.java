@@ -59,7 +59,6 @@ import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -87,17 +86,33 @@ final public class VariableX509TrustManager {
 
     private static VariableX509TrustManager instance = null;
 
+    /** The index the trust managers were initialized from */
+    private TrustIndex index = null;
+
     /**
      * Constructor initializes the system, user and custom stores
      */
     public VariableX509TrustManager() {
+        update();
+    }
+
+    /**
+     * Initializes the trust managers again if any KeyStore changed since
+     * they were initialized.
+     */
+    private synchronized void update() {
+        TrustIndex current = TrustIndex.getInstance();
+        if (current == index) {
+            return;
+        }
+        index = current;
 
         /*
          * Load TrustManagers for trusted certificates
          */
         try {
             /** KeyStores containing trusted certificates */
-            KeyStore[] trustedCertKeyStores = KeyStores.getCertKeyStores();
+            KeyStore[] trustedCertKeyStores = index.getKeyStores(TrustIndex.CERTS);
             certTrustManagers = new X509TrustManager[trustedCertKeyStores.length];
 
             for (int j = 0; j < trustedCertKeyStores.length; j++) {
@@ -122,7 +137,7 @@ final public class VariableX509TrustManager {
          */
         try {
             /** KeyStores containing trusted CAs */
-            KeyStore[] trustedCAKeyStores = KeyStores.getCAKeyStores();
+            KeyStore[] trustedCAKeyStores = index.getKeyStores(TrustIndex.CA_CERTS);
             caTrustManagers = new X509TrustManager[trustedCAKeyStores.length];
 
             for (int j = 0; j < caTrustManagers.length; j++) {
@@ -146,7 +161,7 @@ final public class VariableX509TrustManager {
          * Load TrustManagers for trusted clients certificates
          */
         try {
-            KeyStore[] clientKeyStores = KeyStores.getClientKeyStores();
+            KeyStore[] clientKeyStores = index.getKeyStores(TrustIndex.CLIENT_CERTS);
             clientTrustManagers = new X509TrustManager[clientKeyStores.length];
 
             for (int j = 0; j < clientTrustManagers.length; j++) {
@@ -174,10 +189,11 @@ final public class VariableX509TrustManager {
      * @param hostName hostnem
      * @throws java.security.cert.CertificateException if certificate is wrong
      */
-    public void checkTrustClient(X509Certificate[] chain, String authType,
+    public synchronized void checkTrustClient(X509Certificate[] chain, String authType,
                                    String hostName)
             throws CertificateException {
 
+        update();
         boolean trusted = false;
         ValidatorException savedException = null;
         for (X509TrustManager clientTrustManager : clientTrustManagers) {
@@ -213,6 +229,7 @@ final public class VariableX509TrustManager {
     public synchronized void checkTrustServer(X509Certificate[] chain,
                              String authType, String hostName,
                              SSLSocket socket, SSLEngine engine) throws CertificateException {
+        update();
         CertificateException ce = null;
         boolean trusted = true;
         boolean CNMatched = false;
@@ -312,13 +329,16 @@ final public class VariableX509TrustManager {
             return;
         }
 
-        for (X509TrustManager certTrustManager : certTrustManagers) {
-            try {
-                certTrustManager.checkServerTrusted(chain, authType);
-                trusted = true;
-                break;
-            }catch (ValidatorException caex) {
-                savedException = caex;
+        // no use asking the trust managers if none of their KeyStores can anchor the chain
+        if (savedException == null || index.mayAnchor(chain, TrustIndex.CERTS)) {
+            for (X509TrustManager certTrustManager : certTrustManagers) {
+                try {
+                    certTrustManager.checkServerTrusted(chain, authType);
+                    trusted = true;
+                    break;
+                }catch (ValidatorException caex) {
+                    savedException = caex;
+                }
             }
         }
         if (trusted) {
@@ -342,6 +362,11 @@ final public class VariableX509TrustManager {
     private boolean isExplicitlyTrusted(X509Certificate[] chain, String authType) {
         boolean explicitlyTrusted = false;
 
+        if (!index.mayAnchor(chain, TrustIndex.CERTS)) {
+            // every trust manager would fail to find a trust anchor
+            return certTrustManagers.length > 0 && temporarilyTrusted.contains(chain[0]);
+        }
+
         for (X509TrustManager certTrustManager : certTrustManagers) {
             try {
                 certTrustManager.checkServerTrusted(chain, authType);
@@ -361,11 +386,8 @@ final public class VariableX509TrustManager {
     }
 
     protected X509Certificate[] getAcceptedIssuers() {
-        List<X509Certificate> issuers = new ArrayList<>();
-
-        for (X509TrustManager caTrustManager : caTrustManagers) {
-            issuers.addAll(Arrays.asList(caTrustManager.getAcceptedIssuers()));
-        }
+        update();
+        List<X509Certificate> issuers = index.getCertificates(TrustIndex.CA_CERTS);
 
         return issuers.toArray(new X509Certificate[issuers.size()]);
     }
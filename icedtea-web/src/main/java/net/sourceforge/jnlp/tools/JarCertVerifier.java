@@ -32,8 +32,8 @@ import net.sourceforge.jnlp.cache.ResourceTracker;
 import net.sourceforge.jnlp.runtime.SecurityDelegate;
 import net.sourceforge.jnlp.security.AppVerifier;
 import net.sourceforge.jnlp.security.CertVerifier;
-import net.sourceforge.jnlp.security.CertificateUtils;
-import net.sourceforge.jnlp.security.KeyStores;
+import net.sourceforge.jnlp.security.TrustIndex;
+import net.sourceforge.jnlp.tools.VerificationCache.Signatures;
 import net.sourceforge.jnlp.util.JarFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,14 +45,13 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.CodeSigner;
-import java.security.KeyStore;
 import java.security.cert.CertPath;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
@@ -228,81 +227,108 @@ public class JarCertVerifier implements CertVerifier {
     private void verifyJars(List<JARDesc> jars, ResourceTracker tracker)
             throws Exception {
 
+        List<File> localFiles = new ArrayList<>();
         for (JARDesc jar : jars) {
 
-            try {
-
-                File jarFile = tracker.getCacheFile(jar.getLocation());
-
-                // some sort of resource download/cache error. Nothing to add
-                // in that case ... but don't fail here
-                if (jarFile == null) {
-                    continue;
-                }
+            File jarFile = tracker.getCacheFile(jar.getLocation());
 
-                String localFile = jarFile.getAbsolutePath();
-                if (verifiedJars.contains(localFile)
-                        || unverifiedJars.contains(localFile)) {
-                    continue;
-                }
+            // some sort of resource download/cache error. Nothing to add
+            // in that case ... but don't fail here
+            if (jarFile == null) {
+                continue;
+            }
 
-                VerifyResult result = verifyJar(localFile);
+            String localFile = jarFile.getAbsolutePath();
+            if (verifiedJars.contains(localFile)
+                    || unverifiedJars.contains(localFile)
+                    || localFiles.contains(jarFile.getAbsoluteFile())) {
+                continue;
+            }
+            localFiles.add(jarFile.getAbsoluteFile());
+        }
 
-                if (result == VerifyResult.UNSIGNED) {
-                    unverifiedJars.add(localFile);
-                } else if (result == VerifyResult.SIGNED_NOT_OK) {
-                    verifiedJars.add(localFile);
-                } else if (result == VerifyResult.SIGNED_OK) {
-                    verifiedJars.add(localFile);
-                }
-            } catch (Exception e) {
-                // We may catch exceptions from using verifyJar()
-                // or from checkTrustedCerts
-                throw e;
+        // the jars are read in parallel, but their signatures are applied
+        // in order, so the outcome is the same as reading one after another
+        SignatureReader reader = new SignatureReader(localFiles,
+                VerificationCache.isEnabled() ? VerificationCache.getInstance() : null);
+        reader.read();
+
+        for (int i = 0; i < localFiles.size(); i++) {
+            String localFile = localFiles.get(i).getPath();
+            VerifyResult result = verifyJar(localFile, reader.getSignatures(i), reader.getFailure(i));
+
+            if (result == VerifyResult.UNSIGNED) {
+                unverifiedJars.add(localFile);
+            } else if (result == VerifyResult.SIGNED_NOT_OK) {
+                verifiedJars.add(localFile);
+            } else if (result == VerifyResult.SIGNED_OK) {
+                verifiedJars.add(localFile);
             }
         }
 
+        TrustIndex trust = TrustIndex.getInstance();
         for (CertPath certPath : certs.keySet())
-            checkTrustedCerts(certPath);
+            checkTrustedCerts(certPath, trust);
     }
 
     /**
-     * Checks through all the jar entries of jarName for signers, storing all the common ones in the certs hash map.
+     * Stores all the common signers of the jar jarName in the certs hash map.
      * 
      * @param jarName
      *            The absolute path to the jar file.
-     * @return The return of {@link JarCertVerifier#verifyJarEntryCerts} using the entries found in the jar located at jarName.
+     * @param signatures
+     *            The signatures read from the jar, or {@code null} if it could not be read.
+     * @param failure
+     *            Why the jar could not be read.
+     * @return The return of {@link JarCertVerifier#verifyJarSignatures} using the signatures found in the jar located at jarName.
      * @throws Exception
      *             Will be thrown if there are any problems with the jar.
      */
-    private VerifyResult verifyJar(String jarName) throws Exception {
-        try (JarFile jarFile = new JarFile(jarName, true)) {
-            Vector<JarEntry> entriesVec = new Vector<JarEntry>();
-            byte[] buffer = new byte[8192];
-
-            Enumeration<JarEntry> entries = jarFile.entries();
-            while (entries.hasMoreElements()) {
-                JarEntry je = entries.nextElement();
-                entriesVec.addElement(je);
-
-                InputStream is = jarFile.getInputStream(je);
-                try {
-                    while (is.read(buffer, 0, buffer.length) != -1) {
-                        // we just read. this will throw a SecurityException
-                        // if a signature/digest check fails.
-                    }
-                } finally {
-                    if (is != null) {
-                        is.close();
-                    }
+    private VerifyResult verifyJar(String jarName, Signatures signatures, Exception failure) throws Exception {
+        if (failure != null) {
+            LOG.error("ERROR", failure);
+            throw failure;
+        }
+        return verifyJarSignatures(jarName, signatures);
+    }
+
+    /**
+     * Reads all the entries of the jar, so every digest is checked.
+     *
+     * @param jar the jar file
+     * @return the signatures of the jar
+     * @throws Exception if the jar can not be read or a digest check fails
+     */
+    static Signatures readSignatures(File jar) throws Exception {
+        try (JarFile jarFile = new JarFile(jar, true)) {
+            Vector<JarEntry> entries = new Vector<>(Collections.list(jarFile.entries()));
+            readEntries(jarFile, entries);
+            return countSignatures(jarFile.getManifest() != null, entries);
+        }
+    }
+
+    /**
+     * Reads the given entries of the jar.
+     *
+     * @param jarFile the jar, opened for verification
+     * @param entries entries of the jar
+     * @throws IOException if the jar can not be read
+     * @throws SecurityException if a signature/digest check fails
+     */
+    static void readEntries(JarFile jarFile, List<JarEntry> entries) throws IOException {
+        byte[] buffer = new byte[8192];
+        for (JarEntry je : entries) {
+            InputStream is = jarFile.getInputStream(je);
+            try {
+                while (is.read(buffer, 0, buffer.length) != -1) {
+                    // we just read. this will throw a SecurityException
+                    // if a signature/digest check fails.
+                }
+            } finally {
+                if (is != null) {
+                    is.close();
                 }
             }
-            return verifyJarEntryCerts(jarName, jarFile.getManifest() != null,
-                    entriesVec);
-
-        } catch (Exception e) {
-            LOG.error("ERROR", e);
-            throw e;
         }
     }
 
@@ -321,12 +347,23 @@ public class JarCertVerifier implements CertVerifier {
      */
     VerifyResult verifyJarEntryCerts(String jarName, boolean jarHasManifest,
             Vector<JarEntry> entries) throws Exception {
+        return verifyJarSignatures(jarName, countSignatures(jarHasManifest, entries));
+    }
+
+    /**
+     * Counts the signable entries and the entries signed by every signer.
+     *
+     * @param jarHasManifest
+     *            Whether or not the associated jar has a manifest.
+     * @param entries
+     *            The list of entries in the associated jar.
+     * @return the signatures of the jar
+     */
+    static Signatures countSignatures(boolean jarHasManifest, Vector<JarEntry> entries) {
         // Contains number of entries the cert with this CertPath has signed.
-        Map<CertPath, Integer> jarSignCount = new HashMap<>();
+        Map<CertPath, Integer> jarSignCount = new LinkedHashMap<>();
         int numSignableEntriesInJar = 0;
 
-        // Record current time just before checking the jar begins.
-        long now = System.currentTimeMillis();
         if (jarHasManifest) {
 
             for (JarEntry je : entries) {
@@ -358,7 +395,24 @@ public class JarCertVerifier implements CertVerifier {
             // no manifests can't sneak in
             numSignableEntriesInJar++;
         }
+        return new Signatures(numSignableEntriesInJar, jarSignCount);
+    }
+
+    /**
+     * Stores all the signers common to all signable entries of the jar in the certs hash map.
+     *
+     * @param jarName
+     *            The absolute path to the jar file.
+     * @param signatures
+     *            The signatures found in the jar.
+     * @return see {@link #verifyJarEntryCerts}
+     */
+    VerifyResult verifyJarSignatures(String jarName, Signatures signatures) {
+        Map<CertPath, Integer> jarSignCount = signatures.getSigners();
+        int numSignableEntriesInJar = signatures.getSignableEntries();
 
+        // Record current time just before checking the jar begins.
+        long now = System.currentTimeMillis();
         jarSignableEntries.put(jarName, numSignableEntriesInJar);
 
         // Find all signers that have signed every signable entry in this jar.
@@ -433,19 +487,19 @@ public class JarCertVerifier implements CertVerifier {
      *
      * @param certPath
      *            The cert path of the signer being checked for trust.
+     * @param trust
+     *            The index of the certificates in the trusted.certs and cacerts files.
      */
-    private void checkTrustedCerts(CertPath certPath) throws Exception {
+    private void checkTrustedCerts(CertPath certPath, TrustIndex trust) throws Exception {
         CertInformation info = certs.get(certPath);
         try {
             X509Certificate publisher = (X509Certificate) getPublisher(certPath);
-            KeyStore[] certKeyStores = KeyStores.getCertKeyStores();
-            if (CertificateUtils.inKeyStores(publisher, certKeyStores))
+            if (trust.contains(publisher, TrustIndex.CERTS))
                 info.setAlreadyTrustPublisher();
-            KeyStore[] caKeyStores = KeyStores.getCAKeyStores();
             // Check entire cert path for a trusted CA
             for (Certificate c : certPath.getCertificates()) {
-                if (CertificateUtils.inKeyStores((X509Certificate) c,
-                        caKeyStores)) {
+                if (trust.contains((X509Certificate) c,
+                        TrustIndex.CA_CERTS)) {
                     info.setRootInCacerts();
                     return;
                 }
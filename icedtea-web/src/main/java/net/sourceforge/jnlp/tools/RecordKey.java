@@ -0,0 +1,90 @@
+package net.sourceforge.jnlp.tools;
+
+import net.sourceforge.jnlp.config.PathsAndFiles;
+import net.sourceforge.jnlp.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The key the records kept in the cache directory are authenticated with,
+ * by a HMAC, as anybody able to write the cache directory could otherwise
+ * forge them. It is kept in {@code verification.key} next to the user trust
+ * stores, where writing already means being able to trust any certificate,
+ * and created with a random key if missing.
+ *
+ * @see VerificationCache
+ * @see net.sourceforge.jnlp.parser.ParserCache
+ */
+public class RecordKey {
+
+    static final String KEY_FILE = "verification.key";
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int KEY_LENGTH = 32;
+
+    private final File keyFile;
+    private SecretKeySpec key;
+
+    /**
+     * @param keyFile file holding the key, created if missing; it must not be
+     * writable by whoever may write the records without being able to trust
+     * certificates anyway
+     */
+    public RecordKey(File keyFile) {
+        this.keyFile = keyFile;
+    }
+
+    /**
+     * @return the default key file, next to the user trust stores
+     */
+    public static File getDefaultFile() {
+        return new File(PathsAndFiles.USER_CERTS.getFile().getParentFile(), KEY_FILE);
+    }
+
+    /**
+     * @return a new HMAC initialized with the key
+     * @throws IOException if the key file can not be read nor created
+     * @throws GeneralSecurityException if the HMAC is not available
+     */
+    public Mac newMac() throws IOException, GeneralSecurityException {
+        Mac mac = Mac.getInstance(MAC_ALGORITHM);
+        mac.init(getKey());
+        return mac;
+    }
+
+    private synchronized SecretKeySpec getKey() throws IOException {
+        if (key == null) {
+            key = new SecretKeySpec(readKey(), MAC_ALGORITHM);
+        }
+        return key;
+    }
+
+    private byte[] readKey() throws IOException {
+        if (!keyFile.isFile()) {
+            byte[] created = new byte[KEY_LENGTH];
+            new SecureRandom().nextBytes(created);
+            try {
+                FileUtils.createParentDir(keyFile);
+                FileUtils.createRestrictedFile(keyFile, true);
+                Files.write(keyFile.toPath(), created);
+                return created;
+            } catch (IOException ex) {
+                // unless created by another process meanwhile
+                if (!keyFile.isFile()) {
+                    throw ex;
+                }
+            }
+        }
+        byte[] read = Files.readAllBytes(keyFile.toPath());
+        if (read.length != KEY_LENGTH) {
+            throw new IOException("Bad key in " + keyFile);
+        }
+        return read;
+    }
+}
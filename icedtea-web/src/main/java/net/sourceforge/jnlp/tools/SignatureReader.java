@@ -0,0 +1,327 @@
+package net.sourceforge.jnlp.tools;
+
+import net.sourceforge.jnlp.cache.CachedDaemonThreadPoolProvider;
+import net.sourceforge.jnlp.cache.JarMetadata;
+import net.sourceforge.jnlp.security.KeyStores;
+import net.sourceforge.jnlp.tools.VerificationCache.Signatures;
+import net.sourceforge.jnlp.util.JarFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+
+/**
+ * Reads the signatures of several jars at once, for {@link JarCertVerifier}.
+ *
+ * Checking the digests of the entries takes most of the time of a
+ * verification and needs nothing but the CPU, so the jars are read by up to
+ * {@link #PARALLELISM} threads. A jar with many entries is split into ranges
+ * of entries, each read through its own {@link JarFile}, so a single large
+ * jar does not keep one thread busy while the others are idle.
+ *
+ * Nothing is added to the verifier here. It applies the signatures in the
+ * order of the jars afterwards, so it ends up the same as if the jars were
+ * read one after another.
+ */
+class SignatureReader {
+
+    private final static Logger LOG = LoggerFactory.getLogger(SignatureReader.class);
+
+    static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    /** jars with at least twice as many entries are split into ranges */
+    static final int RANGE_ENTRIES = 1024;
+
+    /**
+     * A step run for many indexes at once.
+     */
+    private static abstract class Step {
+
+        abstract void run(int index) throws Exception;
+
+        abstract void failed(int index, Exception ex);
+    }
+
+    /**
+     * Entries of a jar read by one thread, all of them if {@link #names} is
+     * {@code null}.
+     */
+    private static class Range {
+
+        private final int jar;
+        private final List<String> names;
+        private Vector<JarEntry> entries;
+        private boolean hasManifest;
+        private Signatures signatures;
+        private Exception failure;
+
+        private Range(int jar, List<String> names) {
+            this.jar = jar;
+            this.names = names;
+        }
+    }
+
+    private final List<File> jars;
+    private final int parallelism;
+    private final int rangeEntries;
+    private final VerificationCache cache;
+    private final String trust;
+    private final JarMetadata[] metadata;
+    private final String[] hashes;
+    private final List<List<String>>[] splits;
+    private final Signatures[] signatures;
+    private final Exception[] failures;
+
+    /**
+     * @param jars the jar files to read
+     * @param cache cache to take signatures from and record them in, or
+     * {@code null}
+     */
+    SignatureReader(List<File> jars, VerificationCache cache) {
+        this(jars, cache, PARALLELISM, RANGE_ENTRIES);
+    }
+
+    @SuppressWarnings("unchecked")
+    SignatureReader(List<File> jars, VerificationCache cache, int parallelism, int rangeEntries) {
+        this.jars = jars;
+        this.cache = cache;
+        this.parallelism = parallelism;
+        this.rangeEntries = rangeEntries;
+        this.trust = cache == null ? null : KeyStores.getGeneration();
+        this.metadata = new JarMetadata[jars.size()];
+        this.hashes = new String[jars.size()];
+        this.splits = new List[jars.size()];
+        this.signatures = new Signatures[jars.size()];
+        this.failures = new Exception[jars.size()];
+    }
+
+    /**
+     * Reads the signatures of all jars.
+     */
+    void read() {
+        runAll(jars.size(), new Step() {
+            @Override
+            void run(int index) throws Exception {
+                prepare(index);
+            }
+
+            @Override
+            void failed(int index, Exception ex) {
+                failures[index] = ex;
+            }
+        });
+
+        final List<Range> ranges = new ArrayList<>();
+        for (int i = 0; i < jars.size(); i++) {
+            if (signatures[i] != null || failures[i] != null) {
+                continue;
+            }
+            if (splits[i] == null) {
+                ranges.add(new Range(i, null));
+            } else {
+                for (List<String> names : splits[i]) {
+                    ranges.add(new Range(i, names));
+                }
+            }
+        }
+        runAll(ranges.size(), new Step() {
+            @Override
+            void run(int index) throws Exception {
+                readRange(ranges.get(index));
+            }
+
+            @Override
+            void failed(int index, Exception ex) {
+                ranges.get(index).failure = ex;
+            }
+        });
+
+        // ranges are in the order of the entries, so the first failure is
+        // the one reading the whole jar would have hit
+        final List<Integer> read = new ArrayList<>();
+        for (int r = 0; r < ranges.size(); r++) {
+            Range range = ranges.get(r);
+            int i = range.jar;
+            if (failures[i] != null) {
+                continue;
+            }
+            if (range.failure != null) {
+                failures[i] = range.failure;
+            } else if (range.names == null) {
+                signatures[i] = range.signatures;
+            } else if (r + 1 == ranges.size() || ranges.get(r + 1).jar != i) {
+                Vector<JarEntry> entries = new Vector<>();
+                for (int first = r - splits[i].size() + 1; first <= r; first++) {
+                    entries.addAll(ranges.get(first).entries);
+                }
+                signatures[i] = JarCertVerifier.countSignatures(range.hasManifest, entries);
+            }
+            if (signatures[i] != null) {
+                read.add(i);
+            }
+        }
+
+        if (cache != null) {
+            runAll(read.size(), new Step() {
+                @Override
+                void run(int index) throws Exception {
+                    record(read.get(index));
+                }
+
+                @Override
+                void failed(int index, Exception ex) {
+                    LOG.debug("Signatures of " + jars.get(read.get(index)) + " not recorded: " + ex);
+                }
+            });
+        }
+    }
+
+    /**
+     * @param index index of a jar
+     * @return the signatures of the jar, {@code null} if it failed
+     */
+    Signatures getSignatures(int index) {
+        return signatures[index];
+    }
+
+    /**
+     * @param index index of a jar
+     * @return why the jar could not be read, {@code null} if it could
+     */
+    Exception getFailure(int index) {
+        return failures[index];
+    }
+
+    /**
+     * Takes the signatures of the jar from the cache, or decides how to
+     * split the jar, if at all.
+     */
+    private void prepare(int index) throws Exception {
+        File jar = jars.get(index);
+        JarMetadata jarMetadata;
+        try {
+            jarMetadata = JarMetadata.get(jar);
+        } catch (Exception ex) {
+            // reading the whole jar will fail the same way
+            return;
+        }
+        if (cache != null) {
+            metadata[index] = jarMetadata;
+            hashes[index] = jarMetadata.getHash();
+            signatures[index] = cache.get(hashes[index], trust);
+            if (signatures[index] != null) {
+                LOG.debug("Signatures of " + jar + " known from an earlier verification");
+                return;
+            }
+        }
+        if (parallelism < 2) {
+            return;
+        }
+        List<String> names = jarMetadata.getEntryNames();
+        if (names.size() < 2 * rangeEntries) {
+            return;
+        }
+        if (new HashSet<>(names).size() != names.size()) {
+            // entries of same name can not be found by name
+            return;
+        }
+        int count = Math.min(parallelism, names.size() / rangeEntries);
+        List<List<String>> split = new ArrayList<>(count);
+        for (int r = 0; r < count; r++) {
+            split.add(names.subList(r * names.size() / count, (r + 1) * names.size() / count));
+        }
+        splits[index] = split;
+    }
+
+    private void readRange(Range range) throws Exception {
+        File jar = jars.get(range.jar);
+        if (range.names == null) {
+            range.signatures = JarCertVerifier.readSignatures(jar);
+            return;
+        }
+        try (JarFile jarFile = new JarFile(jar, true)) {
+            range.entries = new Vector<>(range.names.size());
+            for (String name : range.names) {
+                range.entries.add(jarFile.getJarEntry(name));
+            }
+            JarCertVerifier.readEntries(jarFile, range.entries);
+            range.hasManifest = jarFile.getManifest() != null;
+        }
+    }
+
+    /**
+     * Records the signatures of the jar, unless it was replaced while it was
+     * read.
+     */
+    private void record(int index) throws Exception {
+        if (metadata[index] != null && metadata[index].isCurrent()) {
+            cache.put(hashes[index], trust, signatures[index]);
+        }
+    }
+
+    /**
+     * Runs the step for all indexes below count, with the calling thread and
+     * up to {@link #parallelism} - 1 threads of the daemon pool, and waits
+     * for all of them.
+     */
+    private void runAll(final int count, final Step step) {
+        final AtomicInteger next = new AtomicInteger();
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                AccessController.doPrivileged(new PrivilegedAction<Void>() {
+                    @Override
+                    public Void run() {
+                        int i;
+                        while ((i = next.getAndIncrement()) < count) {
+                            try {
+                                step.run(i);
+                            } catch (Exception ex) {
+                                step.failed(i, ex);
+                            }
+                        }
+                        return null;
+                    }
+                });
+            }
+        };
+
+        int workers = Math.min(parallelism, count);
+        List<Future<?>> running = new ArrayList<>(workers);
+        for (int i = 1; i < workers; i++) {
+            running.add(CachedDaemonThreadPoolProvider.DAEMON_THREAD_POOL.submit(worker));
+        }
+        worker.run();
+
+        boolean interrupted = false;
+        for (Future<?> future : running) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof Error) {
+                        throw (Error) ex.getCause();
+                    }
+                    LOG.error("ERROR", ex);
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package net.sourceforge.jnlp.tools;
+
+import net.sourceforge.jnlp.cache.CacheLRUWrapper;
+import net.sourceforge.jnlp.config.DeploymentConfiguration;
+import net.sourceforge.jnlp.runtime.JNLPRuntime;
+import net.sourceforge.jnlp.security.KeyStores;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.cert.CertPath;
+import java.security.cert.CertificateFactory;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Signatures found by {@link JarCertVerifier} in the jars it verified, kept
+ * below the cache directory in {@code verified/<first two digits>/<hash>},
+ * so a jar seen before does not have to be read and digested again.
+ *
+ * A record is found by the SHA-256 of the jar content. It is only used
+ * while the {@link KeyStores#getGeneration() generation} of the KeyStores
+ * is the one it was recorded with, so adding or removing a trusted
+ * certificate drops all records.
+ *
+ * Only what takes reading the jar is recorded: the number of signable
+ * entries and how many of them every signer signed. The verification result
+ * also depends on the time, as certificates expire, so it is derived from
+ * the record each time, and the signers are checked against the current
+ * KeyStores as for a jar which was read.
+ *
+ * Anybody able to write the cache directory could otherwise make any jar
+ * look signed, so every record carries a HMAC of its content and the hash
+ * of the jar, with the {@link RecordKey}. Records without a valid HMAC are
+ * ignored.
+ *
+ * The cache is used only if enabled by
+ * {@link DeploymentConfiguration#KEY_SECURITY_VERIFICATION_CACHE}, it is
+ * disabled by default.
+ */
+public class VerificationCache {
+
+    private final static Logger LOG = LoggerFactory.getLogger(VerificationCache.class);
+
+    static final String DIRECTORY = "verified";
+    private static final String CERT_PATH_ENCODING = "PkiPath";
+    private static final String KEY_TRUST = "trust";
+    private static final String KEY_ENTRIES = "entries";
+    private static final String KEY_SIGNERS = "signers";
+    private static final String KEY_SIGNER = "signer.";
+    private static final String KEY_SIGNER_TYPE = ".type";
+    private static final String KEY_SIGNER_COUNT = ".count";
+    private static final String KEY_MAC = "mac";
+
+    static final String KEY_FILE = RecordKey.KEY_FILE;
+
+    /** records not used for so long are deleted by {@link #collect()} */
+    static final long MAX_UNUSED = TimeUnit.DAYS.toMillis(30);
+
+    /**
+     * The signatures of one jar.
+     */
+    static final class Signatures {
+
+        private final int signableEntries;
+        private final Map<CertPath, Integer> signers;
+
+        /**
+         * @param signableEntries number of entries which should be signed,
+         * 1 for a jar without manifest
+         * @param signers the signers of the entries, with the number of
+         * signable entries each of them signed
+         */
+        Signatures(int signableEntries, Map<CertPath, Integer> signers) {
+            this.signableEntries = signableEntries;
+            this.signers = Collections.unmodifiableMap(signers);
+        }
+
+        int getSignableEntries() {
+            return signableEntries;
+        }
+
+        Map<CertPath, Integer> getSigners() {
+            return signers;
+        }
+    }
+
+    private static class VerificationCacheHolder {
+
+        private static final VerificationCache INSTANCE = new VerificationCache(
+                new File(CacheLRUWrapper.getInstance().getCacheDir().getFile(), DIRECTORY),
+                RecordKey.getDefaultFile());
+    }
+
+    private final File root;
+    private final RecordKey key;
+
+    /**
+     * @param root directory of the records
+     * @param keyFile file holding the key the records are authenticated
+     * with, created if missing; it must not be writable by whoever may
+     * write the records without being able to trust certificates anyway
+     */
+    VerificationCache(File root, File keyFile) {
+        this.root = root;
+        this.key = new RecordKey(keyFile);
+    }
+
+    public static VerificationCache getInstance() {
+        return VerificationCacheHolder.INSTANCE;
+    }
+
+    /**
+     * @return true if verification results are cached by the configuration
+     */
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(JNLPRuntime.getConfiguration().getProperty(DeploymentConfiguration.KEY_SECURITY_VERIFICATION_CACHE));
+    }
+
+    File getRoot() {
+        return root;
+    }
+
+    /**
+     * @param hash SHA-256 of a jar, in hex
+     * @return location of the record for the jar, it may not exist
+     */
+    File getRecord(String hash) {
+        return new File(new File(root, hash.substring(0, 2)), hash);
+    }
+
+    /**
+     * @param hash SHA-256 of the jar, in hex
+     * @param trust the current generation of the KeyStores
+     * @return the signatures recorded for the jar, or {@code null} if there
+     * is no record, or only one made with other KeyStores
+     */
+    Signatures get(String hash, String trust) {
+        File record = getRecord(hash);
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(record.toPath())) {
+            properties.load(in);
+        } catch (NoSuchFileException ex) {
+            return null;
+        } catch (IOException ex) {
+            LOG.debug("Can not read " + record + ": " + ex);
+            return null;
+        }
+        if (!trust.equals(properties.getProperty(KEY_TRUST))) {
+            return null;
+        }
+        try {
+            String recorded = properties.getProperty(KEY_MAC);
+            if (recorded == null || !MessageDigest.isEqual(Base64.getDecoder().decode(recorded), mac(hash, properties))) {
+                LOG.debug("Ignoring unauthenticated record " + record);
+                return null;
+            }
+        } catch (IOException | GeneralSecurityException | IllegalArgumentException ex) {
+            LOG.debug("Can not authenticate " + record + ": " + ex);
+            return null;
+        }
+        try {
+            int signableEntries = Integer.parseInt(properties.getProperty(KEY_ENTRIES));
+            int count = Integer.parseInt(properties.getProperty(KEY_SIGNERS));
+            Map<CertPath, Integer> signers = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String key = KEY_SIGNER + i;
+                byte[] encoded = Base64.getDecoder().decode(properties.getProperty(key));
+                CertPath certPath = CertificateFactory.getInstance(properties.getProperty(key + KEY_SIGNER_TYPE))
+                        .generateCertPath(new ByteArrayInputStream(encoded), CERT_PATH_ENCODING);
+                signers.put(certPath, Integer.parseInt(properties.getProperty(key + KEY_SIGNER_COUNT)));
+            }
+            // keeps the record from being collected
+            record.setLastModified(System.currentTimeMillis());
+            return new Signatures(signableEntries, signers);
+        } catch (GeneralSecurityException | RuntimeException ex) {
+            LOG.debug("Ignoring damaged record " + record + ": " + ex);
+            return null;
+        }
+    }
+
+    /**
+     * Records the signatures of a jar, replacing any record made before.
+     *
+     * @param hash SHA-256 of the jar, in hex
+     * @param trust the current generation of the KeyStores
+     * @param signatures signatures found in the jar
+     */
+    void put(String hash, String trust, Signatures signatures) {
+        File record = getRecord(hash);
+        Properties properties = new Properties();
+        properties.setProperty(KEY_TRUST, trust);
+        properties.setProperty(KEY_ENTRIES, Integer.toString(signatures.getSignableEntries()));
+        properties.setProperty(KEY_SIGNERS, Integer.toString(signatures.getSigners().size()));
+        int i = 0;
+        try {
+            for (Map.Entry<CertPath, Integer> signer : signatures.getSigners().entrySet()) {
+                String key = KEY_SIGNER + i++;
+                properties.setProperty(key, Base64.getEncoder().encodeToString(signer.getKey().getEncoded(CERT_PATH_ENCODING)));
+                properties.setProperty(key + KEY_SIGNER_TYPE, signer.getKey().getType());
+                properties.setProperty(key + KEY_SIGNER_COUNT, Integer.toString(signer.getValue()));
+            }
+            properties.setProperty(KEY_MAC, Base64.getEncoder().encodeToString(mac(hash, properties)));
+            Files.createDirectories(record.getParentFile().toPath());
+            Path temp = Files.createTempFile(record.getParentFile().toPath(), record.getName(), ".tmp");
+            try {
+                try (OutputStream out = Files.newOutputStream(temp)) {
+                    properties.store(out, null);
+                }
+                try {
+                    Files.move(temp, record.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(temp, record.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException | GeneralSecurityException ex) {
+            LOG.debug("Signatures of " + hash + " could not be recorded: " + ex);
+        }
+    }
+
+    /**
+     * @param hash SHA-256 of the jar, in hex
+     * @param properties the record, its HMAC is left out
+     * @return HMAC of the hash and all properties of the record
+     */
+    private byte[] mac(String hash, Properties properties) throws IOException, GeneralSecurityException {
+        Mac mac = key.newMac();
+        mac.update(hash.getBytes(UTF_8));
+        for (String name : new TreeSet<>(properties.stringPropertyNames())) {
+            if (KEY_MAC.equals(name)) {
+                continue;
+            }
+            mac.update((byte) 0);
+            mac.update(name.getBytes(UTF_8));
+            mac.update((byte) 0);
+            mac.update(properties.getProperty(name).getBytes(UTF_8));
+        }
+        return mac.doFinal();
+    }
+
+    /**
+     * Deletes all records not used for {@link #MAX_UNUSED}.
+     *
+     * @return number of deleted records
+     */
+    public int collect() {
+        File[] buckets = root.listFiles();
+        if (buckets == null) {
+            return 0;
+        }
+        long oldest = System.currentTimeMillis() - MAX_UNUSED;
+        int collected = 0;
+        for (File bucket : buckets) {
+            File[] records = bucket.listFiles();
+            if (records == null) {
+                continue;
+            }
+            for (File record : records) {
+                if (record.lastModified() < oldest && record.delete()) {
+                    collected++;
+                }
+            }
+        }
+        if (collected > 0) {
+            LOG.debug("Collected " + collected + " unused verification records from " + root);
+        }
+        return collected;
+    }
+}
@@ -0,0 +1,205 @@
+package net.sourceforge.jnlp;
+
+import net.sourceforge.jnlp.testextensions.ServerAccess;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MalformedXMLParserTest {
+
+    /**
+     * Rounds of {@link #testParseThroughput()}, e.g.
+     * {@code -Dmalformedxmlparser.benchmark=100}. The benchmark only runs if
+     * they are given.
+     */
+    private static final String BENCHMARK_PROPERTY = "malformedxmlparser.benchmark";
+
+    private static final List<byte[]> jnlpFiles = new ArrayList<>();
+
+    @BeforeClass
+    public static void readJnlpFiles() throws Exception {
+        File dir = new File(MalformedXMLParserTest.class.getResource("basic.jnlp").toURI()).getParentFile();
+        addJnlpFiles(dir);
+        Assert.assertTrue(jnlpFiles.size() > 10);
+    }
+
+    private static void addJnlpFiles(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.isDirectory()) {
+                addJnlpFiles(f);
+            } else if (f.getName().endsWith(".jnlp")) {
+                jnlpFiles.add(Files.readAllBytes(f.toPath()));
+            }
+        }
+    }
+
+    /**
+     * Parses the way it was done before, writing what TagSoup read as XML
+     * and parsing that again.
+     */
+    private static Node parseWithXmlWriter(byte[] data) throws ParseException {
+        return new XMLParser().getRootNode(MalformedXMLParser.xmlizeInputStream(new ByteArrayInputStream(data)));
+    }
+
+    private static Node parse(byte[] data) throws ParseException {
+        return new MalformedXMLParser().getRootNode(new ByteArrayInputStream(data));
+    }
+
+    /**
+     * TagSoup reads the bytes it is given in the platform charset, so only
+     * ASCII is read the same way everywhere.
+     */
+    private static boolean isAscii(byte[] data) {
+        for (byte b : data) {
+            if (b < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void assertSame(byte[] data) throws Exception {
+        Node expected;
+        try {
+            expected = parseWithXmlWriter(data);
+        } catch (ParseException ex) {
+            try {
+                parse(data);
+                Assert.fail(new String(data, StandardCharsets.UTF_8));
+            } catch (ParseException pex) {
+                // not parsed either way
+            }
+            return;
+        }
+        XMLParserTest.assertSameTree(expected, parse(data));
+    }
+
+    private static void assertSame(String document) throws Exception {
+        assertSame(document.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void assertBad(String document) throws Exception {
+        byte[] data = document.getBytes(StandardCharsets.US_ASCII);
+        try {
+            parseWithXmlWriter(data);
+            Assert.fail(document);
+        } catch (ParseException ex) {
+            // expected
+        }
+        try {
+            parse(data);
+            Assert.fail(document);
+        } catch (ParseException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSameTreeForJnlpFiles() throws Exception {
+        int compared = 0;
+        for (byte[] data : jnlpFiles) {
+            if (isAscii(data)) {
+                assertSame(data);
+                compared++;
+            }
+        }
+        Assert.assertTrue(compared > 10);
+    }
+
+    @Test
+    public void testSameTreeForMalformedXml() throws Exception {
+        assertSame("<?xml version='1.0'?>\n<!-- c --><jnlp spec=1.0 codebase=http://localhost/>\n"
+                + "<information><title>T &amp; t</title><vendor>v</information>\n"
+                + "<resources><jar href='a.jar'><jar href=\"b.jar\"></resources>\n"
+                + "<application-desc main-class=a.Main><argument>a<argument>b</application-desc>\n");
+        assertSame("<jnlp>\r\n <a>\r\n x\r\ny</a>  <b>\r\n</b><c></c></jnlp>\n<d/>");
+        assertSame("<jnlp><script>a<b</script><p>x<br>y</jnlp>");
+        assertSame("<JNLP Spec='1' spec='2'><Information/></JNLP>");
+    }
+
+    @Test
+    public void testSameTreeWithNamespaces() throws Exception {
+        assertSame("<jnlp xmlns:x='urn:x'><x:a x:b='1' c='2'/><y:a/><x:c><y:d y:e='3'/></x:c></jnlp>");
+        assertSame("<x:jnlp><x:a/><b/></x:jnlp>");
+        assertSame("<jnlp xmlns='urn:jnlp'><a/></jnlp>");
+    }
+
+    @Test
+    public void testBadDocuments() throws Exception {
+        // character data next to elements, which the tree can not hold
+        assertBad("<jnlp><information><description>a <b>bold</b> text</description></information></jnlp>");
+        assertBad("<jnlp><a/>text</jnlp>");
+        assertBad("<jnlp><a><?pi data?></a></jnlp>");
+    }
+
+    @Test
+    public void testEncoding() throws Exception {
+        String document = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<jnlp><information><title>Příliš žluťoučký</title>"
+                + "<vendor v='€ 😀'>v</vendor></information></jnlp>";
+        Node expected = parse(document.getBytes(StandardCharsets.UTF_8));
+        XMLParserTest.assertSameTree(expected, parse(("\uFEFF" + document).getBytes(StandardCharsets.UTF_8)));
+        XMLParserTest.assertSameTree(expected, parse(("\uFEFF" + document).getBytes(StandardCharsets.UTF_16LE)));
+        Node information = expected.getFirstChild();
+        Assert.assertEquals("Příliš žluťoučký", information.getFirstChild().getNodeValue());
+        Assert.assertEquals("€ 😀", information.getChildNodes()[1].getAttribute("v"));
+    }
+
+    private static byte[] createJnlp(int jars) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<jnlp spec=\"1.0+\" codebase=\"http://localhost/\">\n");
+        sb.append("  <information><title>App</title><vendor>IcedTea</vendor></information>\n  <resources>\n");
+        for (int i = 0; i < jars; i++) {
+            sb.append("    <jar href=\"lib/jar").append(i).append(".jar\" download=\"lazy\"/>\n");
+        }
+        sb.append("  </resources>\n  <application-desc main-class=\"a.Main\"/>\n</jnlp>\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reports how many times a second a JNLP file of 5000 jars is parsed the
+     * way it was done before and now.
+     */
+    @Test
+    public void testParseThroughput() throws Exception {
+        String property = System.getProperty(BENCHMARK_PROPERTY);
+        Assume.assumeNotNull(property);
+        int rounds = Integer.parseInt(property.trim());
+        byte[] data = createJnlp(5000);
+        XMLParserTest.assertSameTree(parseWithXmlWriter(data), parse(data));
+
+        // warm up
+        for (int i = 0; i < rounds; i++) {
+            parseWithXmlWriter(data);
+            parse(data);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            parseWithXmlWriter(data);
+        }
+        long written = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            parse(data);
+        }
+        long built = System.nanoTime() - start;
+
+        ServerAccess.logOutputReprint("JNLP file of 5000 jars parsed a second (written and parsed again/built from TagSoup): "
+                + rounds * 1000000000L / Math.max(written, 1) + "/" + rounds * 1000000000L / Math.max(built, 1));
+    }
+}
@@ -0,0 +1,218 @@
+package net.sourceforge.jnlp;
+
+import net.sourceforge.jnlp.testextensions.ServerAccess;
+import net.sourceforge.nanoxml.XMLElement;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class XMLParserTest {
+
+    /**
+     * Rounds over all documents of {@link #testParseThroughput()}, e.g.
+     * {@code -Dxmlparser.benchmark=1000}. Without it the benchmark is
+     * skipped.
+     */
+    private static final String BENCHMARK_PROPERTY = "xmlparser.benchmark";
+
+    private static final List<byte[]> jnlpFiles = new ArrayList<>();
+
+    @BeforeClass
+    public static void readJnlpFiles() throws Exception {
+        File dir = new File(XMLParserTest.class.getResource("basic.jnlp").toURI()).getParentFile();
+        addJnlpFiles(dir);
+        Assert.assertTrue(jnlpFiles.size() > 10);
+    }
+
+    private static void addJnlpFiles(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.isDirectory()) {
+                addJnlpFiles(f);
+            } else if (f.getName().endsWith(".jnlp")) {
+                jnlpFiles.add(Files.readAllBytes(f.toPath()));
+            }
+        }
+    }
+
+    /**
+     * Parses the way it was done before, taking the comments out in a thread
+     * of its own and parsing what it writes through a pipe.
+     */
+    private static Node parseWithSanitizer(byte[] data) throws Exception {
+        XMLElement xml = new XMLElement();
+        PipedInputStream pin = new PipedInputStream();
+        final PipedOutputStream pout = new PipedOutputStream(pin);
+        final InputStreamReader isr = new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                new XMLElement().sanitizeInput(isr, pout);
+            }
+        }).start();
+        try {
+            xml.parseFromReader(new InputStreamReader(pin));
+        } finally {
+            pin.close();
+        }
+        return new Node(xml);
+    }
+
+    /**
+     * The sanitizer writes through the platform charset, which may not have
+     * the byte order mark.
+     */
+    private static byte[] withoutBom(byte[] data) {
+        if (data.length >= 3 && data[0] == (byte) 0xEF && data[1] == (byte) 0xBB && data[2] == (byte) 0xBF) {
+            return Arrays.copyOfRange(data, 3, data.length);
+        }
+        return data;
+    }
+
+    private static Node parse(byte[] data) throws ParseException {
+        return new XMLParser().getRootNode(new ByteArrayInputStream(data));
+    }
+
+    static void assertSameTree(Node expected, Node actual) {
+        Assert.assertEquals(expected.getNodeName(), actual.getNodeName());
+        Assert.assertEquals(expected.getNodeValue(), actual.getNodeValue());
+        List<String> names = new ArrayList<>(expected.getAttributeNames());
+        List<String> actualNames = new ArrayList<>(actual.getAttributeNames());
+        Collections.sort(names);
+        Collections.sort(actualNames);
+        Assert.assertEquals(names, actualNames);
+        for (String name : names) {
+            Assert.assertEquals(expected.getAttribute(name), actual.getAttribute(name));
+        }
+        Node[] children = expected.getChildNodes();
+        Node[] actualChildren = actual.getChildNodes();
+        Assert.assertEquals(expected.toString(), children.length, actualChildren.length);
+        for (int i = 0; i < children.length; i++) {
+            assertSameTree(children[i], actualChildren[i]);
+        }
+    }
+
+    private static void assertSameTree(String document) throws Exception {
+        byte[] data = document.getBytes(StandardCharsets.UTF_8);
+        assertSameTree(parseWithSanitizer(data), parse(data));
+    }
+
+    @Test
+    public void testSameTreeForJnlpFiles() throws Exception {
+        for (byte[] data : jnlpFiles) {
+            Node expected;
+            try {
+                expected = parseWithSanitizer(withoutBom(data));
+            } catch (Exception ex) {
+                try {
+                    parse(data);
+                    Assert.fail(new String(data, StandardCharsets.UTF_8));
+                } catch (ParseException pex) {
+                    // not parsed either way
+                }
+                continue;
+            }
+            assertSameTree(expected, parse(data));
+        }
+    }
+
+    @Test
+    public void testSameTreeWithComments() throws Exception {
+        assertSameTree("<!-- before --><?xml version=\"1.0\"?>\n<!-- after -->\n<jnlp spec=\"1.0\"><!-- in -->"
+                + "<information><title>a<!-- b -->c</title><!-- between --><vendor>v</vendor></information>\n"
+                + "<resources><jar href=\"a<!-- x -->.jar\"/></resources></jnlp>");
+        // the comment ends only at the second -->
+        assertSameTree("<jnlp><!-- a ---> <b/> --><c/></jnlp>");
+        // taking out the inner comment leaves another one
+        assertSameTree("<jnlp><!-<!-- a -->- b --><c/></jnlp>");
+        assertSameTree("<jnlp><a><![CDATA[x <!-- y --> z]]></a></jnlp>");
+        assertSameTree("<jnlp><a><!- b></a><c>&lt;!-- d --&gt;</c></jnlp>");
+    }
+
+    @Test
+    public void testSameTreeForOtherConstructs() throws Exception {
+        String document = "<?xml version=\"1.0\"?>\r\n<!DOCTYPE jnlp [ <!ELEMENT jnlp ANY> ]>\r\n"
+                + "<jnlp a='1' B=\"&amp;&#65;&#x42;&quot;\">\r\n  <x>  </x>\r\n<y>a\r\nb</y><z/></jnlp>trailing";
+        assertSameTree(document);
+        assertSameTree(parse(document.getBytes(StandardCharsets.UTF_8)), parse(("\uFEFF" + document).getBytes(StandardCharsets.UTF_8)));
+        assertSameTree("<jnlp><a>x<![CDATA[a]]b]]>y</a><b>&apos;&gt;</b></jnlp>");
+    }
+
+    @Test
+    public void testBadDocuments() throws Exception {
+        String[] documents = {"<jnlp><!-- open </jnlp>", "<jnlp></jnlpx>", "<jnlp a=b/>", "<jnlp>&unknown;</jnlp>", "jnlp", ""};
+        for (String document : documents) {
+            try {
+                parse(document.getBytes(StandardCharsets.UTF_8));
+                Assert.fail(document);
+            } catch (ParseException ex) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Reports how many of the JNLP files of the tests are parsed a second
+     * the way it was done before and now.
+     */
+    @Test
+    public void testParseThroughput() throws Exception {
+        String property = System.getProperty(BENCHMARK_PROPERTY);
+        Assume.assumeNotNull(property);
+        int rounds = Integer.parseInt(property.trim());
+        List<byte[]> documents = new ArrayList<>();
+        for (byte[] data : jnlpFiles) {
+            try {
+                parseWithSanitizer(data);
+                documents.add(data);
+            } catch (Exception ex) {
+                // not parsed the way it was done before
+            }
+        }
+
+        // warm up
+        for (int i = 0; i < rounds; i++) {
+            for (byte[] data : documents) {
+                parseWithSanitizer(data);
+                parse(data);
+            }
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (byte[] data : documents) {
+                parseWithSanitizer(data);
+            }
+        }
+        long sanitized = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (byte[] data : documents) {
+                parse(data);
+            }
+        }
+        long pulled = System.nanoTime() - start;
+
+        long parsed = (long) rounds * documents.size();
+        ServerAccess.logOutputReprint("JNLP files parsed a second (sanitizer thread/single pass): "
+                + parsed * 1000000000L / Math.max(sanitized, 1) + "/" + parsed * 1000000000L / Math.max(pulled, 1));
+    }
+}
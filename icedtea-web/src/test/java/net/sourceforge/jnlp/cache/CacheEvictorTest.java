@@ -0,0 +1,226 @@
+package net.sourceforge.jnlp.cache;
+
+import net.sourceforge.jnlp.config.InfrastructureFileDescriptor;
+import net.sourceforge.jnlp.config.PathsAndFiles;
+import net.sourceforge.jnlp.util.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class CacheEvictorTest {
+
+    private static final long MB = 1 << 20;
+
+    private static class DummyInfrastructureFileDescriptor extends InfrastructureFileDescriptor {
+
+        private final File backend;
+
+        private DummyInfrastructureFileDescriptor(File backend) {
+            this.backend = backend;
+        }
+
+        @Override
+        public File getFile() {
+            return backend;
+        }
+
+        @Override
+        public String getFullPath() {
+            return backend.getAbsolutePath();
+        }
+    }
+
+    private static class TestEvictor extends CacheEvictor {
+
+        private long maxSize = -1;
+
+        private TestEvictor(CacheLRUWrapper lruHandler, Executor executor, long startTime) {
+            super(lruHandler, executor, startTime);
+        }
+
+        @Override
+        long getMaxSize() {
+            return maxSize;
+        }
+    }
+
+    private static final Executor SAME_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private File cacheDir;
+    private CacheLRUWrapper lru;
+
+    @Before
+    public void createCache() throws IOException {
+        cacheDir = Files.createTempDirectory("itwCacheEvictorTest").toFile();
+        lru = new CacheLRUWrapper(new DummyInfrastructureFileDescriptor(new File(cacheDir, "recently_used")), new DummyInfrastructureFileDescriptor(cacheDir));
+    }
+
+    @After
+    public void deleteCache() throws IOException {
+        FileUtils.recursiveDelete(cacheDir, cacheDir);
+    }
+
+    /**
+     * Adds an item of the given size in folder {@code slot}, last used at
+     * {@code time}.
+     */
+    private File addItem(long slot, String name, long time, int size) throws IOException {
+        File f = new File(cacheDir, slot + File.separator + "http" + File.separator + "example.com" + File.separator + name);
+        Assert.assertTrue(f.getParentFile().mkdirs());
+        Files.write(f.toPath(), new byte[size]);
+        lru.lock();
+        try {
+            lru.load();
+            Assert.assertTrue(lru.addEntry(time + "," + slot, f.getPath()));
+            lru.store();
+        } finally {
+            lru.unlock();
+        }
+        return f;
+    }
+
+    @Test(timeout = 60000)
+    public void testEvictionConcurrentWithLookups() throws Exception {
+        String oldCacheDir = PathsAndFiles.CACHE_DIR.getFullPath();
+        PathsAndFiles.CACHE_DIR.setValue(cacheDir.getPath());
+        try {
+            final TestEvictor evictor = new TestEvictor(CacheLRUWrapper.getInstance(), SAME_THREAD, Long.MAX_VALUE);
+            // everything is evicted every time
+            evictor.maxSize = 0;
+            final AtomicBoolean stop = new AtomicBoolean();
+            Thread evicting = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (!stop.get()) {
+                        evictor.evictNow();
+                    }
+                }
+            });
+            evicting.start();
+            try {
+                for (int i = 0; i < 500; i++) {
+                    URL url = new URL("http://example.com/concurrent" + (i % 20) + ".jar");
+                    File file = CacheUtil.getCacheFile(url, null);
+                    Assert.assertNotNull(file);
+                    CacheLRUWrapper.getInstance().setSize(file.getPath(), 1);
+                }
+            } finally {
+                stop.set(true);
+                evicting.join();
+            }
+            Assert.assertTrue(evictor.getEvictedItems() > 0);
+        } finally {
+            PathsAndFiles.CACHE_DIR.setValue(oldCacheDir);
+        }
+    }
+
+    @Test
+    public void testMeasuresUnknownSizes() throws IOException {
+        addItem(0, "a.jar", 1000, 10);
+        addItem(1, "b.jar", 2000, 20);
+        TestEvictor evictor = new TestEvictor(lru, SAME_THREAD, Long.MAX_VALUE);
+        Assert.assertEquals(2, lru.getUnsizedCount());
+        Assert.assertEquals(0, lru.getCacheSize());
+
+        evictor.requestEviction();
+        Assert.assertEquals(0, lru.getUnsizedCount());
+        Assert.assertEquals(30, lru.getCacheSize());
+        Assert.assertEquals(2, evictor.getMeasuredItems());
+        Assert.assertEquals(0, evictor.getEvictedItems());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedBelowLimit() throws IOException {
+        File oldest = addItem(0, "a.jar", 1000, (int) MB / 2);
+        File middle = addItem(1, "b.jar", 2000, (int) MB / 2);
+        File newest = addItem(2, "c.jar", 3000, (int) MB / 2);
+        TestEvictor evictor = new TestEvictor(lru, SAME_THREAD, Long.MAX_VALUE);
+        evictor.maxSize = MB + MB / 20;
+        evictor.sizeChanged(newest);
+
+        evictor.evictNow();
+        Assert.assertFalse(evictor.isOverLimit());
+        Assert.assertEquals(0, evictor.getRemainingBytes());
+        // a tenth below the limit, so the second one has to go as well
+        Assert.assertFalse(oldest.getParentFile().getParentFile().getParentFile().exists());
+        Assert.assertFalse(middle.getParentFile().getParentFile().getParentFile().exists());
+        Assert.assertTrue(newest.exists());
+        Assert.assertEquals(2, evictor.getEvictedItems());
+        Assert.assertEquals(MB, evictor.getReclaimedBytes());
+        Assert.assertEquals(1, lru.getLRUSortedEntries().size());
+        Assert.assertEquals(MB / 2, lru.getCacheSize());
+    }
+
+    @Test
+    public void testKeepsItemsUsedSinceStart() throws IOException {
+        File old = addItem(0, "a.jar", 1000, (int) MB);
+        File used = addItem(1, "b.jar", 5000, (int) MB);
+        TestEvictor evictor = new TestEvictor(lru, SAME_THREAD, 4000);
+        evictor.maxSize = MB;
+        evictor.requestEviction();
+        if (!CacheUtil.okToEvict()) {
+            // some javaws is running on this machine, nothing may be deleted in background
+            Assert.assertTrue(old.exists());
+            evictor.evictNow();
+            Assert.assertFalse(old.exists());
+            return;
+        }
+        Assert.assertFalse(old.exists());
+        Assert.assertTrue(used.exists());
+        // still above the low-water mark, but the rest is in use
+        Assert.assertTrue(evictor.getRemainingBytes() > 0);
+    }
+
+    @Test
+    public void testEvictsOutdatedCopies() throws IOException {
+        File outdated = addItem(0, "a.jar", 1000, 10);
+        File current = addItem(1, "a.jar", 2000, 10);
+        TestEvictor evictor = new TestEvictor(lru, SAME_THREAD, Long.MAX_VALUE);
+        evictor.evictNow();
+        Assert.assertFalse(outdated.exists());
+        Assert.assertTrue(current.exists());
+        Assert.assertEquals(1, evictor.getEvictedItems());
+        // the folder is handed out again
+        lru.lock();
+        try {
+            Assert.assertEquals(cacheDir.getAbsolutePath() + File.separator + "0", lru.allocateCacheFolder());
+        } finally {
+            lru.unlock();
+        }
+    }
+
+    @Test
+    public void testRemovesEntriesOfMissingFiles() throws IOException {
+        File gone = addItem(0, "a.jar", 1000, 10);
+        File kept = addItem(1, "b.jar", 2000, 10);
+        File downloading = addItem(2, "c.jar", 5000, 10);
+        Assert.assertTrue(gone.delete());
+        Assert.assertTrue(downloading.delete());
+        TestEvictor evictor = new TestEvictor(lru, SAME_THREAD, 4000);
+        evictor.requestEviction();
+        if (!CacheUtil.okToEvict()) {
+            evictor.evictNow();
+            Assert.assertFalse(gone.getParentFile().getParentFile().getParentFile().exists());
+            return;
+        }
+        Assert.assertFalse(gone.getParentFile().getParentFile().getParentFile().exists());
+        Assert.assertTrue(kept.exists());
+        // used since the start, the file may still be downloaded
+        Assert.assertTrue(downloading.getParentFile().exists());
+        Assert.assertEquals(2, lru.getLRUSortedEntries().size());
+        Assert.assertEquals(0, evictor.getEvictedItems());
+    }
+}
@@ -0,0 +1,201 @@
+package net.sourceforge.jnlp.cache;
+
+import net.sourceforge.jnlp.testextensions.ServerAccess;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+public class CacheIOTest {
+
+    /**
+     * Sizes in MB compared by {@link #testThroughput()}, which is skipped
+     * unless they are given, e.g. {@code -Dcacheio.benchmark.sizes=1,10,100,500}.
+     */
+    private static final String SIZES_PROPERTY = "cacheio.benchmark.sizes";
+
+    /**
+     * Endless pattern, cut at the given length, so large inputs do not have
+     * to be held in memory.
+     */
+    private static class PatternInputStream extends InputStream {
+
+        private final byte[] pattern = new byte[4099];
+        private long remaining;
+        private int index;
+
+        private PatternInputStream(long length) {
+            new Random(length).nextBytes(pattern);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int n = (int) Math.min(len, remaining);
+            for (int i = 0; i < n; i++) {
+                b[off + i] = pattern[index];
+                index = (index + 1) % pattern.length;
+            }
+            remaining -= n;
+            return n;
+        }
+    }
+
+    private static byte[] createContent(int length) {
+        byte[] content = new byte[length];
+        new Random(length).nextBytes(content);
+        return content;
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        File file = File.createTempFile("cacheio", ".bin");
+        try {
+            byte[] content = createContent(3 * CacheIO.BUFFER_SIZE + 17);
+            Assert.assertEquals(content.length, CacheIO.write(new ByteArrayInputStream(content), file, content.length, null));
+            Assert.assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+
+            // shorter content than before and than announced
+            byte[] shorter = createContent(100);
+            Assert.assertEquals(shorter.length, CacheIO.write(new ByteArrayInputStream(shorter), file, 1000, null));
+            Assert.assertArrayEquals(shorter, Files.readAllBytes(file.toPath()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testCopyCountsProgress() throws Exception {
+        File file = File.createTempFile("cacheio", ".bin");
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            byte[] content = createContent(CacheIO.BUFFER_SIZE + 5);
+            Resource resource = Resource.getResource(file.toURI().toURL(), null, UpdatePolicy.NEVER);
+            resource.setTransferred(0);
+            Assert.assertEquals(content.length - 10, CacheIO.copy(new ByteArrayInputStream(content), channel, 10, content.length - 10, resource));
+            Assert.assertEquals(content.length - 10, resource.getTransferred());
+            byte[] written = Files.readAllBytes(file.toPath());
+            Assert.assertEquals(content.length, written.length);
+            for (int i = 0; i < content.length - 10; i++) {
+                Assert.assertEquals(content[i], written[i + 10]);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test(expected = EOFException.class)
+    public void testCopyFailsOnShortStream() throws Exception {
+        File file = File.createTempFile("cacheio", ".bin");
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            CacheIO.copy(new ByteArrayInputStream(new byte[10]), channel, 0, 11, null);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testCopyFile() throws Exception {
+        File from = File.createTempFile("cacheio", ".bin");
+        File to = File.createTempFile("cacheio", ".copy");
+        try {
+            byte[] content = createContent(2 * CacheIO.BUFFER_SIZE + 1);
+            Files.write(from.toPath(), content);
+            Files.write(to.toPath(), createContent(5 * CacheIO.BUFFER_SIZE));
+            CacheIO.copyFile(from, to);
+            Assert.assertArrayEquals(content, Files.readAllBytes(to.toPath()));
+        } finally {
+            from.delete();
+            to.delete();
+        }
+    }
+
+    /**
+     * Compares the throughput of {@link CacheIO} with the stream copies it
+     * replaced, for downloads written to the cache and for copies of cached
+     * files.
+     */
+    @Test
+    public void testThroughput() throws Exception {
+        String property = System.getProperty(SIZES_PROPERTY);
+        Assume.assumeNotNull(property);
+        String[] sizes = property.split(",");
+        File file = File.createTempFile("cacheio", ".bin");
+        File copy = File.createTempFile("cacheio", ".copy");
+        try {
+            StringBuilder report = new StringBuilder("CacheIO throughput in MB/s (stream write old/new, file copy old/new):\n");
+            for (String size : sizes) {
+                long length = Long.parseLong(size.trim()) << 20;
+                // warm up, and leave the file in the page cache for both copies
+                writeOld(new PatternInputStream(length), file);
+                CacheIO.write(new PatternInputStream(length), file, length, null);
+
+                long start = System.nanoTime();
+                writeOld(new PatternInputStream(length), file);
+                long writeOld = System.nanoTime() - start;
+                Assert.assertEquals(length, file.length());
+
+                start = System.nanoTime();
+                CacheIO.write(new PatternInputStream(length), file, length, null);
+                long writeNew = System.nanoTime() - start;
+                Assert.assertEquals(length, file.length());
+
+                start = System.nanoTime();
+                CacheUtil.streamCopy(new FileInputStream(file), new FileOutputStream(copy));
+                long copyOld = System.nanoTime() - start;
+                Assert.assertEquals(length, copy.length());
+
+                start = System.nanoTime();
+                CacheIO.copyFile(file, copy);
+                long copyNew = System.nanoTime() - start;
+                Assert.assertEquals(length, copy.length());
+
+                report.append(size.trim()).append(" MB: ")
+                        .append(throughput(length, writeOld)).append('/').append(throughput(length, writeNew)).append(", ")
+                        .append(throughput(length, copyOld)).append('/').append(throughput(length, copyNew)).append('\n');
+            }
+            ServerAccess.logOutputReprint(report.toString());
+        } finally {
+            file.delete();
+            copy.delete();
+        }
+    }
+
+    /**
+     * The way downloads were written to the cache before.
+     */
+    private static void writeOld(InputStream in, File file) throws IOException {
+        byte buf[] = new byte[1024];
+        int rlen;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            while (-1 != (rlen = in.read(buf))) {
+                out.write(buf, 0, rlen);
+            }
+        }
+    }
+
+    private static long throughput(long length, long nanos) {
+        return nanos == 0 ? 0 : (length * 1000000000L / nanos) >> 20;
+    }
+}
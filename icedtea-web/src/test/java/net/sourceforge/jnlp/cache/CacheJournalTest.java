@@ -0,0 +1,159 @@
+package net.sourceforge.jnlp.cache;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+public class CacheJournalTest {
+
+    private File journalFile;
+
+    @Before
+    public void createFile() throws IOException {
+        journalFile = File.createTempFile("itw", "CacheJournalTest");
+        journalFile.delete();
+    }
+
+    @After
+    public void deleteFile() {
+        journalFile.delete();
+    }
+
+    private static List<CacheJournal.Record> someRecords() {
+        return Arrays.asList(
+                CacheJournal.Record.add("1000,1", "/cache/1/http/example.com/a.jar"),
+                CacheJournal.Record.touch("/cache/1/http/example.com/a.jar", "2000,1"),
+                CacheJournal.Record.add("3000,2", "/cache/2/http/example.com/weird\tname\\.jar"),
+                CacheJournal.Record.remove("/cache/1/http/example.com/a.jar"));
+    }
+
+    private static void assertRecordsEqual(List<CacheJournal.Record> expected, List<CacheJournal.Record> actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(expected.get(i).getType(), actual.get(i).getType());
+            Assert.assertEquals(expected.get(i).getPath(), actual.get(i).getPath());
+            Assert.assertEquals(expected.get(i).getKey(), actual.get(i).getKey());
+        }
+    }
+
+    @Test
+    public void testFormatParse() {
+        for (CacheJournal.Record r : someRecords()) {
+            String line = CacheJournal.format(r);
+            Assert.assertTrue(line.endsWith("\n"));
+            Assert.assertEquals(1, line.split("\n", -1).length - 1);
+            assertRecordsEqual(Arrays.asList(r), Arrays.asList(CacheJournal.parse(line.substring(0, line.length() - 1))));
+        }
+    }
+
+    @Test
+    public void testSizeRecord() {
+        CacheJournal.Record r = CacheJournal.Record.size("/cache/1/http/example.com/a.jar", 12345);
+        String line = CacheJournal.format(r);
+        CacheJournal.Record parsed = CacheJournal.parse(line.substring(0, line.length() - 1));
+        assertRecordsEqual(Arrays.asList(r), Arrays.asList(parsed));
+        Assert.assertEquals(12345, parsed.getSize());
+    }
+
+    @Test
+    public void testDamagedRecordIsRejected() {
+        String line = CacheJournal.format(CacheJournal.Record.add("1000,1", "/cache/1/a.jar"));
+        Assert.assertNull(CacheJournal.parse(line.replace("a.jar", "b.jar").trim()));
+        Assert.assertNull(CacheJournal.parse(line.substring(0, line.length() / 2)));
+        Assert.assertNull(CacheJournal.parse(""));
+    }
+
+    @Test
+    public void testAppendAndReadAll() throws IOException {
+        CacheJournal writer = new CacheJournal(journalFile);
+        Assert.assertTrue(writer.readAll().isEmpty());
+        writer.append(someRecords());
+        Assert.assertEquals(4, writer.getRecordCount());
+
+        CacheJournal reader = new CacheJournal(journalFile);
+        assertRecordsEqual(someRecords(), reader.readAll());
+        Assert.assertEquals(4, reader.getRecordCount());
+        Assert.assertTrue(reader.isCurrent());
+    }
+
+    @Test
+    public void testReadNewReturnsOnlyAppendedRecords() throws IOException {
+        CacheJournal writer = new CacheJournal(journalFile);
+        writer.readAll();
+        writer.append(someRecords().subList(0, 2));
+
+        CacheJournal reader = new CacheJournal(journalFile);
+        Assert.assertEquals(2, reader.readAll().size());
+
+        writer.append(someRecords().subList(2, 4));
+        Assert.assertFalse(reader.isCurrent());
+        assertRecordsEqual(someRecords().subList(2, 4), reader.readNew());
+        Assert.assertTrue(reader.isCurrent());
+        Assert.assertTrue(reader.readNew().isEmpty());
+    }
+
+    @Test
+    public void testReadNewAfterResetRequiresFullRead() throws IOException {
+        CacheJournal writer = new CacheJournal(journalFile);
+        writer.readAll();
+        writer.append(someRecords());
+
+        CacheJournal reader = new CacheJournal(journalFile);
+        reader.readAll();
+
+        writer.reset();
+        writer.append(someRecords());
+        Assert.assertNull(reader.readNew());
+        assertRecordsEqual(someRecords(), reader.readAll());
+    }
+
+    @Test
+    public void testTornTailIsIgnoredAndCutOff() throws IOException {
+        CacheJournal writer = new CacheJournal(journalFile);
+        writer.readAll();
+        writer.append(someRecords().subList(0, 2));
+        // simulates crash in the middle of a write
+        String torn = CacheJournal.format(someRecords().get(2));
+        Files.write(journalFile.toPath(), torn.substring(0, torn.length() / 2).getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        CacheJournal recovered = new CacheJournal(journalFile);
+        assertRecordsEqual(someRecords().subList(0, 2), recovered.readAll());
+        recovered.append(someRecords().subList(2, 4));
+
+        assertRecordsEqual(someRecords(), new CacheJournal(journalFile).readAll());
+    }
+
+    @Test
+    public void testUnknownVersionIsIgnoredAndReplaced() throws IOException {
+        Files.write(journalFile.toPath(), ("#itw-lru-journal " + (CacheJournal.VERSION + 1) + " abc\nsomething new\n").getBytes(StandardCharsets.UTF_8));
+        CacheJournal journal = new CacheJournal(journalFile);
+        Assert.assertTrue(journal.readAll().isEmpty());
+        journal.append(someRecords());
+        assertRecordsEqual(someRecords(), new CacheJournal(journalFile).readAll());
+    }
+
+    @Test
+    public void testResetEmptiesJournal() throws IOException {
+        CacheJournal journal = new CacheJournal(journalFile);
+        journal.readAll();
+        journal.append(someRecords());
+        long full = journalFile.length();
+        journal.reset();
+        Assert.assertEquals(0, journal.getRecordCount());
+        Assert.assertTrue(journalFile.length() < full);
+        try (RandomAccessFile raf = new RandomAccessFile(journalFile, "r")) {
+            Assert.assertTrue(raf.readLine().startsWith("#itw-lru-journal " + CacheJournal.VERSION + " "));
+        }
+        Assert.assertTrue(new CacheJournal(journalFile).readAll().isEmpty());
+    }
+}
@@ -41,6 +41,7 @@ import net.sourceforge.jnlp.config.InfrastructureFileDescriptor;
 import net.sourceforge.jnlp.config.PathsAndFiles;
 import net.sourceforge.jnlp.testextensions.ServerAccess;
 import net.sourceforge.jnlp.testextensions.util.CacheTestUtils;
+import net.sourceforge.jnlp.util.PropertiesFile;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -48,9 +49,16 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map.Entry;
 import java.util.concurrent.CountDownLatch;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class CacheLRUWrapperTest {
@@ -191,11 +199,12 @@ public class CacheLRUWrapperTest {
         lmAfter = cacheIndexFile.lastModified();
         assertTrue("modification timestamp has changed!", lmBefore == lmAfter);
 
-        // 3. add some cache entries and store
-        lmBefore = cacheIndexFile.lastModified();
+        // 3. add some cache entries and store, changes go to the journal
+        final File journalFile = new File(cacheIndexFile.getPath() + CacheJournal.SUFFIX);
+        lmBefore = journalFile.lastModified();
         fillCacheIndexFile(noEntriesCacheFile);
         clw.store();
-        lmAfter = cacheIndexFile.lastModified();
+        lmAfter = journalFile.lastModified();
         assertTrue("modification timestamp hasn't changed! Before = " + lmBefore + " After = " + lmAfter, lmBefore < lmAfter);
 
         } finally {
@@ -296,6 +305,347 @@ public class CacheLRUWrapperTest {
         assertTrue(CacheTestUtils.stringContainsOnlySingleInstance(out, "true") && out.contains("false"));
     }
 
+    private static String cachePath(int folder, String resource) {
+        return tmpCache.getAbsolutePath() + File.separatorChar + folder + File.separatorChar + "http" + File.separatorChar + "example.com" + File.separatorChar + resource;
+    }
+
+    private static String urlPath(String resource) {
+        return File.separatorChar + "http" + File.separatorChar + "example.com" + File.separatorChar + resource;
+    }
+
+    @Test
+    public void testGetNewestEntry() {
+        try {
+            clw.lock();
+            clearCacheIndexFile();
+            clw.addEntry("1000,1", cachePath(1, "a.jar"));
+            clw.addEntry("3000,2", cachePath(2, "a.jar"));
+            clw.addEntry("2000,3", cachePath(3, "b.jar"));
+
+            Entry<String, String> a = clw.getNewestEntry(urlPath("a.jar"));
+            assertEquals("3000,2", a.getKey());
+            assertEquals(cachePath(2, "a.jar"), a.getValue());
+            assertEquals(cachePath(3, "b.jar"), clw.getNewestEntry(urlPath("b.jar")).getValue());
+            assertNull(clw.getNewestEntry(urlPath("c.jar")));
+
+            // accessing older copy makes it the newest one
+            clw.updateEntry("1000,1");
+            assertEquals(cachePath(1, "a.jar"), clw.getNewestEntry(urlPath("a.jar")).getValue());
+            List<Entry<String, String>> sorted = clw.getLRUSortedEntries();
+            assertEquals(3, sorted.size());
+            assertEquals(cachePath(1, "a.jar"), sorted.get(0).getValue());
+            assertEquals(cachePath(2, "a.jar"), sorted.get(1).getValue());
+            assertEquals(cachePath(3, "b.jar"), sorted.get(2).getValue());
+
+            clw.removeEntry(clw.getNewestEntry(urlPath("a.jar")).getKey());
+            assertEquals(cachePath(2, "a.jar"), clw.getNewestEntry(urlPath("a.jar")).getValue());
+        } finally {
+            clearCacheIndexFile();
+            clw.unlock();
+        }
+    }
+
+    @Test
+    public void testLookupDoesNotWriteFile() throws InterruptedException {
+        final File cacheIndexFile = clw.getRecentlyUsedFile().getFile();
+        try {
+            clw.lock();
+            clearCacheIndexFile();
+            clw.addEntry("1000,1", cachePath(1, "a.jar"));
+            clw.store();
+            // FIXME: wait a second, because of file modification timestamp only provides accuracy on seconds.
+            Thread.sleep(1010);
+            clw.load();
+            long lmBefore = cacheIndexFile.lastModified();
+            assertTrue(clw.isUpToDate());
+
+            Entry<String, String> e = clw.getNewestEntry(urlPath("a.jar"));
+            clw.updateEntry(e.getKey());
+            clw.load();
+
+            assertEquals(lmBefore, cacheIndexFile.lastModified());
+            assertTrue(clw.isUpToDate());
+            assertFalse("1000,1".equals(clw.getNewestEntry(urlPath("a.jar")).getKey()));
+        } finally {
+            clearCacheIndexFile();
+            clw.unlock();
+        }
+    }
+
+    @Test
+    public void testReloadAfterChangeByOtherProcess() throws Exception {
+        final File cacheIndexFile = clw.getRecentlyUsedFile().getFile();
+        try {
+            clw.lock();
+            clearCacheIndexFile();
+            clw.addEntry("1000,1", cachePath(1, "a.jar"));
+            clw.store();
+            assertNull(clw.getNewestEntry(urlPath("b.jar")));
+
+            // simulates other javaws instance appending an entry
+            String line = "2000,2=" + cachePath(2, "b.jar").replace("\\", "\\\\") + "\n";
+            Files.write(cacheIndexFile.toPath(), line.getBytes(StandardCharsets.ISO_8859_1), StandardOpenOption.APPEND);
+            assertFalse(clw.isUpToDate());
+
+            clw.load();
+            assertEquals(cachePath(2, "b.jar"), clw.getNewestEntry(urlPath("b.jar")).getValue());
+            assertEquals(cachePath(1, "a.jar"), clw.getNewestEntry(urlPath("a.jar")).getValue());
+        } finally {
+            clearCacheIndexFile();
+            clw.unlock();
+        }
+    }
+
+    private static CacheLRUWrapper otherInstance() {
+        return new CacheLRUWrapper(
+                new DummyInfrastructureFileDescriptor(tmpIndexFile),
+                new DummyInfrastructureFileDescriptor(tmpCache));
+    }
+
+    @Test
+    public void testStoreAppendsToJournal() throws Exception {
+        final File cacheIndexFile = clw.getRecentlyUsedFile().getFile();
+        final File journalFile = new File(cacheIndexFile.getPath() + CacheJournal.SUFFIX);
+        try {
+            clw.lock();
+            clearCacheIndexFile();
+            long snapshotLength = cacheIndexFile.length();
+            long journalLength = journalFile.length();
+
+            clw.addEntry("1000,1", cachePath(1, "a.jar"));
+            clw.addEntry("2000,2", cachePath(2, "b.jar"));
+            clw.store();
+            clw.updateEntry("1000,1");
+            clw.removeEntry("2000,2");
+            clw.store();
+
+            assertEquals(snapshotLength, cacheIndexFile.length());
+            assertTrue(journalFile.length() > journalLength);
+
+            CacheLRUWrapper other = otherInstance();
+            other.load();
+            assertEquals(1, other.getLRUSortedEntries().size());
+            assertEquals(clw.getNewestEntry(urlPath("a.jar")), other.getNewestEntry(urlPath("a.jar")));
+            assertNull(other.getNewestEntry(urlPath("b.jar")));
+        } finally {
+            clearCacheIndexFile();
+            clw.unlock();
+        }
+    }
+
+    @Test
+    public void testSizesArePersisted() throws Exception {
+        try {
+            clw.lock();
+            clearCacheIndexFile();
+            clw.addEntry("1000,1", cachePath(1, "a.jar"));
+            clw.addEntry("2000,2", cachePath(2, "b.jar"));
+            clw.setSize(cachePath(1, "a.jar"), 100);
+            clw.store();
+
+            // replayed from the journal
+            CacheLRUWrapper other = otherInstance();
+            other.load();
+            assertEquals(100, other.getSize(cachePath(1, "a.jar")));
+            assertEquals(-1, other.getSize(cachePath(2, "b.jar")));
+            assertEquals(1, other.getUnsizedCount());
+            assertEquals(100, other.getCacheSize());
+
+            // read from the snapshot
+            clw.setSize(cachePath(2, "b.jar"), 20);
+            clw.clearLRUSortedEntries();
+            clw.addEntry("1000,1", cachePath(1, "a.jar"));
+            clw.addEntry("2000,2", cachePath(2, "b.jar"));
+            clw.setSize(cachePath(1, "a.jar"), 100);
+            clw.setSize(cachePath(2, "b.jar"), 20);
+            clw.store();
+            assertEquals(0, new CacheJournal(new File(clw.getRecentlyUsedFile().getFile().getPath() + CacheJournal.SUFFIX)).readAll().size());
+            other = otherInstance();
+            other.load();
+            assertEquals(2, other.getLRUSortedEntries().size());
+            assertEquals(0, other.getUnsizedCount());
+            assertEquals(120, other.getCacheSize());
+        } finally {
+            clearCacheIndexFile();
+            clw.unlock();
+        }
+    }
+
+    @Test
+    public void testOtherInstanceReplaysOnlyNewRecords() throws Exception {
+        try {
+            clw.lock();
+            clearCacheIndexFile();
+            CacheLRUWrapper other = otherInstance();
+            other.load();
+            assertTrue(other.isUpToDate());
+
+            clw.addEntry("1000,1", cachePath(1, "a.jar"));
+            clw.store();
+            assertFalse(other.isUpToDate());
+            other.load();
+            assertEquals(cachePath(1, "a.jar"), other.getNewestEntry(urlPath("a.jar")).getValue());
+
+            // accesses of both instances are merged, the newest one wins
+            other.updateEntry(other.getNewestEntry(urlPath("a.jar")).getKey());
+            other.store();
+            clw.load();
+            assertEquals(other.getNewestEntry(urlPath("a.jar")), clw.getNewestEntry(urlPath("a.jar")));
+        } finally {
+            clearCacheIndexFile();
+            clw.unlock();
+        }
+    }
+
+    @Test
+    public void testJournalIsCompacted() throws Exception {
+        final File cacheIndexFile = clw.getRecentlyUsedFile().getFile();
+        try {
+            clw.lock();
+            clearCacheIndexFile();
+            int entries = CacheLRUWrapper.MIN_COMPACTION_RECORDS;
+            for (int i = 0; i < entries; i++) {
+                clw.addEntry((1000 + i) + "," + i, cachePath(i, "a.jar"));
+            }
+            clw.store();
+            assertEquals(0, new PropertiesFile(cacheIndexFile).size());
+            // the journal now holds more records than there are entries
+            for (int i = 0; i < entries; i++) {
+                clw.updateEntry((1000 + i) + "," + i);
+            }
+            clw.store();
+
+            PropertiesFile snapshot = new PropertiesFile(cacheIndexFile);
+            snapshot.load();
+            assertEquals(entries, snapshot.size());
+            assertEquals(0, new CacheJournal(new File(cacheIndexFile.getPath() + CacheJournal.SUFFIX)).readAll().size());
+            assertEquals(entries, otherInstance().getLRUSortedEntries().size());
+        } finally {
+            clearCacheIndexFile();
+            clw.unlock();
+        }
+    }
+
+    @Test
+    public void testLegacyFileWithoutJournalIsRead() throws Exception {
+        final File cacheIndexFile = clw.getRecentlyUsedFile().getFile();
+        final File journalFile = new File(cacheIndexFile.getPath() + CacheJournal.SUFFIX);
+        try {
+            clw.lock();
+            clearCacheIndexFile();
+            journalFile.delete();
+            PropertiesFile legacy = new PropertiesFile(cacheIndexFile);
+            legacy.setProperty("1000,1", cachePath(1, "a.jar"));
+            legacy.setProperty("2000,2", cachePath(2, "b.jar"));
+            legacy.setProperty("corrupted", cachePath(3, "c.jar"));
+            legacy.store();
+
+            CacheLRUWrapper other = otherInstance();
+            other.load();
+            List<Entry<String, String>> sorted = other.getLRUSortedEntries();
+            assertEquals(2, sorted.size());
+            assertEquals(cachePath(2, "b.jar"), sorted.get(0).getValue());
+            assertEquals(cachePath(1, "a.jar"), sorted.get(1).getValue());
+        } finally {
+            clearCacheIndexFile();
+            clw.unlock();
+        }
+    }
+
+    @Test(timeout = 2000l)
+    public void testUnlockReleasesLockedFileWhenMoved() throws Exception {
+        File first = new File(tmpCache, cacheIndexFileName + "_first");
+        File second = new File(tmpCache, cacheIndexFileName + "_second");
+        File[] current = {first};
+        try {
+            CacheLRUWrapper moving = new CacheLRUWrapper(movingDescriptor(current), new DummyInfrastructureFileDescriptor(tmpCache));
+            moving.lock();
+            final PropertiesFile locked = moving.getRecentlyUsedPropertiesFile();
+            current[0] = second;
+            moving.unlock();
+
+            final boolean[] acquired = {false};
+            Thread other = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    if (locked.tryLock()) {
+                        acquired[0] = true;
+                        locked.unlock();
+                    }
+                }
+            });
+            other.start();
+            other.join();
+            assertTrue(acquired[0]);
+        } finally {
+            first.delete();
+            second.delete();
+        }
+    }
+
+    @Test
+    public void testMoveKeepsJournalOfOtherInstance() throws Exception {
+        File first = new File(tmpCache, cacheIndexFileName + "_first");
+        File second = new File(tmpCache, cacheIndexFileName + "_second");
+        File[] current = {first};
+        try {
+            CacheLRUWrapper fixed = new CacheLRUWrapper(new DummyInfrastructureFileDescriptor(first), new DummyInfrastructureFileDescriptor(tmpCache));
+            CacheLRUWrapper moving = new CacheLRUWrapper(movingDescriptor(current), new DummyInfrastructureFileDescriptor(tmpCache));
+
+            fixed.lock();
+            try {
+                fixed.addEntry("1000,1", cachePath(1, "a.jar"));
+                fixed.store();
+            } finally {
+                fixed.unlock();
+            }
+            moving.lock();
+            try {
+                moving.load();
+            } finally {
+                moving.unlock();
+            }
+            // not stored before the move
+            moving.addEntry("2000,2", cachePath(2, "b.jar"));
+            fixed.lock();
+            try {
+                fixed.addEntry("3000,3", cachePath(3, "c.jar"));
+                fixed.store();
+            } finally {
+                fixed.unlock();
+            }
+
+            current[0] = second;
+            moving.getRecentlyUsedPropertiesFile();
+
+            CacheLRUWrapper reader = new CacheLRUWrapper(new DummyInfrastructureFileDescriptor(first), new DummyInfrastructureFileDescriptor(tmpCache));
+            reader.load();
+            List<Entry<String, String>> sorted = reader.getLRUSortedEntries();
+            assertEquals(2, sorted.size());
+            assertEquals(cachePath(3, "c.jar"), sorted.get(0).getValue());
+            assertEquals(cachePath(1, "a.jar"), sorted.get(1).getValue());
+        } finally {
+            first.delete();
+            second.delete();
+            new File(first.getPath() + CacheJournal.SUFFIX).delete();
+            new File(second.getPath() + CacheJournal.SUFFIX).delete();
+        }
+    }
+
+    private static InfrastructureFileDescriptor movingDescriptor(final File[] current) {
+        return new InfrastructureFileDescriptor() {
+            @Override
+            public File getFile() {
+                return current[0];
+            }
+
+            @Override
+            public String getFullPath() {
+                return current[0].getAbsolutePath();
+            }
+        };
+    }
+
     private class StoreWorker implements Runnable {
 
         private final CountDownLatch doneSignal;
@@ -0,0 +1,110 @@
+package net.sourceforge.jnlp.cache;
+
+import net.sourceforge.jnlp.util.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+public class CacheSlotAllocatorTest {
+
+    private File cacheDir;
+    private File slotsFile;
+
+    @Before
+    public void createCacheDir() throws IOException {
+        cacheDir = Files.createTempDirectory("itwCacheSlotAllocatorTest").toFile();
+        slotsFile = new File(cacheDir, "recently_used" + CacheSlotAllocator.SUFFIX);
+    }
+
+    @After
+    public void deleteCacheDir() throws IOException {
+        FileUtils.recursiveDelete(cacheDir, cacheDir);
+    }
+
+    private CacheSlotAllocator newAllocator() {
+        return new CacheSlotAllocator(slotsFile, cacheDir);
+    }
+
+    private void createFolders(long... slots) {
+        for (long slot : slots) {
+            Assert.assertTrue(new File(cacheDir, Long.toString(slot)).mkdir());
+        }
+    }
+
+    @Test
+    public void testAllocatesSequentiallyInEmptyCache() {
+        CacheSlotAllocator slots = newAllocator();
+        Assert.assertEquals(0, slots.allocate());
+        Assert.assertEquals(1, slots.allocate());
+        Assert.assertEquals(2, slots.allocate());
+        Assert.assertEquals(3, slots.getHighWaterMark());
+        Assert.assertTrue(slotsFile.exists());
+    }
+
+    @Test
+    public void testStateIsSharedThroughFile() {
+        CacheSlotAllocator first = newAllocator();
+        CacheSlotAllocator second = newAllocator();
+        Assert.assertEquals(0, first.allocate());
+        Assert.assertEquals(1, second.allocate());
+        Assert.assertEquals(2, first.allocate());
+    }
+
+    @Test
+    public void testRebuildsFromDirectoryScan() {
+        createFolders(0, 1, 3, 6);
+        Assert.assertTrue(new File(cacheDir, "notASlot").mkdir());
+        CacheSlotAllocator slots = newAllocator();
+        Assert.assertEquals(7, slots.getHighWaterMark());
+        Assert.assertEquals(3, slots.getFreeCount());
+        Assert.assertEquals(2, slots.allocate());
+        Assert.assertEquals(4, slots.allocate());
+        Assert.assertEquals(5, slots.allocate());
+        Assert.assertEquals(7, slots.allocate());
+    }
+
+    @Test
+    public void testDamagedFileIsRebuilt() throws IOException {
+        createFolders(0, 1, 2);
+        Files.write(slotsFile.toPath(), ("#itw-cache-slots " + CacheSlotAllocator.VERSION + "\n1\t\t0\n").getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals(3, newAllocator().allocate());
+    }
+
+    @Test
+    public void testExistingFolderIsSkipped() {
+        CacheSlotAllocator slots = newAllocator();
+        Assert.assertEquals(0, slots.allocate());
+        // created by an instance which does not know about the allocator
+        createFolders(1, 2);
+        Assert.assertEquals(3, slots.allocate());
+    }
+
+    @Test
+    public void testReleasedSlotsAreReused() {
+        CacheSlotAllocator slots = newAllocator();
+        for (int i = 0; i < 4; i++) {
+            createFolders(slots.allocate());
+        }
+        Assert.assertTrue(new File(cacheDir, "1").delete());
+        // folder 2 still exists and must not be handed out again
+        slots.release(Arrays.asList(1L, 2L));
+        Assert.assertEquals(1, slots.getFreeCount());
+        Assert.assertEquals(1, newAllocator().allocate());
+        Assert.assertEquals(4, slots.allocate());
+    }
+
+    @Test
+    public void testToSlot() {
+        Assert.assertEquals(Long.valueOf(12), CacheSlotAllocator.toSlot(new File(cacheDir, "12")));
+        Assert.assertNull(CacheSlotAllocator.toSlot(new File(cacheDir, "recently_used")));
+        Assert.assertNull(CacheSlotAllocator.toSlot(new File(cacheDir, "-1")));
+        Assert.assertNull(CacheSlotAllocator.toSlot(new File(cacheDir, "")));
+    }
+}
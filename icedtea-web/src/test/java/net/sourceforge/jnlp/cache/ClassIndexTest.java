@@ -0,0 +1,122 @@
+package net.sourceforge.jnlp.cache;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+public class ClassIndexTest {
+
+    private File dir;
+
+    @Before
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("classindex").toFile();
+    }
+
+    @After
+    public void deleteDir() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private static void createJar(File jar, Manifest manifest, String... entries) throws IOException {
+        try (JarOutputStream out = manifest == null ? new JarOutputStream(new FileOutputStream(jar))
+                : new JarOutputStream(new FileOutputStream(jar), manifest)) {
+            for (String entry : entries) {
+                out.putNextEntry(new JarEntry(entry));
+                out.write(entry.getBytes());
+                out.closeEntry();
+            }
+        }
+    }
+
+    @Test
+    public void testCreate() throws Exception {
+        File jar = new File(dir, "a.jar");
+        createJar(jar, null, "a/b/C.class", "a/b/C$D.class", "a/b/res.txt", "E.class");
+
+        ClassIndex index = ClassIndex.get(jar);
+        Assert.assertNotNull(index);
+        Assert.assertTrue(ClassIndex.getIndexFile(jar).isFile());
+        Assert.assertEquals(3, index.size());
+        Assert.assertTrue(index.contains("a.b.C"));
+        Assert.assertTrue(index.contains("a.b.C$D"));
+        Assert.assertTrue(index.contains("E"));
+        Assert.assertFalse(index.contains("a.b.res"));
+        Assert.assertFalse(index.contains("a.b.F"));
+        Assert.assertTrue(index.isComplete());
+
+        ClassIndex read = ClassIndex.read(jar);
+        Assert.assertNotNull(read);
+        Assert.assertEquals(3, read.size());
+        Assert.assertTrue(read.contains("a.b.C$D"));
+        Assert.assertTrue(read.isComplete());
+    }
+
+    @Test
+    public void testReplacedJarIsIndexedAgain() throws Exception {
+        File jar = new File(dir, "a.jar");
+        createJar(jar, null, "a/B.class");
+        ClassIndex.update(jar);
+        Assert.assertNotNull(ClassIndex.read(jar));
+
+        createJar(jar, null, "a/B.class", "a/C.class");
+        jar.setLastModified(jar.lastModified() - 10000);
+        Assert.assertNull(ClassIndex.read(jar));
+        Assert.assertTrue(ClassIndex.get(jar).contains("a.C"));
+        Assert.assertTrue(ClassIndex.read(jar).contains("a.C"));
+    }
+
+    @Test
+    public void testIncompleteIndex() throws Exception {
+        File nested = new File(dir, "nested.jar");
+        createJar(nested, null, "a/B.class", "lib/other.jar");
+        Assert.assertFalse(ClassIndex.get(nested).isComplete());
+
+        File jarIndex = new File(dir, "index.jar");
+        createJar(jarIndex, null, "META-INF/INDEX.LIST", "a/B.class");
+        Assert.assertFalse(ClassIndex.get(jarIndex).isComplete());
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, "other.jar");
+        File classPath = new File(dir, "classpath.jar");
+        createJar(classPath, manifest, "a/B.class");
+        ClassIndex index = ClassIndex.get(classPath);
+        Assert.assertFalse(index.isComplete());
+        Assert.assertTrue(index.contains("a.B"));
+    }
+
+    @Test
+    public void testNoJar() throws Exception {
+        File file = new File(dir, "a.txt");
+        Files.write(file.toPath(), "PK no jar".getBytes());
+        Assert.assertNull(ClassIndex.get(file));
+        Assert.assertFalse(ClassIndex.getIndexFile(file).exists());
+
+        ClassIndex.update(file);
+        Assert.assertFalse(ClassIndex.getIndexFile(file).exists());
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        File jar = new File(dir, "a.jar");
+        createJar(jar, null, "a/B.class");
+        ClassIndex.update(jar);
+        ClassIndex.delete(jar);
+        Assert.assertFalse(ClassIndex.getIndexFile(jar).exists());
+        Assert.assertNull(ClassIndex.read(jar));
+    }
+}
@@ -0,0 +1,106 @@
+package net.sourceforge.jnlp.cache;
+
+import net.sourceforge.jnlp.util.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class ContentStoreTest {
+
+    private File cacheDir;
+    private ContentStore store;
+
+    @Before
+    public void createCache() throws IOException {
+        cacheDir = Files.createTempDirectory("itwContentStoreTest").toFile();
+        store = new ContentStore(new File(cacheDir, ContentStore.DIRECTORY));
+        Assume.assumeTrue(store.isSupported());
+    }
+
+    @After
+    public void deleteCache() throws IOException {
+        FileUtils.recursiveDelete(cacheDir, cacheDir);
+    }
+
+    private File cachedFile(int slot, String host, String content) throws IOException {
+        File f = new File(cacheDir, slot + File.separator + "http" + File.separator + host + File.separator + "log.jar");
+        Assert.assertTrue(f.getParentFile().mkdirs());
+        Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return f;
+    }
+
+    @Test
+    public void testHash() throws IOException {
+        File f = cachedFile(0, "example.com", "abc");
+        Assert.assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", ContentStore.hash(f));
+    }
+
+    @Test
+    public void testIdenticalContentIsShared() throws IOException {
+        File first = cachedFile(0, "example.com", "same bytes");
+        File second = cachedFile(1, "example.org", "same bytes");
+        File other = cachedFile(2, "example.net", "other bytes");
+
+        String hash = store.store(first);
+        Assert.assertEquals(hash, store.store(second));
+        Assert.assertNotEquals(hash, store.store(other));
+
+        Assert.assertTrue(Files.isSameFile(first.toPath(), second.toPath()));
+        Assert.assertFalse(Files.isSameFile(first.toPath(), other.toPath()));
+        Assert.assertEquals(3, ContentStore.getLinkCount(store.getBlob(hash).toPath()));
+        Assert.assertEquals("same bytes", new String(Files.readAllBytes(second.toPath()), StandardCharsets.UTF_8));
+        // storing again changes nothing
+        Assert.assertEquals(hash, store.store(second));
+        Assert.assertEquals(3, ContentStore.getLinkCount(store.getBlob(hash).toPath()));
+    }
+
+    @Test
+    public void testCollectDeletesUnreferencedBlobsOnly() throws IOException {
+        File first = cachedFile(0, "example.com", "same bytes");
+        File second = cachedFile(1, "example.org", "same bytes");
+        File other = cachedFile(2, "example.net", "other bytes");
+        String hash = store.store(first);
+        store.store(second);
+        String otherHash = store.store(other);
+
+        // evicted the usual way
+        FileUtils.recursiveDelete(new File(cacheDir, "2"), cacheDir);
+        FileUtils.recursiveDelete(new File(cacheDir, "0"), cacheDir);
+        Assert.assertEquals(1, store.collect());
+        Assert.assertFalse(store.getBlob(otherHash).exists());
+        Assert.assertTrue(store.getBlob(hash).exists());
+        Assert.assertEquals("same bytes", new String(Files.readAllBytes(second.toPath()), StandardCharsets.UTF_8));
+        Assert.assertEquals(0, store.collect());
+    }
+
+    @Test
+    public void testCollectedBlobIsStoredAgain() throws IOException {
+        File first = cachedFile(0, "example.com", "same bytes");
+        String hash = store.store(first);
+        Files.delete(first.toPath());
+        Assert.assertEquals(1, store.collect());
+
+        File second = cachedFile(1, "example.org", "same bytes");
+        Assert.assertEquals(hash, store.store(second));
+        Assert.assertTrue(Files.isSameFile(second.toPath(), store.getBlob(hash).toPath()));
+    }
+
+    @Test
+    public void testRewrittenFileDoesNotChangeOthers() throws IOException {
+        File first = cachedFile(0, "example.com", "same bytes");
+        File second = cachedFile(1, "example.org", "same bytes");
+        store.store(first);
+        store.store(second);
+        // as done by CacheUtil.getOutputStream
+        Files.delete(second.toPath());
+        Files.write(second.toPath(), "new bytes".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals("same bytes", new String(Files.readAllBytes(first.toPath()), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,180 @@
+package net.sourceforge.jnlp.cache;
+
+import net.sourceforge.jnlp.Version;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+public class DownloadSchedulerTest {
+
+    /**
+     * Keeps the downloads started, so the test decides when they finish.
+     */
+    private static class ManualExecutor implements Executor {
+
+        private final List<Runnable> started = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            started.add(command);
+        }
+
+        private void finish(int index) {
+            started.remove(index).run();
+        }
+    }
+
+    private static class Download implements Runnable {
+
+        private final String name;
+        private final List<String> log;
+
+        private Download(String name, List<String> log) {
+            this.name = name;
+            this.log = log;
+        }
+
+        @Override
+        public void run() {
+            log.add(name);
+        }
+    }
+
+    private final List<String> log = new ArrayList<>();
+
+    private static Resource createResource(String host, String name) throws MalformedURLException {
+        return Resource.getResource(new URL("http://" + host + "/DownloadSchedulerTest/" + name + ".jar"), new Version("1.0"), UpdatePolicy.ALWAYS);
+    }
+
+    private void submit(DownloadScheduler scheduler, String host, String name, DownloadScheduler.Priority priority) throws MalformedURLException {
+        scheduler.submit(new Download(name, log), createResource(host, name), priority);
+    }
+
+    @Test
+    public void testGlobalLimit() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        DownloadScheduler scheduler = new DownloadScheduler(executor, 2, 2);
+        submit(scheduler, "a.example.com", "a1", DownloadScheduler.Priority.EAGER);
+        submit(scheduler, "b.example.com", "b1", DownloadScheduler.Priority.EAGER);
+        submit(scheduler, "c.example.com", "c1", DownloadScheduler.Priority.EAGER);
+        Assert.assertEquals(2, executor.started.size());
+        Assert.assertEquals(2, scheduler.getRunningCount());
+        Assert.assertEquals(1, scheduler.getQueueDepth());
+
+        executor.finish(0);
+        Assert.assertEquals(2, executor.started.size());
+        Assert.assertEquals(0, scheduler.getQueueDepth());
+        executor.finish(0);
+        executor.finish(0);
+        Assert.assertEquals(0, scheduler.getRunningCount());
+        Assert.assertEquals(3, scheduler.getStartedCount());
+        Assert.assertEquals(1, scheduler.getMaxQueueDepth());
+        Assert.assertEquals("[a1, b1, c1]", log.toString());
+    }
+
+    @Test
+    public void testPerHostLimit() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        DownloadScheduler scheduler = new DownloadScheduler(executor, 4, 1);
+        submit(scheduler, "a.example.com", "a1", DownloadScheduler.Priority.MAIN);
+        submit(scheduler, "a.example.com", "a2", DownloadScheduler.Priority.MAIN);
+        submit(scheduler, "b.example.com", "b1", DownloadScheduler.Priority.LAZY);
+        // the second of a waits, but does not hold up other hosts
+        Assert.assertEquals(2, executor.started.size());
+        Assert.assertEquals(1, scheduler.getQueueDepth());
+
+        executor.finish(1);
+        executor.finish(0);
+        Assert.assertEquals(1, executor.started.size());
+        executor.finish(0);
+        Assert.assertEquals("[b1, a1, a2]", log.toString());
+    }
+
+    @Test
+    public void testPriorityOrder() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        DownloadScheduler scheduler = new DownloadScheduler(executor, 1, 1);
+        submit(scheduler, "a.example.com", "first", DownloadScheduler.Priority.LAZY);
+        submit(scheduler, "a.example.com", "lazy", DownloadScheduler.Priority.LAZY);
+        submit(scheduler, "a.example.com", "eager", DownloadScheduler.Priority.EAGER);
+        submit(scheduler, "a.example.com", "main", DownloadScheduler.Priority.MAIN);
+        submit(scheduler, "a.example.com", "eager2", DownloadScheduler.Priority.EAGER);
+        while (!executor.started.isEmpty()) {
+            executor.finish(0);
+        }
+        Assert.assertEquals("[first, main, eager, eager2, lazy]", log.toString());
+    }
+
+    @Test
+    public void testPromote() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        DownloadScheduler scheduler = new DownloadScheduler(executor, 1, 1);
+        submit(scheduler, "a.example.com", "first", DownloadScheduler.Priority.MAIN);
+        submit(scheduler, "a.example.com", "eager", DownloadScheduler.Priority.EAGER);
+        submit(scheduler, "a.example.com", "lazy", DownloadScheduler.Priority.LAZY);
+        scheduler.promote(createResource("a.example.com", "lazy"));
+        // promoting a running or unknown download changes nothing
+        scheduler.promote(createResource("a.example.com", "first"));
+        scheduler.promote(createResource("a.example.com", "unknown"));
+        Assert.assertEquals(2, scheduler.getQueueDepth());
+        while (!executor.started.isEmpty()) {
+            executor.finish(0);
+        }
+        Assert.assertEquals("[first, lazy, eager]", log.toString());
+    }
+
+    @Test
+    public void testSubmitTwiceRaisesPriorityOnly() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        DownloadScheduler scheduler = new DownloadScheduler(executor, 1, 1);
+        submit(scheduler, "a.example.com", "first", DownloadScheduler.Priority.MAIN);
+        submit(scheduler, "a.example.com", "eager", DownloadScheduler.Priority.EAGER);
+        submit(scheduler, "a.example.com", "lazy", DownloadScheduler.Priority.LAZY);
+        submit(scheduler, "a.example.com", "lazy", DownloadScheduler.Priority.MAIN);
+        submit(scheduler, "a.example.com", "eager", DownloadScheduler.Priority.LAZY);
+        Assert.assertEquals(2, scheduler.getQueueDepth());
+        while (!executor.started.isEmpty()) {
+            executor.finish(0);
+        }
+        Assert.assertEquals("[first, lazy, eager]", log.toString());
+    }
+
+    @Test
+    public void testFailingDownloadFreesItsThread() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        DownloadScheduler scheduler = new DownloadScheduler(executor, 1, 1);
+        scheduler.submit(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("broken");
+            }
+        }, createResource("a.example.com", "broken"), DownloadScheduler.Priority.MAIN);
+        submit(scheduler, "a.example.com", "next", DownloadScheduler.Priority.MAIN);
+        try {
+            executor.finish(0);
+            Assert.fail("exception expected");
+        } catch (IllegalStateException ex) {
+            // thrown to the thread, as before
+        }
+        Assert.assertEquals(1, executor.started.size());
+        executor.finish(0);
+        Assert.assertEquals("[next]", log.toString());
+    }
+
+    @Test
+    public void testResourcePriorityIsOnlyRaised() throws Exception {
+        Resource resource = createResource("a.example.com", "priority");
+        Assert.assertEquals(DownloadScheduler.Priority.EAGER, resource.getDownloadPriority());
+        resource.raiseDownloadPriority(DownloadScheduler.Priority.LAZY);
+        Assert.assertEquals(DownloadScheduler.Priority.LAZY, resource.getDownloadPriority());
+        resource.raiseDownloadPriority(DownloadScheduler.Priority.MAIN);
+        resource.raiseDownloadPriority(DownloadScheduler.Priority.LAZY);
+        resource.raiseDownloadPriority(null);
+        Assert.assertEquals(DownloadScheduler.Priority.MAIN, resource.getDownloadPriority());
+    }
+}
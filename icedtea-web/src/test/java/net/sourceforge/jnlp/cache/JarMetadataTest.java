@@ -0,0 +1,114 @@
+package net.sourceforge.jnlp.cache;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+public class JarMetadataTest {
+
+    private File dir;
+
+    @Before
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("jarmetadata").toFile();
+    }
+
+    @After
+    public void deleteDir() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private static void createJar(File jar, Manifest manifest, String... entries) throws IOException {
+        try (JarOutputStream out = manifest == null ? new JarOutputStream(new FileOutputStream(jar))
+                : new JarOutputStream(new FileOutputStream(jar), manifest)) {
+            for (String entry : entries) {
+                out.putNextEntry(new JarEntry(entry));
+                out.write(entry.getBytes());
+                out.closeEntry();
+            }
+        }
+    }
+
+    private static Manifest createManifest(String mainClass) {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, mainClass);
+        return manifest;
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        File jar = new File(dir, "a.jar");
+        createJar(jar, createManifest("a.B"), "a/B.class", "c.txt");
+
+        JarMetadata metadata = JarMetadata.get(jar);
+        Assert.assertEquals("a.B", metadata.getMainAttribute(Attributes.Name.MAIN_CLASS));
+        Assert.assertNull(metadata.getMainAttribute(Attributes.Name.CLASS_PATH));
+        Assert.assertEquals(Arrays.asList("META-INF/MANIFEST.MF", "a/B.class", "c.txt"), metadata.getEntryNames());
+        Assert.assertFalse(metadata.hasNestedJars());
+        Assert.assertFalse(metadata.hasLibraries());
+        Assert.assertFalse(metadata.hasIndex());
+        Assert.assertEquals(ContentStore.hash(jar), metadata.getHash());
+        Assert.assertTrue(metadata.isCurrent());
+    }
+
+    @Test
+    public void testReadOnce() throws Exception {
+        File jar = new File(dir, "a.jar");
+        createJar(jar, createManifest("a.B"), "a/B.class");
+        Assert.assertSame(JarMetadata.get(jar), JarMetadata.get(jar));
+
+        // callers can not change what others get
+        JarMetadata.get(jar).getManifest().getMainAttributes().put(Attributes.Name.MAIN_CLASS, "a.C");
+        Assert.assertEquals("a.B", JarMetadata.get(jar).getMainAttribute(Attributes.Name.MAIN_CLASS));
+    }
+
+    @Test
+    public void testReadAgainWhenChanged() throws Exception {
+        File jar = new File(dir, "a.jar");
+        createJar(jar, createManifest("a.B"), "a/B.class");
+        JarMetadata before = JarMetadata.get(jar);
+
+        createJar(jar, createManifest("a.C"), "a/C.class", "lib/libx.so", "inner.jar", "META-INF/INDEX.LIST");
+        jar.setLastModified(before.getModified() - 10000);
+        Assert.assertFalse(before.isCurrent());
+
+        JarMetadata after = JarMetadata.get(jar);
+        Assert.assertNotSame(before, after);
+        Assert.assertEquals("a.C", after.getMainAttribute(Attributes.Name.MAIN_CLASS));
+        Assert.assertTrue(after.hasNestedJars());
+        Assert.assertTrue(after.hasLibraries());
+        Assert.assertTrue(after.hasIndex());
+        Assert.assertEquals(ContentStore.hash(jar), after.getHash());
+    }
+
+    @Test
+    public void testNoManifest() throws Exception {
+        File jar = new File(dir, "a.jar");
+        createJar(jar, null, "a/B.class");
+        JarMetadata metadata = JarMetadata.get(jar);
+        Assert.assertNull(metadata.getManifest());
+        Assert.assertNull(metadata.getMainAttribute(Attributes.Name.MAIN_CLASS));
+    }
+
+    @Test(expected = IOException.class)
+    public void testNoJar() throws Exception {
+        File notJar = new File(dir, "a.jar");
+        Files.write(notJar.toPath(), "no jar".getBytes());
+        JarMetadata.get(notJar);
+    }
+}
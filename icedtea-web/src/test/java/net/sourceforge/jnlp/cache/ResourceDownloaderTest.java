@@ -2,6 +2,7 @@ package net.sourceforge.jnlp.cache;
 
 import net.sourceforge.jnlp.DownloadOptions;
 import net.sourceforge.jnlp.Version;
+import net.sourceforge.jnlp.config.DeploymentConfiguration;
 import net.sourceforge.jnlp.config.PathsAndFiles;
 import net.sourceforge.jnlp.runtime.JNLPRuntime;
 import net.sourceforge.jnlp.testextensions.ServerAccess;
@@ -9,6 +10,9 @@ import net.sourceforge.jnlp.testextensions.ServerLauncher;
 import net.sourceforge.jnlp.testextensions.util.logging.NoStdOutErrTest;
 import net.sourceforge.jnlp.util.JarFile;
 import net.sourceforge.jnlp.util.logging.OutputController;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
@@ -20,10 +24,19 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.Attributes;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
@@ -31,6 +44,7 @@ import java.util.jar.Pack200;
 import java.util.zip.GZIPOutputStream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class ResourceDownloaderTest extends NoStdOutErrTest {
@@ -220,7 +234,7 @@ public class ResourceDownloaderTest extends NoStdOutErrTest {
             File versionedFileForServerWithoutHeader = new File(fileForServerWithoutHeader.getParentFile(), fileForServerWithoutHeader.getName() + "-2.0");
             versionedFileForServerWithoutHeader.createNewFile();
 
-            ResourceDownloader resourceDownloader = new ResourceDownloader(null, null);
+            ResourceDownloader resourceDownloader = new ResourceDownloader(null);
             Resource r1 = Resource.getResource(testServer.getUrl(fileForServerWithHeader.getName()), null, UpdatePolicy.NEVER);
             Resource r2 = Resource.getResource(testServerWithBrokenHead.getUrl(fileForServerWithoutHeader.getName()), null, UpdatePolicy.NEVER);
             Resource r3 = Resource.getResource(testServer.getUrl(versionedFileForServerWithHeader.getName()), new Version("1.0"), UpdatePolicy.NEVER);
@@ -342,7 +356,7 @@ public class ResourceDownloaderTest extends NoStdOutErrTest {
         String expected = "testDownloadResource";
         Resource resource = setupResource("download-resource", expected);
 
-        ResourceDownloader resourceDownloader = new ResourceDownloader(resource, new Object());
+        ResourceDownloader resourceDownloader = new ResourceDownloader(resource);
 
         resource.setStatusFlag(Resource.Status.PRECONNECT);
         resourceDownloader.run();
@@ -352,6 +366,25 @@ public class ResourceDownloaderTest extends NoStdOutErrTest {
 
         String output = new String(Files.readAllBytes(downloadedFile.toPath()));
         assertEquals(expected, output);
+        assertFalse(ClassIndex.getIndexFile(downloadedFile).exists());
+    }
+
+    @Test
+    public void testDownloadedJarsOnlyIndexed() throws IOException {
+        File downloadDir = downloadServer.getDir();
+        for (String name : new String[]{"indexed.jar", "not-indexed.zip"}) {
+            File archive = new File(downloadDir, name);
+            archive.deleteOnExit();
+            new JarOutputStream(new FileOutputStream(archive), new Manifest()).close();
+
+            Resource resource = Resource.getResource(downloadServer.getUrl(name), null, UpdatePolicy.NEVER);
+            resource.setStatusFlag(Resource.Status.PRECONNECT);
+            new ResourceDownloader(resource).run();
+
+            File downloadedFile = resource.getLocalFile();
+            assertTrue(downloadedFile.isFile());
+            assertEquals(name.endsWith(".jar"), ClassIndex.getIndexFile(downloadedFile).isFile());
+        }
     }
 
     @Test
@@ -362,7 +395,7 @@ public class ResourceDownloaderTest extends NoStdOutErrTest {
 
         Resource resource = Resource.getResource(downloadServer.getUrl("download-packgz.jar"), null, UpdatePolicy.NEVER);
 
-        ResourceDownloader resourceDownloader = new ResourceDownloader(resource, new Object());
+        ResourceDownloader resourceDownloader = new ResourceDownloader(resource);
 
         resource.setStatusFlag(Resource.Status.PRECONNECT);
         resource.setDownloadOptions(new DownloadOptions(true, false));
@@ -377,6 +410,56 @@ public class ResourceDownloaderTest extends NoStdOutErrTest {
         String actual = (String) m.getMainAttributes().get(Attributes.Name.MANIFEST_VERSION);
 
         assertEquals(expected, actual);
+        assertTrue(ClassIndex.getIndexFile(downloadedFile).isFile());
+    }
+
+    @Test
+    public void testDownloadGZipResource() throws Exception {
+        final String expected = "testDownloadGZipResource";
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(expected.getBytes(StandardCharsets.UTF_8));
+        }
+        final byte[] body = compressed.toByteArray();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                if (exchange.getRequestMethod().equals("HEAD")) {
+                    exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, -1);
+                } else {
+                    exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+                    exchange.getResponseBody().write(body);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            String base = "http://localhost:" + server.getAddress().getPort() + "/";
+            URL url = new URL(base + "streamed.jar");
+            Resource resource = Resource.getResource(url, null, UpdatePolicy.ALWAYS);
+            connectAndDownload(resource);
+            assertEquals(expected, new String(Files.readAllBytes(resource.getLocalFile().toPath()), StandardCharsets.UTF_8));
+            assertEquals(body.length, resource.getTransferred());
+            // inflated on the fly, without caching the compressed form
+            Assert.assertFalse(CacheUtil.isCached(new URL(base + "streamed.jar.gz"), null));
+
+            JNLPRuntime.getConfiguration().setProperty(DeploymentConfiguration.KEY_CACHE_KEEP_COMPRESSED, Boolean.toString(true));
+            try {
+                url = new URL(base + "kept.jar");
+                resource = Resource.getResource(url, null, UpdatePolicy.ALWAYS);
+                connectAndDownload(resource);
+                assertEquals(expected, new String(Files.readAllBytes(resource.getLocalFile().toPath()), StandardCharsets.UTF_8));
+                File kept = CacheUtil.getCacheFile(new URL(base + "kept.jar.gz"), null);
+                Assert.assertArrayEquals(body, Files.readAllBytes(kept.toPath()));
+            } finally {
+                JNLPRuntime.getConfiguration().setProperty(DeploymentConfiguration.KEY_CACHE_KEEP_COMPRESSED, Boolean.toString(false));
+            }
+        } finally {
+            server.stop(0);
+        }
     }
 
     @Test
@@ -387,7 +470,7 @@ public class ResourceDownloaderTest extends NoStdOutErrTest {
         URL url = downloadServer.getUrl("download-version.jar");
         Resource resource = Resource.getResource(url, new Version("1.0"), UpdatePolicy.NEVER);
 
-        ResourceDownloader resourceDownloader = new ResourceDownloader(resource, new Object());
+        ResourceDownloader resourceDownloader = new ResourceDownloader(resource);
 
         resource.setStatusFlag(Resource.Status.PRECONNECT);
         resource.setDownloadOptions(new DownloadOptions(false, true));
@@ -408,7 +491,7 @@ public class ResourceDownloaderTest extends NoStdOutErrTest {
 
         Resource resource = Resource.getResource(downloadServer.getUrl("download-packgz.jar"), new Version("1.0"), UpdatePolicy.NEVER);
 
-        ResourceDownloader resourceDownloader = new ResourceDownloader(resource, new Object());
+        ResourceDownloader resourceDownloader = new ResourceDownloader(resource);
 
         resource.setStatusFlag(Resource.Status.PRECONNECT);
         resource.setDownloadOptions(new DownloadOptions(true, true));
@@ -438,7 +521,7 @@ public class ResourceDownloaderTest extends NoStdOutErrTest {
 
         Resource resource = Resource.getResource(url, null, UpdatePolicy.NEVER);
 
-        ResourceDownloader resourceDownloader = new ResourceDownloader(resource, new Object());
+        ResourceDownloader resourceDownloader = new ResourceDownloader(resource);
 
         resource.setStatusFlag(Resource.Status.PRECONNECT);
         resourceDownloader.run();
@@ -450,7 +533,7 @@ public class ResourceDownloaderTest extends NoStdOutErrTest {
     public void testDownloadNotExistingResourceFails() throws IOException {
         Resource resource = Resource.getResource(new URL(downloadServer.getUrl() + "/notexistingfile"), null, UpdatePolicy.NEVER);
 
-        ResourceDownloader resourceDownloader = new ResourceDownloader(resource, new Object());
+        ResourceDownloader resourceDownloader = new ResourceDownloader(resource);
 
         resource.setStatusFlag(Resource.Status.PRECONNECT);
         resourceDownloader.run();
@@ -458,6 +541,288 @@ public class ResourceDownloaderTest extends NoStdOutErrTest {
         assertTrue(resource.hasFlags(EnumSet.of(Resource.Status.ERROR)));
     }
 
+    /**
+     * Serves one file with an entity tag, answering 304 to requests that
+     * send the current one.
+     */
+    static class ConditionalHandler implements HttpHandler {
+
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger notModified = new AtomicInteger();
+        volatile String content;
+        volatile String etag;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            exchange.getResponseHeaders().set("ETag", etag);
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.incrementAndGet();
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+            } else if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, -1);
+            } else {
+                byte[] body = content.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+                exchange.getResponseBody().write(body);
+            }
+            exchange.close();
+        }
+    }
+
+    static void connectAndDownload(Resource resource) {
+        resource.resetStatus();
+        resource.setStatusFlag(Resource.Status.PRECONNECT);
+        new ResourceDownloader(resource).run();
+        assertTrue(resource.isSet(Resource.Status.DOWNLOADED));
+    }
+
+    @Test
+    public void testConditionalRevalidation() throws IOException {
+        ConditionalHandler handler = new ConditionalHandler();
+        handler.content = "first";
+        handler.etag = "\"1\"";
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", handler);
+        server.start();
+        try {
+            URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/conditional.jar");
+            Resource resource = Resource.getResource(url, null, UpdatePolicy.ALWAYS);
+
+            connectAndDownload(resource);
+            assertEquals("first", new String(Files.readAllBytes(resource.getLocalFile().toPath()), StandardCharsets.UTF_8));
+            assertEquals(0, handler.notModified.get());
+
+            // unchanged: one conditional request
+            int before = handler.requests.get();
+            connectAndDownload(resource);
+            assertEquals(before + 1, handler.requests.get());
+            assertEquals(1, handler.notModified.get());
+            assertEquals("first", new String(Files.readAllBytes(resource.getLocalFile().toPath()), StandardCharsets.UTF_8));
+
+            // changed: the same request brings the new content
+            handler.content = "second";
+            handler.etag = "\"2\"";
+            before = handler.requests.get();
+            connectAndDownload(resource);
+            assertEquals(before + 1, handler.requests.get());
+            assertEquals(1, handler.notModified.get());
+            assertEquals("second", new String(Files.readAllBytes(resource.getLocalFile().toPath()), StandardCharsets.UTF_8));
+            assertEquals("\"2\"", new CacheEntry(url, null).getETag());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Serves one file with an entity tag and byte ranges, optionally
+     * breaking the connection after some bytes of the next response.
+     */
+    private static class RangeHandler implements HttpHandler {
+
+        private final List<String> ranges = Collections.synchronizedList(new ArrayList<String>());
+        private volatile byte[] content;
+        private volatile String etag;
+        private volatile int breakAfter;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, -1);
+                exchange.close();
+                return;
+            }
+            int start = 0;
+            int end = content.length - 1;
+            if (range != null) {
+                ranges.add(range + " " + ifRange);
+            }
+            if (range != null && (ifRange == null || ifRange.equals(etag))) {
+                String[] bytes = range.substring("bytes=".length()).split("-", -1);
+                start = Integer.parseInt(bytes[0]);
+                if (!bytes[1].isEmpty()) {
+                    end = Integer.parseInt(bytes[1]);
+                }
+                if (start >= content.length) {
+                    exchange.getResponseHeaders().set("Content-Range", "bytes */" + content.length);
+                    exchange.sendResponseHeaders(416, -1);
+                    exchange.close();
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_PARTIAL, end - start + 1);
+            } else {
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, content.length);
+            }
+            int length = end - start + 1;
+            if (breakAfter > 0 && breakAfter < length) {
+                length = breakAfter;
+                breakAfter = 0;
+            }
+            exchange.getResponseBody().write(content, start, length);
+            exchange.close();
+        }
+    }
+
+    private static byte[] createContent(int length) {
+        byte[] content = new byte[length];
+        new Random(length).nextBytes(content);
+        return content;
+    }
+
+    private static HttpServer startServer(HttpHandler handler) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", handler);
+        server.start();
+        return server;
+    }
+
+    @Test
+    public void testResumeBrokenDownload() throws Exception {
+        RangeHandler handler = new RangeHandler();
+        handler.content = createContent(256 * 1024);
+        handler.etag = "\"1\"";
+        handler.breakAfter = 100000;
+        HttpServer server = startServer(handler);
+        try {
+            URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/resumed.jar");
+            Resource resource = Resource.getResource(url, null, UpdatePolicy.ALWAYS);
+            connectAndDownload(resource);
+            Assert.assertArrayEquals(handler.content, Files.readAllBytes(resource.getLocalFile().toPath()));
+            assertEquals(Arrays.asList("bytes=100000- \"1\""), handler.ranges);
+            assertEquals(handler.content.length, resource.getTransferred());
+            Assert.assertFalse(new File(resource.getLocalFile().getPath() + PartialDownload.PART_SUFFIX).exists());
+            Assert.assertNull(new CacheEntry(url, null).getPartValidator());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testResumeChangedResourceStartsOver() throws Exception {
+        RangeHandler handler = new RangeHandler();
+        handler.content = createContent(64 * 1024);
+        handler.etag = "\"2\"";
+        HttpServer server = startServer(handler);
+        try {
+            URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/changed.jar");
+            // left by an earlier launch, before the resource changed
+            File part = new File(CacheUtil.getCacheFile(url, null).getPath() + PartialDownload.PART_SUFFIX);
+            Files.write(part.toPath(), createContent(1000));
+            CacheEntry entry = new CacheEntry(url, null);
+            entry.lock();
+            try {
+                entry.setPartValidator("\"1\"", url);
+                entry.store();
+            } finally {
+                entry.unlock();
+            }
+
+            Resource resource = Resource.getResource(url, null, UpdatePolicy.ALWAYS);
+            connectAndDownload(resource);
+            Assert.assertArrayEquals(handler.content, Files.readAllBytes(resource.getLocalFile().toPath()));
+            assertEquals(Arrays.asList("bytes=1000- \"1\""), handler.ranges);
+            Assert.assertFalse(part.exists());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testResumeFromOtherLocationStartsOver() throws Exception {
+        RangeHandler handler = new RangeHandler();
+        handler.content = createContent(64 * 1024);
+        handler.etag = "\"1\"";
+        HttpServer server = startServer(handler);
+        try {
+            URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/moved.jar");
+            // left by an earlier download of a compressed variant
+            File part = new File(CacheUtil.getCacheFile(url, null).getPath() + PartialDownload.PART_SUFFIX);
+            Files.write(part.toPath(), createContent(1000));
+            CacheEntry entry = new CacheEntry(url, null);
+            entry.lock();
+            try {
+                entry.setPartValidator("\"1\"", new URL(url + ".pack.gz"));
+                entry.store();
+            } finally {
+                entry.unlock();
+            }
+
+            Resource resource = Resource.getResource(url, null, UpdatePolicy.ALWAYS);
+            connectAndDownload(resource);
+            Assert.assertArrayEquals(handler.content, Files.readAllBytes(resource.getLocalFile().toPath()));
+            assertEquals(Collections.emptyList(), handler.ranges);
+            Assert.assertFalse(part.exists());
+            Assert.assertNull(new CacheEntry(url, null).getPartSource());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testUnsatisfiableResumeStartsOver() throws Exception {
+        RangeHandler handler = new RangeHandler();
+        handler.content = createContent(64 * 1024);
+        handler.etag = "\"1\"";
+        HttpServer server = startServer(handler);
+        try {
+            URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/truncated.jar");
+            // longer than the resource, which was replaced by a shorter one of the same entity tag
+            File part = new File(CacheUtil.getCacheFile(url, null).getPath() + PartialDownload.PART_SUFFIX);
+            Files.write(part.toPath(), createContent(handler.content.length + 1000));
+            CacheEntry entry = new CacheEntry(url, null);
+            entry.lock();
+            try {
+                entry.setPartValidator("\"1\"", url);
+                entry.store();
+            } finally {
+                entry.unlock();
+            }
+
+            Resource resource = Resource.getResource(url, null, UpdatePolicy.ALWAYS);
+            connectAndDownload(resource);
+            Assert.assertTrue(resource.isSet(Resource.Status.DOWNLOADED));
+            Assert.assertArrayEquals(handler.content, Files.readAllBytes(resource.getLocalFile().toPath()));
+            assertEquals(Arrays.asList("bytes=" + (handler.content.length + 1000) + "- \"1\""), handler.ranges);
+            Assert.assertFalse(part.exists());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testSegmentedDownload() throws Exception {
+        RangeHandler handler = new RangeHandler();
+        handler.content = createContent((int) PartialDownload.SEGMENT_MIN_SIZE + 3);
+        handler.etag = "\"1\"";
+        HttpServer server = startServer(handler);
+        JNLPRuntime.getConfiguration().setProperty(DeploymentConfiguration.KEY_DOWNLOAD_SEGMENTS, "4");
+        try {
+            URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/segmented.jar");
+            Resource resource = Resource.getResource(url, null, UpdatePolicy.ALWAYS);
+            connectAndDownload(resource);
+            Assert.assertArrayEquals(handler.content, Files.readAllBytes(resource.getLocalFile().toPath()));
+            assertEquals(3, handler.ranges.size());
+            assertEquals(handler.content.length, resource.getTransferred());
+
+            // a broken segment leaves what is complete from the start to resume
+            handler.breakAfter = 1000;
+            handler.ranges.clear();
+            url = new URL("http://localhost:" + server.getAddress().getPort() + "/segmented-broken.jar");
+            resource = Resource.getResource(url, null, UpdatePolicy.ALWAYS);
+            connectAndDownload(resource);
+            Assert.assertArrayEquals(handler.content, Files.readAllBytes(resource.getLocalFile().toPath()));
+        } finally {
+            JNLPRuntime.getConfiguration().setProperty(DeploymentConfiguration.KEY_DOWNLOAD_SEGMENTS, "1");
+            server.stop(0);
+        }
+    }
+
     private void setupPackGzFile(String fileName, String version) throws IOException {
         File downloadDir = downloadServer.getDir();
 
@@ -45,15 +45,18 @@ import java.net.URL;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import static net.sourceforge.jnlp.cache.Resource.Status.CONNECTED;
 import static net.sourceforge.jnlp.cache.Resource.Status.CONNECTING;
 import static net.sourceforge.jnlp.cache.Resource.Status.DOWNLOADED;
 import static net.sourceforge.jnlp.cache.Resource.Status.DOWNLOADING;
+import static net.sourceforge.jnlp.cache.Resource.Status.ERROR;
 import static net.sourceforge.jnlp.cache.Resource.Status.PRECONNECT;
 import static net.sourceforge.jnlp.cache.Resource.Status.PREDOWNLOAD;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class ResourceTest {
@@ -175,6 +178,23 @@ public class ResourceTest {
         assertFalse("Resource should not have had PRECONNECT set", hasFlag(res, PRECONNECT));
     }
 
+    @Test
+    public void testCompletion() throws Exception {
+        Resource res = createResource("Completion");
+        CompletableFuture<Resource> completion = res.getCompletion();
+        setStatus(res, EnumSet.of(PREDOWNLOAD, DOWNLOADING));
+        assertFalse("Completion should wait for the download", completion.isDone());
+        changeStatus(res, EnumSet.of(DOWNLOADING), EnumSet.of(DOWNLOADED));
+        assertTrue("Completion should be done once downloaded", completion.isDone());
+        assertSame(res, completion.get());
+
+        res.resetStatus();
+        CompletableFuture<Resource> again = res.getCompletion();
+        assertFalse("A reset resource should hand out a new completion", again.isDone());
+        setStatus(res, EnumSet.of(ERROR));
+        assertTrue("Completion should be done on error", again.isDone());
+    }
+
     private static Resource createResource(String testName) throws MalformedURLException {
         URL dummyUrl = new URL("http://example.com/applet" + testName + ".jar");
         return Resource.getResource(dummyUrl, new Version("1.0"), UpdatePolicy.ALWAYS);
@@ -0,0 +1,141 @@
+package net.sourceforge.jnlp.cache;
+
+import com.sun.net.httpserver.HttpServer;
+import net.sourceforge.jnlp.JARDesc;
+import net.sourceforge.jnlp.cache.ResourceDownloaderTest.ConditionalHandler;
+import net.sourceforge.jnlp.config.PathsAndFiles;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static net.sourceforge.jnlp.cache.ResourceDownloaderTest.connectAndDownload;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UpdateCheckTest {
+
+    private static String cacheDir;
+
+    private HttpServer server;
+    private ConditionalHandler handler;
+    private URL[] urls;
+    private JARDesc[] jars;
+
+    @BeforeClass
+    public static void setupCache() {
+        cacheDir = PathsAndFiles.CACHE_DIR.getFullPath();
+        PathsAndFiles.CACHE_DIR.setValue(System.getProperty("java.io.tmpdir") + File.separator + "tempcache");
+    }
+
+    @AfterClass
+    public static void teardownCache() {
+        CacheUtil.clearCache();
+        PathsAndFiles.CACHE_DIR.setValue(cacheDir);
+    }
+
+    /**
+     * Starts a server with three jars, the first one eager, the others lazy,
+     * and downloads them. Nothing to revalidate the second one with is kept.
+     */
+    private void startServer(String name) throws Exception {
+        handler = new ConditionalHandler();
+        handler.content = "first";
+        handler.etag = "\"1\"";
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", handler);
+        server.start();
+
+        String base = "http://localhost:" + server.getAddress().getPort() + "/";
+        urls = new URL[]{new URL(base + name + "1.jar"), new URL(base + name + "2.jar"), new URL(base + name + "3.jar")};
+        jars = new JARDesc[urls.length];
+        for (int i = 0; i < urls.length; i++) {
+            connectAndDownload(Resource.getResource(urls[i], null, UpdatePolicy.ALWAYS));
+            jars[i] = new JARDesc(urls[i], null, null, i != 0, i == 0, false, true);
+        }
+        CacheEntry entry = new CacheEntry(urls[1], null);
+        entry.lock();
+        try {
+            entry.setETag(null);
+            entry.setLastModified(0);
+            entry.store();
+        } finally {
+            entry.unlock();
+        }
+        resetResources();
+    }
+
+    private void resetResources() {
+        for (URL url : urls) {
+            Resource.getResource(url, null, UpdatePolicy.ALWAYS).resetStatus();
+        }
+    }
+
+    private static String read(Resource resource) throws Exception {
+        return new String(Files.readAllBytes(resource.getLocalFile().toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testNotModified() throws Exception {
+        startServer("current");
+        try {
+            int before = handler.requests.get();
+            UpdateCheck check = new UpdateCheck(UpdatePolicy.ALWAYS);
+            check.check(jars);
+            assertEquals(before + 2, handler.requests.get());
+            assertEquals(UpdateCheck.Result.NOT_MODIFIED, check.getResult(urls[0]));
+            assertEquals(UpdateCheck.Result.UNKNOWN, check.getResult(urls[1]));
+            assertEquals(UpdateCheck.Result.NOT_MODIFIED, check.getResult(urls[2]));
+            assertEquals(2, check.count(UpdateCheck.Result.NOT_MODIFIED));
+            Resource checked = Resource.getResource(urls[0], null, UpdatePolicy.ALWAYS);
+            assertTrue(checked.isSet(Resource.Status.DOWNLOADED));
+            assertEquals("first", read(checked));
+            assertFalse(Resource.getResource(urls[1], null, UpdatePolicy.ALWAYS).isInitialized());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testModifiedReadFromSameResponse() throws Exception {
+        startServer("modified");
+        try {
+            handler.content = "second";
+            handler.etag = "\"2\"";
+            UpdateCheck check = new UpdateCheck(UpdatePolicy.ALWAYS);
+            check.check(jars);
+            assertEquals(UpdateCheck.Result.MODIFIED, check.getResult(urls[0]));
+            assertEquals(UpdateCheck.Result.MODIFIED, check.getResult(urls[2]));
+            Resource eager = Resource.getResource(urls[0], null, UpdatePolicy.ALWAYS);
+            Resource lazy = Resource.getResource(urls[2], null, UpdatePolicy.ALWAYS);
+            assertFalse(eager.isInitialized());
+            assertFalse(lazy.isInitialized());
+
+            // the eager jar is read from the response of the check
+            int before = handler.requests.get();
+            connectAndDownload(eager);
+            assertEquals(before, handler.requests.get());
+            assertEquals("second", read(eager));
+            assertEquals("\"2\"", new CacheEntry(urls[0], null).getETag());
+
+            // the lazy one asks again
+            connectAndDownload(lazy);
+            assertEquals(before + 1, handler.requests.get());
+            assertEquals("second", read(lazy));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testOtherPoliciesNotChecked() {
+        assertFalse(new UpdateCheck(UpdatePolicy.SESSION).isEnabled());
+        assertFalse(new UpdateCheck(UpdatePolicy.NEVER).isEnabled());
+    }
+}
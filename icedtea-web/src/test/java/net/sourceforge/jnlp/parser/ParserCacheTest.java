@@ -0,0 +1,288 @@
+package net.sourceforge.jnlp.parser;
+
+import net.sourceforge.jnlp.Node;
+import net.sourceforge.jnlp.ParseException;
+import net.sourceforge.jnlp.cache.ContentStore;
+import net.sourceforge.jnlp.testextensions.ServerAccess;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ParserCacheTest {
+
+    /**
+     * Rounds of {@link #testParseThroughput()}, e.g.
+     * {@code -Dparsercache.benchmark=100}, which is skipped without it.
+     */
+    private static final String BENCHMARK_PROPERTY = "parsercache.benchmark";
+
+    private static final ParserSettings MALFORMED = new ParserSettings(false, true, true);
+    private static final ParserSettings NORMAL = new ParserSettings(false, true, false);
+
+    private File dir;
+    private ParserCache cache;
+
+    @Before
+    public void createCache() throws IOException {
+        dir = Files.createTempDirectory("parsed").toFile();
+        cache = new ParserCache(new File(dir, ParserCache.DIRECTORY), new File(dir, "verification.key"));
+    }
+
+    @After
+    public void deleteCache() {
+        File[] buckets = cache.getRoot().listFiles();
+        if (buckets != null) {
+            for (File bucket : buckets) {
+                for (File f : bucket.listFiles()) {
+                    f.delete();
+                }
+                bucket.delete();
+            }
+        }
+        cache.getRoot().delete();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private static String createJnlp(int jars, String description) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<jnlp spec=\"1.0+\" codebase=\"http://localhost/\" href=\"app.jnlp\">\n");
+        sb.append("  <!-- the application -->\n");
+        sb.append("  <information>\n    <title>App</title>\n    <vendor>IcedTea</vendor>\n");
+        sb.append("    <description>").append(description).append("</description>\n");
+        sb.append("    <description locale=\"cs\">česky</description>\n");
+        sb.append("  </information>\n");
+        sb.append("  <resources os=\"Linux\">\n    <j2se version=\"1.8+\"/>\n");
+        for (int i = 0; i < jars; i++) {
+            sb.append("    <jar href=\"lib/jar").append(i).append(".jar\"").append(i == 0 ? " main=\"true\"" : "").append("/>\n");
+        }
+        sb.append("  </resources>\n");
+        sb.append("  <application-desc main-class=\"a.Main\"><argument>a &amp; b</argument></application-desc>\n");
+        sb.append("</jnlp>\n");
+        return sb.toString();
+    }
+
+    private File createFile(String name, String content) throws IOException {
+        File file = new File(dir, name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static Node parse(File file, ParserSettings settings) throws IOException, ParseException {
+        try (InputStream input = new FileInputStream(file)) {
+            return Parser.getRootNode(input, settings);
+        }
+    }
+
+    private static void assertSameTree(Node expected, Node actual) {
+        Assert.assertEquals(expected.getNodeName(), actual.getNodeName());
+        Assert.assertEquals(expected.getNodeValue(), actual.getNodeValue());
+        List<String> names = new ArrayList<>(expected.getAttributeNames());
+        List<String> actualNames = new ArrayList<>(actual.getAttributeNames());
+        Collections.sort(names);
+        Collections.sort(actualNames);
+        Assert.assertEquals(names, actualNames);
+        for (String name : names) {
+            Assert.assertEquals(expected.getAttribute(name), actual.getAttribute(name));
+        }
+        Node[] children = expected.getChildNodes();
+        Node[] actualChildren = actual.getChildNodes();
+        Assert.assertEquals(expected.toString(), children.length, actualChildren.length);
+        for (int i = 0; i < children.length; i++) {
+            assertSameTree(children[i], actualChildren[i]);
+        }
+    }
+
+    @Test
+    public void testRecord() throws Exception {
+        File file = createFile("app.jnlp", createJnlp(3, "text"));
+        String hash = ContentStore.hash(file);
+        Assert.assertNull(cache.get(hash, MALFORMED));
+
+        Node root = cache.getRootNode(file, MALFORMED);
+        assertSameTree(parse(file, MALFORMED), root);
+        Assert.assertTrue(cache.getRecord(hash, MALFORMED).isFile());
+        assertSameTree(root, cache.get(hash, MALFORMED));
+
+        // the record is used in place of the file
+        File other = createFile("other.jnlp", createJnlp(1, "other"));
+        cache.put(hash, MALFORMED, parse(other, MALFORMED));
+        assertSameTree(parse(other, MALFORMED), cache.getRootNode(file, MALFORMED));
+    }
+
+    @Test
+    public void testRecordPerParser() throws Exception {
+        File file = createFile("app.jnlp", createJnlp(3, "text"));
+        String hash = ContentStore.hash(file);
+        cache.getRootNode(file, MALFORMED);
+        Assert.assertNull(cache.get(hash, NORMAL));
+        Assert.assertNotEquals(cache.getRecord(hash, MALFORMED), cache.getRecord(hash, NORMAL));
+
+        assertSameTree(parse(file, NORMAL), cache.getRootNode(file, NORMAL));
+        Assert.assertTrue(cache.getRecord(hash, NORMAL).isFile());
+    }
+
+    @Test
+    public void testLongContent() throws Exception {
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            description.append("žluťoučký kůň ");
+        }
+        File file = createFile("app.jnlp", createJnlp(1, description.toString()));
+        cache.getRootNode(file, NORMAL);
+        assertSameTree(parse(file, NORMAL), cache.get(ContentStore.hash(file), NORMAL));
+    }
+
+    @Test
+    public void testOtherFormat() throws Exception {
+        File file = createFile("app.jnlp", createJnlp(3, "text"));
+        String hash = ContentStore.hash(file);
+        cache.getRootNode(file, NORMAL);
+
+        File record = cache.getRecord(hash, NORMAL);
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(record))) {
+            out.writeInt(ParserCache.FORMAT + 1);
+            parse(file, NORMAL).write(out);
+        }
+        Assert.assertNull(cache.get(hash, NORMAL));
+
+        // parsed again and recorded in the current format
+        assertSameTree(parse(file, NORMAL), cache.getRootNode(file, NORMAL));
+        Assert.assertNotNull(cache.get(hash, NORMAL));
+    }
+
+    @Test
+    public void testDamagedRecord() throws Exception {
+        File file = createFile("app.jnlp", createJnlp(3, "text"));
+        String hash = ContentStore.hash(file);
+        cache.getRootNode(file, NORMAL);
+
+        File record = cache.getRecord(hash, NORMAL);
+        byte[] data = Files.readAllBytes(record.toPath());
+        Files.write(record.toPath(), Arrays.copyOf(data, data.length / 2));
+        Assert.assertNull(cache.get(hash, NORMAL));
+
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(record))) {
+            out.writeInt(ParserCache.FORMAT);
+            out.writeInt(Integer.MAX_VALUE);
+        }
+        Assert.assertNull(cache.get(hash, NORMAL));
+
+        assertSameTree(parse(file, NORMAL), cache.getRootNode(file, NORMAL));
+        Assert.assertNotNull(cache.get(hash, NORMAL));
+    }
+
+    @Test
+    public void testUnauthenticatedRecord() throws Exception {
+        File file = createFile("app.jnlp", createJnlp(3, "text"));
+        String hash = ContentStore.hash(file);
+        Node other = parse(createFile("other.jnlp", createJnlp(1, "other")), NORMAL);
+
+        // a record written without the key
+        File record = cache.getRecord(hash, NORMAL);
+        Assert.assertTrue(record.getParentFile().mkdirs());
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(record))) {
+            out.writeInt(ParserCache.FORMAT);
+            out.write(new byte[32]);
+            other.write(out);
+        }
+        Assert.assertNull(cache.get(hash, NORMAL));
+        assertSameTree(parse(file, NORMAL), cache.getRootNode(file, NORMAL));
+
+        // a record written with another key
+        new ParserCache(cache.getRoot(), new File(dir, "other.key")).put(hash, NORMAL, other);
+        Assert.assertNull(cache.get(hash, NORMAL));
+
+        // a record of another parser
+        cache.put(hash, MALFORMED, other);
+        Files.copy(cache.getRecord(hash, MALFORMED).toPath(), record.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Assert.assertNull(cache.get(hash, NORMAL));
+    }
+
+    @Test
+    public void testBadFileNotRecorded() throws Exception {
+        File file = createFile("bad.jnlp", "<jnlp><information></jnlp>");
+        try {
+            cache.getRootNode(file, NORMAL);
+            Assert.fail();
+        } catch (ParseException ex) {
+            // expected
+        }
+        Assert.assertFalse(cache.getRecord(ContentStore.hash(file), NORMAL).exists());
+    }
+
+    @Test
+    public void testCollect() throws Exception {
+        File used = createFile("used.jnlp", createJnlp(1, "used"));
+        File unused = createFile("unused.jnlp", createJnlp(1, "unused"));
+        cache.getRootNode(used, NORMAL);
+        cache.getRootNode(unused, NORMAL);
+        File usedRecord = cache.getRecord(ContentStore.hash(used), NORMAL);
+        File unusedRecord = cache.getRecord(ContentStore.hash(unused), NORMAL);
+        long old = System.currentTimeMillis() - ParserCache.MAX_UNUSED - 10000;
+        usedRecord.setLastModified(old);
+        unusedRecord.setLastModified(old);
+
+        // using a record keeps it
+        Assert.assertNotNull(cache.get(ContentStore.hash(used), NORMAL));
+        Assert.assertEquals(1, cache.collect());
+        Assert.assertTrue(usedRecord.isFile());
+        Assert.assertFalse(unusedRecord.exists());
+    }
+
+    /**
+     * Reports how many times a second a large JNLP file is parsed with
+     * malformed XML allowed, and how many times its tree is read from its
+     * record.
+     */
+    @Test
+    public void testParseThroughput() throws Exception {
+        String property = System.getProperty(BENCHMARK_PROPERTY);
+        Assume.assumeNotNull(property);
+        int rounds = Integer.parseInt(property.trim());
+        File file = createFile("app.jnlp", createJnlp(2000, "text"));
+        String hash = ContentStore.hash(file);
+        cache.getRootNode(file, MALFORMED);
+
+        // warm up
+        for (int i = 0; i < rounds; i++) {
+            parse(file, MALFORMED);
+            cache.getRootNode(file, MALFORMED);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            parse(file, MALFORMED);
+        }
+        long parsed = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            cache.getRootNode(file, MALFORMED);
+        }
+        long read = System.nanoTime() - start;
+
+        Assert.assertNotNull(cache.get(hash, MALFORMED));
+        ServerAccess.logOutputReprint("JNLP file of 2000 jars parsed/read from its record a second: "
+                + rounds * 1000000000L / Math.max(parsed, 1) + "/" + rounds * 1000000000L / Math.max(read, 1));
+    }
+}
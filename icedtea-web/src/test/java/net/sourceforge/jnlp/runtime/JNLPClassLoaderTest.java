@@ -42,30 +42,52 @@ import net.sourceforge.jnlp.cache.UpdatePolicy;
 import net.sourceforge.jnlp.config.DeploymentConfiguration;
 import net.sourceforge.jnlp.security.appletextendedsecurity.AppletSecurityLevel;
 import net.sourceforge.jnlp.security.appletextendedsecurity.AppletStartupSecuritySettings;
+import net.sourceforge.jnlp.testextensions.ServerAccess;
 import net.sourceforge.jnlp.testextensions.annotations.Bug;
 import net.sourceforge.jnlp.testextensions.mock.DummyJNLPFileWithJar;
 import net.sourceforge.jnlp.testextensions.util.FileTestUtils;
 import net.sourceforge.jnlp.testextensions.util.logging.NoStdOutErrTest;
 import org.junit.AfterClass;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilePermission;
 import java.io.InputStream;
+import java.net.URL;
 import java.nio.file.Files;
+import java.security.CodeSource;
+import java.security.PermissionCollection;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 
 import static net.sourceforge.jnlp.testextensions.util.FileTestUtils.assertNoFileLeak;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class JNLPClassLoaderTest extends NoStdOutErrTest {
 
+    /**
+     * Number of permission checks timed by {@link #impliesThroughputTest()},
+     * e.g. {@code -Dclassloader.benchmark=20000}; without it the benchmark
+     * is skipped.
+     */
+    private static final String BENCHMARK_PROPERTY = "classloader.benchmark";
+
     private static AppletSecurityLevel level;
     public static String askUser;
 
@@ -112,6 +134,68 @@ public class JNLPClassLoaderTest extends NoStdOutErrTest {
         });
     }
 
+    @Test
+    public void activateJarsInOrderTest() throws Exception {
+        File tempDirectory = FileTestUtils.createTempDirectory();
+        File nestedJar = new File(tempDirectory, "inner.jar");
+        FileTestUtils.createFileWithContents(nestedJar, "nested");
+        File library = new File(tempDirectory, System.mapLibraryName("activate"));
+        FileTestUtils.createFileWithContents(library, "native");
+
+        File[] jars = new File[6];
+        for (int i = 0; i < jars.length; i++) {
+            File entry = new File(tempDirectory, "entry" + i + ".txt");
+            FileTestUtils.createFileWithContents(entry, "entry" + i);
+            jars[i] = new File(tempDirectory, "test" + i + ".jar");
+            if (i == 2) {
+                FileTestUtils.createJarWithContents(jars[i], entry, nestedJar);
+            } else if (i == 4) {
+                FileTestUtils.createJarWithContents(jars[i], entry, library);
+            } else {
+                FileTestUtils.createJarWithContents(jars[i], entry);
+            }
+        }
+
+        DummyJNLPFileWithJar jnlpFile = new DummyJNLPFileWithJar(jars);
+        JNLPClassLoader classLoader = new JNLPClassLoader(jnlpFile, UpdatePolicy.ALWAYS);
+
+        List<URL> expected = new ArrayList<>();
+        for (int i = 0; i < jars.length; i++) {
+            if (i == 2) {
+                expected.add(new URL(jnlpFile.getJarLocation(i) + "!inner.jar"));
+            }
+            expected.add(jnlpFile.getJarLocation(i));
+        }
+        assertEquals(expected, Arrays.asList(classLoader.getURLs()));
+        for (int i = 0; i < jars.length; i++) {
+            assertTrue(classLoader.resourceAvailableLocally("entry" + i + ".txt"));
+        }
+        assertTrue(classLoader.resourceAvailableLocally("inner.jar"));
+        assertNotNull(classLoader.findLibrary("activate"));
+    }
+
+    @Test
+    public void activateJarsLastLibraryWinsTest() throws Exception {
+        File tempDirectory = FileTestUtils.createTempDirectory();
+
+        File[] jars = new File[4];
+        for (int i = 0; i < jars.length; i++) {
+            File libraryDirectory = new File(tempDirectory, "lib" + i);
+            libraryDirectory.mkdirs();
+            File library = new File(libraryDirectory, System.mapLibraryName("same"));
+            FileTestUtils.createFileWithContents(library, "native" + i);
+            jars[i] = new File(tempDirectory, "test" + i + ".jar");
+            FileTestUtils.createJarWithContents(jars[i], library);
+        }
+
+        DummyJNLPFileWithJar jnlpFile = new DummyJNLPFileWithJar(jars);
+        JNLPClassLoader classLoader = new JNLPClassLoader(jnlpFile, UpdatePolicy.ALWAYS);
+
+        String library = classLoader.findLibrary("same");
+        assertNotNull(library);
+        assertEquals("native" + (jars.length - 1), new String(Files.readAllBytes(new File(library).toPath()), "UTF-8"));
+    }
+
     /* Note: We should create a JNLPClassLoader with an invalid jar to test isInvalidJar with.
      * However, it is tricky without it erroring-out. */
     @Test
@@ -194,6 +278,76 @@ public class JNLPClassLoaderTest extends NoStdOutErrTest {
         assertFalse(classLoader.hasMainJar());
     }
 
+    private static void createJarWithClasses(File jar, Manifest manifest, int classes, String... extra) throws Exception {
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest)) {
+            for (int i = 0; i < classes; i++) {
+                out.putNextEntry(new JarEntry("p" + (i % 20) + "/" + jar.getName().replace('.', '_') + "C" + i + ".class"));
+                out.closeEntry();
+            }
+            for (String name : extra) {
+                out.putNextEntry(new JarEntry(name));
+                out.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * The search for the main class as it was done before, going through all
+     * entries of all jars.
+     */
+    private static boolean scanForMain(String mainClass, File... jars) throws Exception {
+        String desiredJarEntryName = mainClass + ".class";
+        boolean found = false;
+        for (File jar : jars) {
+            try (JarFile jarFile = new JarFile(jar)) {
+                for (JarEntry entry : Collections.list(jarFile.entries())) {
+                    if (entry.getName().replaceAll("/", ".").equals(desiredJarEntryName)) {
+                        found = true;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private static boolean checkForMain(int main, File... jars) throws Exception {
+        DummyJNLPFileWithJar jnlpFile = new DummyJNLPFileWithJar(main, jars);
+        JNLPClassLoader classLoader = new JNLPClassLoader(jnlpFile, UpdatePolicy.ALWAYS);
+        classLoader.checkForMain(Arrays.asList(jnlpFile.getJarDescs()));
+        return classLoader.hasMainJar();
+    }
+
+    @Test
+    public void checkForMainInManyJarsTest() throws Exception {
+        Manifest inMain = new Manifest();
+        inMain.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        inMain.getMainAttributes().put(Attributes.Name.MAIN_CLASS, "a.b.Main");
+        Manifest inOther = new Manifest();
+        inOther.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        inOther.getMainAttributes().put(Attributes.Name.MAIN_CLASS, "c.Main");
+        Manifest inDottedDirectory = new Manifest();
+        inDottedDirectory.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        inDottedDirectory.getMainAttributes().put(Attributes.Name.MAIN_CLASS, "d.e.Main");
+        Manifest nowhere = new Manifest();
+        nowhere.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        nowhere.getMainAttributes().put(Attributes.Name.MAIN_CLASS, "f.Main");
+        Manifest[] manifests = {inMain, inOther, inDottedDirectory, nowhere};
+
+        for (Manifest manifest : manifests) {
+            File tempDirectory = FileTestUtils.createTempDirectory();
+            File[] jars = new File[4];
+            for (int i = 0; i < jars.length; i++) {
+                jars[i] = new File(tempDirectory, "test" + i + ".jar");
+            }
+            createJarWithClasses(jars[0], new Manifest(), 5000, "c/Main.class");
+            createJarWithClasses(jars[1], new Manifest(), 5000, "d.e/Main.class");
+            createJarWithClasses(jars[2], manifest, 5000, "a/b/Main.class");
+            createJarWithClasses(jars[3], new Manifest(), 5000);
+            String mainClass = manifest.getMainAttributes().getValue(Attributes.Name.MAIN_CLASS);
+            assertEquals(mainClass, scanForMain(mainClass, jars), checkForMain(2, jars));
+        }
+    }
+
     @Test
     public void getCustomAtributes() throws Exception {
         File tempDirectory = FileTestUtils.createTempDirectory();
@@ -361,4 +515,69 @@ public class JNLPClassLoaderTest extends NoStdOutErrTest {
         }
 
     }
+
+    @Test
+    public void cachedPermissionsTest() throws Exception {
+        File tempDirectory = FileTestUtils.createTempDirectory();
+        File jarLocation = new File(tempDirectory, "test.jar");
+        FileTestUtils.createJarWithContents(jarLocation /* no contents*/);
+        JNLPClassLoader classLoader = new JNLPClassLoader(new DummyJNLPFileWithJar(jarLocation), UpdatePolicy.ALWAYS);
+        CodeSource cs = new CodeSource(jarLocation.toURI().toURL(), (Certificate[]) null);
+        FilePermission granted = new FilePermission(new File(tempDirectory, "granted").getPath(), "read");
+
+        PermissionCollection cached = classLoader.getCachedPermissions(cs);
+        assertTrue(cached.isReadOnly());
+        Assert.assertSame(cached, classLoader.getCachedPermissions(cs));
+        assertFalse(cached.implies(granted));
+
+        // callers of getPermissions may add to what they get
+        PermissionCollection copy = classLoader.getPermissions(cs);
+        assertFalse(copy.isReadOnly());
+        copy.add(granted);
+        Assert.assertSame(cached, classLoader.getCachedPermissions(cs));
+
+        classLoader.addPermission(granted);
+        PermissionCollection updated = classLoader.getCachedPermissions(cs);
+        Assert.assertNotSame(cached, updated);
+        assertTrue(updated.implies(granted));
+    }
+
+    /**
+     * Compares how many checks of a permission a second take with a new
+     * collection of the permissions for every check, as the policy built
+     * them before, and with the cached ones.
+     */
+    @Test
+    public void impliesThroughputTest() throws Exception {
+        String property = System.getProperty(BENCHMARK_PROPERTY);
+        Assume.assumeNotNull(property);
+        int checks = Integer.parseInt(property.trim());
+        File tempDirectory = FileTestUtils.createTempDirectory();
+        File jarLocation = new File(tempDirectory, "test.jar");
+        FileTestUtils.createJarWithContents(jarLocation /* no contents*/);
+        JNLPClassLoader classLoader = new JNLPClassLoader(new DummyJNLPFileWithJar(jarLocation), UpdatePolicy.ALWAYS);
+        CodeSource cs = new CodeSource(jarLocation.toURI().toURL(), (Certificate[]) null);
+        FilePermission denied = new FilePermission(new File(tempDirectory, "denied").getPath(), "read");
+
+        // warm up
+        for (int i = 0; i < checks; i++) {
+            classLoader.getPermissions(cs).implies(denied);
+            classLoader.getCachedPermissions(cs).implies(denied);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < checks; i++) {
+            assertFalse(classLoader.getPermissions(cs).implies(denied));
+        }
+        long copied = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < checks; i++) {
+            assertFalse(classLoader.getCachedPermissions(cs).implies(denied));
+        }
+        long cached = System.nanoTime() - start;
+
+        ServerAccess.logOutputReprint("Permission checks per second (new collection/cached): "
+                + checks * 1000000000L / Math.max(copied, 1) + "/" + checks * 1000000000L / Math.max(cached, 1));
+    }
 }
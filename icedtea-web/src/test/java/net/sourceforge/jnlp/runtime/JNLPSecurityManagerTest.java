@@ -0,0 +1,249 @@
+package net.sourceforge.jnlp.runtime;
+
+import net.sourceforge.jnlp.cache.UpdatePolicy;
+import net.sourceforge.jnlp.config.DeploymentConfiguration;
+import net.sourceforge.jnlp.security.appletextendedsecurity.AppletSecurityLevel;
+import net.sourceforge.jnlp.security.appletextendedsecurity.AppletStartupSecuritySettings;
+import net.sourceforge.jnlp.testextensions.ServerAccess;
+import net.sourceforge.jnlp.testextensions.mock.DummyJNLPFileWithJar;
+import net.sourceforge.jnlp.testextensions.util.FileTestUtils;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.awt.Frame;
+import java.awt.GraphicsEnvironment;
+import java.awt.Window;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class JNLPSecurityManagerTest {
+
+    /**
+     * Depth of the stack and number of windows of
+     * {@link #testLookupThroughput()}, e.g.
+     * {@code -Dsecuritymanager.benchmark=1000,2000}; the benchmark is
+     * skipped unless they are given.
+     */
+    private static final String BENCHMARK_PROPERTY = "securitymanager.benchmark";
+
+    private static AppletSecurityLevel level;
+    private static String askUser;
+
+    private static ThreadGroup group;
+    private static ApplicationInstance app;
+    private static Class<?> appClass;
+    private static Class<?>[] otherClasses;
+
+    /**
+     * Loaded again by each {@link ChildFirstLoader}.
+     */
+    public static class Marker {
+    }
+
+    private static class ChildFirstLoader extends ClassLoader {
+
+        private ChildFirstLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        private Class<?> define(Class<?> c) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream is = JNLPSecurityManagerTest.class.getClassLoader().getResourceAsStream(c.getName().replace('.', '/') + ".class")) {
+                byte[] buffer = new byte[4096];
+                int rlen;
+                while ((rlen = is.read(buffer)) != -1) {
+                    out.write(buffer, 0, rlen);
+                }
+            }
+            return defineClass(c.getName(), out.toByteArray(), 0, out.size());
+        }
+    }
+
+    @BeforeClass
+    public static void createApplication() throws Exception {
+        level = AppletStartupSecuritySettings.getInstance().getSecurityLevel();
+        JNLPRuntime.getConfiguration().setProperty(DeploymentConfiguration.KEY_SECURITY_LEVEL, AppletSecurityLevel.ALLOW_UNSIGNED.toChars());
+        askUser = JNLPRuntime.getConfiguration().getProperty(DeploymentConfiguration.KEY_SECURITY_PROMPT_USER);
+        JNLPRuntime.getConfiguration().setProperty(DeploymentConfiguration.KEY_SECURITY_PROMPT_USER, Boolean.toString(false));
+
+        File tempDirectory = FileTestUtils.createTempDirectory();
+        File jarLocation = new File(tempDirectory, "test.jar");
+        FileTestUtils.createJarWithContents(jarLocation /* no contents*/);
+        JNLPClassLoader loader = new JNLPClassLoader(new DummyJNLPFileWithJar(jarLocation), UpdatePolicy.ALWAYS);
+        group = new ThreadGroup("JNLPSecurityManagerTest");
+        app = new ApplicationInstance(loader.getJNLPFile(), group, loader);
+        loader.setApplication(app);
+
+        appClass = new ChildFirstLoader(loader).define(Marker.class);
+        otherClasses = new Class<?>[]{String.class, JNLPSecurityManagerTest.class,
+            new ChildFirstLoader(JNLPSecurityManagerTest.class.getClassLoader()).define(Marker.class),
+            new ChildFirstLoader(null).define(Marker.class)};
+    }
+
+    @AfterClass
+    public static void resetConfiguration() {
+        JNLPRuntime.getConfiguration().setProperty(DeploymentConfiguration.KEY_SECURITY_LEVEL, level.toChars());
+        JNLPRuntime.getConfiguration().setProperty(DeploymentConfiguration.KEY_SECURITY_PROMPT_USER, askUser);
+    }
+
+    /**
+     * @return a stack of classes of other classloaders, with a class of the
+     * application at the bottom if wanted
+     */
+    private static Class<?>[] createStack(int depth, boolean withApp) {
+        Class<?>[] stack = new Class<?>[depth];
+        for (int i = 0; i < depth; i++) {
+            stack[i] = otherClasses[i % otherClasses.length];
+        }
+        if (withApp) {
+            stack[depth - 1] = appClass;
+        }
+        return stack;
+    }
+
+    /**
+     * The walk over the context classloader and the stack as it was done
+     * before the applications were known by classloader.
+     */
+    private static ApplicationInstance walk(Thread thread, Class<?>[] stack) {
+        for (ClassLoader cl = thread.getContextClassLoader(); cl != null; cl = cl.getParent()) {
+            if (cl instanceof JNLPClassLoader && ((JNLPClassLoader) cl).getApplication() != null) {
+                return ((JNLPClassLoader) cl).getApplication();
+            }
+        }
+        for (Class<?> c : stack) {
+            for (ClassLoader cl = c.getClassLoader(); cl != null; cl = cl.getParent()) {
+                if (cl instanceof JNLPClassLoader && ((JNLPClassLoader) cl).getApplication() != null) {
+                    return ((JNLPClassLoader) cl).getApplication();
+                }
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testApplicationOnStack() throws Exception {
+        JNLPSecurityManager sm = new JNLPSecurityManager();
+        Thread thread = new Thread("no application");
+        thread.setContextClassLoader(JNLPSecurityManagerTest.class.getClassLoader());
+        Assert.assertSame(app, sm.getApplication(thread, createStack(50, true), 0));
+        Assert.assertNull(sm.getApplication(thread, createStack(50, false), 0));
+        Assert.assertNull(sm.getApplication(thread, createStack(50, true), 10));
+        // known by now
+        Assert.assertSame(app, sm.getApplication(thread, createStack(50, true), 0));
+    }
+
+    @Test
+    public void testApplicationOfContextClassLoader() throws Exception {
+        JNLPSecurityManager sm = new JNLPSecurityManager();
+        Thread thread = new Thread("application");
+        thread.setContextClassLoader(appClass.getClassLoader());
+        Assert.assertSame(app, sm.getApplication(thread, new Class<?>[0], 0));
+        Assert.assertSame(app, sm.getApplication(thread, new Class<?>[0], 0));
+    }
+
+    @Test
+    public void testApplicationOfThreadGroup() throws Exception {
+        JNLPSecurityManager sm = new JNLPSecurityManager();
+        Thread thread = new Thread(new ThreadGroup(group, "child"), "application");
+        thread.setContextClassLoader(JNLPSecurityManagerTest.class.getClassLoader());
+        Assert.assertNull(sm.getApplication(thread, new Class<?>[0], 0));
+        sm.addApplication(app);
+        Assert.assertSame(app, sm.getApplication(thread, new Class<?>[0], 0));
+        Assert.assertNull(sm.getApplication(new Thread("no application"), new Class<?>[0], 0));
+    }
+
+    private static Window addWindow(JNLPSecurityManager sm) {
+        Window w = new Frame();
+        Thread thread = Thread.currentThread();
+        ClassLoader contextLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(appClass.getClassLoader());
+        try {
+            sm.checkTopLevelWindow(w);
+        } catch (SecurityException ex) {
+            // whether the window needs a warning does not matter here
+        } finally {
+            thread.setContextClassLoader(contextLoader);
+        }
+        return w;
+    }
+
+    @Test
+    public void testApplicationOfWindow() throws Exception {
+        Assume.assumeFalse(GraphicsEnvironment.isHeadless());
+        JNLPSecurityManager sm = new JNLPSecurityManager();
+        Window w = addWindow(sm);
+        try {
+            Assert.assertSame(app, sm.getApplication(w));
+            Assert.assertNull(sm.getApplication(new Frame()));
+        } finally {
+            w.dispose();
+        }
+    }
+
+    /**
+     * Reports how many applications a second are found on a deep stack, by
+     * the walk done before and now, and for the first of many windows.
+     */
+    @Test
+    public void testLookupThroughput() throws Exception {
+        String property = System.getProperty(BENCHMARK_PROPERTY);
+        Assume.assumeNotNull(property);
+        String[] sizes = property.split(",");
+        int depth = Integer.parseInt(sizes[0].trim());
+        int windows = Integer.parseInt(sizes[1].trim());
+        int lookups = 20000;
+        JNLPSecurityManager sm = new JNLPSecurityManager();
+        Thread thread = new Thread("no application");
+        thread.setContextClassLoader(JNLPSecurityManagerTest.class.getClassLoader());
+        Class<?>[] stack = createStack(depth, true);
+
+        // warm up
+        for (int i = 0; i < lookups; i++) {
+            walk(thread, stack);
+            sm.getApplication(thread, stack, 0);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            Assert.assertSame(app, walk(thread, stack));
+        }
+        long walked = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            Assert.assertSame(app, sm.getApplication(thread, stack, 0));
+        }
+        long known = System.nanoTime() - start;
+
+        String report = "Applications found a second on a stack of " + depth + " (walk/now): "
+                + lookups * 1000000000L / Math.max(walked, 1) + "/" + lookups * 1000000000L / Math.max(known, 1);
+
+        if (!GraphicsEnvironment.isHeadless()) {
+            List<Window> added = new ArrayList<>();
+            try {
+                for (int i = 0; i < windows; i++) {
+                    added.add(addWindow(sm));
+                }
+                start = System.nanoTime();
+                for (int i = 0; i < lookups; i++) {
+                    Assert.assertSame(app, sm.getApplication(added.get(0)));
+                }
+                long byWindow = System.nanoTime() - start;
+                report += ", for the first of " + windows + " windows: " + lookups * 1000000000L / Math.max(byWindow, 1);
+            } finally {
+                for (Window w : added) {
+                    w.dispose();
+                }
+            }
+        }
+        ServerAccess.logOutputReprint(report);
+    }
+}
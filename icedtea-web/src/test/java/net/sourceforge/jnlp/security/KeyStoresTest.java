@@ -42,6 +42,8 @@ import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.File;
+import java.security.KeyStore;
 import java.security.Permission;
 
 public class KeyStoresTest {
@@ -129,4 +131,19 @@ public class KeyStoresTest {
         Assert.assertEquals(true, dm.called);
     } 
 
+    @Test
+    public void getGenerationChangesOnSaveTest() throws Exception {
+        System.setSecurityManager(null);
+        File file = File.createTempFile("itw", "KeyStoresTest");
+        file.deleteOnExit();
+        KeyStore ks = KeyStore.getInstance("JKS");
+        ks.load(null, null);
+
+        String before = KeyStores.getGeneration();
+        Assert.assertEquals(before, KeyStores.getGeneration());
+        // not one of the KeyStores, only the number of saves changes
+        SecurityUtil.storeKeyStore(ks, file);
+        Assert.assertNotEquals(before, KeyStores.getGeneration());
+    }
+
 }
@@ -0,0 +1,94 @@
+package net.sourceforge.jnlp.security;
+
+import net.sourceforge.jnlp.security.KeyStores.Level;
+import net.sourceforge.jnlp.security.KeyStores.Type;
+import net.sourceforge.jnlp.testextensions.tools.CodeSignerCreator;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+public class TrustIndexTest {
+
+    private static final String DNPARTIAL = ", OU=TrustIndex Unit Test, O=IcedTea, L=Toronto, ST=Ontario, C=CA";
+
+    private static X509Certificate ca, publisher, other;
+    private static KeyStore systemJsse, systemCerts, systemCa, userCerts;
+    private static TrustIndex index;
+
+    private static KeyStore createKeyStore(X509Certificate... certs) throws Exception {
+        KeyStore ks = KeyStore.getInstance("JKS");
+        ks.load(null, null);
+        for (int i = 0; i < certs.length; i++) {
+            ks.setCertificateEntry("cert" + i, certs[i]);
+        }
+        return ks;
+    }
+
+    @BeforeClass
+    public static void createIndex() throws Exception {
+        Date now = new Date();
+        ca = CodeSignerCreator.createCert("CN=CA" + DNPARTIAL, now, 365);
+        publisher = CodeSignerCreator.createCert("CN=Publisher" + DNPARTIAL, now, 365);
+        other = CodeSignerCreator.createCert("CN=Other" + DNPARTIAL, now, 365);
+
+        systemJsse = createKeyStore();
+        systemCerts = createKeyStore();
+        systemCa = createKeyStore(ca);
+        userCerts = createKeyStore(publisher, publisher);
+        List<TrustIndex.Store> stores = new ArrayList<>();
+        stores.add(new TrustIndex.Store(Level.SYSTEM, Type.CERTS, systemCerts, "system.certs"));
+        stores.add(new TrustIndex.Store(Level.SYSTEM, Type.JSSE_CERTS, systemJsse, "system.jssecerts"));
+        stores.add(new TrustIndex.Store(Level.SYSTEM, Type.CA_CERTS, systemCa, "system.cacerts"));
+        stores.add(new TrustIndex.Store(Level.USER, Type.CERTS, userCerts, "user.certs"));
+        index = new TrustIndex("generation", stores);
+    }
+
+    @Test
+    public void testContains() throws Exception {
+        Assert.assertTrue(index.contains(ca, TrustIndex.CA_CERTS));
+        Assert.assertFalse(index.contains(ca, TrustIndex.CERTS));
+        Assert.assertTrue(index.contains(publisher, TrustIndex.CERTS));
+        Assert.assertFalse(index.contains(publisher, TrustIndex.CA_CERTS));
+        Assert.assertFalse(index.contains(other, TrustIndex.CERTS));
+        Assert.assertFalse(index.contains(other, TrustIndex.CA_CERTS));
+    }
+
+    @Test
+    public void testSameAsKeyStoreWalk() throws Exception {
+        for (X509Certificate c : new X509Certificate[]{ca, publisher, other}) {
+            Assert.assertEquals(CertificateUtils.inKeyStores(c, index.getKeyStores(TrustIndex.CERTS)), index.contains(c, TrustIndex.CERTS));
+            Assert.assertEquals(CertificateUtils.inKeyStores(c, index.getKeyStores(TrustIndex.CA_CERTS)), index.contains(c, TrustIndex.CA_CERTS));
+        }
+    }
+
+    @Test
+    public void testGetKeyStoresInOrder() throws Exception {
+        Assert.assertEquals(Arrays.asList(systemJsse, systemCerts, userCerts), Arrays.asList(index.getKeyStores(TrustIndex.CERTS)));
+        Assert.assertEquals(Collections.singletonList(systemCa), Arrays.asList(index.getKeyStores(TrustIndex.CA_CERTS)));
+        Assert.assertEquals(0, index.getKeyStores(TrustIndex.CLIENT_CERTS).length);
+    }
+
+    @Test
+    public void testGetBySubject() throws Exception {
+        Assert.assertEquals(Collections.singletonList(ca), index.getBySubject(ca.getSubjectX500Principal(), TrustIndex.CA_CERTS));
+        Assert.assertEquals(Collections.singletonList(publisher), index.getBySubject(publisher.getSubjectX500Principal(), TrustIndex.CERTS));
+        Assert.assertTrue(index.getBySubject(other.getSubjectX500Principal(), TrustIndex.CERTS).isEmpty());
+        Assert.assertEquals(Collections.singletonList(publisher), index.getCertificates(TrustIndex.CERTS));
+    }
+
+    @Test
+    public void testMayAnchor() throws Exception {
+        Assert.assertTrue(index.mayAnchor(new X509Certificate[]{publisher}, TrustIndex.CERTS));
+        Assert.assertTrue(index.mayAnchor(new X509Certificate[]{other, ca}, TrustIndex.CA_CERTS));
+        Assert.assertFalse(index.mayAnchor(new X509Certificate[]{other}, TrustIndex.CERTS));
+        Assert.assertFalse(index.mayAnchor(new X509Certificate[]{other, ca}, TrustIndex.CERTS));
+    }
+}
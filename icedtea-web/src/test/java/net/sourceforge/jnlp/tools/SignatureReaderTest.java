@@ -0,0 +1,263 @@
+package net.sourceforge.jnlp.tools;
+
+import net.sourceforge.jnlp.testextensions.ServerAccess;
+import net.sourceforge.jnlp.tools.JarCertVerifier.VerifyResult;
+import net.sourceforge.jnlp.tools.VerificationCache.Signatures;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+public class SignatureReaderTest {
+
+    /**
+     * Number of jars and entries per jar compared by
+     * {@link #testThroughput()}, e.g. {@code -Dverification.benchmark=16,5000};
+     * without it the benchmark is skipped.
+     */
+    private static final String BENCHMARK_PROPERTY = "verification.benchmark";
+
+    private static final String PASSWORD = "changeit";
+    private static final String ALIAS = "signer";
+
+    private static File dir;
+    private static File keyStore;
+
+    @BeforeClass
+    public static void createKeyStore() throws Exception {
+        dir = Files.createTempDirectory("signaturereader").toFile();
+        keyStore = new File(dir, "keystore.jks");
+        Assume.assumeTrue(getTool("keytool") != null && getTool("jarsigner") != null);
+        run(getTool("keytool"), "-genkeypair", "-keystore", keyStore.getPath(), "-storepass", PASSWORD,
+                "-keypass", PASSWORD, "-alias", ALIAS, "-keyalg", "RSA", "-validity", "365",
+                "-dname", "CN=SignatureReader Unit Test, O=IcedTea, C=CA");
+    }
+
+    @AfterClass
+    public static void deleteDir() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private static String getTool(String name) {
+        File javaHome = new File(System.getProperty("java.home"));
+        for (File home : new File[]{javaHome, javaHome.getParentFile()}) {
+            File tool = new File(new File(home, "bin"), name);
+            if (tool.canExecute()) {
+                return tool.getPath();
+            }
+        }
+        return null;
+    }
+
+    private static void run(String... command) throws Exception {
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        byte[] output = new byte[8192];
+        StringBuilder sb = new StringBuilder();
+        int rlen;
+        while ((rlen = process.getInputStream().read(output)) != -1) {
+            sb.append(new String(output, 0, rlen));
+        }
+        Assert.assertEquals(sb.toString(), 0, process.waitFor());
+    }
+
+    private static File createJar(String name, int entries, boolean manifest, boolean signed) throws Exception {
+        File jar = new File(dir, name);
+        Manifest mf = new Manifest();
+        mf.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        Random random = new Random(entries);
+        byte[] content = new byte[2048];
+        try (JarOutputStream out = manifest ? new JarOutputStream(new FileOutputStream(jar), mf)
+                : new JarOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new JarEntry("a/"));
+            out.closeEntry();
+            for (int i = 0; i < entries; i++) {
+                out.putNextEntry(new JarEntry("a/E" + i + ".class"));
+                // compressible, but not trivially
+                for (int j = 0; j < content.length; j++) {
+                    content[j] = (byte) ('a' + random.nextInt(8));
+                }
+                out.write(content);
+                out.closeEntry();
+            }
+        }
+        if (signed) {
+            run(getTool("jarsigner"), "-keystore", keyStore.getPath(), "-storepass", PASSWORD, jar.getPath(), ALIAS);
+        }
+        return jar;
+    }
+
+    /**
+     * Copies the jar, with one byte of one entry changed.
+     */
+    private static File tamper(File jar, String entry) throws IOException {
+        File tampered = new File(dir, "tampered-" + entry.replace('/', '-') + "-" + jar.getName());
+        try (JarFile in = new JarFile(jar, false);
+                JarOutputStream out = new JarOutputStream(new FileOutputStream(tampered))) {
+            for (JarEntry je : Collections.list(in.entries())) {
+                byte[] content = new byte[(int) je.getSize()];
+                int read = 0;
+                try (InputStream is = in.getInputStream(je)) {
+                    int rlen;
+                    while (read < content.length && (rlen = is.read(content, read, content.length - read)) != -1) {
+                        read += rlen;
+                    }
+                }
+                if (je.getName().equals(entry)) {
+                    content[0]++;
+                }
+                out.putNextEntry(new JarEntry(je.getName()));
+                out.write(content);
+                out.closeEntry();
+            }
+        }
+        return tampered;
+    }
+
+    private static void assertSame(File jar, Signatures serial, Signatures parallel) {
+        Assert.assertNotNull(jar.getName(), parallel);
+        Assert.assertEquals(jar.getName(), serial.getSignableEntries(), parallel.getSignableEntries());
+        Assert.assertEquals(jar.getName(), serial.getSigners(), parallel.getSigners());
+    }
+
+    @Test
+    public void testSameAsSerial() throws Exception {
+        File signedLarge = createJar("signed-large.jar", 300, true, true);
+        List<File> jars = Arrays.asList(
+                createJar("unsigned.jar", 10, true, false),
+                signedLarge,
+                createJar("signed-small.jar", 10, true, true),
+                createJar("unsigned-large.jar", 300, true, false),
+                createJar("no-manifest.jar", 300, false, false),
+                tamper(signedLarge, "a/E7.class"),
+                tamper(signedLarge, "a/E250.class"));
+
+        SignatureReader reader = new SignatureReader(jars, null, 4, 50);
+        reader.read();
+
+        JarCertVerifier serialVerifier = new JarCertVerifier(null);
+        JarCertVerifier parallelVerifier = new JarCertVerifier(null);
+        for (int i = 0; i < jars.size(); i++) {
+            File jar = jars.get(i);
+            if (jar.getName().startsWith("tampered")) {
+                try {
+                    JarCertVerifier.readSignatures(jar);
+                    Assert.fail(jar.getName() + " should not verify");
+                } catch (SecurityException ex) {
+                    Assert.assertNull(reader.getSignatures(i));
+                    Assert.assertNotNull(jar.getName(), reader.getFailure(i));
+                    Assert.assertEquals(ex.getClass(), reader.getFailure(i).getClass());
+                    Assert.assertEquals(ex.getMessage(), reader.getFailure(i).getMessage());
+                }
+                continue;
+            }
+            Signatures serial = JarCertVerifier.readSignatures(jar);
+            Assert.assertNull(reader.getFailure(i));
+            assertSame(jar, serial, reader.getSignatures(i));
+            VerifyResult expected = serialVerifier.verifyJarSignatures(jar.getPath(), serial);
+            Assert.assertEquals(jar.getName(), expected, parallelVerifier.verifyJarSignatures(jar.getPath(), reader.getSignatures(i)));
+        }
+        Assert.assertEquals(1, serialVerifier.getCertsList().size());
+        Assert.assertEquals(serialVerifier.getCertsList(), parallelVerifier.getCertsList());
+        Assert.assertEquals(serialVerifier.getJarSignableEntries(), parallelVerifier.getJarSignableEntries());
+    }
+
+    @Test
+    public void testRecordsInCache() throws Exception {
+        File jar = createJar("cached.jar", 120, true, true);
+        VerificationCache cache = new VerificationCache(new File(dir, "verified"), new File(dir, VerificationCache.KEY_FILE));
+        try {
+            SignatureReader reader = new SignatureReader(Collections.singletonList(jar), cache, 4, 50);
+            reader.read();
+            Signatures serial = JarCertVerifier.readSignatures(jar);
+            assertSame(jar, serial, reader.getSignatures(0));
+
+            File[] buckets = cache.getRoot().listFiles();
+            Assert.assertEquals(1, buckets.length);
+            Assert.assertEquals(1, buckets[0].listFiles().length);
+
+            reader = new SignatureReader(Collections.singletonList(jar), cache, 4, 50);
+            reader.read();
+            assertSame(jar, serial, reader.getSignatures(0));
+        } finally {
+            for (File bucket : cache.getRoot().listFiles()) {
+                for (File f : bucket.listFiles()) {
+                    f.delete();
+                }
+                bucket.delete();
+            }
+            cache.getRoot().delete();
+        }
+    }
+
+    /**
+     * Compares the time taken to read signed jars one after another with
+     * the time taken by {@link SignatureReader}.
+     */
+    @Test
+    public void testThroughput() throws Exception {
+        String property = System.getProperty(BENCHMARK_PROPERTY);
+        Assume.assumeNotNull(property);
+        String[] sizes = property.split(",");
+        int count = Integer.parseInt(sizes[0].trim());
+        int entries = Integer.parseInt(sizes[1].trim());
+        List<File> jars = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            jars.add(createJar("benchmark" + i + ".jar", entries + i, true, true));
+        }
+        // one large jar, which alone can only be sped up by ranges
+        jars.add(createJar("benchmark-large.jar", entries * count, true, true));
+
+        // warm up
+        for (File jar : jars) {
+            JarCertVerifier.readSignatures(jar);
+        }
+        new SignatureReader(jars, null).read();
+
+        long start = System.nanoTime();
+        for (File jar : jars) {
+            JarCertVerifier.readSignatures(jar);
+        }
+        long serial = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        SignatureReader reader = new SignatureReader(jars, null);
+        reader.read();
+        long parallel = System.nanoTime() - start;
+        for (int i = 0; i < jars.size(); i++) {
+            Assert.assertNull(reader.getFailure(i));
+        }
+
+        start = System.nanoTime();
+        JarCertVerifier.readSignatures(jars.get(count));
+        long serialLarge = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        new SignatureReader(jars.subList(count, count + 1), null).read();
+        long parallelLarge = System.nanoTime() - start;
+
+        ServerAccess.logOutputReprint("Signature verification with " + SignatureReader.PARALLELISM + " threads in ms (serial/parallel): "
+                + count + " jars of " + entries + " entries and one of " + entries * count + ": "
+                + serial / 1000000 + "/" + parallel / 1000000
+                + ", the large jar alone: " + serialLarge / 1000000 + "/" + parallelLarge / 1000000);
+    }
+}
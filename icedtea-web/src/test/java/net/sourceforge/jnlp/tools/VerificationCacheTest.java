@@ -0,0 +1,167 @@
+package net.sourceforge.jnlp.tools;
+
+import net.sourceforge.jnlp.testextensions.tools.CodeSignerCreator;
+import net.sourceforge.jnlp.tools.JarCertVerifier.VerifyResult;
+import net.sourceforge.jnlp.tools.VerificationCache.Signatures;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.cert.CertPath;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+public class VerificationCacheTest {
+
+    private static final String HASH = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+    private static final String DNPARTIAL = ", OU=VerificationCache Unit Test, O=IcedTea, L=Toronto, ST=Ontario, C=CA";
+
+    private static CertPath alpha, expired;
+
+    private File dir;
+    private File keyFile;
+    private VerificationCache cache;
+
+    @BeforeClass
+    public static void createSigners() throws Exception {
+        Date now = new Date();
+        alpha = CodeSignerCreator.getOneCodeSigner("CN=Alpha Signer" + DNPARTIAL, now, 365).getSignerCertPath();
+        expired = CodeSignerCreator.getOneCodeSigner("CN=Expired Signer" + DNPARTIAL,
+                new Date(now.getTime() - 2L * 24 * 60 * 60 * 1000), 1).getSignerCertPath();
+    }
+
+    @Before
+    public void createCache() throws IOException {
+        dir = Files.createTempDirectory("verified").toFile();
+        keyFile = new File(dir.getPath() + "." + VerificationCache.KEY_FILE);
+        cache = new VerificationCache(dir, keyFile);
+    }
+
+    @After
+    public void deleteCache() throws IOException {
+        File[] buckets = dir.listFiles();
+        for (File bucket : buckets) {
+            for (File f : bucket.listFiles()) {
+                f.delete();
+            }
+            bucket.delete();
+        }
+        dir.delete();
+        keyFile.delete();
+    }
+
+    private static Signatures createSignatures() {
+        Map<CertPath, Integer> signers = new LinkedHashMap<>();
+        signers.put(alpha, 3);
+        signers.put(expired, 1);
+        return new Signatures(3, signers);
+    }
+
+    @Test
+    public void testRecord() throws Exception {
+        Assert.assertNull(cache.get(HASH, "trust"));
+        cache.put(HASH, "trust", createSignatures());
+        Assert.assertTrue(cache.getRecord(HASH).isFile());
+
+        Signatures read = cache.get(HASH, "trust");
+        Assert.assertNotNull(read);
+        Assert.assertEquals(3, read.getSignableEntries());
+        Assert.assertEquals(createSignatures().getSigners(), read.getSigners());
+    }
+
+    @Test
+    public void testOtherKeyStoresDropRecord() throws Exception {
+        cache.put(HASH, "trust", createSignatures());
+        Assert.assertNull(cache.get(HASH, "other trust"));
+        Assert.assertNull(cache.get(HASH.replace('0', '1'), "trust"));
+    }
+
+    @Test
+    public void testDamagedRecord() throws Exception {
+        cache.put(HASH, "trust", createSignatures());
+        File record = cache.getRecord(HASH);
+        String content = new String(Files.readAllBytes(record.toPath()), "ISO-8859-1");
+        Files.write(record.toPath(), content.replace("signers=2", "signers=3").getBytes("ISO-8859-1"));
+        Assert.assertNull(cache.get(HASH, "trust"));
+    }
+
+    @Test
+    public void testRecordOfOtherKeyIgnored() throws Exception {
+        File otherKey = new File(dir.getPath() + ".other");
+        try {
+            new VerificationCache(dir, otherKey).put(HASH, "trust", createSignatures());
+            Assert.assertTrue(cache.getRecord(HASH).isFile());
+            Assert.assertNull(cache.get(HASH, "trust"));
+        } finally {
+            otherKey.delete();
+        }
+        cache.put(HASH, "trust", createSignatures());
+        Assert.assertNotNull(cache.get(HASH, "trust"));
+        Assert.assertNotNull(new VerificationCache(dir, keyFile).get(HASH, "trust"));
+    }
+
+    @Test
+    public void testRecordOfOtherJarIgnored() throws Exception {
+        String other = HASH.replace('0', 'f');
+        cache.put(HASH, "trust", createSignatures());
+        cache.getRecord(other).getParentFile().mkdirs();
+        Files.copy(cache.getRecord(HASH).toPath(), cache.getRecord(other).toPath());
+        Assert.assertNull(cache.get(other, "trust"));
+    }
+
+    @Test
+    public void testSameResultFromRecord() throws Exception {
+        cache.put(HASH, "trust", createSignatures());
+        JarCertVerifier fromJar = new JarCertVerifier(null);
+        JarCertVerifier fromRecord = new JarCertVerifier(null);
+        VerifyResult expected = fromJar.verifyJarSignatures("a.jar", createSignatures());
+        Assert.assertEquals(VerifyResult.SIGNED_OK, expected);
+        Assert.assertEquals(expected, fromRecord.verifyJarSignatures("a.jar", cache.get(HASH, "trust")));
+        Assert.assertEquals(fromJar.getCertsList(), fromRecord.getCertsList());
+        Assert.assertEquals(fromJar.hasSigningIssues(alpha), fromRecord.hasSigningIssues(alpha));
+    }
+
+    @Test
+    public void testCollect() throws Exception {
+        cache.put(HASH, "trust", createSignatures());
+        String other = HASH.replace('0', 'f');
+        cache.put(other, "trust", createSignatures());
+        cache.getRecord(other).setLastModified(System.currentTimeMillis() - 2 * VerificationCache.MAX_UNUSED);
+
+        Assert.assertEquals(1, cache.collect());
+        Assert.assertTrue(cache.getRecord(HASH).isFile());
+        Assert.assertFalse(cache.getRecord(other).exists());
+    }
+
+    @Test
+    public void testReadSignatures() throws Exception {
+        File jar = new File(dir, "unsigned.jar");
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest)) {
+            for (String entry : new String[]{"a/", "a/B.class", "c.txt"}) {
+                out.putNextEntry(new JarEntry(entry));
+                out.closeEntry();
+            }
+        }
+        try {
+            Signatures signatures = JarCertVerifier.readSignatures(jar);
+            Assert.assertEquals(2, signatures.getSignableEntries());
+            Assert.assertTrue(signatures.getSigners().isEmpty());
+            Assert.assertEquals(VerifyResult.UNSIGNED, new JarCertVerifier(null).verifyJarSignatures(jar.getPath(), signatures));
+        } finally {
+            jar.delete();
+        }
+    }
+}
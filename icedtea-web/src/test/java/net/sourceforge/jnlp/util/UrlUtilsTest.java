@@ -283,6 +283,19 @@ public class UrlUtilsTest {
         Assert.assertTrue("URLs should be equal when different reference but the same URL", UrlUtils.urlEquals(u1, u3));
     }
 
+    @Test
+    public void testUrlEqualsKey() throws Exception {
+        URL u1 = new URL("http://example.com/some dir/a.jar?x=1");
+        URL u2 = new URL("HTTP://Example.COM/some%20dir/a.jar?x=1");
+        URL u3 = new URL("http://example.com/some dir/b.jar?x=1");
+        Assert.assertNull(UrlUtils.getUrlEqualsKey(null));
+        Assert.assertTrue(UrlUtils.urlEquals(u1, u2));
+        Assert.assertEquals("URLs equal by urlEquals should share the key", UrlUtils.getUrlEqualsKey(u1), UrlUtils.getUrlEqualsKey(u2));
+        Assert.assertEquals(UrlUtils.getUrlEqualsKey(u1).hashCode(), UrlUtils.getUrlEqualsKey(u2).hashCode());
+        Assert.assertNotEquals(UrlUtils.getUrlEqualsKey(u1), UrlUtils.getUrlEqualsKey(u3));
+        Assert.assertNotEquals(UrlUtils.getUrlEqualsKey(new URL("http://example.com/a.jar")), UrlUtils.getUrlEqualsKey(new URL("http://example.com/a.jar?")));
+    }
+
     @Test(expected = NullPointerException.class)
     public void verifyNotNullUrlEqualsThrowsExceptionWhenBothArgumentsAreNull() throws Exception {
         UrlUtils.notNullUrlEquals(null, null);
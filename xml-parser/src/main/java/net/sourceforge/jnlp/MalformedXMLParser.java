@@ -36,6 +36,7 @@ exception statement from your version.
  */
 package net.sourceforge.jnlp;
 
+import net.sourceforge.nanoxml.XMLElementBuilder;
 import org.ccil.cowan.tagsoup.HTMLSchema;
 import org.ccil.cowan.tagsoup.Parser;
 import org.ccil.cowan.tagsoup.XMLWriter;
@@ -45,12 +46,16 @@ import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.io.PushbackReader;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 
 /**
  * An specialized {@link XMLParser} that uses TagSoup[1] to parse
@@ -69,6 +74,10 @@ public class MalformedXMLParser extends XMLParser {
      * Parses the data from an {@link java.io.InputStream} to create a XML tree.
      * Returns a {@link Node} representing the root of the tree.
      *
+     * The tree is built from what TagSoup reports while it reads the input,
+     * see {@link XMLElementBuilder}, so no well-formed copy of the input is
+     * written and parsed again.
+     *
      * @param input the {@link java.io.InputStream} to read data from
      * @return root node of document
      * @throws ParseException if an exception occurs while parsing the input
@@ -76,8 +85,50 @@ public class MalformedXMLParser extends XMLParser {
     @Override
     public Node getRootNode(InputStream input) throws ParseException {
         LOG.debug("Using MalformedXMLParser");
-        InputStream xmlInput = xmlizeInputStream(input);
-        return super.getRootNode(xmlInput);
+        XMLReader reader;
+        try {
+            reader = createReader();
+        } catch (SAXException e1) {
+            throw new ParseException("PBadXML", e1);
+        } catch (NoClassDefFoundError e2) {
+            LOG.error("ERROR", e2);
+            ParseException.setUsed(null);
+            return super.getRootNode(input);
+        }
+        XMLElementBuilder builder = new XMLElementBuilder();
+        reader.setContentHandler(builder);
+
+        //A BufferedInputStream is used to allow marking and reseting
+        //of a stream.
+        BufferedInputStream bs = new BufferedInputStream(input);
+        try (PushbackReader in = new PushbackReader(new InputStreamReader(bs, getEncoding(bs)))) {
+            // TagSoup would take the byte order mark for text before the
+            // root element, and put both into a html element of its own
+            int first = in.read();
+            if (first != -1 && first != '\uFEFF') {
+                in.unread(first);
+            }
+            reader.parse(new InputSource(in));
+        } catch (SAXException | IOException e1) {
+            throw new ParseException("PBadXML", e1);
+        }
+        if (builder.getRoot() == null) {
+            throw new ParseException("PBadXML");
+        }
+        return new Node(builder.getRoot());
+    }
+
+    private static XMLReader createReader() throws SAXException {
+        HTMLSchema schema = new HTMLSchema();
+        XMLReader reader = new Parser();
+
+        //TODO walk through the javadoc and tune more settings
+        //see tagsoup javadoc for details
+        reader.setProperty(Parser.schemaProperty, schema);
+        reader.setFeature(Parser.bogonsEmptyFeature, false);
+        reader.setFeature(Parser.ignorableWhitespaceFeature, true);
+        reader.setFeature(Parser.ignoreBogonsFeature, false);
+        return reader;
     }
 
     /**
@@ -93,17 +144,10 @@ public class MalformedXMLParser extends XMLParser {
         try {
             ByteArrayOutputStream out = new ByteArrayOutputStream();
 
-            HTMLSchema schema = new HTMLSchema();
-            XMLReader reader = new Parser();
-
-            //TODO walk through the javadoc and tune more settings
-            //see tagsoup javadoc for details 
-            reader.setProperty(Parser.schemaProperty, schema);
-            reader.setFeature(Parser.bogonsEmptyFeature, false);
-            reader.setFeature(Parser.ignorableWhitespaceFeature, true);
-            reader.setFeature(Parser.ignoreBogonsFeature, false);
+            XMLReader reader = createReader();
 
-            Writer writeger = new OutputStreamWriter(out);
+            // the XML declaration written does not name an encoding
+            Writer writeger = new OutputStreamWriter(out, StandardCharsets.UTF_8);
             XMLWriter x = new XMLWriter(writeger);
 
             reader.setContentHandler(x);
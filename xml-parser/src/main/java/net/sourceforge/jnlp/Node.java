@@ -39,6 +39,9 @@ package net.sourceforge.jnlp;
 
 import net.sourceforge.nanoxml.XMLElement;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
@@ -134,6 +137,25 @@ public class Node {
     }
 
 
+    /**
+     * Writes the tree below this node, so it can be read again by
+     * {@link #read(DataInput)} without parsing.
+     * @param out where to write the tree
+     * @throws IOException if the tree could not be written
+     */
+    public void write(DataOutput out) throws IOException {
+        xml.write(out);
+    }
+
+    /**
+     * @param in where to read a tree written by {@link #write(DataOutput)}
+     * @return the root of the tree
+     * @throws IOException if the tree could not be read
+     */
+    public static Node read(DataInput in) throws IOException {
+        return new Node(XMLElement.read(in));
+    }
+
     @Override
     public String toString() {
         return getNodeName().getOriginal();
@@ -40,13 +40,13 @@ package net.sourceforge.jnlp;
 //import static net.sourceforge.jnlp.runtime.Translator.R;
 
 import net.sourceforge.nanoxml.XMLElement;
+import net.sourceforge.nanoxml.XMLPullParser;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import java.io.Reader;
 
 //import net.sourceforge.jnlp.util.logging.OutputController;
 
@@ -94,28 +94,12 @@ public class XMLParser {
             BufferedInputStream bs = new BufferedInputStream(input);
 
             /* NANO */
-            final XMLElement xml = new XMLElement();
-            final PipedInputStream pin = new PipedInputStream();
-            final PipedOutputStream pout = new PipedOutputStream(pin);
-            final InputStreamReader isr = new InputStreamReader(bs, getEncoding(bs));
-            // Clean the jnlp xml file of all comments before passing
-            // it to the parser.
-            new Thread(
-                    new Runnable() {
-                        @Override
-                        public void run() {
-                            (new XMLElement()).sanitizeInput(isr, pout);
-                            try {
-                                pout.close();
-                            } catch (IOException ioe) {
-                                throw new RuntimeException("Error in XML parser", ioe);
-                                //LOG.error("ERROR", ioe);
-                            }
-                        }
-                    }).start();
-            xml.parseFromReader(new InputStreamReader(pin));
-            Node jnlpNode = new Node(xml);
-            return jnlpNode;
+            // Comments are taken out while reading, the way
+            // XMLElement.sanitizeInput did in a thread of its own.
+            try (Reader reader = new InputStreamReader(bs, getEncoding(bs))) {
+                XMLElement xml = new XMLPullParser().parse(reader);
+                return new Node(xml);
+            }
         } catch (Exception ex) {
             throw new ParseException("PBadXML", ex);
         }
@@ -127,7 +111,7 @@ public class XMLParser {
      * @param input the InputStream
      * @return a String representation of encoding
      */
-    private static String getEncoding(InputStream input) throws IOException {
+    static String getEncoding(InputStream input) throws IOException {
         //Fixme: This only recognizes UTF-8, UTF-16, and
         //UTF-32, which is enough to parse the prolog portion of xml to
         //find out the exact encoding (if it exists). The reason being
@@ -31,10 +31,13 @@
 package net.sourceforge.nanoxml;
 
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
@@ -1332,6 +1335,93 @@ public class XMLElement {
     public boolean isBOM() {
         return BOM;
     }
+
+    /**
+     * Writes the name, attributes, content and children of the element, so
+     * {@link #read(DataInput)} can create the same tree again without
+     * parsing.
+     *
+     * @param out
+     *     Where to write the element.
+     * @throws IOException
+     *     If the element could not be written.
+     */
+    public void write(DataOutput out) throws IOException {
+        writeString(out, this.name);
+        out.writeInt(this.attributes.size());
+        for (Map.Entry<String, Object> attribute : this.attributes.entrySet()) {
+            writeString(out, attribute.getKey());
+            writeString(out, attribute.getValue().toString());
+        }
+        writeString(out, this.contents);
+        out.writeInt(this.children.size());
+        for (XMLElement child : this.children) {
+            child.write(out);
+        }
+    }
+
+    /**
+     * Reads an element written by {@link #write(DataOutput)}.
+     *
+     * @param in
+     *     Where to read the element from.
+     * @return the element, with all its children.
+     * @throws IOException
+     *     If the element could not be read, or what is read is no element.
+     */
+    public static XMLElement read(DataInput in) throws IOException {
+        XMLElement element = new XMLElement();
+        element.readElement(in);
+        return element;
+    }
+
+    private void readElement(DataInput in) throws IOException {
+        this.name = readString(in);
+        int attributeCount = readCount(in);
+        for (int i = 0; i < attributeCount; i++) {
+            // the names were made upper case, if needed, when written
+            this.attributes.put(readString(in), readString(in));
+        }
+        this.contents = readString(in);
+        int childCount = readCount(in);
+        for (int i = 0; i < childCount; i++) {
+            XMLElement child = this.createAnotherElement();
+            child.readElement(in);
+            this.children.addElement(child);
+        }
+    }
+
+    private static int readCount(DataInput in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Bad count " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Unlike {@link DataOutput#writeUTF(String)}, does not limit the length
+     * of the string, as content can be longer.
+     */
+    private static void writeString(DataOutput out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
     
     
     
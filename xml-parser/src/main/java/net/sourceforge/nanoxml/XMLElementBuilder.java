@@ -0,0 +1,209 @@
+package net.sourceforge.nanoxml;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.NamespaceSupport;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a tree of {@link XMLElement}s from SAX events, as TagSoup reports
+ * them for malformed XML.
+ * <p>
+ * The tree is the one XMLElement parsed from what TagSoup's
+ * {@code XMLWriter} wrote for the same events, without writing and reading
+ * it again: element and attribute names get the namespace prefixes the
+ * writer gave them, and elements get the {@code xmlns} attributes it
+ * declared. Character data is kept only by elements without children, with
+ * carriage returns taken out of its leading whitespace. Character data
+ * other than whitespace next to child elements, and processing instructions
+ * within the root element, can not be parsed that way, so they are errors
+ * here too.
+ * </p>
+ */
+public class XMLElementBuilder extends DefaultHandler {
+
+    private final NamespaceSupport namespaces = new NamespaceSupport();
+    /** the prefixes declared for namespaces before, to be used again */
+    private final Map<String, String> declaredPrefixes = new HashMap<>();
+    private int prefixCounter = 0;
+
+    private final List<XMLElement> open = new ArrayList<>();
+    /** character data since the last start or end of an element */
+    private final StringBuilder text = new StringBuilder();
+    private XMLElement root;
+
+    /**
+     * @return the root element, {@code null} if there was none
+     */
+    public XMLElement getRoot() {
+        return root;
+    }
+
+    private XMLElement current() {
+        return open.get(open.size() - 1);
+    }
+
+    private boolean isInRoot() {
+        return !open.isEmpty();
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+        if (root != null && !isInRoot()) {
+            // after the root element, not read by XMLElement
+            return;
+        }
+        XMLElement elt;
+        if (root == null) {
+            elt = new XMLElement();
+            root = elt;
+        } else {
+            XMLElement parent = current();
+            checkNoText(parent);
+            elt = parent.createAnotherElement();
+            parent.addChild(elt);
+        }
+        text.setLength(0);
+        open.add(elt);
+        namespaces.pushContext();
+        elt.setName(getName(uri, localName, qName, true));
+        for (int i = 0; i < atts.getLength(); i++) {
+            elt.setAttribute(getName(atts.getURI(i), atts.getLocalName(i), atts.getQName(i), false), atts.getValue(i));
+        }
+        for (Enumeration<?> e = namespaces.getDeclaredPrefixes(); e.hasMoreElements(); ) {
+            String prefix = (String) e.nextElement();
+            String declared = namespaces.getURI(prefix);
+            elt.setAttribute("".equals(prefix) ? "xmlns" : "xmlns:" + prefix, declared == null ? "" : declared);
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        if (!isInRoot()) {
+            return;
+        }
+        XMLElement elt = current();
+        if (elt.countChildren() > 0) {
+            checkNoText(elt);
+        } else {
+            int start = 0;
+            while (start < text.length() && isWhitespace(text.charAt(start))) {
+                start++;
+            }
+            if (start < text.length()) {
+                StringBuilder content = new StringBuilder(text.length());
+                for (int i = 0; i < start; i++) {
+                    if (text.charAt(i) != '\r') {
+                        content.append(text.charAt(i));
+                    }
+                }
+                elt.setContent(content.append(text, start, text.length()).toString());
+            }
+        }
+        text.setLength(0);
+        namespaces.popContext();
+        open.remove(open.size() - 1);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        if (isInRoot()) {
+            text.append(ch, start, length);
+        }
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) {
+        characters(ch, start, length);
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException {
+        if (isInRoot()) {
+            throw new SAXException("Processing instruction " + target + " in element " + current().getName());
+        }
+    }
+
+    /**
+     * Character data before or after child elements can not be parsed by
+     * XMLElement, unless it is whitespace.
+     */
+    private void checkNoText(XMLElement elt) throws SAXException {
+        for (int i = 0; i < text.length(); i++) {
+            if (!isWhitespace(text.charAt(i))) {
+                throw new SAXException("Character data next to child elements of " + elt.getName());
+            }
+        }
+    }
+
+    private static boolean isWhitespace(char ch) {
+        return ch == ' ' || ch == '\t' || ch == '\n' || ch == '\r';
+    }
+
+    /**
+     * The name as written by {@code XMLWriter}, with the prefix it
+     * declared for the namespace.
+     */
+    private String getName(String uri, String localName, String qName, boolean isElement) {
+        String prefix = getPrefix(uri, qName, isElement);
+        String name;
+        if (localName != null && !localName.isEmpty()) {
+            name = localName;
+        } else {
+            name = qName.substring(qName.indexOf(':') + 1);
+        }
+        if (prefix != null && !prefix.isEmpty()) {
+            return prefix + ":" + name;
+        }
+        return name;
+    }
+
+    /**
+     * Finds the prefix of a namespace, declaring it if it is not in scope,
+     * the way {@code XMLWriter} does.
+     */
+    private String getPrefix(String uri, String qName, boolean isElement) {
+        String defaultNS = namespaces.getURI("");
+        if ("".equals(uri)) {
+            if (isElement && defaultNS != null) {
+                namespaces.declarePrefix("", "");
+            }
+            return null;
+        }
+        String prefix;
+        if (isElement && defaultNS != null && uri.equals(defaultNS)) {
+            prefix = "";
+        } else {
+            prefix = namespaces.getPrefix(uri);
+        }
+        if (prefix != null) {
+            return prefix;
+        }
+        prefix = declaredPrefixes.get(uri);
+        if (prefix != null && (((!isElement || defaultNS != null) && "".equals(prefix)) || namespaces.getURI(prefix) != null)) {
+            prefix = null;
+        }
+        if (prefix == null && qName != null && !"".equals(qName)) {
+            int i = qName.indexOf(':');
+            if (i == -1) {
+                if (isElement && defaultNS == null) {
+                    prefix = "";
+                }
+            } else {
+                prefix = qName.substring(0, i);
+            }
+        }
+        while (prefix == null || namespaces.getURI(prefix) != null) {
+            prefix = "__NS" + ++prefixCounter;
+        }
+        namespaces.declarePrefix(prefix, uri);
+        declaredPrefixes.put(uri, prefix);
+        return prefix;
+    }
+}
@@ -0,0 +1,582 @@
+package net.sourceforge.nanoxml;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads a tree of {@link XMLElement}s in a single pass over a reader.
+ * <p>
+ * It accepts the same documents and builds the same tree as
+ * {@link XMLElement#parseFromReader(Reader)} reading the output of
+ * {@link XMLElement#sanitizeInput(Reader, java.io.OutputStream)}, but takes
+ * the comments out while reading instead of in a thread of their own writing
+ * through a pipe. The input is read by blocks into a buffer, and the buffers
+ * for names, values and contents are kept for all elements of a document.
+ * <p>
+ * A parser reads one document at a time.
+ */
+public class XMLPullParser {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private final StringBuilder text = new StringBuilder();
+    private final StringBuilder entity = new StringBuilder();
+
+    /** the reader of the document read, {@code null} between documents */
+    private Reader reader;
+    private int position;
+    private int limit;
+
+    /**
+     * Character read too much by the parser, {@code '\0'} if none, as in
+     * {@link XMLElement}.
+     */
+    private char charReadTooMuch;
+    private int lineNr;
+    private XMLElement root;
+
+    /**
+     * Reads the first element of the document and all it holds. Whatever
+     * follows the element is not read.
+     *
+     * @param reader the reader from which to retrieve the XML data
+     * @return the element read
+     * @throws IOException if the input can not be read
+     * @throws XMLParseException if the input is no XML element
+     */
+    public XMLElement parse(Reader reader) throws IOException, XMLParseException {
+        this.reader = reader;
+        this.position = 0;
+        this.limit = 0;
+        this.charReadTooMuch = '\0';
+        this.lineNr = 1;
+        XMLElement result = new XMLElement();
+        this.root = result;
+        try {
+            for (;;) {
+                char ch = scanLeadingWhitespace();
+                if (ch != '<') {
+                    throw expectedInput("<", ch);
+                }
+                ch = readChar();
+                if ((ch == '!') || (ch == '?')) {
+                    skipSpecialTag(0);
+                } else {
+                    unreadChar(ch);
+                    scanElement(result);
+                    return result;
+                }
+            }
+        } finally {
+            this.reader = null;
+            this.root = null;
+        }
+    }
+
+    /**
+     * Makes at least {@code count} characters available from
+     * {@link #position} unless the input ends before.
+     *
+     * @return true if the characters are available
+     */
+    private boolean fill(int count) throws IOException {
+        if (limit - position >= count) {
+            return true;
+        }
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        while (limit < count) {
+            int read = reader.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                return false;
+            }
+            limit += read;
+        }
+        return true;
+    }
+
+    /**
+     * @return the next character of the input, -1 at its end
+     */
+    private int next() throws IOException {
+        if (position == limit && !fill(1)) {
+            return -1;
+        }
+        char ch = buffer[position++];
+        if (ch == '\n') {
+            lineNr++;
+        }
+        return ch;
+    }
+
+    /**
+     * Gives back the character just returned by {@link #next()}.
+     */
+    private void back() {
+        position--;
+        if (buffer[position] == '\n') {
+            lineNr--;
+        }
+    }
+
+    /**
+     * @return the next character of the input outside of comments, -1 at
+     * its end
+     */
+    private int read() throws IOException {
+        int ch = next();
+        while (ch == '<' && fill(3)
+                && buffer[position] == '!' && buffer[position + 1] == '-' && buffer[position + 2] == '-') {
+            position += 3;
+            skipInputComment();
+            ch = next();
+        }
+        return ch;
+    }
+
+    /**
+     * Skips a comment of the input, as {@link #skipComment()} skips one
+     * of the document.
+     */
+    private void skipInputComment() throws IOException {
+        int dashesToRead = 2;
+        while (dashesToRead > 0) {
+            int ch = next();
+            if (ch < 0) {
+                throw unexpectedEndOfData();
+            }
+            if (ch == '-') {
+                dashesToRead -= 1;
+            } else {
+                dashesToRead = 2;
+            }
+            if (dashesToRead == 0) {
+                ch = next();
+                if (ch == '>') {
+                    return;
+                } else if (ch < 0) {
+                    throw unexpectedEndOfData();
+                }
+                dashesToRead = 2;
+                back();
+            }
+        }
+    }
+
+    private char readChar() throws IOException {
+        if (charReadTooMuch != '\0') {
+            char ch = charReadTooMuch;
+            charReadTooMuch = '\0';
+            return ch;
+        }
+        int i = read();
+        if (i < 0) {
+            throw unexpectedEndOfData();
+        }
+        return (char) i;
+    }
+
+    private void unreadChar(char ch) {
+        charReadTooMuch = ch;
+    }
+
+    private static boolean isRegularWhiteSpace(char ch) {
+        return ch == ' ' || ch == '\t' || ch == '\n' || ch == '\r';
+    }
+
+    private char scanWhitespace() throws IOException {
+        while (true) {
+            char ch = readChar();
+            if (!isRegularWhiteSpace(ch)) {
+                return ch;
+            }
+        }
+    }
+
+    /**
+     * Skips whitespace and byte order marks before the document.
+     */
+    private char scanLeadingWhitespace() throws IOException {
+        while (true) {
+            char ch = readChar();
+            if (ch != '\uFEFF' && !isRegularWhiteSpace(ch)) {
+                return ch;
+            }
+        }
+    }
+
+    /**
+     * Skips whitespace, appending all of it but carriage returns to
+     * {@code result}.
+     */
+    private char scanWhitespace(StringBuilder result) throws IOException {
+        while (true) {
+            char ch = readChar();
+            if (!isRegularWhiteSpace(ch)) {
+                return ch;
+            } else if (ch != '\r') {
+                result.append(ch);
+            }
+        }
+    }
+
+    private void scanIdentifier(StringBuilder result) throws IOException {
+        for (;;) {
+            char ch = readChar();
+            if (((ch < 'A') || (ch > 'Z')) && ((ch < 'a') || (ch > 'z'))
+                    && ((ch < '0') || (ch > '9')) && (ch != '_') && (ch != '.')
+                    && (ch != ':') && (ch != '-') && (ch <= '~')) {
+                unreadChar(ch);
+                return;
+            }
+            result.append(ch);
+        }
+    }
+
+    private void scanString(StringBuilder string) throws IOException {
+        char delimiter = readChar();
+        if ((delimiter != '\'') && (delimiter != '"')) {
+            throw expectedInput("' or \"");
+        }
+        for (;;) {
+            char ch = readChar();
+            if (ch == delimiter) {
+                return;
+            } else if (ch == '&') {
+                resolveEntity(string);
+            } else {
+                string.append(ch);
+            }
+        }
+    }
+
+    /**
+     * Scans {@code #PCDATA} up to the next element, resolving CDATA sections
+     * and entities. The {@code <} of the element is skipped.
+     */
+    private void scanPCData(StringBuilder data) throws IOException {
+        for (;;) {
+            char ch = readChar();
+            if (ch == '<') {
+                ch = readChar();
+                if (ch == '!') {
+                    checkCDATA(data);
+                } else {
+                    unreadChar(ch);
+                    return;
+                }
+            } else if (ch == '&') {
+                resolveEntity(data);
+            } else {
+                data.append(ch);
+            }
+        }
+    }
+
+    /**
+     * Scans a special tag and, if it is a CDATA section, appends its content
+     * to {@code buf}.
+     *
+     * @return whether the tag was a CDATA section
+     */
+    private boolean checkCDATA(StringBuilder buf) throws IOException {
+        char ch = readChar();
+        if (ch != '[') {
+            unreadChar(ch);
+            skipSpecialTag(0);
+            return false;
+        } else if (!checkLiteral("CDATA[")) {
+            skipSpecialTag(1); // one [ has already been read
+            return false;
+        }
+        int delimiterCharsSkipped = 0;
+        while (delimiterCharsSkipped < 3) {
+            ch = readChar();
+            switch (ch) {
+                case ']':
+                    if (delimiterCharsSkipped < 2) {
+                        delimiterCharsSkipped += 1;
+                    } else {
+                        buf.append(']');
+                        buf.append(']');
+                        delimiterCharsSkipped = 0;
+                    }
+                    break;
+                case '>':
+                    if (delimiterCharsSkipped < 2) {
+                        for (int i = 0; i < delimiterCharsSkipped; i++) {
+                            buf.append(']');
+                        }
+                        delimiterCharsSkipped = 0;
+                        buf.append('>');
+                    } else {
+                        delimiterCharsSkipped = 3;
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < delimiterCharsSkipped; i += 1) {
+                        buf.append(']');
+                    }
+                    buf.append(ch);
+                    delimiterCharsSkipped = 0;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Skips a comment left in the document once the comments of the input
+     * are taken out, e.g. of {@code <!-<!-- -->- -->}.
+     */
+    private void skipComment() throws IOException {
+        int dashesToRead = 2;
+        while (dashesToRead > 0) {
+            char ch = readChar();
+            if (ch == '-') {
+                dashesToRead -= 1;
+            } else {
+                dashesToRead = 2;
+            }
+            // Be more tolerant of extra -- (double dashes)
+            // in comments.
+            if (dashesToRead == 0) {
+                ch = readChar();
+                if (ch == '>') {
+                    return;
+                } else {
+                    dashesToRead = 2;
+                    unreadChar(ch);
+                }
+            }
+        }
+    }
+
+    /**
+     * Skips a special tag or comment.
+     *
+     * @param bracketLevel the number of open square brackets ([) that have
+     * already been read
+     */
+    private void skipSpecialTag(int bracketLevel) throws IOException {
+        int tagLevel = 1; // <
+        char stringDelimiter = '\0';
+        if (bracketLevel == 0) {
+            char ch = readChar();
+            if (ch == '[') {
+                bracketLevel += 1;
+            } else if (ch == '-') {
+                ch = readChar();
+                if (ch == '[') {
+                    bracketLevel += 1;
+                } else if (ch == ']') {
+                    bracketLevel -= 1;
+                } else if (ch == '-') {
+                    skipComment();
+                    return;
+                }
+            }
+        }
+        while (tagLevel > 0) {
+            char ch = readChar();
+            if (stringDelimiter == '\0') {
+                if ((ch == '"') || (ch == '\'')) {
+                    stringDelimiter = ch;
+                } else if (bracketLevel <= 0) {
+                    if (ch == '<') {
+                        tagLevel += 1;
+                    } else if (ch == '>') {
+                        tagLevel -= 1;
+                    }
+                }
+                if (ch == '[') {
+                    bracketLevel += 1;
+                } else if (ch == ']') {
+                    bracketLevel -= 1;
+                }
+            } else if (ch == stringDelimiter) {
+                stringDelimiter = '\0';
+            }
+        }
+    }
+
+    private boolean checkLiteral(String literal) throws IOException {
+        int length = literal.length();
+        for (int i = 0; i < length; i += 1) {
+            if (readChar() != literal.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Scans an element with its attributes, content and children.
+     *
+     * @param elt the element that will contain the result
+     */
+    private void scanElement(XMLElement elt) throws IOException {
+        StringBuilder buf = text;
+        buf.setLength(0);
+        scanIdentifier(buf);
+        String lname = buf.toString();
+        elt.setName(lname);
+        char ch = scanWhitespace();
+        while ((ch != '>') && (ch != '/')) {
+            buf.setLength(0);
+            unreadChar(ch);
+            scanIdentifier(buf);
+            String key = buf.toString();
+            ch = scanWhitespace();
+            if (ch != '=') {
+                throw expectedInput("=");
+            }
+            unreadChar(scanWhitespace());
+            buf.setLength(0);
+            scanString(buf);
+            elt.setAttribute(key, buf);
+            ch = scanWhitespace();
+        }
+        if (ch == '/') {
+            ch = readChar();
+            if (ch != '>') {
+                throw expectedInput(">");
+            }
+            return;
+        }
+        buf.setLength(0);
+        ch = scanWhitespace(buf);
+        if (ch != '<') {
+            unreadChar(ch);
+            scanPCData(buf);
+        } else {
+            for (;;) {
+                ch = readChar();
+                if (ch == '!') {
+                    if (checkCDATA(buf)) {
+                        scanPCData(buf);
+                        break;
+                    } else {
+                        ch = scanWhitespace(buf);
+                        if (ch != '<') {
+                            unreadChar(ch);
+                            scanPCData(buf);
+                            break;
+                        }
+                    }
+                } else {
+                    buf.setLength(0);
+                    break;
+                }
+            }
+        }
+        // the buffer is shared with the children, so it is not used below them
+        if (buf.length() == 0) {
+            while (ch != '/') {
+                if (ch == '!') {
+                    ch = readChar();
+                    if (ch != '-') {
+                        throw expectedInput("Comment or Element");
+                    }
+                    ch = readChar();
+                    if (ch != '-') {
+                        throw expectedInput("Comment or Element");
+                    }
+                    skipComment();
+                } else {
+                    unreadChar(ch);
+                    XMLElement child = elt.createAnotherElement();
+                    scanElement(child);
+                    elt.addChild(child);
+                }
+                ch = scanWhitespace();
+                if (ch != '<') {
+                    throw expectedInput("<");
+                }
+                ch = readChar();
+            }
+            unreadChar(ch);
+        } else {
+            // whitespace is kept, as by a default XMLElement
+            elt.setContent(buf.toString());
+        }
+        ch = readChar();
+        if (ch != '/') {
+            throw expectedInput("/");
+        }
+        unreadChar(scanWhitespace());
+        if (!checkLiteral(lname)) {
+            throw expectedInput(lname);
+        }
+        if (scanWhitespace() != '>') {
+            throw expectedInput(">");
+        }
+    }
+
+    /**
+     * Resolves an entity whose name is read from the input, appending its
+     * value to {@code buf}.
+     */
+    private void resolveEntity(StringBuilder buf) throws IOException {
+        StringBuilder keyBuf = entity;
+        keyBuf.setLength(0);
+        for (;;) {
+            char ch = readChar();
+            if (ch == ';') {
+                break;
+            }
+            keyBuf.append(ch);
+        }
+        String key = keyBuf.toString();
+        if (key.startsWith("#")) {
+            try {
+                if (key.startsWith("#x")) {
+                    buf.append((char) Integer.parseInt(key.substring(2), 16));
+                } else {
+                    buf.append((char) Integer.parseInt(key.substring(1), 10));
+                }
+            } catch (NumberFormatException e) {
+                throw unknownEntity(key);
+            }
+            return;
+        }
+        switch (key) {
+            case "amp":
+                buf.append('&');
+                break;
+            case "quot":
+                buf.append('"');
+                break;
+            case "apos":
+                buf.append('\'');
+                break;
+            case "lt":
+                buf.append('<');
+                break;
+            case "gt":
+                buf.append('>');
+                break;
+            default:
+                throw unknownEntity(key);
+        }
+    }
+
+    private XMLParseException unexpectedEndOfData() {
+        return new XMLParseException(root.getName(), lineNr, "Unexpected end of data reached");
+    }
+
+    private XMLParseException expectedInput(String charSet) {
+        return new XMLParseException(root.getName(), lineNr, "Expected: " + charSet);
+    }
+
+    private XMLParseException expectedInput(String charSet, char ch) {
+        return new XMLParseException(root.getName(), lineNr, "Expected: '" + charSet + "'" + " but got: '" + ch + "'");
+    }
+
+    private XMLParseException unknownEntity(String name) {
+        return new XMLParseException(root.getName(), lineNr, "Unknown or invalid entity: &" + name + ";");
+    }
+}